@@ -87,6 +87,19 @@ public class ConnectionPrefs extends Preferences {
      */
     public final Setting<Boolean> AcceptDeflateConnection;
 
+    /**
+     * Indicates if Gnutella connections are served by the non-blocking
+     * connection reactor instead of a reading thread per connection.
+     * Changes take effect on restart.
+     */
+    public final Setting<Boolean> UseConnectionReactor;
+
+    /**
+     * The number of worker threads the connection reactor uses to
+     * dispatch received messages.
+     */
+    public final Setting<Integer> ReactorDispatchThreads;
+
     public ConnectionPrefs(File file) { super(file);
         AutoConnectOnStartup = createBoolSetting(
                 "Connection.AutoConnectOnStartup", true);
@@ -109,5 +122,9 @@ public class ConnectionPrefs extends Preferences {
                 "Connection.EnableQueryHitSnooping", true);
         AcceptDeflateConnection = createBoolSetting(
                 "Connection.AcceptDeflateConnection", true);
+        UseConnectionReactor = createBoolSetting(
+                "Connection.UseConnectionReactor", false);
+        ReactorDispatchThreads = createIntRangeSetting(
+                "Connection.ReactorDispatchThreads", 2, 1, 64);
     }
 }
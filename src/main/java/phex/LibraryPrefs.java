@@ -51,7 +51,11 @@ public class LibraryPrefs extends Preferences {
      * A good value is 2 which is also the default. The value states
      * the wait cycles between each 64K segment. A value of 2 means
      * wait twice as long as you needed to calculate the last 64K.
+     *
+     * @deprecated replaced by HashCalculationMaxReadRate, the URN and THEX
+     * are calculated in a single pass.
      */
+    @Deprecated
     public final Setting<Integer> UrnCalculationMode;
 
     /**
@@ -60,9 +64,34 @@ public class LibraryPrefs extends Preferences {
      * A good value is 2 which is also the default. The value states
      * the wait cycles between each 128K segment. A value of 2 means
      * wait twice as long as you needed to calculate the last 128K.
+     *
+     * @deprecated replaced by HashCalculationMaxReadRate, the URN and THEX
+     * are calculated in a single pass.
      */
+    @Deprecated
     public final Setting<Integer> ThexCalculationMode;
 
+    /**
+     * The number of threads used to calculate the SHA-1 and THEX hashes of
+     * shared files. Each thread hashes one file at a time, large files
+     * additionally hash their tiger tree leaves in parallel.
+     * Changes take effect on restart.
+     */
+    public final Setting<Integer> HashCalculationThreads;
+
+    /**
+     * The max rate in bytes per second the hash calculation of shared
+     * files is allowed to read from disk, over all hashing threads.
+     * A value of 0 means unlimited.
+     */
+    public final Setting<Integer> HashCalculationMaxReadRate;
+
+    /**
+     * Indicates whether shared directories are watched for changes and
+     * updated incrementally instead of being rescanned every minute.
+     * Directories that can't be watched are still rescanned periodically.
+     */
+    public final Setting<Boolean> WatchSharedDirectories;
 
     /**
      * The max of this value should be 255. The protocol is not able to handle
@@ -79,6 +108,12 @@ public class LibraryPrefs extends Preferences {
                 "Library.UrnCalculationMode", 2);
         ThexCalculationMode = createIntSetting(
                 "Library.ThexCalculationMode", 2);
+        HashCalculationThreads = createIntRangeSetting(
+                "Library.HashCalculationThreads", 2, 1, 64);
+        HashCalculationMaxReadRate = createIntSetting(
+                "Library.HashCalculationMaxReadRate", 0);
+        WatchSharedDirectories = createBoolSetting(
+                "Library.WatchSharedDirectories", true);
 //        AllowBrowsing = createBoolSetting(
 //                "Library.AllowBrowsing", true);
         MaxResultsPerQuery = createIntSetting(
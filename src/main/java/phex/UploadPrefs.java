@@ -62,6 +62,12 @@ public class UploadPrefs extends Preferences {
      */
     public final Setting<Integer> UploadStateLogBufferSize;
 
+    /**
+     * Indicates whether file data is transferred directly from the file to
+     * the socket channel, without copying it through a upload buffer.
+     */
+    public final Setting<Boolean> DirectFileTransfer;
+
     public UploadPrefs(File file) {
         super(file);
         MaxParallelUploads = createIntRangeSetting(
@@ -90,6 +96,9 @@ public class UploadPrefs extends Preferences {
 
         UploadStateLogBufferSize = createIntSetting(
                 "Upload.UploadStateLogBufferSize", 0);
+
+        DirectFileTransfer = createBoolSetting(
+                "Upload.DirectFileTransfer", true);
     }
 
 }
@@ -30,6 +30,7 @@ import phex.host.NetworkHostsContainer;
 import phex.peer.Peer;
 
 import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  *
@@ -64,8 +65,7 @@ public class BootstrapManager {
         }
         isThreadRequestRunning = true;
         Runnable runner = new QueryHostsRunner(preferPhex);
-        Environment.getInstance().executeOnThreadPool(runner,
-                "GWebCacheQuery-" + Integer.toHexString(runner.hashCode()));
+        executeThreadRequest(runner);
     }
 
     /**
@@ -92,8 +92,21 @@ public class BootstrapManager {
         }
         isThreadRequestRunning = true;
         Runnable runner = new QueryGWebCachesRunner(preferPhex);
-        Environment.getInstance().executeOnThreadPool(runner,
-                "GWebCacheQuery-" + Integer.toHexString(runner.hashCode()));
+        executeThreadRequest(runner);
+    }
+
+    /**
+     * Executes a thread request. In case the thread pool is exhausted the
+     * request is dropped and the next request can run.
+     */
+    private void executeThreadRequest(Runnable runner) {
+        try {
+            Environment.getInstance().executeOnThreadPool(runner,
+                    "GWebCacheQuery-" + Integer.toHexString(runner.hashCode()));
+        } catch (RejectedExecutionException exp) {
+            isThreadRequestRunning = false;
+            logger.warn("GWebCache query dropped: {}", exp.toString());
+        }
     }
 
     // temporary workaround method for post manager initialization
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import phex.common.Environment;
 import phex.common.GeneralGnutellaNetwork;
+import phex.common.Workload;
 import phex.common.address.AddressUtils;
 import phex.common.address.DestAddress;
 import phex.connection.ProtocolNotSupportedException;
@@ -612,7 +613,8 @@ public class GWebCacheContainer {
                 ensureMinGWebCaches();
             }
         };
-        Environment.getInstance().executeOnThreadPool(runner, "LoadGWebCacheRunner");
+        Environment.getInstance().executeOnThreadPool(runner, "LoadGWebCacheRunner",
+                Workload.DISK);
     }
 
     /**
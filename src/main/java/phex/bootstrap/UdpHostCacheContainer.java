@@ -34,6 +34,7 @@ import phex.peer.Peer;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -187,8 +188,14 @@ public class UdpHostCacheContainer {
             return;
         }
         Runnable runner = new QueryCachesRunner();
-        Environment.getInstance().executeOnThreadPool(runner,
-                "UdpHostCacheQuery-" + Integer.toHexString(runner.hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(runner,
+                    "UdpHostCacheQuery-" + Integer.toHexString(runner.hashCode()));
+        } catch (RejectedExecutionException exp) {
+            // dropped, the next request can run.
+            isThreadRequestRunning.set(false);
+            logger.warn("UDP host cache query dropped: {}", exp.toString());
+        }
     }
 
     private List<UdpHostCache> getUhcListToQuery(int count) {
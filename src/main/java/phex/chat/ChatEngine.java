@@ -33,6 +33,7 @@ import phex.util.GnutellaInputStream;
 
 import java.io.IOException;
 import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  *
@@ -82,8 +83,13 @@ public final class ChatEngine {
 
     public void startChat() {
         ChatReadWorker worker = new ChatReadWorker();
-        Environment.getInstance().executeOnThreadPool(worker,
-                "ChatReadWorker-" + Integer.toHexString(worker.hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(worker,
+                    "ChatReadWorker-" + Integer.toHexString(worker.hashCode()));
+        } catch (RejectedExecutionException exp) {
+            NLogger.warn(ChatEngine.class, "Failed to start chat: " + exp);
+            stopChat();
+        }
     }
 
     public void stopChat() {
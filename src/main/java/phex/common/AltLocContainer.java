@@ -46,6 +46,13 @@ public class AltLocContainer extends LinkedMap {
      */
     private final URN urn;
 
+    /**
+     * Incremented on every change of the contained alternate locations, lets
+     * holders of derived data (like encoded query response records) detect
+     * that their data is outdated.
+     */
+    private volatile int version;
+
     public AltLocContainer(URN urn) {
         super();
 
@@ -174,6 +181,7 @@ public class AltLocContainer extends LinkedMap {
                 Object firstKey = this.firstKey();
                 super.remove(firstKey);
             }
+            version++;
         }
     }
 
@@ -187,9 +195,20 @@ public class AltLocContainer extends LinkedMap {
         }
         synchronized (this) {
             super.remove(altLoc);
+            version++;
         }
     }
 
+    /**
+     * Returns the version of the container content. The version changes
+     * whenever an alternate location is added or removed.
+     *
+     * @return the version of the container content.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     //TODO return a List-wrapping set since the keys are already unique
     public Collection<DestAddress> getAltLocsForExport(DestAddress localAddress) {
         if (isEmpty()) {
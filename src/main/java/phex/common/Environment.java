@@ -21,35 +21,82 @@
  */
 package phex.common;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import phex.event.UserMessageListener;
 import phex.util.SystemProperties;
 import phex.util.SystemUtils;
 
 import java.io.File;
-import java.util.Timer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.TimerTask;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.*;
 
 /**
  * This class can not be implemented as a manager since manager initialization
  * routines relay on the availability of this class during initialization.
  */
 public class Environment {
-    //private static final Logger logger = LoggerFactory.getLogger( Environment.class );
+    private static final Logger logger = LoggerFactory.getLogger(Environment.class);
 
     /**
-     * The TimerService is a single thread that will handle multiple TimerTask.
-     * Therefore each task has to make sure it is not performing a long blocking
-     * operation.
+     * The system property enabling virtual threads for the network workload,
+     * on JDKs supporting them.
      */
-    private final Timer timerService;
-    private final JThreadPool threadPool;
+    public static final String VIRTUAL_THREADS_PROPERTY = "phex.virtualThreads";
+
+    /**
+     * The number of threads of the TimerService.
+     */
+    private static final int TIMER_THREADS = 2;
+
+    /**
+     * Timer tasks running longer are logged.
+     */
+    private static final long SLOW_TIMER_TASK_MILLIS = 1000;
+
+    /**
+     * The TimerService is a small pool of threads that will handle multiple
+     * TimerTask. Therefore each task has to make sure it is not performing a
+     * long blocking operation.
+     */
+    private final ScheduledThreadPoolExecutor timerService;
+    private final Map<Workload, JThreadPool> threadPools;
+
+    /**
+     * The fork join pool for CPU bound hash calculations.
+     */
+    private final ForkJoinPool hashingPool;
     private UserMessageListener userMessageListener;
 
     private Environment() {
-        timerService = new Timer(true);
-        threadPool = new JThreadPool();
+        timerService = new ScheduledThreadPoolExecutor(TIMER_THREADS,
+                new TimerThreadFactory());
+        timerService.setRemoveOnCancelPolicy(true);
+        threadPools = new EnumMap<>(Workload.class);
+        for (Workload workload : Workload.values()) {
+            threadPools.put(workload, createThreadPool(workload));
+        }
+        hashingPool = new ForkJoinPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+                new HashingThreadFactory(), null, false);
+    }
+
+    private static JThreadPool createThreadPool(Workload workload) {
+        if (workload == Workload.NETWORK
+                && Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+            JThreadPool pool = JThreadPool.createVirtual(workload.getPoolName(),
+                    workload.getMaxThreads());
+            if (pool != null) {
+                return pool;
+            }
+            logger.warn("Virtual threads are not supported by this JDK.");
+        }
+        return new JThreadPool(workload.getPoolName(), workload.getMaxThreads(),
+                workload.getQueueCapacity());
     }
 
     static public Environment getInstance() {
@@ -85,44 +132,88 @@ public class Environment {
      * beginning after the specified delay. Subsequent executions take place at
      * approximately regular intervals separated by the specified period.
      * <p>
-     * The TimerService is a single thread that will handle multiple TimerTask.
-     * Therefore each task has to make sure it is not performing a long blocking
-     * operation.
+     * The TimerService is a small pool of threads that will handle multiple
+     * TimerTask. Therefore each task has to make sure it is not performing a
+     * long blocking operation. Since the task is not scheduled on a
+     * java.util.Timer it has to be cancelled through the returned future.
      *
      * @param task   The task to be scheduled.
      * @param delay  The delay in milliseconds before task is to be executed.
      * @param period The time in milliseconds between successive task executions.
+     * @return the future to cancel the task with.
      */
-    public void scheduleTimerTask(TimerTask task, long delay, long period) {
-        timerService.schedule(task, delay, period);
+    public ScheduledFuture<?> scheduleTimerTask(TimerTask task, long delay, long period) {
+        return timerService.scheduleWithFixedDelay(new TimerTaskRunner(task),
+                delay, period, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Schedules the specified task for execution after the specified delay.
      * <p>
-     * The TimerService is a single thread that will handle multiple TimerTask.
-     * Therefore each task has to make sure it is not performing a long blocking
-     * operation.
+     * The TimerService is a small pool of threads that will handle multiple
+     * TimerTask. Therefore each task has to make sure it is not performing a
+     * long blocking operation.
      *
      * @param task  The task to be scheduled.
      * @param delay The delay in milliseconds before task is to be executed.
+     * @return the future to cancel the task with.
      */
-    public void scheduleTimerTask(TimerTask task, long delay) {
-        timerService.schedule(task, delay);
+    public ScheduledFuture<?> scheduleTimerTask(TimerTask task, long delay) {
+        return timerService.schedule(new TimerTaskRunner(task), delay,
+                TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Executes the Runnable on the shared Phex thread pool
+     * Executes the Runnable on the network thread pool. Use this for tasks
+     * performing blocking network I/O.
      *
      * @param runnable the runnable to execute
      * @param name     the name.
+     * @throws RejectedExecutionException if the pool is exhausted.
      */
     public void executeOnThreadPool(Runnable runnable, String name) {
-        threadPool.execute(runnable, name);
+        executeOnThreadPool(runnable, name, Workload.NETWORK);
+    }
+
+    /**
+     * Executes the Runnable on the thread pool of the workload.
+     *
+     * @param runnable the runnable to execute
+     * @param name     the name.
+     * @param workload the workload class of the runnable.
+     * @throws RejectedExecutionException if the pool is exhausted.
+     */
+    public void executeOnThreadPool(Runnable runnable, String name, Workload workload) {
+        threadPools.get(workload).execute(runnable, name);
     }
 
     public Executor getThreadPool() {
-        return threadPool.getThreadPool();
+        return getThreadPool(Workload.NETWORK);
+    }
+
+    public Executor getThreadPool(Workload workload) {
+        return threadPools.get(workload).getThreadPool();
+    }
+
+    /**
+     * Returns the thread pools of all workloads.
+     */
+    public Collection<JThreadPool> getThreadPools() {
+        return Collections.unmodifiableCollection(threadPools.values());
+    }
+
+    /**
+     * Returns the number of timer task executions that are due or scheduled.
+     */
+    public int getTimerQueueDepth() {
+        return timerService.getQueue().size();
+    }
+
+    /**
+     * Returns the fork join pool for CPU bound hash calculations.
+     */
+    public ForkJoinPool getHashingPool() {
+        return hashingPool;
     }
 
     public void setUserMessageListener(UserMessageListener listener) {
@@ -143,6 +234,56 @@ public class Environment {
         }
     }
 
+    /**
+     * Runs a TimerTask on the TimerService. Failures are logged and do not
+     * stop later executions, slow executions are logged since they delay
+     * other tasks.
+     */
+    private static final class TimerTaskRunner implements Runnable {
+        private final TimerTask task;
+
+        private TimerTaskRunner(TimerTask task) {
+            this.task = task;
+        }
+
+        public void run() {
+            long start = System.currentTimeMillis();
+            try {
+                task.run();
+            } catch (Throwable th) {
+                logger.error(th.toString(), th);
+            }
+            long duration = System.currentTimeMillis() - start;
+            if (duration > SLOW_TIMER_TASK_MILLIS) {
+                logger.warn("Timer task {} took {} ms.",
+                        task.getClass().getName(), duration);
+            }
+        }
+    }
+
+    private static final class TimerThreadFactory implements ThreadFactory {
+        private int threadNumber;
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(ThreadTracking.rootThreadGroup, r,
+                    "Phex-Timer-" + ++threadNumber);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class HashingThreadFactory
+            implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Phex-Hashing-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+
     static private class Holder {
         static protected final Environment environment = new Environment();
     }
@@ -24,35 +24,47 @@ package phex.common;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import phex.common.address.IpAddress;
+import phex.common.address.IpRangeTable;
 import phex.util.IOUtil;
+import phex.util.SystemProperties;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- *
+ * Looks up the country of an IP.
+ * <p>
+ * The ip2country.csv resource is parsed once into a packed
+ * {@link IpRangeTable} that is stored in a cache file in the Phex config
+ * root. Later starts memory map the cache file instead of parsing the
+ * resource again.
  */
 public class Ip2CountryDB {
     private static final Logger logger = LoggerFactory.getLogger(Ip2CountryDB.class);
+
+    private static final String RESOURCE_NAME = "phex/resources/ip2country.csv";
+    private static final String CACHE_FILE_NAME = "ip2country.cache";
+
     /**
-     * Indicates if the database is fully loaded or not.
+     * The country ranges, the value of a range is the index of its country
+     * code label. Null as long as the database is not loaded.
      */
-    private boolean isLoaded;
-    private List<IpCountryRange> ipCountryRangeList;
+    private volatile IpRangeTable rangeTable;
 
     private Ip2CountryDB() {
-        isLoaded = false;
-        ipCountryRangeList = new ArrayList<>();
-
         Runnable runnable = this::loadIp2CountryDB;
 
         // TODO block job from execution until Phex initialization is finished.
-        Environment.getInstance().executeOnThreadPool(runnable, "IP2CountryLoader");
+        Environment.getInstance().executeOnThreadPool(runnable, "IP2CountryLoader",
+                Workload.DISK);
     }
 
     /**
@@ -63,142 +75,91 @@ public class Ip2CountryDB {
      * @return the country code or null;
      */
     public static String getCountryCode(IpAddress address) {
-        return Holder.manager.getCountryCodeInt(address);
+        return getCountryCode(IOUtil.deserializeInt(address.getHostIP(), 0));
     }
 
     /**
      * Returns the country code if found, empty string if not found, and null
      * if DB has not been loaded yet.
      *
-     * @param address
+     * @param ip the IP as int.
      * @return the country code or null;
      */
-    private String getCountryCodeInt(IpAddress address) {
-        if (!isLoaded) {
+    public static String getCountryCode(int ip) {
+        return Holder.manager.getCountryCodeInt(ip);
+    }
+
+    private String getCountryCodeInt(int ip) {
+        IpRangeTable table = rangeTable;
+        if (table == null) {
             return null;
         }
-        IpCountryRange range = binarySearch(address.getHostIP());
-        if (range == null) {
+        int index = table.lookup(ip);
+        if (index == IpRangeTable.NOT_FOUND) {
             return "";
         }
-        return range.countryCode;
+        return table.getLabel(index);
     }
 
     private void loadIp2CountryDB() {
-        InputStream inStream = ClassLoader.getSystemResourceAsStream(
-                "phex/resources/ip2country.csv");
-        if (inStream == null) {
-            logger.debug("Default GWebCache file not found.");
+        URL resource = ClassLoader.getSystemResource(RESOURCE_NAME);
+        if (resource == null) {
+            logger.debug("Ip2Country file not found.");
             return;
         }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inStream));
-
-        ArrayList<IpCountryRange> initialList = new ArrayList<>(5000);
-        IpCountryRange range;
-        String line;
+        File cacheFile = new File(SystemProperties.getPhexConfigRoot(), CACHE_FILE_NAME);
         try {
-            line = reader.readLine();
-            while (line != null) {
-                range = new IpCountryRange(line);
-                initialList.add(range);
-                line = reader.readLine();
+            long stamp = IpRangeTable.resourceStamp(resource);
+            IpRangeTable table = IpRangeTable.map(cacheFile, stamp);
+            if (table == null) {
+                try (InputStream inStream = resource.openStream()) {
+                    table = parseIp2CountryDB(inStream);
+                }
+                try {
+                    table.write(cacheFile, stamp);
+                } catch (IOException exp) {
+                    logger.warn("Failed to write ip2country cache.", exp);
+                }
             }
+            rangeTable = table;
         } catch (IOException exp) {
             logger.error(exp.toString(), exp);
-        } finally {
-            IOUtil.closeQuietly(reader);
         }
-        initialList.trimToSize();
-        Collections.sort(initialList);
-        ipCountryRangeList = Collections.unmodifiableList(initialList);
-        isLoaded = true;
     }
 
-    private IpCountryRange binarySearch(byte[] hostIp) {
-        int low = 0;
-        int high = ipCountryRangeList.size() - 1;
-
-        while (low <= high) {
-            int mid = (low + high) >> 1;
-            IpCountryRange midVal = ipCountryRangeList.get(mid);
-            int cmp = midVal.compareHostAddress(hostIp);
-            if (cmp < 0) {
-                low = mid + 1;
-            } else if (cmp > 0) {
-                high = mid - 1;
-            } else {
-                return midVal; // key found
+    /**
+     * Parses the ip2country csv. Each line holds the first and the last IP
+     * of a range as signed int and the country code, e.g.
+     * 33996344,33996351,GB
+     */
+    static IpRangeTable parseIp2CountryDB(InputStream inStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inStream));
+        IpRangeTable.Builder builder = new IpRangeTable.Builder();
+        Map<String, Integer> codeIndexMap = new HashMap<>();
+        List<String> codes = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int firstIdx = line.indexOf(',');
+            int secondIdx = line.indexOf(',', firstIdx + 1);
+            if (firstIdx == -1 || secondIdx == -1) {
+                continue;
+            }
+            int from = Integer.parseInt(line.substring(0, firstIdx));
+            int to = Integer.parseInt(line.substring(firstIdx + 1, secondIdx));
+            String code = line.substring(secondIdx + 1);
+            Integer index = codeIndexMap.get(code);
+            if (index == null) {
+                index = Integer.valueOf(codes.size());
+                codes.add(code);
+                codeIndexMap.put(code, index);
             }
+            builder.addRange(from, to, index.intValue());
         }
-        return null;  // key not found
+        builder.setLabels(codes.toArray(new String[codes.size()]));
+        return builder.build();
     }
 
     static private class Holder {
         static protected final Ip2CountryDB manager = new Ip2CountryDB();
     }
-
-    private static class IpCountryRange implements Comparable<IpCountryRange> {
-        final int from;
-        final int to;
-        final String countryCode;
-
-        public IpCountryRange(String line) {
-            // "33996344","33996351","GB"
-            int startIdx, endIdx;
-            startIdx = 0;
-
-            endIdx = line.indexOf(',', startIdx);
-            from = Integer.parseInt(line.substring(startIdx, endIdx));
-
-            startIdx = endIdx + 1;
-            endIdx = line.indexOf(',', startIdx);
-            to = Integer.parseInt(line.substring(startIdx, endIdx));
-
-            startIdx = endIdx + 1;
-            String subCode = line.substring(startIdx);
-            // take the internal string representation of the country code to 
-            // save memory...
-            countryCode = subCode.intern();
-        }
-
-        public int compareHostAddress(byte[] hostIp) {
-            long hostIpL;
-            hostIpL = IOUtil.unsignedInt2Long(
-                    IOUtil.deserializeInt(hostIp, 0));
-            long fromIpL = IOUtil.unsignedInt2Long(from);
-            long cmp = hostIpL - fromIpL;
-            if (cmp == 0) {
-                return 0;
-            }
-            if (cmp < 0) {// host Ip is lower..
-                return 1;
-            }
-
-            // validate to range..
-            long toIpL = IOUtil.unsignedInt2Long(to);
-            cmp = hostIpL - toIpL;
-            if (cmp == 0 || cmp < 0) {// we are between from and to
-                return 0;
-            } else {// host Ip is higher..
-                return -1;
-            }
-        }
-
-        public int compareTo(IpCountryRange range) {
-            if (range == this) {
-                return 0;
-            }
-
-            long ip1l = IOUtil.unsignedInt2Long(from);
-            long ip2l = IOUtil.unsignedInt2Long(range.from);
-
-            if (ip1l < ip2l) {
-                return -1;
-            }
-            // only if rate and object is equal return 0
-            else {
-                return 1;
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -24,34 +24,222 @@ package phex.common;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-public class JThreadPool {
+/**
+ * A named thread pool with a bounded number of threads and a bounded queue.
+ * <p>
+ * Tasks the pool can not take are rejected with a RejectedExecutionException
+ * instead of piling up. The pool counts submitted, completed and rejected
+ * tasks and reports its queue depth, to be registered as metrics.
+ */
+public class JThreadPool implements Executor {
     private static final Logger logger = LoggerFactory.getLogger(JThreadPool.class);
-    private final ExecutorService pool;
 
-    public JThreadPool() {
-        this(ForkJoinPool.commonPool());
+    /**
+     * The time idle threads are kept alive.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final String name;
+    private final int maxThreads;
+
+    /**
+     * The pool of platform threads, or null when running on virtual threads.
+     */
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * The factory of virtual threads, or null when running on a pool of
+     * platform threads.
+     */
+    private final ThreadFactory virtualThreadFactory;
+
+    /**
+     * Limits the number of concurrent virtual threads.
+     */
+    private final Semaphore virtualThreadPermits;
+
+    private final LongAdder submittedCount;
+    private final LongAdder completedCount;
+    private final LongAdder rejectedCount;
+    private final AtomicInteger activeCount;
+
+    /**
+     * Creates a pool of platform threads.
+     *
+     * @param name          the name of the pool, used for the thread names.
+     * @param maxThreads    the maximum number of threads.
+     * @param queueCapacity the number of tasks queued when all threads are
+     *                      busy. With a capacity of 0 a new thread is created for
+     *                      each task up to maxThreads and idle threads are reused.
+     */
+    public JThreadPool(String name, int maxThreads, int queueCapacity) {
+        this(name, maxThreads, createPool(name, maxThreads, queueCapacity), null);
     }
 
-    public JThreadPool(ExecutorService pool) {
+    private JThreadPool(String name, int maxThreads, ThreadPoolExecutor pool,
+                        ThreadFactory virtualThreadFactory) {
+        this.name = name;
+        this.maxThreads = maxThreads;
         this.pool = pool;
-        //        pool = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 30, TimeUnit.SECONDS,
-//                new SynchronousQueue<>(), new DefaultThreadFactory());
-        //pool = new ForkJoinPool(4);
+        this.virtualThreadFactory = virtualThreadFactory;
+        virtualThreadPermits = virtualThreadFactory != null
+                ? new Semaphore(maxThreads) : null;
+        submittedCount = new LongAdder();
+        completedCount = new LongAdder();
+        rejectedCount = new LongAdder();
+        activeCount = new AtomicInteger();
     }
 
-    public ExecutorService getThreadPool() {
+    /**
+     * Creates a pool starting a virtual thread per task, limited to maxThreads
+     * concurrent tasks. Virtual threads are meant for the blocking per
+     * connection code.
+     *
+     * @return the pool or null if the JDK does not support virtual threads.
+     */
+    public static JThreadPool createVirtual(String name, int maxThreads) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, "Phex-" + name + '-', 1L);
+            Method factory = builderClass.getMethod("factory");
+            ThreadFactory threadFactory = (ThreadFactory) factory.invoke(builder);
+            return new JThreadPool(name, maxThreads, null, threadFactory);
+        } catch (ReflectiveOperationException | LinkageError exp) {
+            logger.debug("Virtual threads not supported: {}", exp.toString());
+            return null;
+        }
+    }
+
+    private static ThreadPoolExecutor createPool(String name, int maxThreads,
+                                                 int queueCapacity) {
+        ThreadPoolExecutor pool;
+        if (queueCapacity == 0) {
+            pool = new ThreadPoolExecutor(0, maxThreads, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new SynchronousQueue<>(),
+                    new NamedThreadFactory(name));
+        } else {
+            pool = new ThreadPoolExecutor(maxThreads, maxThreads, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueCapacity),
+                    new NamedThreadFactory(name));
+            pool.allowCoreThreadTimeOut(true);
+        }
         return pool;
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public boolean isVirtual() {
+        return virtualThreadFactory != null;
+    }
+
+    /**
+     * Returns this pool as Executor.
+     */
+    public Executor getThreadPool() {
+        return this;
+    }
+
+    public void execute(Runnable runnable) {
+        submittedCount.increment();
+        Runnable task = new CountingRunnable(runnable);
+        try {
+            if (pool != null) {
+                pool.execute(task);
+            } else {
+                executeVirtual(task);
+            }
+        } catch (RejectedExecutionException exp) {
+            rejectedCount.increment();
+            logger.warn("{} pool rejected task, {} of {} threads active, {} queued.",
+                    name, getActiveCount(), maxThreads, getQueueDepth());
+            throw exp;
+        }
+    }
+
     public void execute(final Runnable runnable, final String name) {
-        pool.execute(new NamedThreadRunnable(name, runnable));
+        execute(new NamedThreadRunnable(name, runnable));
+    }
+
+    private void executeVirtual(Runnable task) {
+        if (!virtualThreadPermits.tryAcquire()) {
+            throw new RejectedExecutionException(name + " pool exhausted");
+        }
+        boolean isStarted = false;
+        try {
+            Thread thread = virtualThreadFactory.newThread(() -> {
+                try {
+                    task.run();
+                } finally {
+                    virtualThreadPermits.release();
+                }
+            });
+            thread.start();
+            isStarted = true;
+        } finally {
+            if (!isStarted) {
+                virtualThreadPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.sum();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
     }
 
     public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
 
-        pool.shutdown();
+    private final class CountingRunnable implements Runnable {
+        private final Runnable runnable;
+
+        private CountingRunnable(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        public void run() {
+            activeCount.incrementAndGet();
+            try {
+                runnable.run();
+            } finally {
+                activeCount.decrementAndGet();
+                completedCount.increment();
+            }
+        }
     }
 
     private static final class NamedThreadRunnable implements Runnable {
@@ -77,31 +265,26 @@ public class JThreadPool {
             }
         }
     }
-//
-//    /**
-//     * The default thread factory
-//     */
-//    private class DefaultThreadFactory implements ThreadFactory {
-//        final ThreadGroup group;
-//        final AtomicInteger threadNumber = new AtomicInteger(1);
-//        final String namePrefix;
-//
-//        DefaultThreadFactory() {
-//            SecurityManager s = System.getSecurityManager();
-//            group = (s != null) ? s.getThreadGroup() :
-//                    Thread.currentThread().getThreadGroup();
-//            namePrefix = "PhexPool-thread-";
-//        }
-//
-//        public Thread newThread(Runnable r) {
-//            logger.debug("Creating new thread for pool: {} {}", pool.getPoolSize(), pool.getActiveCount());
-//            Thread t = new Thread(group, r,
-//                    namePrefix + threadNumber.getAndIncrement(), 0);
-//            if (t.isDaemon())
-//                t.setDaemon(false);
-//            if (t.getPriority() != Thread.NORM_PRIORITY)
-//                t.setPriority(Thread.NORM_PRIORITY);
-//            return t;
-//        }
-//    }
-}
\ No newline at end of file
+
+    /**
+     * Creates daemon threads named after the pool in the thread pool group.
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String namePrefix;
+
+        private NamedThreadFactory(String poolName) {
+            namePrefix = "Phex-" + poolName + '-';
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(ThreadTracking.threadPoolGroup, r,
+                    namePrefix + threadNumber.getAndIncrement(), 0);
+            t.setDaemon(true);
+            if (t.getPriority() != Thread.NORM_PRIORITY) {
+                t.setPriority(Thread.NORM_PRIORITY);
+            }
+            return t;
+        }
+    }
+}
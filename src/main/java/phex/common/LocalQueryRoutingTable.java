@@ -0,0 +1,164 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.util.IOUtil;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * The local query routing table containing the words of all shared files.
+ * Each slot keeps a reference count of the words hashed into it. This allows
+ * to add and remove single files without rebuilding the whole table, a slot
+ * is only flagged or cleared when its count changes between zero and one.
+ */
+public class LocalQueryRoutingTable {
+    private static final Logger logger = LoggerFactory.getLogger(
+            LocalQueryRoutingTable.class);
+
+    private int tableSize;
+    private byte tableBits;
+    /**
+     * The number of words hashed into each slot.
+     */
+    private int[] slotCounts;
+    /**
+     * The slots with a count greater then zero.
+     */
+    private BitSet slots;
+    /**
+     * The last created QueryRoutingTable of this table. It is dropped whenever
+     * a slot changes, so that each returned table represents one version of
+     * the local table and is never modified afterwards.
+     */
+    private QueryRoutingTable queryRoutingTable;
+
+    public LocalQueryRoutingTable() {
+        init(QueryRoutingTable.MIN_TABLE_SIZE);
+    }
+
+    private void init(int newTableSize) {
+        tableSize = newTableSize;
+        tableBits = IOUtil.calculateLog2(newTableSize);
+        slotCounts = new int[newTableSize];
+        slots = new BitSet(newTableSize);
+        queryRoutingTable = null;
+    }
+
+    /**
+     * Adds the words of the given file path to the table.
+     *
+     * @param absoluteFilePath the path of the shared file.
+     */
+    public synchronized void addFile(String absoluteFilePath) {
+        String[] words = QueryRoutingTable.splitFilePath(absoluteFilePath);
+        for (String word : words) {
+            int slot = QueryRoutingTable.qrpHash(word, 0, word.length(), tableBits);
+            if (slotCounts[slot]++ == 0) {
+                slots.set(slot);
+                queryRoutingTable = null;
+            }
+        }
+    }
+
+    /**
+     * Removes the words of the given file path from the table. The path must
+     * be the same as the one used when the file was added.
+     *
+     * @param absoluteFilePath the path of the shared file.
+     */
+    public synchronized void removeFile(String absoluteFilePath) {
+        String[] words = QueryRoutingTable.splitFilePath(absoluteFilePath);
+        for (String word : words) {
+            int slot = QueryRoutingTable.qrpHash(word, 0, word.length(), tableBits);
+            if (slotCounts[slot] == 0) {
+                logger.warn("Removing word of unknown file: {}", absoluteFilePath);
+                continue;
+            }
+            if (--slotCounts[slot] == 0) {
+                slots.clear(slot);
+                queryRoutingTable = null;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        init(QueryRoutingTable.MIN_TABLE_SIZE);
+    }
+
+    public synchronized int getTableSize() {
+        return tableSize;
+    }
+
+    public synchronized double getFillRatio() {
+        return ((double) slots.cardinality() / (double) tableSize) * 100.0;
+    }
+
+    /**
+     * Returns true if the table got too crowded and should be rebuilt with a
+     * larger size.
+     */
+    public synchronized boolean isResizeRequired() {
+        return tableSize < QueryRoutingTable.MAX_TABLE_SIZE
+                && getFillRatio() > QueryRoutingTable.MAX_FILL_RATIO;
+    }
+
+    /**
+     * Rebuilds the table from the given file paths. The table size is doubled
+     * until the fill ratio is acceptable or the maximum size is reached.
+     *
+     * @param absoluteFilePaths the paths of all shared files.
+     */
+    public synchronized void rebuild(Collection<String> absoluteFilePaths) {
+        long start = System.currentTimeMillis();
+        int newTableSize = tableSize;
+        while (true) {
+            init(newTableSize);
+            for (String path : absoluteFilePaths) {
+                addFile(path);
+            }
+            if (!isResizeRequired()) {
+                break;
+            }
+            newTableSize = tableSize * 2;
+        }
+        logger.debug("Rebuilt local QRT: {} / {} time: {}", slots.cardinality(),
+                tableSize, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Returns the current version of the table. The returned table must not be
+     * modified, the same instance is returned until the slots of this table
+     * change.
+     *
+     * @return the current QueryRoutingTable.
+     */
+    public synchronized QueryRoutingTable getQueryRoutingTable() {
+        if (queryRoutingTable == null) {
+            queryRoutingTable = QueryRoutingTable.createFromSlots(slots, tableSize);
+        }
+        return queryRoutingTable;
+    }
+}
@@ -21,17 +21,16 @@
  */
 package phex.common;
 
-import phex.common.collections.PriorityQueue;
+import phex.msg.CachedPong;
 import phex.msg.PongMsg;
 import phex.peer.Peer;
 
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * A simple cache of pongs to reduce network bandwidth.
+ * <p>
+ * Pongs are kept in their wire format in a ring holding a fixed number of
+ * pongs per hop. The ring is replaced on each change, readers get the
+ * current ring without copying or locking.
  */
 public class PongCache {
     private static final int PONGS_PER_HOP = 1;
@@ -39,49 +38,38 @@ public class PongCache {
 
     private static final int EXPIRE_TIME_MILLIS = 60000;
 
-    private final PriorityQueue pongQueue;
+    private static final CachedPong[] EMPTY_RING = new CachedPong[MAX_HOPS * PONGS_PER_HOP];
+
+    /**
+     * The cached pongs, the slots of a hop start at hop * PONGS_PER_HOP.
+     * Empty slots are null.
+     */
+    private volatile CachedPong[] ring;
+
+    /**
+     * The slot per hop the next pong is stored in, relative to the first
+     * slot of the hop.
+     */
+    private final int[] nextSlots;
 
     private final Peer peer;
 
     public PongCache(Peer peer) {
         this.peer = peer;
-        int[] capacities = new int[MAX_HOPS];
-        Arrays.fill(capacities, PONGS_PER_HOP);
-        pongQueue = new PriorityQueue(capacities);
-    }
-
-    public List<PongMsg> getPongs() {
-        synchronized (pongQueue) {
-            List<PongMsg> pongList = new LinkedList<>();
-            List<PongMsg> removeList = null;
-
-            long now = System.currentTimeMillis();
-            Iterator<PongMsg> iterator = pongQueue.iterator();
-            while (iterator.hasNext()) {
-                PongMsg pong = iterator.next();
-                if (now - pong.getCreationTime() > EXPIRE_TIME_MILLIS) {
-                    if (removeList == null) {
-                        removeList = new LinkedList<>();
-                    }
-                    removeList.add(pong);
-                } else {
-                    pongList.add(pong);
-                }
-            }
-            removePongs(removeList);
-            return pongList;
-        }
+        ring = EMPTY_RING;
+        nextSlots = new int[MAX_HOPS];
     }
 
-    private void removePongs(List<PongMsg> pongList) {
-        if (pongList == null) {
-            return;
-        }
-        Iterator<PongMsg> iterator = pongList.iterator();
-        while (iterator.hasNext()) {
-            PongMsg pong = iterator.next();
-            pongQueue.removeFromAll(pong);
-        }
+    /**
+     * Returns the cached pongs. The returned array is shared and must not be
+     * modified, it can contain null entries and pongs expired since the
+     * last change of the cache.
+     *
+     * @return the cached pongs.
+     * @see CachedPong#getExpiryTime()
+     */
+    public CachedPong[] getPongs() {
+        return ring;
     }
 
     public void addPong(PongMsg pong) {
@@ -99,12 +87,23 @@ public class PongCache {
         int hops = pong.getHeader().getHopsTaken() - 1;
 
         // ignore high hops
-        if (hops >= MAX_HOPS) {
+        if (hops < 0 || hops >= MAX_HOPS) {
             return;
         }
 
-        synchronized (pongQueue) {
-            pongQueue.addToHead(pong, hops);
+        long now = System.currentTimeMillis();
+        CachedPong cachedPong = new CachedPong(pong, now + EXPIRE_TIME_MILLIS);
+        synchronized (nextSlots) {
+            CachedPong[] newRing = ring.clone();
+            for (int i = 0; i < newRing.length; i++) {
+                if (newRing[i] != null && newRing[i].getExpiryTime() < now) {
+                    newRing[i] = null;
+                }
+            }
+            int slot = nextSlots[hops];
+            newRing[hops * PONGS_PER_HOP + slot] = cachedPong;
+            nextSlots[hops] = (slot + 1) % PONGS_PER_HOP;
+            ring = newRing;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,416 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common;
+
+import phex.msg.QueryMsg;
+import phex.query.DynamicQueryConstants;
+import phex.util.IOUtil;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted index of the QueryRoutingTables received from the connected
+ * hosts. For each table size every slot maps to a bitset of the hosts whose
+ * table flags the slot. The hosts matching a query are found by hashing its
+ * keywords once per table size and ANDing the bitsets of the hashed slots,
+ * instead of hashing the query again for the table of each host.
+ * <p>
+ * Tables are diffed by their version on each update, like in the
+ * QueryRoutingTableAggregator, so applying a patch only flips the changed
+ * slots.
+ */
+public class QueryRoutingIndex {
+    private final ReadWriteLock lock;
+    private final Map<Object, Entry> entries;
+    private final List<SizeGroup> groups;
+    /**
+     * The entries by their position in the slot bitsets. The array is
+     * replaced on each change, matches keep the array they were created with.
+     */
+    private Entry[] positions;
+    private final BitSet usedPositions;
+    /**
+     * The number of longs of each slot bitset.
+     */
+    private int wordCount;
+
+    public QueryRoutingIndex() {
+        lock = new ReentrantReadWriteLock();
+        // written under the write lock, matches read it without the lock.
+        entries = new ConcurrentHashMap<>();
+        groups = new ArrayList<>(2);
+        wordCount = 1;
+        positions = new Entry[wordCount * 64];
+        usedPositions = new BitSet();
+    }
+
+    /**
+     * Updates the slots indexed for the given key with the given table.
+     * Nothing is done when the table is the same instance and version as with
+     * the last update.
+     *
+     * @param key   the owner of the table, like a host.
+     * @param table the current table of the owner.
+     */
+    public void updateTable(Object key, QueryRoutingTable table) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.get(key);
+            // read the version before the slots, a concurrent modification is
+            // picked up by the next update then.
+            int version = table.getVersion();
+            if (entry != null && entry.table == table && entry.version == version) {
+                return;
+            }
+            int tableSize = table.getTableSize();
+            BitSet newSlots = (BitSet) table.getSlots(tableSize).clone();
+            int position;
+            SizeGroup group = null;
+            if (entry == null) {
+                position = allocatePosition();
+            } else {
+                position = entry.position;
+                group = entry.group;
+                if (group.tableSize != tableSize) {
+                    removeFromGroup(group, position, entry.slots);
+                    group = null;
+                }
+            }
+
+            if (group == null) {
+                group = getGroup(tableSize);
+                group.addMember(position);
+                group.setSlots(position, newSlots, newSlots);
+            } else {
+                BitSet changed = (BitSet) newSlots.clone();
+                changed.xor(entry.slots);
+                group.setSlots(position, changed, newSlots);
+            }
+            // a new entry instance marks the changed table for older matches.
+            Entry updated = new Entry(position, group, table, version, newSlots);
+            entries.put(key, updated);
+            updatePosition(position, updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the table indexed for the given key.
+     *
+     * @param key the owner of the table.
+     */
+    public void removeTable(Object key) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                removeEntry(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the tables of all keys not contained in the given collection.
+     *
+     * @param keys the owners of the tables to keep.
+     */
+    public void retainTables(Collection<?> keys) {
+        lock.writeLock().lock();
+        try {
+            Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Object, Entry> mapEntry = iterator.next();
+                if (!keys.contains(mapEntry.getKey())) {
+                    removeEntry(mapEntry.getValue());
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int getTableCount() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the indexed tables containing the given query.
+     *
+     * @param query the query to match.
+     * @return the match of the query.
+     */
+    public Match match(QueryMsg query) {
+        return match(query.getSearchString(), query.getQueryURNs());
+    }
+
+    /**
+     * Returns the indexed tables containing a query with the given search
+     * string and URNs, with the same rules as
+     * {@link QueryRoutingTable#containsQuery(QueryMsg)}.
+     *
+     * @param searchString the search string of the query or null.
+     * @param urns         the URNs of the query, might be empty or null.
+     * @return the match of the query.
+     */
+    public Match match(String searchString, URN[] urns) {
+        boolean isInvalidSearchString = searchString == null ||
+                searchString.length() < DynamicQueryConstants.MIN_SEARCH_TERM_LENGTH;
+        boolean hasUrns = urns != null && urns.length > 0;
+        String[] words = null;
+        if (!isInvalidSearchString) {
+            words = QueryRoutingTable.splitQueryString(searchString);
+        } else if (hasUrns) {
+            words = new String[urns.length];
+            for (int i = 0; i < urns.length; i++) {
+                words[i] = urns[i].getAsString();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            long[] matching = new long[wordCount];
+            if (words != null) {
+                for (SizeGroup group : groups) {
+                    if (isInvalidSearchString) {
+                        group.orAnySlot(words, matching);
+                    } else {
+                        group.orAllSlots(words, matching);
+                    }
+                }
+            }
+            return new Match(entries, positions, matching);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int allocatePosition() {
+        int position = usedPositions.nextClearBit(0);
+        if (position >= wordCount * 64) {
+            int newWordCount = wordCount + 1;
+            for (SizeGroup group : groups) {
+                group.resize(wordCount, newWordCount);
+            }
+            wordCount = newWordCount;
+            Entry[] newPositions = new Entry[wordCount * 64];
+            System.arraycopy(positions, 0, newPositions, 0, positions.length);
+            positions = newPositions;
+        }
+        usedPositions.set(position);
+        return position;
+    }
+
+    private void updatePosition(int position, Entry entry) {
+        Entry[] newPositions = positions.clone();
+        newPositions[position] = entry;
+        positions = newPositions;
+    }
+
+    private void removeEntry(Entry entry) {
+        removeFromGroup(entry.group, entry.position, entry.slots);
+        usedPositions.clear(entry.position);
+        updatePosition(entry.position, null);
+    }
+
+    private void removeFromGroup(SizeGroup group, int position, BitSet slots) {
+        group.setSlots(position, slots, new BitSet());
+        group.removeMember(position);
+        if (group.memberCount == 0) {
+            groups.remove(group);
+        }
+    }
+
+    private SizeGroup getGroup(int tableSize) {
+        for (SizeGroup group : groups) {
+            if (group.tableSize == tableSize) {
+                return group;
+            }
+        }
+        SizeGroup group = new SizeGroup(tableSize, wordCount);
+        groups.add(group);
+        return group;
+    }
+
+    /**
+     * The result of matching a query against the index.
+     */
+    public static class Match {
+        private final Map<Object, Entry> entries;
+        private final Entry[] positions;
+        private final long[] matching;
+
+        private Match(Map<Object, Entry> entries, Entry[] positions, long[] matching) {
+            this.entries = entries;
+            this.positions = positions;
+            this.matching = matching;
+        }
+
+        /**
+         * Checks if the given table of the key contains the query. A table that
+         * is not indexed in the version of this match is checked directly.
+         *
+         * @param key   the owner of the table.
+         * @param table the current table of the owner, or null if the owner
+         *              has no table and receives all queries.
+         * @param query the matched query.
+         * @return true if the query should be routed to the owner.
+         */
+        public boolean contains(Object key, QueryRoutingTable table, QueryMsg query) {
+            if (table == null) {
+                return true;
+            }
+            Entry entry = entries.get(key);
+            if (entry == null || entry.table != table
+                    || entry.position >= positions.length
+                    || positions[entry.position] != entry
+                    || entry.version != table.getVersion()) {
+                return table.containsQuery(query);
+            }
+            int position = entry.position;
+            return (matching[position >>> 6] & (1L << position)) != 0;
+        }
+    }
+
+    private static class Entry {
+        private final int position;
+        private final SizeGroup group;
+        private final QueryRoutingTable table;
+        private final int version;
+        private final BitSet slots;
+
+        private Entry(int position, SizeGroup group, QueryRoutingTable table,
+                      int version, BitSet slots) {
+            this.position = position;
+            this.group = group;
+            this.table = table;
+            this.version = version;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * The slot bitsets of all tables of one size. The bitset of a slot is
+     * stored in consecutive longs.
+     */
+    private static class SizeGroup {
+        private final int tableSize;
+        private final byte tableBits;
+        private int wordCount;
+        private long[] slotHosts;
+        private long[] members;
+        private int memberCount;
+
+        private SizeGroup(int tableSize, int wordCount) {
+            this.tableSize = tableSize;
+            tableBits = IOUtil.calculateLog2(tableSize);
+            this.wordCount = wordCount;
+            slotHosts = new long[tableSize * wordCount];
+            members = new long[wordCount];
+        }
+
+        private void resize(int oldWordCount, int newWordCount) {
+            long[] newSlotHosts = new long[tableSize * newWordCount];
+            for (int slot = 0; slot < tableSize; slot++) {
+                System.arraycopy(slotHosts, slot * oldWordCount, newSlotHosts,
+                        slot * newWordCount, oldWordCount);
+            }
+            slotHosts = newSlotHosts;
+            long[] newMembers = new long[newWordCount];
+            System.arraycopy(members, 0, newMembers, 0, oldWordCount);
+            members = newMembers;
+            wordCount = newWordCount;
+        }
+
+        private void addMember(int position) {
+            members[position >>> 6] |= 1L << position;
+            memberCount++;
+        }
+
+        private void removeMember(int position) {
+            members[position >>> 6] &= ~(1L << position);
+            memberCount--;
+        }
+
+        /**
+         * Sets or clears the bit of the position in the given slots, depending
+         * on whether the slot is flagged in the table slots.
+         */
+        private void setSlots(int position, BitSet slots, BitSet tableSlots) {
+            int word = position >>> 6;
+            long bit = 1L << position;
+            for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+                if (tableSlots.get(i)) {
+                    slotHosts[i * wordCount + word] |= bit;
+                } else {
+                    slotHosts[i * wordCount + word] &= ~bit;
+                }
+            }
+        }
+
+        /**
+         * Adds the positions of the tables flagging all slots of the words.
+         */
+        private void orAllSlots(String[] words, long[] matching) {
+            long[] result = members.clone();
+            for (String word : words) {
+                int offset = QueryRoutingTable.qrpHash(word, 0, word.length(),
+                        tableBits) * wordCount;
+                for (int i = 0; i < wordCount; i++) {
+                    result[i] &= slotHosts[offset + i];
+                }
+            }
+            for (int i = 0; i < wordCount; i++) {
+                matching[i] |= result[i];
+            }
+        }
+
+        /**
+         * Adds the positions of the tables flagging any slot of the words.
+         */
+        private void orAnySlot(String[] words, long[] matching) {
+            for (String word : words) {
+                int offset = QueryRoutingTable.qrpHash(word, 0, word.length(),
+                        tableBits) * wordCount;
+                for (int i = 0; i < wordCount; i++) {
+                    matching[i] |= slotHosts[offset + i];
+                }
+            }
+        }
+    }
+}
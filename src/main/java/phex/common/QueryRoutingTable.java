@@ -56,17 +56,17 @@ public class QueryRoutingTable {
     /**
      * The minimum table size of the QR table (16KB).
      */
-    private static final int MIN_TABLE_SIZE = 16 * 1024;
+    static final int MIN_TABLE_SIZE = 16 * 1024;
 
     /**
      * The default table size of the QR table (1024KB).
      */
-    private static final int MAX_TABLE_SIZE = 1024 * 1024;
+    static final int MAX_TABLE_SIZE = 1024 * 1024;
 
     /**
      * Maximum fill ratio of the QRT (5%).
      */
-    private static final int MAX_FILL_RATIO = 5;
+    static final int MAX_FILL_RATIO = 5;
     /**
      */
     private static final int A_INT = 0x4F1BBCDC;
@@ -117,6 +117,12 @@ public class QueryRoutingTable {
      * The inflater to use to uncompress.
      */
     private Inflater inflater;
+    /**
+     * The modification count of the table. It changes whenever slots of the
+     * table are set or cleared, which allows aggregators to skip tables that
+     * did not change since they were last looked at.
+     */
+    private volatile int version;
 
     public QueryRoutingTable() {
         init(DEFAULT_TABLE_SIZE, DEFAULT_INFINITY_TTL);
@@ -130,7 +136,7 @@ public class QueryRoutingTable {
      * Splits a file path into pieces and takes creates a array of the pieces
      * and there prefixes.
      */
-    private static String[] splitQueryString(String queryString) {
+    static String[] splitQueryString(String queryString) {
         StringTokenizer tokenizer = new StringTokenizer(queryString,
                 StringUtils.FILE_DELIMITERS);
         ArrayList<String> list = new ArrayList<>(10);
@@ -147,7 +153,7 @@ public class QueryRoutingTable {
      * Splits a file path into pieces and takes creates a array of the pieces
      * and there prefixes.
      */
-    private static String[] splitFilePath(String filePath) {
+    static String[] splitFilePath(String filePath) {
         StringTokenizer tokenizer = new StringTokenizer(filePath,
                 StringUtils.FILE_DELIMITERS);
         ArrayList<String> list = new ArrayList<>(20);
@@ -243,8 +249,26 @@ public class QueryRoutingTable {
 
     public static Iterator<RouteTableUpdateMsg> buildRouteTableUpdateMsgIterator(QueryRoutingTable currentTable,
                                                                                  QueryRoutingTable oldTable) {
+        return buildRouteTableUpdateMsgs(currentTable, oldTable).iterator();
+    }
+
+    /**
+     * Builds the messages that bring a remote host holding oldTable up to date
+     * with currentTable. In case oldTable is null a reset message followed by
+     * the complete table is created.
+     *
+     * @param currentTable the table to send.
+     * @param oldTable     the table last sent to the remote host or null.
+     * @return the list of messages to send, empty if no update is needed.
+     */
+    public static List<RouteTableUpdateMsg> buildRouteTableUpdateMsgs(QueryRoutingTable currentTable,
+                                                                      QueryRoutingTable oldTable) {
         ArrayList<RouteTableUpdateMsg> msgList = new ArrayList<>();
 
+        if (oldTable != null && oldTable.tableSize != currentTable.tableSize) {
+            // a table of a different size can't be patched.
+            oldTable = null;
+        }
         if (oldTable == null) {
             // never sent a table before... send reset msg first
             msgList.add(new QRResetTableMsg(currentTable.tableSize,
@@ -297,7 +321,7 @@ public class QueryRoutingTable {
         }
 
         if (!isPatchNeeded) {// no patch message needed
-            return msgList.iterator();
+            return msgList;
         }
 
         // try to compress data
@@ -328,7 +352,7 @@ public class QueryRoutingTable {
             sequenceNo++;
         }
         while (offset < patchData.length);
-        return msgList.iterator();
+        return msgList;
     }
 
     /**
@@ -342,7 +366,7 @@ public class QueryRoutingTable {
      * @param end   just PAST the end of the substring to hash
      * @return the hash value
      */
-    private static int qrpHash(String x, int start, int end, byte bits) {
+    static int qrpHash(String x, int start, int end, byte bits) {
         //1. First turn x[start...end-1] into a number by treating all 4-byte
         //chunks as a little-endian quadword, and XOR'ing the result together.
         //We pad x with zeroes as needed.
@@ -368,7 +392,7 @@ public class QueryRoutingTable {
 
     private void init(int newTableSize, byte infinity) {
         if (qrTable == null || tableSize != newTableSize) {
-            qrTable = new BitSet(tableSize);
+            qrTable = new BitSet(newTableSize);
         } else {
             qrTable.clear();
         }
@@ -381,6 +405,7 @@ public class QueryRoutingTable {
         sequenceNumber = 0;
         patchPosition = 0;
         inflater = null;
+        version++;
     }
 
     public double getFillRatio() {
@@ -391,6 +416,35 @@ public class QueryRoutingTable {
         return tableSize;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the slots of this table resized to the given size. The returned
+     * BitSet might be the internal table and must not be modified.
+     *
+     * @param size the table size to return the slots for.
+     * @return the slots of the table in the given size.
+     */
+    BitSet getSlots(int size) {
+        return resizeRouteTable(size);
+    }
+
+    /**
+     * Creates a new QueryRoutingTable with a copy of the given slots.
+     *
+     * @param slots     the slots to flag in the new table.
+     * @param tableSize the size of the new table.
+     * @return the new QueryRoutingTable.
+     */
+    static QueryRoutingTable createFromSlots(BitSet slots, int tableSize) {
+        QueryRoutingTable qrt = new QueryRoutingTable(tableSize);
+        qrt.qrTable.or(slots);
+        qrt.entryCount = qrt.qrTable.cardinality();
+        return qrt;
+    }
+
     public void aggregateToRouteTable(QueryRoutingTable queryRoutingTable) {
         BitSet bitSetToAggregate;
         if (tableSize != queryRoutingTable.tableSize) {
@@ -404,6 +458,8 @@ public class QueryRoutingTable {
             return;
         }
         qrTable.or(bitSetToAggregate);
+        resizedQRTable = null;
+        version++;
     }
 
     /**
@@ -421,6 +477,7 @@ public class QueryRoutingTable {
                 // instead of TTL just mark slot
                 qrTable.set(hashVal);
                 resizedQRTable = null;
+                version++;
             }
         }
     }
@@ -437,6 +494,7 @@ public class QueryRoutingTable {
             // instead of TTL just mark slot
             qrTable.set(hashVal);
             resizedQRTable = null;
+            version++;
         }
     }
 
@@ -612,6 +670,8 @@ public class QueryRoutingTable {
             } catch (IndexOutOfBoundsException exp) {
                 throw new InvalidMessageException(
                         "QRTPatchMsg Wrong patch message data size.");
+            } finally {
+                version++;
             }
 
             if (sequenceNumber == sequenceSize) {
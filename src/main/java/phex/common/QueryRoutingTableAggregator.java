@@ -0,0 +1,207 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common;
+
+import phex.msg.RouteTableUpdateMsg;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the local QueryRoutingTable and the tables of the leaves into
+ * the table sent to Ultrapeers. Each slot keeps a count of the contributing
+ * tables that flag it. When a contributing table changes only the slots it
+ * flipped are updated, unchanged tables are skipped by their version.
+ * <p>
+ * Each aggregated table version is published as an own QueryRoutingTable
+ * instance. The update messages from a previously published version to the
+ * current one are built once and shared by all hosts holding that version.
+ */
+public class QueryRoutingTableAggregator {
+    private int tableSize;
+    private int[] slotCounts;
+    private BitSet slots;
+    private final Map<Object, Contribution> contributions;
+    /**
+     * Indicates if slots changed since the current table was published.
+     */
+    private boolean isModified;
+    private QueryRoutingTable currentTable;
+    /**
+     * The update messages to the current table keyed by the previously sent
+     * table. The null key holds the messages for hosts that never received a
+     * table.
+     */
+    private final Map<QueryRoutingTable, List<RouteTableUpdateMsg>> updateMsgCache;
+
+    public QueryRoutingTableAggregator() {
+        contributions = new HashMap<>();
+        updateMsgCache = new IdentityHashMap<>();
+        init(QueryRoutingTable.DEFAULT_TABLE_SIZE);
+    }
+
+    private void init(int newTableSize) {
+        tableSize = newTableSize;
+        slotCounts = new int[newTableSize];
+        slots = new BitSet(newTableSize);
+        contributions.clear();
+        isModified = true;
+    }
+
+    /**
+     * Sets the size of the aggregated table. Changing the size drops all
+     * contributions, they need to be updated again afterwards.
+     *
+     * @param newTableSize the size of the aggregated table.
+     */
+    public synchronized void setTableSize(int newTableSize) {
+        if (tableSize != newTableSize) {
+            init(newTableSize);
+        }
+    }
+
+    public synchronized int getTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * Updates the slots contributed by the given key with the given table.
+     * Nothing is done when the table is the same instance and version as with
+     * the last update.
+     *
+     * @param key   the contributor, like a leaf host.
+     * @param table the current table of the contributor.
+     */
+    public synchronized void updateContribution(Object key, QueryRoutingTable table) {
+        Contribution contribution = contributions.get(key);
+        // read the version before the slots, a concurrent modification is
+        // picked up by the next update then.
+        int version = table.getVersion();
+        if (contribution != null && contribution.table == table
+                && contribution.version == version) {
+            return;
+        }
+        BitSet newSlots = (BitSet) table.getSlots(tableSize).clone();
+        if (contribution == null) {
+            contribution = new Contribution();
+            contributions.put(key, contribution);
+            addSlots(newSlots);
+        } else {
+            BitSet added = (BitSet) newSlots.clone();
+            added.andNot(contribution.slots);
+            BitSet removed = contribution.slots;
+            removed.andNot(newSlots);
+            addSlots(added);
+            removeSlots(removed);
+        }
+        contribution.table = table;
+        contribution.version = version;
+        contribution.slots = newSlots;
+    }
+
+    /**
+     * Removes the slots of all contributors not contained in the given
+     * collection.
+     *
+     * @param keys the contributors to keep.
+     */
+    public synchronized void retainContributions(Collection<?> keys) {
+        Iterator<Map.Entry<Object, Contribution>> iterator =
+                contributions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Object, Contribution> entry = iterator.next();
+            if (!keys.contains(entry.getKey())) {
+                removeSlots(entry.getValue().slots);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void addSlots(BitSet toAdd) {
+        for (int i = toAdd.nextSetBit(0); i >= 0; i = toAdd.nextSetBit(i + 1)) {
+            if (slotCounts[i]++ == 0) {
+                slots.set(i);
+                isModified = true;
+            }
+        }
+    }
+
+    private void removeSlots(BitSet toRemove) {
+        for (int i = toRemove.nextSetBit(0); i >= 0; i = toRemove.nextSetBit(i + 1)) {
+            if (--slotCounts[i] == 0) {
+                slots.clear(i);
+                isModified = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the current aggregated table. A new instance is published when
+     * slots changed since the last call, otherwise the same instance is
+     * returned. The returned table must not be modified.
+     *
+     * @return the current aggregated table.
+     */
+    public synchronized QueryRoutingTable getCurrentTable() {
+        if (isModified || currentTable == null) {
+            currentTable = QueryRoutingTable.createFromSlots(slots, tableSize);
+            updateMsgCache.clear();
+            isModified = false;
+        }
+        return currentTable;
+    }
+
+    /**
+     * Returns the messages to update a host that last received the given table
+     * to the current table. The messages are built once per previous table
+     * and shared between all hosts.
+     *
+     * @param lastSentTable the table last sent to the host or null.
+     * @return the update messages, empty if the host is up to date.
+     */
+    public synchronized List<RouteTableUpdateMsg> getUpdateMessages(
+            QueryRoutingTable lastSentTable) {
+        QueryRoutingTable table = getCurrentTable();
+        if (lastSentTable == table) {
+            return Collections.emptyList();
+        }
+        List<RouteTableUpdateMsg> msgList = updateMsgCache.get(lastSentTable);
+        if (msgList == null) {
+            msgList = QueryRoutingTable.buildRouteTableUpdateMsgs(table,
+                    lastSentTable);
+            updateMsgCache.put(lastSentTable, msgList);
+        }
+        return msgList;
+    }
+
+    private static class Contribution {
+        private QueryRoutingTable table;
+        private int version;
+        private BitSet slots;
+    }
+}
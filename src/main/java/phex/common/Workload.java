@@ -0,0 +1,67 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common;
+
+/**
+ * The classes of work executed on the Phex thread pools. Each workload runs on
+ * its own bounded pool so blocking tasks of one class can not starve the others.
+ */
+public enum Workload {
+    /**
+     * Blocking network I/O like connection handshakes, send loops, transfers
+     * and HTTP requests. Tasks may run for the lifetime of a connection, so
+     * tasks are never queued but get a thread each.
+     */
+    NETWORK("Network", 512, 0),
+
+    /**
+     * Handling of received messages and other short, non blocking tasks.
+     */
+    DISPATCH("Dispatch", Math.max(2, Runtime.getRuntime().availableProcessors()), 4096),
+
+    /**
+     * Loading and saving of files.
+     */
+    DISK("Disk", 2, 1024);
+
+    private final String poolName;
+    private final int maxThreads;
+    private final int queueCapacity;
+
+    Workload(String poolName, int maxThreads, int queueCapacity) {
+        this.poolName = poolName;
+        this.maxThreads = maxThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common.address;
+
+import phex.util.IOUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A packed, immutable table of IPv4 address ranges.
+ * <p>
+ * The ranges are held in sorted primitive int arrays of range starts and
+ * ends together with an int value per range, a lookup is a binary search
+ * on a primitive int IP and does not allocate. Adjacent and overlapping
+ * ranges of the same value are merged when the table is built, where
+ * ranges of different values overlap the range starting first wins. A
+ * value usually is an index, either into the labels stored with the table
+ * or into an array of the caller.
+ * <p>
+ * A table can be written to a binary cache file. On startup the cache file
+ * is memory mapped and the lookups operate directly on the mapped file, as
+ * long as the stamp of the source the table was built from did not change.
+ */
+public final class IpRangeTable {
+    public static final int NOT_FOUND = -1;
+
+    private static final int MAGIC = 0x50484950;
+    private static final int VERSION = 1;
+
+    /**
+     * The header size: magic, version, source stamp, range count and
+     * label count.
+     */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+    /**
+     * The range starts and ends, with the sign bit flipped so the
+     * unsigned IPs sort correctly as signed ints.
+     */
+    private final IntBuffer starts;
+    private final IntBuffer ends;
+    private final IntBuffer values;
+    private final int size;
+    private final String[] labels;
+
+    private IpRangeTable(IntBuffer starts, IntBuffer ends, IntBuffer values,
+                         int size, String[] labels) {
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+        this.size = size;
+        this.labels = labels;
+    }
+
+    /**
+     * Returns the value of the range containing the ip.
+     *
+     * @param ip the IPv4 address as int.
+     * @return the value of the range or {@link #NOT_FOUND}.
+     */
+    public int lookup(int ip) {
+        int key = ip ^ Integer.MIN_VALUE;
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts.get(mid) <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // high is the last range starting at or before the ip.
+        if (high < 0 || ends.get(high) < key) {
+            return NOT_FOUND;
+        }
+        return values.get(high);
+    }
+
+    public boolean contains(int ip) {
+        return lookup(ip) != NOT_FOUND;
+    }
+
+    /**
+     * Returns the number of ranges after merging.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the label of the given index, or null if there is no such label.
+     */
+    public String getLabel(int index) {
+        return index >= 0 && index < labels.length ? labels[index] : null;
+    }
+
+    /**
+     * Writes the table to a cache file.
+     *
+     * @param file        the file to write.
+     * @param sourceStamp the stamp of the source the table was built from.
+     */
+    public void write(File file, long sourceStamp) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceStamp);
+            out.writeInt(size);
+            out.writeInt(labels.length);
+            for (IntBuffer buffer : new IntBuffer[]{starts, ends, values}) {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(buffer.get(i));
+                }
+            }
+            for (String label : labels) {
+                byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            // windows does not rename over an existing file.
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Maps a table from a cache file. The header is read first and the file
+     * is only mapped if it is valid, a mapped file can't be replaced or
+     * deleted on Windows.
+     *
+     * @param file        the cache file.
+     * @param sourceStamp the stamp of the current source of the table.
+     * @return the table, or null if the file does not exist, is invalid or
+     * was built from a different source.
+     */
+    public static IpRangeTable map(File file, long sourceStamp) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        int size;
+        int labelCount;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getLong() != sourceStamp) {
+                return null;
+            }
+            size = header.getInt();
+            labelCount = header.getInt();
+            long rangeBytes = 3L * 4 * size;
+            if (size < 0 || labelCount < 0
+                    || rangeBytes > channel.size() - HEADER_SIZE) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.position(HEADER_SIZE);
+        IntBuffer starts = slice(buffer, size);
+        IntBuffer ends = slice(buffer, size);
+        IntBuffer values = slice(buffer, size);
+        String[] labels = new String[labelCount];
+        try {
+            for (int i = 0; i < labelCount; i++) {
+                byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(bytes);
+                labels[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        } catch (BufferUnderflowException exp) {
+            IOUtil.unmapQuietly(buffer);
+            return null;
+        }
+        return new IpRangeTable(starts, ends, values, size, labels);
+    }
+
+    /**
+     * Returns a stamp identifying the content of a resource by its size and
+     * modification time.
+     */
+    public static long resourceStamp(URL resource) throws IOException {
+        URLConnection connection = resource.openConnection();
+        try {
+            return connection.getContentLengthLong() * 31 + connection.getLastModified();
+        } finally {
+            // jar connections keep the stream open otherwise.
+            connection.getInputStream().close();
+        }
+    }
+
+    private static IntBuffer slice(ByteBuffer buffer, int size) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(size * 4);
+        buffer.position(buffer.position() + size * 4);
+        return slice.asIntBuffer();
+    }
+
+    /**
+     * Collects the ranges of a table.
+     */
+    public static class Builder {
+        private int[] starts;
+        private int[] ends;
+        private int[] rangeValues;
+        private int count;
+        private String[] labels;
+
+        public Builder() {
+            starts = new int[1024];
+            ends = new int[1024];
+            rangeValues = new int[1024];
+            labels = new String[0];
+        }
+
+        /**
+         * Adds the range from start to end, inclusive.
+         *
+         * @param start the first IP of the range.
+         * @param end   the last IP of the range.
+         * @param value the value of the range, must not be negative.
+         * @return this builder.
+         */
+        public Builder addRange(int start, int end, int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative value: " + value);
+            }
+            if (count == rangeValues.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                rangeValues = Arrays.copyOf(rangeValues, count * 2);
+            }
+            starts[count] = start ^ Integer.MIN_VALUE;
+            ends[count] = end ^ Integer.MIN_VALUE;
+            rangeValues[count] = value;
+            count++;
+            return this;
+        }
+
+        /**
+         * Adds the network of the given IP and CIDR prefix length.
+         */
+        public Builder addCidr(int ip, int cidr, int value) {
+            int mask = cidr == 0 ? 0 : -1 << (32 - cidr);
+            return addRange(ip & mask, ip | ~mask, value);
+        }
+
+        /**
+         * Sets the labels stored with the table.
+         */
+        public Builder setLabels(String[] labels) {
+            this.labels = labels.clone();
+            return this;
+        }
+
+        public IpRangeTable build() {
+            // sort by start, of equal starts the first added range comes first.
+            long[] order = new long[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = (long) starts[i] << 32 | i;
+            }
+            Arrays.sort(order);
+
+            int[] sortedStarts = new int[count];
+            int[] sortedEnds = new int[count];
+            int[] values = new int[count];
+            int size = 0;
+            for (long entry : order) {
+                int index = (int) entry;
+                int start = starts[index];
+                int end = ends[index];
+                if (end < start) {
+                    continue;
+                }
+                int value = rangeValues[index];
+                if (size > 0) {
+                    int lastEnd = sortedEnds[size - 1];
+                    if (values[size - 1] == value && lastEnd != Integer.MAX_VALUE
+                            && start <= lastEnd + 1) {
+                        // adjacent or overlapping with the same value.
+                        sortedEnds[size - 1] = Math.max(lastEnd, end);
+                        continue;
+                    }
+                    if (start <= lastEnd) {
+                        // overlapping, the range starting first keeps its value.
+                        if (end <= lastEnd) {
+                            continue;
+                        }
+                        start = lastEnd + 1;
+                    }
+                }
+                sortedStarts[size] = start;
+                sortedEnds[size] = end;
+                values[size] = value;
+                size++;
+            }
+            return new IpRangeTable(IntBuffer.wrap(Arrays.copyOf(sortedStarts, size)),
+                    IntBuffer.wrap(Arrays.copyOf(sortedEnds, size)),
+                    IntBuffer.wrap(Arrays.copyOf(values, size)), size, labels);
+        }
+    }
+}
@@ -21,26 +21,47 @@
  */
 package phex.common.bandwidth;
 
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A class that units a clamping bandwidth throttle with memory and a simple
+ * A class that units a hierarchical token bucket throttle with a simple
  * current/avg. bandwidth tracker.
  * <p>
- * Bandwidth generally does not exceed set value within a one second period.
- * Excess bandwidth is partially available for the
- * next period, exceeded bandwidth is fully unavailable for the next period.
+ * Each controller owns a lock free token bucket that refills continuously
+ * with the throttling rate and holds up to 200ms of bandwidth. Over used
+ * bandwidth is carried as debt of up to 15 seconds. Controllers can be
+ * chained to a parent, bytes then have to pass all controllers of the
+ * chain.
+ * <p>
+ * Children of the same parent share the parent bandwidth by their weight.
+ * Each active child is limited to its weighted share of the parent rate.
+ * Bandwidth left unused by a child fills up the parent bucket, the surplus
+ * above half of the parent bucket can be borrowed by its siblings.
  */
 public class BandwidthController {
-    private static final Logger logger = LoggerFactory.getLogger(BandwidthController.class);
+    public static final int DEFAULT_WEIGHT = 1;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * The time a empty bucket needs to fill up again. Matches the former
+     * window size.
+     */
+    private static final long BURST_NANOS = 200 * 1000000L;
+
+    /**
+     * Over used bandwidth lags behind max 15 seconds.
+     */
+    private static final long MAX_DEBT_NANOS = 15 * NANOS_PER_SECOND;
+
+    /**
+     * The period a child counts as active for weighted sharing.
+     */
+    private static final long EPOCH_NANOS = NANOS_PER_SECOND;
 
-    private static final int WINDOWS_PER_SECONDS = 5;
+    private static final long MIN_WAIT_NANOS = 100 * 1000L;
 
-    private static final int MILLIS_PER_WINDOW = 1000 / WINDOWS_PER_SECONDS;
     /**
      * The name of this BandwidthController.
      */
@@ -52,21 +73,33 @@ public class BandwidthController {
      */
     private final BandwidthController nextContollerInChain;
     /**
-     * The number of bytes each window has.
+     * The bucket throttling to the throttling rate.
+     */
+    private final TokenBucket bucket;
+    /**
+     * The bucket throttling to the weighted share of the parent rate. Null
+     * if there is no parent.
+     */
+    private final TokenBucket shareBucket;
+    /**
+     * The last epoch this controller registered its weight as active child
+     * with its parent.
      */
-    private int bytesPerWindow;
+    private final AtomicLong registeredEpoch;
     /**
-     * The number of bytes left in the current window
+     * The epoch (high 32 bits) and summed weight (low 32 bits) of the
+     * children active in the current epoch.
      */
-    private int bytesRemaining;
+    private final AtomicLong activeChildWeights;
     /**
-     * The timestamp of the start of the current window.
+     * The activeChildWeights value of the last epoch.
      */
-    private long lastWindowTime;
+    private volatile long lastActiveChildWeights;
     /**
      * The maximal rate in bytes per second.
      */
     private volatile long throttlingRate;
+    private volatile int weight;
     private TransferAverage shortTransferAvg;
     private TransferAverage longTransferAvg;
 
@@ -88,14 +121,30 @@ public class BandwidthController {
      * @param parent         a parent BandwidthController to chain controller.
      */
     public BandwidthController(String controllerName, long throttlingRate, BandwidthController parent) {
+        this(controllerName, throttlingRate, parent, DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Create a new bandwidth controller through acquireController()
+     *
+     * @param controllerName the name of this BandwidthController.
+     * @param throttlingRate the used throttling rate in bytes per second.
+     * @param parent         a parent BandwidthController to chain controller.
+     * @param weight         the weight of this controller when sharing the
+     *                       parent bandwidth with its siblings.
+     */
+    public BandwidthController(String controllerName, long throttlingRate,
+                               BandwidthController parent, int weight) {
         this.controllerName = controllerName + ' '
                 + Integer.toHexString(hashCode());
-
-        setThrottlingRate(throttlingRate);
         nextContollerInChain = parent;
-
-        // init the bytes remaining on start to ensure correct stats on start.
-        bytesRemaining = bytesPerWindow;
+        bucket = new TokenBucket(toBucketRate(throttlingRate), BURST_NANOS, MAX_DEBT_NANOS);
+        shareBucket = parent == null ? null
+                : new TokenBucket(toBucketRate(throttlingRate), BURST_NANOS, BURST_NANOS);
+        registeredEpoch = new AtomicLong(Long.MIN_VALUE);
+        activeChildWeights = new AtomicLong();
+        setWeight(weight);
+        setThrottlingRate(throttlingRate);
     }
 
     public void activateShortTransferAvg(int refreshRate, int period) {
@@ -106,9 +155,6 @@ public class BandwidthController {
         longTransferAvg = new TransferAverage(refreshRate, period);
     }
 
-    //    @SuppressWarnings(
-//        value= {"IS2_INCONSISTENT_SYNC"},
-//        justification="Synchronization here kills UI performance, getting an outdated value is not critical.")
     public TransferAverage getShortTransferAvg() {
         return shortTransferAvg;
     }
@@ -122,32 +168,33 @@ public class BandwidthController {
      *
      * @return the throttling rate in bytes per seconds
      */
-//    @SuppressWarnings(
-//        value= {"UG_SYNC_SET_UNSYNC_GET"},
-//        justification="Synchronization here kills UI performance, getting an outdated value is not critical.")
     public long getThrottlingRate() {
         return throttlingRate;
     }
 
     /**
-     * Call to set the desired throttling rate.
+     * Call to set the desired throttling rate. A rate of Integer.MAX_VALUE
+     * or more is unlimited.
      */
-    public synchronized void setThrottlingRate(long bytesPerSecond) {
-        if (bytesPerSecond == throttlingRate) {
-            return;
-        }
+    public void setThrottlingRate(long bytesPerSecond) {
         throttlingRate = bytesPerSecond;
-        // ensure that bytes per window is at least 1
-        bytesPerWindow = Math.max((int) ((double) throttlingRate / (double) WINDOWS_PER_SECONDS), 1);
+        bucket.setRate(toBucketRate(bytesPerSecond));
+    }
 
-        /*if ( logger.isDebugEnabled() )
-        {
-            logger.debug('[' +controllerName + "] Set throttling rate to "
-                + bytesPerSecond + "bps (" + bytesPerWindow + " per window)");
-        }*/
+    /**
+     * Returns the weight this controller shares the parent bandwidth with
+     * its siblings.
+     */
+    public int getWeight() {
+        return weight;
+    }
 
-        // keep the bytes remaining on the current window when bandwidth is dropping down..
-        bytesRemaining = bytesRemaining < bytesPerWindow ? Math.min(bytesRemaining, bytesPerWindow) : bytesRemaining;
+    /**
+     * Sets the weight this controller shares the parent bandwidth with its
+     * siblings. Changes take effect with the next epoch.
+     */
+    public void setWeight(int weight) {
+        this.weight = Math.max(weight, 1);
     }
 
     /**
@@ -157,113 +204,258 @@ public class BandwidthController {
      * @return the max number of bytes available.
      * @throws IOException
      */
-    public synchronized int getAvailableByteCount(int maxToRequest,
-                                                  boolean blockTillAvailable, boolean markBytesUsed) throws IOException {
-        updateWindow(blockTillAvailable);
-        int bytesAllowed = Math.max(0, Math.min(maxToRequest, bytesRemaining));
-        // If there is another controller we are chained to, call it.
+    public int getAvailableByteCount(int maxToRequest,
+                                     boolean blockTillAvailable, boolean markBytesUsed) throws IOException {
+        if (maxToRequest <= 0) {
+            return 0;
+        }
+        while (true) {
+            long now = System.nanoTime();
+            // blocking requests wait for a reasonable amount instead of
+            // returning each byte refilled in the meantime.
+            int minBytes = blockTillAvailable ? minGrant(maxToRequest, now) : 1;
+            int bytesAllowed = markBytesUsed ? acquire(minBytes, maxToRequest, now)
+                    : available(minBytes, maxToRequest, now);
+            if (bytesAllowed > 0 || !blockTillAvailable) {
+                return bytesAllowed;
+            }
+            long waitNanos = Math.max(nanosUntilAvailable(minBytes, now), MIN_WAIT_NANOS);
+            try {
+                Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+            } catch (InterruptedException e) {
+                //reset interrupted
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Marks bytes as used.
+     *
+     * @param byteCount
+     */
+    public void markBytesUsed(int byteCount) {
+        assert byteCount >= 0 : "Cant mark negative byteCount used: " + byteCount;
+        markBytesUsed(byteCount, System.nanoTime());
+    }
+
+    private void markBytesUsed(int byteCount, long now) {
+        if (!isUnlimited()) {
+            bucket.consume(byteCount, now);
+        }
         if (nextContollerInChain != null) {
-            bytesAllowed = nextContollerInChain.getAvailableByteCount(
-                    bytesAllowed, blockTillAvailable, false);
+            if (updateShareRate(now)) {
+                int surplus = nextContollerInChain.bucket.surplus(byteCount, now);
+                if (byteCount > surplus) {
+                    shareBucket.consume(byteCount - surplus, now);
+                }
+            }
+            nextContollerInChain.markBytesUsed(byteCount, now);
         }
+        trackTransfer(byteCount);
+    }
 
-        if (markBytesUsed) {
-            markBytesUsed(bytesAllowed);
+    /**
+     * Returns half of the smallest bucket in the chain, at most maxToRequest.
+     */
+    private int minGrant(int maxToRequest, long now) {
+        int minBytes = maxToRequest;
+        for (BandwidthController controller = this; controller != null;
+             controller = controller.nextContollerInChain) {
+            if (!controller.isUnlimited()) {
+                minBytes = Math.min(minBytes, controller.bucket.capacity() / 2);
+            }
+            if (controller.nextContollerInChain != null && controller.updateShareRate(now)) {
+                minBytes = Math.min(minBytes, controller.shareBucket.capacity() / 2);
+            }
         }
+        return Math.max(minBytes, 1);
+    }
 
-        if (bytesRemaining < 0 && logger.isErrorEnabled()) {
-            logger.error('[' + "{}] Available byte count {}bps - Remaining: {}" + '.', controllerName, bytesAllowed, bytesRemaining);
+    /**
+     * Returns the bytes available through the chain without taking them, or
+     * 0 if less than minBytes are available.
+     */
+    private int available(int minBytes, int maxToRequest, long now) {
+        int bytesAllowed = maxToRequest;
+        if (!isUnlimited()) {
+            bytesAllowed = bucket.available(maxToRequest, now);
+        }
+        if (bytesAllowed >= minBytes && nextContollerInChain != null) {
+            bytesAllowed = limitToShare(bytesAllowed, now);
+            if (bytesAllowed >= minBytes) {
+                bytesAllowed = nextContollerInChain.available(minBytes, bytesAllowed, now);
+            }
         }
-        /*else if ( logger.isDebugEnabled() )
-        {
-            logger.debug(
-                    '[' +controllerName + "] Available byte count " + bytesAllowed
-                + "bps - Remaining: " + bytesRemaining + '.');
-        }*/
+        return bytesAllowed >= minBytes ? bytesAllowed : 0;
+    }
 
+    /**
+     * Takes the bytes available through the chain, or nothing if less than
+     * minBytes are available. Bytes taken from this controller but denied by
+     * a parent are returned.
+     */
+    private int acquire(int minBytes, int maxToRequest, long now) {
+        boolean isLimited = !isUnlimited();
+        int bytesAllowed = maxToRequest;
+        if (isLimited) {
+            bytesAllowed = bucket.take(minBytes, maxToRequest, now);
+            if (bytesAllowed == 0) {
+                return 0;
+            }
+        }
+        if (nextContollerInChain != null) {
+            boolean isShared = updateShareRate(now);
+            // bytes borrowed from the parent surplus are not charged against
+            // the share.
+            int surplus = isShared ? nextContollerInChain.bucket.surplus(bytesAllowed, now) : 0;
+            int shared = limitToShare(bytesAllowed, now);
+            int granted = shared >= minBytes
+                    ? nextContollerInChain.acquire(minBytes, shared, now) : 0;
+            if (isLimited && granted < bytesAllowed) {
+                bucket.giveBack(bytesAllowed - granted);
+            }
+            bytesAllowed = granted;
+            if (bytesAllowed == 0) {
+                return 0;
+            }
+            if (isShared && bytesAllowed > surplus) {
+                shareBucket.consume(bytesAllowed - surplus, now);
+            }
+        }
+        trackTransfer(bytesAllowed);
         return bytesAllowed;
     }
 
     /**
-     * Marks bytes as used.
+     * Returns the time until the given number of bytes are available
+     * through this bandwidth controller and its parents.
      *
-     * @param byteCount
-     * @throws IOException
+     * @param byteCount the number of bytes requested.
+     * @return the time in nanos until the bytes are available, 0 if they
+     * are available now.
      */
-    public synchronized void markBytesUsed(int byteCount) {
-        assert byteCount >= 0 : "Cant mark negative byteCount used: " + byteCount;
-        updateWindow(false);
-        bytesRemaining -= byteCount;
-        if (bytesRemaining < 0) {
-            // let the remaining byte buffer lack max 15 seconds
-            // behind in case it is over used.
-            bytesRemaining = Math.max(bytesRemaining,
-                    -15 * WINDOWS_PER_SECONDS * bytesPerWindow);
-            updateWindow(true);
-        }
+    public long getNanosUntilAvailable(int byteCount) {
+        return nanosUntilAvailable(byteCount, System.nanoTime());
+    }
 
-        if (bytesRemaining < 0 && logger.isErrorEnabled()) {
-            logger.error('[' + "{}] !Mark bytes used {} - remaining: {}" + '.', controllerName, byteCount, bytesRemaining);
-        } else /*if ( logger.isDebugEnabled() )
-        {
-            logger.debug(
-                    '[' +controllerName + "] !Mark bytes used " + byteCount
-                + " - remaining: " + bytesRemaining + '.');
-        }*/
-
-            if (shortTransferAvg != null) {
-                shortTransferAvg.addValue(byteCount);
+    /**
+     * Returns the nanos until the requested bytes are available through the
+     * chain again.
+     */
+    private long nanosUntilAvailable(int maxToRequest, long now) {
+        long waitNanos = isUnlimited() ? 0 : bucket.nanosUntilAvailable(maxToRequest, now);
+        if (nextContollerInChain != null) {
+            long parentNanos = nextContollerInChain.nanosUntilAvailable(maxToRequest, now);
+            if (updateShareRate(now)) {
+                // the parent surplus can be borrowed as soon as it fills up again.
+                long shareNanos = Math.min(shareBucket.nanosUntilAvailable(maxToRequest, now),
+                        nextContollerInChain.bucket.nanosUntilSurplus(maxToRequest, now));
+                waitNanos = Math.max(waitNanos, shareNanos);
+                if (parentNanos > 0) {
+                    // the parent is exhausted, siblings take turns by their share
+                    // instead of all waking up for the next refill.
+                    parentNanos = Math.max(parentNanos, shareBucket.nanosToRefill(maxToRequest));
+                }
             }
-        if (longTransferAvg != null) {
-            longTransferAvg.addValue(byteCount);
+            waitNanos = Math.max(waitNanos, parentNanos);
         }
-        // If there is another controller we are chained to, call it.
-        if (nextContollerInChain != null) {
-            nextContollerInChain.markBytesUsed(byteCount);
+        return waitNanos;
+    }
+
+    /**
+     * Limits the requested bytes to the weighted share of the parent
+     * bandwidth plus the surplus the parent has above half of its bucket.
+     */
+    private int limitToShare(int maxToRequest, long now) {
+        if (!updateShareRate(now)) {
+            return maxToRequest;
         }
+        registerAsActiveChild(now);
+        return Math.max(shareBucket.available(maxToRequest, now),
+                nextContollerInChain.bucket.surplus(maxToRequest, now));
     }
 
-    private void updateWindow(boolean blockTillAvailable) {
-        boolean wasInterrupted = false;
-        long elapsedWindowMillis;
-        long now;
-        int updateTries = 0;
+    /**
+     * Updates the share bucket rate to the current weighted share of the
+     * parent rate.
+     *
+     * @return false if the parent is unlimited and no share is required.
+     */
+    private boolean updateShareRate(long now) {
+        BandwidthController parent = nextContollerInChain;
+        if (parent.isUnlimited()) {
+            return false;
+        }
+        int childWeights = Math.max(parent.getActiveChildWeights(now), weight);
+        long shareRate = Math.max(parent.throttlingRate * weight / childWeights, 1);
+        if (shareBucket.getRate() != shareRate) {
+            shareBucket.setRate(shareRate);
+        }
+        return true;
+    }
+
+    private void registerAsActiveChild(long now) {
+        long epoch = Math.floorDiv(now, EPOCH_NANOS);
+        long registered = registeredEpoch.get();
+        if (registered != epoch && registeredEpoch.compareAndSet(registered, epoch)) {
+            nextContollerInChain.addActiveChildWeight(epoch, weight);
+        }
+    }
+
+    private void addActiveChildWeight(long epoch, int childWeight) {
+        int epochTag = (int) epoch;
         while (true) {
-            now = System.currentTimeMillis();
-            elapsedWindowMillis = now - lastWindowTime;
-            if (elapsedWindowMillis >= MILLIS_PER_WINDOW) {
-                // last window used up too many bytes... 
-                if (bytesRemaining < 0) {
-                    bytesRemaining += bytesPerWindow;
-                } else {
-                    bytesRemaining = bytesPerWindow;
+            long current = activeChildWeights.get();
+            if ((int) (current >>> 32) == epochTag) {
+                if (activeChildWeights.compareAndSet(current, current + childWeight)) {
+                    return;
+                }
+            } else {
+                long updated = ((long) epochTag << 32) | childWeight;
+                if (activeChildWeights.compareAndSet(current, updated)) {
+                    lastActiveChildWeights = current;
+                    return;
                 }
-                lastWindowTime = now;
-//                if ( logger.isDebugEnabled( ) )
-//                {
-//                    logger.debug(
-//                            '[' +controllerName + "] Update new Window " + bytesPerWindow
-//                        + " - Remaining: " + bytesRemaining + '.');
-//                }
-            }
-            if (!blockTillAvailable || bytesRemaining > 0) {
-                break;
-            }
-            updateTries++;
-            if (updateTries > WINDOWS_PER_SECONDS * 2) {
-                break;
-            }
-            try {
-                Thread.sleep(Math.max(
-                        MILLIS_PER_WINDOW - elapsedWindowMillis, 0));
-            } catch (InterruptedException e) {
-                wasInterrupted = true;
-                break;
             }
         }
-        if (wasInterrupted) {//reset interrupted
-            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Returns the summed weight of the children active in the current or
+     * the last epoch.
+     */
+    private int getActiveChildWeights(long now) {
+        int epochTag = (int) Math.floorDiv(now, EPOCH_NANOS);
+        long current = activeChildWeights.get();
+        int currentTag = (int) (current >>> 32);
+        if (currentTag == epochTag - 1) {
+            return (int) current;
         }
+        if (currentTag != epochTag) {
+            return 0;
+        }
+        long last = lastActiveChildWeights;
+        int lastWeights = (int) (last >>> 32) == epochTag - 1 ? (int) last : 0;
+        return Math.max((int) current, lastWeights);
+    }
+
+    private boolean isUnlimited() {
+        return throttlingRate >= Integer.MAX_VALUE;
+    }
+
+    private void trackTransfer(int byteCount) {
+        if (shortTransferAvg != null) {
+            shortTransferAvg.addValue(byteCount);
+        }
+        if (longTransferAvg != null) {
+            longTransferAvg.addValue(byteCount);
+        }
+    }
+
+    private static long toBucketRate(long bytesPerSecond) {
+        return Math.min(Math.max(bytesPerSecond, 1), Integer.MAX_VALUE);
     }
 
     /**
@@ -282,8 +474,8 @@ public class BandwidthController {
      */
     public String toDebugString() {
         return "ThrottleController[Name:" + controllerName +
-                ",bytesPerWindow:" + bytesPerWindow + ",bytesRemaining:" + bytesRemaining
-                //+ ",Rate:" + getValue() + ",Avg:" + getAverageValue()
+                ",rate:" + throttlingRate + ",weight:" + weight
+                + ",available:" + bucket.available(Integer.MAX_VALUE, System.nanoTime())
                 ;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,184 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common.bandwidth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock free token bucket. The bucket state is kept as a single theoretical
+ * arrival time (the time at which the bucket will be completely refilled when
+ * nothing else is taken), so taking and returning tokens is a single CAS and
+ * tokens are refilled continuously instead of per window.
+ * <p>
+ * The bucket holds at most burst nanoseconds worth of tokens, but at least
+ * a single byte. Forced consumption can put the bucket into debt up to the
+ * max debt.
+ */
+class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /**
+     * The time in nanos the bucket is full at. A value in the past means the
+     * bucket is full now.
+     */
+    private final AtomicLong fullTime;
+    private final long burstNanos;
+    private final long maxDebtNanos;
+    private volatile long rate;
+
+    /**
+     * @param rate         the refill rate in bytes per second, must be > 0.
+     * @param burstNanos   the time it takes to refill a empty bucket.
+     * @param maxDebtNanos the max debt forced consumption can create.
+     */
+    TokenBucket(long rate, long burstNanos, long maxDebtNanos) {
+        this.rate = rate;
+        this.burstNanos = burstNanos;
+        this.maxDebtNanos = maxDebtNanos;
+        fullTime = new AtomicLong(System.nanoTime());
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    /**
+     * Changes the refill rate. Tokens already in the bucket are kept, the
+     * debt is not rescaled.
+     */
+    void setRate(long rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Returns the number of bytes available, at most max.
+     */
+    int available(int max, long now) {
+        long level = Math.max(fullTime.get() - now, 0);
+        return toBytes(burstNanos() - level, max);
+    }
+
+    /**
+     * Returns the number of bytes the bucket is filled above half, at most
+     * max.
+     */
+    int surplus(int max, long now) {
+        long level = Math.max(fullTime.get() - now, 0);
+        return toBytes(burstNanos() / 2 - level, max);
+    }
+
+    /**
+     * Returns the nanos until count bytes, or a half bucket if it holds
+     * less, are available above half of the bucket.
+     */
+    long nanosUntilSurplus(int count, long now) {
+        long level = fullTime.get() - now;
+        long required = Math.min(toNanos(count), burstNanos() / 2);
+        return Math.max(level - burstNanos() / 2 + required, 0);
+    }
+
+    /**
+     * Returns the number of bytes a full bucket holds.
+     */
+    int capacity() {
+        return Math.max(toBytes(burstNanos(), Integer.MAX_VALUE), 1);
+    }
+
+    /**
+     * Takes up to max bytes out of the bucket, but nothing if less than min
+     * bytes are available.
+     *
+     * @return the number of bytes taken.
+     */
+    int take(int min, int max, long now) {
+        while (true) {
+            long current = fullTime.get();
+            long base = Math.max(current, now);
+            int count = toBytes(burstNanos() - (base - now), max);
+            if (count == 0 || count < min) {
+                return 0;
+            }
+            if (fullTime.compareAndSet(current, base + toNanos(count))) {
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Takes the bytes out of the bucket no matter whether they are available.
+     */
+    void consume(int count, long now) {
+        long cost = toNanos(count);
+        long maxFullTime = now + burstNanos() + maxDebtNanos;
+        while (true) {
+            long current = fullTime.get();
+            long updated = Math.min(Math.max(current, now) + cost, maxFullTime);
+            if (updated <= current || fullTime.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns bytes taken before but not used.
+     */
+    void giveBack(int count) {
+        fullTime.addAndGet(-toNanos(count));
+    }
+
+    /**
+     * Returns the nanos until count bytes, or a full bucket if it holds
+     * less, are available again.
+     */
+    long nanosUntilAvailable(int count, long now) {
+        long level = fullTime.get() - now;
+        long required = Math.min(toNanos(count), burstNanos());
+        return Math.max(level - burstNanos() + required, 0);
+    }
+
+    /**
+     * Returns the nanos it takes to refill count bytes, or a full bucket if
+     * it holds less.
+     */
+    long nanosToRefill(int count) {
+        return Math.min(toNanos(count), burstNanos());
+    }
+
+    private long burstNanos() {
+        return Math.max(burstNanos, toNanos(1));
+    }
+
+    private long toNanos(int count) {
+        return Math.max(count * NANOS_PER_SECOND / rate, 1);
+    }
+
+    private int toBytes(long nanos, int max) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        // avoid overflow of nanos * rate for large rates.
+        long bytes = nanos >= NANOS_PER_SECOND
+                ? nanos / NANOS_PER_SECOND * rate
+                : nanos * rate / NANOS_PER_SECOND;
+        return (int) Math.min(bytes, max);
+    }
+}
@@ -22,11 +22,13 @@
  */
 package phex.common.bandwidth;
 
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * This class calculates average transfer speed. It tracks the average over
  * a given period with a given refresh time.
- * It is based on a cyclic array of longs to store its values.
+ * It is based on a cyclic array of longs to store its values. Adding a
+ * value only locks when a new time slice starts.
  */
 public class TransferAverage {
     /**
@@ -42,12 +44,12 @@ public class TransferAverage {
     /**
      * The last update time factor used.
      */
-    private long updateTimeFactor;
+    private volatile long updateTimeFactor;
 
     /**
      * The array of values to calc the avg for.
      */
-    private long values[];
+    private final AtomicLongArray values;
 
     public TransferAverage(int refreshRate, int period) {
         if (period * 1000 < refreshRate) {
@@ -60,16 +62,20 @@ public class TransferAverage {
         // we have 2 extra elements one for the next value to fill and the other
         // is the currently filled value.
         int elementCount = (int) Math.ceil((period * 1000f) / refreshRate + 2);
-        values = new long[elementCount];
+        values = new AtomicLongArray(elementCount);
     }
 
     /**
      * Updates and cleans the buffer of values.
      */
     private synchronized void update(long currentTimeFactor) {
+        if (currentTimeFactor <= this.updateTimeFactor) {
+            // already updated by a other thread.
+            return;
+        }
 
-        long[] values = this.values;
-        int len = values.length;
+        AtomicLongArray values = this.values;
+        int len = values.length();
 
         // in case last update is old.. skip to only erase buffer once.
         long updateTimeFactor = this.updateTimeFactor = (this.updateTimeFactor < currentTimeFactor - len) ?
@@ -78,10 +84,10 @@ public class TransferAverage {
 
         // clear all values between last updateTimeFactor and current.
         for (long i = updateTimeFactor + 1; i <= currentTimeFactor; i++) {
-            values[(int) (i % len)] = 0;
+            values.set((int) (i % len), 0);
         }
         // clear next
-        values[(int) ((currentTimeFactor + 1) % len)] = 0;
+        values.set((int) ((currentTimeFactor + 1) % len), 0);
 
         this.updateTimeFactor = currentTimeFactor;
     }
@@ -91,8 +97,10 @@ public class TransferAverage {
      */
     public void addValue(long value) {
         long currentTimeFactor = System.currentTimeMillis() / refreshRate;
-        update(currentTimeFactor);
-        values[(int) (currentTimeFactor % values.length)] += value;
+        if (currentTimeFactor != updateTimeFactor) {
+            update(currentTimeFactor);
+        }
+        values.addAndGet((int) (currentTimeFactor % values.length()), value);
     }
 
     /**
@@ -100,12 +108,14 @@ public class TransferAverage {
      */
     public long getAverage() {
         long currentTimeFactor = System.currentTimeMillis() / refreshRate;
-        update(currentTimeFactor);
+        if (currentTimeFactor != updateTimeFactor) {
+            update(currentTimeFactor);
+        }
 
         long sum = 0;
-
-        for (long i = currentTimeFactor + 2; i < currentTimeFactor + values.length; i++) {
-            sum += values[(int) (i % values.length)];
+        int len = values.length();
+        for (long i = currentTimeFactor + 2; i < currentTimeFactor + len; i++) {
+            sum += values.get((int) (i % len));
         }
         return (sum / period);
     }
@@ -29,7 +29,9 @@ import phex.util.FileUtils;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -145,6 +147,21 @@ public class ManagedFile implements ReadOnlyManagedFile {
 
     public void write(ByteBuffer buffer, long pos)
             throws ManagedFileException {
+        write(new ByteBuffer[]{buffer}, pos);
+    }
+
+    /**
+     * Writes the buffers in sequence to the file starting at pos, using a
+     * single gathering write where possible.
+     */
+    public void write(ByteBuffer[] buffers, long pos)
+            throws ManagedFileException {
+        java.nio.ByteBuffer[] nioBuffers = new java.nio.ByteBuffer[buffers.length];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            nioBuffers[i] = buffers[i].internalBuffer();
+            remaining += nioBuffers[i].remaining();
+        }
         try {
             lock.lockInterruptibly();
 
@@ -159,14 +176,16 @@ public class ManagedFile implements ReadOnlyManagedFile {
             channel.position(pos);
 
             int tryCount = 0;
-            while (buffer.position() != buffer.limit()) {
-                int written = channel.write(buffer.internalBuffer());
+            while (remaining > 0) {
+                long written = channel.write(nioBuffers);
                 if (written > 0) {
+                    remaining -= written;
                     tryCount = 0;
                 } else {
                     if (tryCount >= MAX_WRITE_TRIES) {
                         throw new ManagedFileException("write failes: max retries");
                     }
+                    tryCount++;
                     // sleep a bit until we retry.
                     try {
                         Thread.sleep(WRITE_RETRY_DELAY * tryCount);
@@ -179,6 +198,8 @@ public class ManagedFile implements ReadOnlyManagedFile {
         } catch (InterruptedException exp) {
             Thread.currentThread().interrupt();
             throw new ManagedFileException("write failes: interrupted", exp);
+        } catch (ManagedFileException exp) {
+            throw exp;
         } catch (Exception exp) {
             throw new ManagedFileException("write fails", exp);
         } finally {
@@ -220,6 +241,56 @@ public class ManagedFile implements ReadOnlyManagedFile {
         }
     }
 
+    /**
+     * Transfers up to count bytes starting at pos directly to the target
+     * channel. The file lock is only held to open the file, the transfer
+     * itself might block on the target and must not lock out other readers.
+     *
+     * @return the number of bytes transferred.
+     */
+    public long transferTo(long pos, long count, WritableByteChannel target)
+            throws ManagedFileException {
+        FileChannel channel = getReadChannel();
+        try {
+            return channel.transferTo(pos, count, target);
+        } catch (ClosedChannelException exp) {
+            // the file might have been closed by the open files limit meanwhile.
+            if (channel.isOpen() || !target.isOpen()) {
+                throw new ManagedFileException("transfer fails", exp);
+            }
+        } catch (IOException exp) {
+            throw new ManagedFileException("transfer fails", exp);
+        }
+        try {
+            return getReadChannel().transferTo(pos, count, target);
+        } catch (IOException exp) {
+            throw new ManagedFileException("transfer fails", exp);
+        }
+    }
+
+    private FileChannel getReadChannel()
+            throws ManagedFileException {
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new ManagedFileException("transfer failes: interrupted", exp);
+        }
+        try {
+            checkOpenFile();
+            if (raFile == null) {
+                throw new ManagedFileException("transfer failes: raFile null");
+            }
+            FileChannel channel = raFile.getChannel();
+            if (!channel.isOpen()) {
+                throw new ManagedFileException("transfer failes: not open");
+            }
+            return channel;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void renameFile(File destFile) throws ManagedFileException {
         try {
             lock.lockInterruptibly();
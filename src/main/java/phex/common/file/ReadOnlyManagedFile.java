@@ -23,11 +23,22 @@ package phex.common.file;
 
 import phex.io.buffer.ByteBuffer;
 
+import java.nio.channels.WritableByteChannel;
+
 
 public interface ReadOnlyManagedFile {
     int read(ByteBuffer buffer, long pos)
             throws ManagedFileException;
 
+    /**
+     * Transfers up to count bytes starting at pos directly to the target
+     * channel, without copying them through a buffer.
+     *
+     * @return the number of bytes transferred.
+     */
+    long transferTo(long pos, long count, WritableByteChannel target)
+            throws ManagedFileException;
+
     void closeFile()
             throws ManagedFileException;
 
@@ -0,0 +1,607 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.common.AbstractLifeCycle;
+import phex.common.Environment;
+import phex.common.ThreadTracking;
+import phex.common.Workload;
+import phex.common.address.DestAddress;
+import phex.host.CaughtHostsContainer;
+import phex.host.Host;
+import phex.host.HostManager;
+import phex.host.HostStatus;
+import phex.host.NetworkHostsContainer;
+import phex.net.connection.Connection;
+import phex.net.connection.SocketFactory;
+import phex.net.repres.PresentationManager;
+import phex.net.repres.SocketFacade;
+import phex.peer.Peer;
+import phex.statistic.LatencyHistogram;
+import phex.statistic.MetricsRegistry;
+import phex.statistic.StatisticsManager;
+import phex.util.IOUtil;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Races outgoing Gnutella connect attempts to the best caught hosts.
+ * <p>
+ * Connects are started non-blocking and completed by a single selector
+ * thread, only the handshake of a connected host runs on the network thread
+ * pool. The number of attempts in flight is bounded, each finished attempt
+ * immediately refills the free slot with the next best host. Once all
+ * required ultrapeer slots are filled, attempts still connecting are
+ * cancelled.
+ * <p>
+ * Connect latency, handshake result and uptime of the connections are
+ * reported to the {@link CaughtHostsContainer} to learn the score of the
+ * caught hosts. In case the presentation does not support non-blocking
+ * connects, or a SOCKS proxy is used, the blocking connect is run on the
+ * network thread pool instead.
+ */
+public class ConnectionDialer extends AbstractLifeCycle {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionDialer.class);
+
+    /**
+     * The max time the selector waits before connect timeouts are checked.
+     */
+    private static final int SELECT_TIMEOUT = 500;
+
+    /**
+     * The max number of attempts in flight, also bound by
+     * MaxConcurrentConnectAttempts.
+     */
+    private static final int MAX_ATTEMPTS_IN_FLIGHT = 20;
+
+    private final Peer peer;
+
+    /**
+     * The attempts in flight by address.
+     */
+    private final Map<DestAddress, DialAttempt> attempts;
+
+    /**
+     * The connecting attempts to register with the selector.
+     */
+    private final Queue<DialAttempt> pendingAttempts;
+
+    /**
+     * The time in millis each dialed connection was established, to learn
+     * the connection uptime once it is closed.
+     */
+    private final Map<Host, Long> establishedHosts;
+
+    private Selector selector;
+    private Thread selectorThread;
+
+    /**
+     * Time to fill all required connection slots.
+     */
+    private LatencyHistogram timeToConnections;
+
+    /**
+     * The start time in nanos since required connection slots are not
+     * filled, or 0 if all slots are filled.
+     */
+    private long missingConnectionsSince;
+
+    public ConnectionDialer(Peer peer) {
+        this.peer = peer;
+        attempts = new HashMap<DestAddress, DialAttempt>();
+        pendingAttempts = new ConcurrentLinkedQueue<DialAttempt>();
+        establishedHosts = new HashMap<Host, Long>();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        initMetrics(peer.getStatisticsService().getMetrics());
+        selector = Selector.open();
+        selectorThread = new Thread(ThreadTracking.rootThreadGroup,
+                this::runSelectLoop, "ConnectionDialer-" + Integer.toHexString(hashCode()));
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        Selector sel = selector;
+        if (sel != null) {
+            sel.close();
+        }
+        for (DialAttempt attempt : getAttempts()) {
+            cancelAttempt(attempt, "Dialer stopped");
+        }
+    }
+
+    private void initMetrics(MetricsRegistry metrics) {
+        timeToConnections = metrics.getHistogram(
+                StatisticsManager.TIME_TO_CONNECTIONS_PROVIDER);
+        metrics.registerGauge("DialAttemptsInFlight", this::getAttemptCount);
+    }
+
+    /**
+     * Returns the number of connect attempts currently in flight.
+     */
+    public int getAttemptCount() {
+        synchronized (attempts) {
+            return attempts.size();
+        }
+    }
+
+    /**
+     * Starts up to <tt>count</tt> connect attempts to the next best caught
+     * hosts, as long as attempt slots are free.
+     *
+     * @param count the number of hosts to dial.
+     */
+    public void dial(int count) {
+        if (!isRunning()) {
+            return;
+        }
+        HostManager hostService = peer.getHostService();
+        CaughtHostsContainer caughtHostsContainer = hostService.getCaughtHostsContainer();
+        NetworkHostsContainer networkHostsCont = hostService.getNetworkHostsContainer();
+        if (updateMissingConnections()) {
+            return;
+        }
+        int maxAttempts = Math.min(MAX_ATTEMPTS_IN_FLIGHT,
+                peer.netPrefs.MaxConcurrentConnectAttempts.get());
+        for (int i = 0; i < count; i++) {
+            DialAttempt attempt;
+            synchronized (attempts) {
+                if (attempts.size() >= maxAttempts) {
+                    return;
+                }
+                DestAddress address;
+                do {
+                    address = caughtHostsContainer.getNextCaughtHost();
+                    if (address == null) {
+                        // no host is currently available...
+                        return;
+                    }
+                }
+                while (attempts.containsKey(address)
+                        || networkHostsCont.isConnectedToHost(address));
+
+                Host host = networkHostsCont.createOutgoingHost(address);
+                host.setStatus(HostStatus.CONNECTING);
+                attempt = new DialAttempt(host);
+                attempts.put(address, attempt);
+            }
+            startAttempt(attempt);
+        }
+    }
+
+    /**
+     * Tracks the uptime of an established connection, which is reported to
+     * the caught hosts once the connection is closed.
+     *
+     * @param host the connected host.
+     */
+    public void trackConnectionUptime(Host host) {
+        synchronized (establishedHosts) {
+            establishedHosts.put(host, Long.valueOf(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Reports the uptime of closed connections and keeps track of the time
+     * to fill the required connection slots.
+     */
+    public void periodicallyCheckConnections() {
+        List<Host> closedHosts = new ArrayList<Host>();
+        List<Long> connectTimes = new ArrayList<Long>();
+        synchronized (establishedHosts) {
+            Iterator<Map.Entry<Host, Long>> iterator = establishedHosts.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Host, Long> entry = iterator.next();
+                if (!entry.getKey().isConnected()) {
+                    closedHosts.add(entry.getKey());
+                    connectTimes.add(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        CaughtHostsContainer caughtHostsContainer =
+                peer.getHostService().getCaughtHostsContainer();
+        for (int i = 0; i < closedHosts.size(); i++) {
+            Host host = closedHosts.get(i);
+            long connectTime = connectTimes.get(i).longValue();
+            long closeTime = Math.max(host.getStatusTime(), connectTime);
+            caughtHostsContainer.reportConnectionUptime(host.getHostAddress(),
+                    (int) ((closeTime - connectTime) / 1000));
+        }
+        updateMissingConnections();
+    }
+
+    private void startAttempt(DialAttempt attempt) {
+        SocketChannel channel = null;
+        if (!peer.proxyPrefs.UseSocks5.get()) {
+            try {
+                channel = PresentationManager.getInstance().openConnectingChannel(
+                        attempt.getAddress());
+            } catch (Exception exp) {
+                // dial continues with the next host, no refill needed.
+                failAttempt(attempt, exp.getMessage());
+                return;
+            }
+        }
+        if (channel == null) {
+            try {
+                Environment.getInstance().executeOnThreadPool(() -> connectBlocking(attempt),
+                        "ConnectionDialer-" + attempt.getAddress(), Workload.NETWORK);
+            } catch (RejectedExecutionException exp) {
+                // not the fault of the host, don't report a failed connect.
+                cancelAttempt(attempt, "Thread pool exhausted");
+            }
+            return;
+        }
+        attempt.channel = channel;
+        attempt.deadline = System.currentTimeMillis()
+                + peer.netPrefs.TcpConnectTimeout.get().intValue();
+        pendingAttempts.add(attempt);
+        Selector sel = selector;
+        if (sel != null) {
+            sel.wakeup();
+        }
+    }
+
+    private void runSelectLoop() {
+        logger.debug("Connection dialer started.");
+        try {
+            while (selector.isOpen()) {
+                selector.select(SELECT_TIMEOUT);
+                if (!selector.isOpen()) {
+                    break;
+                }
+                try {
+                    selectAttempts();
+                } catch (ClosedSelectorException exp) {
+                    break;
+                } catch (RuntimeException exp) {
+                    // keep dialing, the other attempts are not affected.
+                    logger.error(exp.toString(), exp);
+                }
+            }
+        } catch (Throwable th) {
+            logger.error(th.toString(), th);
+        }
+        logger.debug("Connection dialer stopped.");
+    }
+
+    private void selectAttempts() throws IOException {
+        List<DialAttempt> connected = new ArrayList<DialAttempt>();
+        registerPendingAttempts(connected);
+
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            DialAttempt attempt = (DialAttempt) key.attachment();
+            try {
+                if (key.isValid() && attempt.channel.finishConnect()) {
+                    key.cancel();
+                    connected.add(attempt);
+                }
+            } catch (IOException exp) {
+                key.cancel();
+                connectFailed(attempt, exp.getMessage());
+            }
+        }
+        expireAttempts();
+
+        if (!connected.isEmpty()) {
+            // deregister the cancelled keys before the channels are
+            // switched back to blocking mode.
+            selector.selectNow();
+            for (DialAttempt attempt : connected) {
+                try {
+                    Environment.getInstance().executeOnThreadPool(
+                            () -> handshakeConnected(attempt),
+                            "ConnectionDialer-" + attempt.getAddress(), Workload.NETWORK);
+                } catch (RejectedExecutionException exp) {
+                    // not the fault of the host, don't report a failed connect.
+                    cancelAttempt(attempt, "Thread pool exhausted");
+                }
+            }
+        }
+    }
+
+    private void registerPendingAttempts(List<DialAttempt> connected) {
+        DialAttempt attempt;
+        while ((attempt = pendingAttempts.poll()) != null) {
+            SocketChannel channel = attempt.channel;
+            try {
+                if (channel.isConnectionPending()) {
+                    channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+                } else if (channel.isConnected()) {
+                    connected.add(attempt);
+                } else {
+                    // cancelled meanwhile
+                    IOUtil.closeQuietly(channel);
+                }
+            } catch (IOException exp) {
+                connectFailed(attempt, exp.getMessage());
+            }
+        }
+    }
+
+    private void expireAttempts() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            DialAttempt attempt = (DialAttempt) key.attachment();
+            if (key.isValid() && attempt.deadline < now) {
+                key.cancel();
+                connectFailed(attempt, "Connect timeout");
+            }
+        }
+    }
+
+    private void handshakeConnected(DialAttempt attempt) {
+        long latency = System.currentTimeMillis() - attempt.startTime;
+        if (!attempt.beginHandshake()) {
+            return;
+        }
+        Connection connection;
+        try {
+            SocketFacade socket = PresentationManager.getInstance().createSocket(
+                    attempt.channel);
+            socket.setSoTimeout(peer.netPrefs.TcpRWTimeout.get());
+            connection = new Connection(socket,
+                    peer.getBandwidthService().getNetworkBandwidthController());
+        } catch (IOException exp) {
+            IOUtil.closeQuietly(attempt.channel);
+            handshakeFailed(attempt, latency, exp.getMessage());
+            return;
+        }
+        establishConnection(attempt, connection, latency);
+    }
+
+    private void connectBlocking(DialAttempt attempt) {
+        Connection connection;
+        try {
+            SocketFacade socket = new SocketFactory(peer).connect(attempt.getAddress());
+            connection = new Connection(socket,
+                    peer.getBandwidthService().getNetworkBandwidthController());
+        } catch (Exception exp) {
+            connectFailed(attempt, exp.getMessage());
+            return;
+        }
+        long latency = System.currentTimeMillis() - attempt.startTime;
+        if (!attempt.beginHandshake()) {
+            // cancelled during connect
+            connection.disconnect();
+            return;
+        }
+        establishConnection(attempt, connection, latency);
+    }
+
+    private void establishConnection(DialAttempt attempt, Connection connection,
+                                     long latency) {
+        Host host = attempt.host;
+        host.setConnection(connection);
+        ConnectionEngine engine = OutgoingConnectionDispatcher.initHandshake(peer, host);
+        finishAttempt(attempt);
+        peer.getHostService().getCaughtHostsContainer().reportConnectResult(
+                attempt.getAddress(), true, latency, engine != null);
+        if (engine == null) {
+            refill();
+            return;
+        }
+        trackConnectionUptime(host);
+        if (updateMissingConnections()) {
+            cancelConnectingAttempts();
+        } else {
+            refill();
+        }
+        OutgoingConnectionDispatcher.processIncomingData(host, engine);
+    }
+
+    private void handshakeFailed(DialAttempt attempt, long latency, String reason) {
+        Host host = attempt.host;
+        host.setStatus(HostStatus.ERROR, reason);
+        host.disconnect();
+        finishAttempt(attempt);
+        peer.getHostService().getCaughtHostsContainer().reportConnectResult(
+                attempt.getAddress(), true, latency, false);
+        refill();
+    }
+
+    private void connectFailed(DialAttempt attempt, String reason) {
+        if (failAttempt(attempt, reason)) {
+            refill();
+        }
+    }
+
+    /**
+     * Finishes a failed connect attempt.
+     *
+     * @return false if the attempt was already finished.
+     */
+    private boolean failAttempt(DialAttempt attempt, String reason) {
+        if (!attempt.finish()) {
+            return false;
+        }
+        IOUtil.closeQuietly(attempt.channel);
+        Host host = attempt.host;
+        host.setStatus(HostStatus.ERROR, reason);
+        host.disconnect();
+        removeAttempt(attempt);
+        logger.debug("can not connect: {} {}", attempt.getAddress(), reason);
+        peer.getHostService().getCaughtHostsContainer().reportConnectResult(
+                attempt.getAddress(), false, 0, false);
+        return true;
+    }
+
+    private void cancelAttempt(DialAttempt attempt, String reason) {
+        if (!attempt.finish()) {
+            return;
+        }
+        IOUtil.closeQuietly(attempt.channel);
+        Host host = attempt.host;
+        host.setStatus(HostStatus.ERROR, reason);
+        host.disconnect();
+        removeAttempt(attempt);
+    }
+
+    /**
+     * Cancels the attempts that are still connecting, once all required
+     * connection slots are filled.
+     */
+    private void cancelConnectingAttempts() {
+        for (DialAttempt attempt : getAttempts()) {
+            cancelAttempt(attempt, "Connection slots filled");
+        }
+    }
+
+    private void finishAttempt(DialAttempt attempt) {
+        attempt.finish();
+        removeAttempt(attempt);
+    }
+
+    private void removeAttempt(DialAttempt attempt) {
+        synchronized (attempts) {
+            attempts.remove(attempt.getAddress());
+        }
+    }
+
+    private List<DialAttempt> getAttempts() {
+        synchronized (attempts) {
+            return new ArrayList<DialAttempt>(attempts.values());
+        }
+    }
+
+    /**
+     * Fills free attempt slots in case connection slots are missing.
+     */
+    private void refill() {
+        if (!isRunning()) {
+            return;
+        }
+        HostManager hostService = peer.getHostService();
+        if (Thread.currentThread() == selectorThread) {
+            // keep the selector thread free from host lookups.
+            try {
+                Environment.getInstance().executeOnThreadPool(hostService::doAutoConnectCheck,
+                        "ConnectionDialer-Refill", Workload.NETWORK);
+            } catch (RejectedExecutionException exp) {
+                // the periodic auto connect check refills later.
+                logger.debug("Refill rejected: {}", exp.toString());
+            }
+        } else {
+            hostService.doAutoConnectCheck();
+        }
+    }
+
+    /**
+     * Updates the time since connection slots are missing.
+     *
+     * @return true if all required connection slots are filled.
+     */
+    private boolean updateMissingConnections() {
+        HostManager hostService = peer.getHostService();
+        boolean isFilled = hostService.getNetworkHostsContainer().getUltrapeerConnectionCount()
+                >= hostService.getRequiredUltrapeerConnectionCount();
+        synchronized (this) {
+            if (!peer.getOnlineStatus().isNetworkOnline()) {
+                missingConnectionsSince = 0;
+            } else if (isFilled) {
+                if (missingConnectionsSince != 0 && timeToConnections != null) {
+                    timeToConnections.recordSince(missingConnectionsSince);
+                }
+                missingConnectionsSince = 0;
+            } else if (missingConnectionsSince == 0) {
+                missingConnectionsSince = System.nanoTime();
+            }
+        }
+        return isFilled;
+    }
+
+    private static class DialAttempt {
+        private static final int CONNECTING = 0;
+        private static final int HANDSHAKE = 1;
+        private static final int FINISHED = 2;
+
+        private final Host host;
+        private final long startTime;
+        private final AtomicInteger state;
+
+        /**
+         * The connecting channel, or null if connected blocking.
+         */
+        private volatile SocketChannel channel;
+
+        /**
+         * The time in millis the connect times out, used by the selector
+         * thread only.
+         */
+        private long deadline;
+
+        private DialAttempt(Host host) {
+            this.host = host;
+            startTime = System.currentTimeMillis();
+            state = new AtomicInteger(CONNECTING);
+        }
+
+        private DestAddress getAddress() {
+            return host.getHostAddress();
+        }
+
+        /**
+         * Moves a connected attempt into handshake.
+         *
+         * @return false if the attempt was cancelled before.
+         */
+        private boolean beginHandshake() {
+            return state.compareAndSet(CONNECTING, HANDSHAKE);
+        }
+
+        /**
+         * Finishes the attempt.
+         *
+         * @return false if the attempt was already finished or is in
+         * handshake.
+         */
+        private boolean finish() {
+            if (state.compareAndSet(HANDSHAKE, FINISHED)) {
+                return false;
+            }
+            return state.compareAndSet(CONNECTING, FINISHED);
+        }
+    }
+}
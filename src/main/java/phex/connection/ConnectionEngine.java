@@ -30,6 +30,7 @@ import phex.host.CaughtHostsContainer;
 import phex.host.Host;
 import phex.host.HostStatus;
 import phex.http.*;
+import phex.io.buffer.BufferCache;
 import phex.io.buffer.ByteBuffer;
 import phex.msg.InvalidMessageException;
 import phex.msg.Message;
@@ -78,6 +79,14 @@ public class ConnectionEngine implements ConnectionConstants {
     private byte[] headerBuffer;
     private HTTPHeaderGroup headersRead;
     private HTTPHeaderGroup headersSend;
+    /**
+     * The reactor to hand the connection over to after the handshake, or
+     * null if a blocking read thread is used.
+     */
+    private final ConnectionReactor reactor;
+    private boolean isInputInflated;
+    private boolean isOutputDeflated;
+    private boolean isReactorManaged;
 
     public ConnectionEngine(Peer peer, Host connectedHost) {
         this.peer = peer;
@@ -85,10 +94,25 @@ public class ConnectionEngine implements ConnectionConstants {
         this.securityService = peer.getSecurityService();
         this.connectedHost = connectedHost;
         this.connection = connectedHost.getConnection();
+        this.reactor = connection.getSocket().getSocketChannel() != null
+                ? peer.getConnectionReactor() : null;
+    }
+
+    /**
+     * Returns true if the connection was handed over to the
+     * ConnectionReactor after the handshake. In this case no thread must
+     * call processIncomingData() and the connection stays open after the
+     * handshake thread is done.
+     */
+    public boolean isReactorManaged() {
+        return isReactorManaged;
     }
 
     public void processIncomingData()
             throws IOException {
+        if (isReactorManaged) {
+            return;
+        }
         headerBuffer = new byte[MsgHeader.DATA_LENGTH];
         try {
             while (true) {
@@ -116,49 +140,7 @@ public class ConnectionEngine implements ConnectionConstants {
                 byte[] body = MessageProcessor.readMessageBody(connection,
                         header.getDataLength());
 
-                connectedHost.incReceivedCount();
-
-
-                int ttl = header.getTTL();
-                int hops = header.getHopsTaken();
-                // verify valid ttl and hops data
-                if (ttl < 0 || hops < 0) {
-                    messageService.dropMessage(header, body,
-                            "TTL or hops below 0", connectedHost);
-                    continue;
-                }
-                // if message traveled too far already... drop it.
-                int MAX_TTL = MessagePrefs.MaxNetworkTTL.get();
-                if (hops > MAX_TTL) {
-                    messageService.dropMessage(header, body,
-                            "Hops larger then maxNetworkTTL", connectedHost);
-                    continue;
-                }
-                // limit TTL if too high!
-                if (ttl >= MAX_TTL) {
-                    header.setTTL((byte) (MAX_TTL - hops));
-                }
-
-                Message message;
-                try {
-                    message = MessageProcessor.createMessageFromBody(
-                            header, body, securityService);
-                    if (message == null) { // unknown message type...
-                        messageService.dropMessage(header, body,
-                                "Unknown message type", connectedHost);
-                        continue;
-                    }
-                } catch (InvalidMessageException exp) {
-                    messageService.dropMessage(header, body,
-                            "Invalid message: " + exp.getMessage(), connectedHost);
-                    logger.warn("drop {}", exp.getMessage()); //exp.toString(), exp);
-                    continue;
-                }
-
-                // count the hop and decrement TTL...
-                header.countHop();
-
-                messageService.dispatchMessage(message, connectedHost);
+                handleMessage(header, body);
             }
         } catch (IOException exp) {
             logger.debug(exp.toString(), exp);
@@ -177,6 +159,75 @@ public class ConnectionEngine implements ConnectionConstants {
         }
     }
 
+    /**
+     * Validates and dispatches a received message. The body is borrowed
+     * from the BufferCache, it is given back when the message is dropped
+     * and otherwise handed over to the created message.
+     *
+     * @param header the header of the received message.
+     * @param body   the body of the received message.
+     */
+    void handleMessage(MsgHeader header, byte[] body) {
+        BufferCache bufferCache = BufferCache.getInstance();
+        if (header.getPayload() == 2) {
+            // bye message, ignored see processIncomingData()
+            bufferCache.release(body);
+            return;
+        }
+        connectedHost.incReceivedCount();
+
+        int ttl = header.getTTL();
+        int hops = header.getHopsTaken();
+        // verify valid ttl and hops data
+        if (ttl < 0 || hops < 0) {
+            messageService.dropMessage(header, body,
+                    "TTL or hops below 0", connectedHost);
+            bufferCache.release(body);
+            return;
+        }
+        // if message traveled too far already... drop it.
+        int MAX_TTL = peer.messagePrefs.MaxNetworkTTL.get();
+        if (hops > MAX_TTL) {
+            messageService.dropMessage(header, body,
+                    "Hops larger then maxNetworkTTL", connectedHost);
+            bufferCache.release(body);
+            return;
+        }
+        // limit TTL if too high!
+        if (ttl >= MAX_TTL) {
+            header.setTTL((byte) (MAX_TTL - hops));
+        }
+
+        Message message;
+        try {
+            message = MessageProcessor.createMessageFromBody(
+                    header, body, securityService);
+            if (message == null) { // unknown message type...
+                messageService.dropMessage(header, body,
+                        "Unknown message type", connectedHost);
+                bufferCache.release(body);
+                return;
+            }
+        } catch (InvalidMessageException exp) {
+            messageService.dropMessage(header, body,
+                    "Invalid message: " + exp.getMessage(), connectedHost);
+            bufferCache.release(body);
+            logger.warn("drop {}", exp.getMessage()); //exp.toString(), exp);
+            return;
+        }
+
+        // count the hop and decrement TTL...
+        header.countHop();
+
+        message.setPooledBody(body);
+        try {
+            messageService.dispatchMessage(message, connectedHost);
+        } finally {
+            // no-op in case the dispatcher recycled the body of a dropped message.
+            message.keepBody();
+        }
+    }
+
     private MsgHeader readHeader()
             throws IOException {
         MsgHeader header = MessageProcessor.parseMessageHeader(connection,
@@ -227,6 +278,13 @@ public class ConnectionEngine implements ConnectionConstants {
             }
         }
 
+        if (reactor != null) {
+            // hand over before any message is queued to the host.
+            reactor.register(this, connectedHost, connection.getSocket().getSocketChannel(),
+                    connection.getInputStream().drainBuffer(), isInputInflated, isOutputDeflated);
+            isReactorManaged = true;
+        }
+
         // Connection to remote gnutella host is completed at this point.
         connectedHost.setStatus(HostStatus.CONNECTED);
         peer.getHostService().addConnectedHost(connectedHost);
@@ -531,15 +589,20 @@ public class ConnectionEngine implements ConnectionConstants {
             throws IOException
 
     {
-        if (myHeadersSend.isHeaderValueContaining(HTTPHeaderNames.ACCEPT_ENCODING,
+        isInputInflated = myHeadersSend.isHeaderValueContaining(HTTPHeaderNames.ACCEPT_ENCODING,
                 "deflate") && theirHeadersRead.isHeaderValueContaining(
-                HTTPHeaderNames.CONTENT_ENCODING, "deflate")) {
-            connectedHost.activateInputInflation();
-        }
-        if (theirHeadersRead.isHeaderValueContaining(HTTPHeaderNames.ACCEPT_ENCODING,
+                HTTPHeaderNames.CONTENT_ENCODING, "deflate");
+        isOutputDeflated = theirHeadersRead.isHeaderValueContaining(HTTPHeaderNames.ACCEPT_ENCODING,
                 "deflate") && myHeadersSend.isHeaderValueContaining(
-                HTTPHeaderNames.CONTENT_ENCODING, "deflate")) {
-            connectedHost.activateOutputDeflation();
+                HTTPHeaderNames.CONTENT_ENCODING, "deflate");
+        // the reactor does its own (de)compression on the raw channel.
+        if (reactor == null) {
+            if (isInputInflated) {
+                connectedHost.activateInputInflation();
+            }
+            if (isOutputDeflated) {
+                connectedHost.activateOutputDeflation();
+            }
         }
 
 
@@ -0,0 +1,321 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.common.AbstractLifeCycle;
+import phex.common.ThreadTracking;
+import phex.host.Host;
+import phex.peer.Peer;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking alternative to the read thread per connection model of
+ * {@link ConnectionEngine#processIncomingData()}. After the handshake is
+ * completed a Gnutella connection is registered with the reactor. A single
+ * selector thread then reads and frames messages of all connections and
+ * drains each host's {@link MessageQueue} once its channel is writable.
+ * Framed messages are handed to a small, fixed pool of dispatch threads
+ * which process the messages of one connection in order.
+ * <p>
+ * The number of threads used is constant, no matter how many connections
+ * are served.
+ */
+public class ConnectionReactor extends AbstractLifeCycle {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionReactor.class);
+
+    /**
+     * The max time the selector waits without any event.
+     */
+    private static final int SELECT_TIMEOUT = 200;
+
+    private final Peer peer;
+    private final Queue<ReactorChannel> pendingRegistrations;
+    private final Queue<ReactorChannel> pendingInterestUpdates;
+    /**
+     * The channels throttled by bandwidth, ordered by the time their
+     * interest ops are updated again.
+     */
+    private final PriorityBlockingQueue<ThrottledChannel> throttledChannels;
+    private Selector selector;
+    private Thread selectorThread;
+    private ExecutorService dispatchPool;
+
+    public ConnectionReactor(Peer peer) {
+        this.peer = peer;
+        pendingRegistrations = new ConcurrentLinkedQueue<ReactorChannel>();
+        pendingInterestUpdates = new ConcurrentLinkedQueue<ReactorChannel>();
+        throttledChannels = new PriorityBlockingQueue<ThrottledChannel>();
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        selector = Selector.open();
+        int threadCount = peer.connectionPrefs.ReactorDispatchThreads.get().intValue();
+        dispatchPool = new ThreadPoolExecutor(threadCount, threadCount, 0,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new DispatchThreadFactory());
+        selectorThread = new Thread(ThreadTracking.rootThreadGroup,
+                this::runSelectLoop, "ConnectionReactor-" + Integer.toHexString(hashCode()));
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        Selector sel = selector;
+        if (sel != null) {
+            for (SelectionKey key : sel.keys()) {
+                closeChannel((ReactorChannel) key.attachment(), null);
+            }
+            sel.close();
+        }
+        if (dispatchPool != null) {
+            dispatchPool.shutdown();
+        }
+    }
+
+    /**
+     * Hands the connection of the given host over to the reactor. From now
+     * on the reactor reads all messages of the connection and writes all
+     * messages queued to the host.
+     *
+     * @param engine          the engine that handles the received messages.
+     * @param host            the connected host.
+     * @param channel         the channel of the host connection.
+     * @param bufferedInput   input already buffered during handshake.
+     * @param isInputInflated true if the received data is deflated.
+     * @param isOutputDeflated true if the sent data must be deflated.
+     * @throws IOException if the channel can't be switched to non-blocking mode.
+     */
+    public void register(ConnectionEngine engine, Host host, SocketChannel channel,
+                         byte[] bufferedInput, boolean isInputInflated, boolean isOutputDeflated)
+            throws IOException {
+        if (!isRunning()) {
+            throw new IOException("Connection reactor not running.");
+        }
+        channel.configureBlocking(false);
+        int maxLength = peer.messagePrefs.MaxLength.get().intValue();
+        ReactorChannel reactorChannel = new ReactorChannel(this, engine, host,
+                channel, host.getConnection().getBandwidthController(), maxLength,
+                isInputInflated, isOutputDeflated);
+        host.setReactorChannel(reactorChannel);
+        // process input read ahead during the handshake before any new input.
+        reactorChannel.receive(bufferedInput);
+        pendingRegistrations.add(reactorChannel);
+        selector.wakeup();
+    }
+
+    /**
+     * Requests the interest ops of the channel to be updated by the selector
+     * thread.
+     */
+    void requestInterestUpdate(ReactorChannel channel) {
+        pendingInterestUpdates.add(channel);
+        if (Thread.currentThread() != selectorThread) {
+            Selector sel = selector;
+            if (sel != null) {
+                sel.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Requests the interest ops of the throttled channel to be updated by
+     * the selector thread at the given time.
+     *
+     * @param channel    the throttled channel.
+     * @param updateTime the time in millis to update the interest ops.
+     */
+    void requestInterestUpdate(ReactorChannel channel, long updateTime) {
+        throttledChannels.add(new ThrottledChannel(channel, updateTime));
+        if (Thread.currentThread() != selectorThread) {
+            Selector sel = selector;
+            if (sel != null) {
+                sel.wakeup();
+            }
+        }
+    }
+
+    void dispatch(Runnable dispatcher) {
+        dispatchPool.execute(dispatcher);
+    }
+
+    private void runSelectLoop() {
+        logger.debug("Connection reactor started.");
+        try {
+            while (selector.isOpen()) {
+                selector.select(nextSelectTimeout());
+                if (!selector.isOpen()) {
+                    break;
+                }
+                processPendingRegistrations();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    ReactorChannel channel = (ReactorChannel) key.attachment();
+                    try {
+                        if (!key.isValid()) {
+                            closeChannel(channel, null);
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            channel.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            channel.onWritable();
+                        }
+                    } catch (IOException exp) {
+                        closeChannel(channel, exp);
+                    } catch (Exception exp) {
+                        logger.warn(exp.toString(), exp);
+                        closeChannel(channel, exp);
+                    }
+                }
+
+                // update interest of channels throttled by bandwidth or
+                // with new messages to write.
+                processThrottledChannels();
+                processInterestUpdates();
+            }
+        } catch (Throwable th) {
+            logger.error(th.toString(), th);
+        }
+        releaseClosedChannels();
+        logger.debug("Connection reactor stopped.");
+    }
+
+    private void processPendingRegistrations() {
+        ReactorChannel channel;
+        while ((channel = pendingRegistrations.poll()) != null) {
+            try {
+                channel.register(selector);
+            } catch (ClosedChannelException exp) {
+                closeChannel(channel, exp);
+            }
+        }
+    }
+
+    /**
+     * Returns the time to wait for events until the next throttled
+     * channel is due.
+     */
+    private long nextSelectTimeout() {
+        ThrottledChannel first = throttledChannels.peek();
+        if (first == null) {
+            return SELECT_TIMEOUT;
+        }
+        long timeout = first.updateTime - System.currentTimeMillis();
+        return Math.max(1, Math.min(SELECT_TIMEOUT, timeout));
+    }
+
+    private void processThrottledChannels() {
+        long now = System.currentTimeMillis();
+        ThrottledChannel first;
+        while ((first = throttledChannels.peek()) != null && first.updateTime <= now) {
+            throttledChannels.poll();
+            pendingInterestUpdates.add(first.channel);
+        }
+    }
+
+    private void processInterestUpdates() {
+        int count = pendingInterestUpdates.size();
+        ReactorChannel channel;
+        // only process what is queued now, channels might requeue themselves.
+        while (count-- > 0 && (channel = pendingInterestUpdates.poll()) != null) {
+            try {
+                channel.updateInterestOps();
+            } catch (IOException exp) {
+                closeChannel(channel, exp);
+            }
+        }
+    }
+
+    /**
+     * Gives back the buffers of channels closed after the selector stopped.
+     */
+    private void releaseClosedChannels() {
+        ThrottledChannel throttled;
+        while ((throttled = throttledChannels.poll()) != null) {
+            pendingInterestUpdates.add(throttled.channel);
+        }
+        ReactorChannel channel;
+        while ((channel = pendingInterestUpdates.poll()) != null) {
+            if (channel.isClosed()) {
+                channel.releaseBuffers();
+            }
+        }
+    }
+
+    private void closeChannel(ReactorChannel channel, Exception exp) {
+        if (channel == null) {
+            return;
+        }
+        if (exp != null) {
+            logger.debug(exp.toString(), exp);
+        }
+        channel.close(exp == null ? null : exp.getMessage());
+    }
+
+    private static class DispatchThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(ThreadTracking.rootThreadGroup, runnable,
+                    "ReactorDispatch-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static class ThrottledChannel implements Comparable<ThrottledChannel> {
+        private final ReactorChannel channel;
+        private final long updateTime;
+
+        private ThrottledChannel(ReactorChannel channel, long updateTime) {
+            this.channel = channel;
+            this.updateTime = updateTime;
+        }
+
+        public int compareTo(ThrottledChannel other) {
+            return Long.compare(updateTime, other.updateTime);
+        }
+    }
+}
@@ -172,8 +172,9 @@ public class IncomingConnectionDispatcher implements Runnable {
         NetworkHostsContainer netHostsCont = peer.getHostService().getNetworkHostsContainer();
         Host host = netHostsCont.createIncomingHost(address, connection);
         host.setStatus(HostStatus.ACCEPTING, "");
+        ConnectionEngine engine = null;
         try {
-            ConnectionEngine engine = new ConnectionEngine(peer, host);
+            engine = new ConnectionEngine(peer, host);
             engine.initHostHandshake();
             engine.processIncomingData();
         } catch (IOException exp) {
@@ -183,7 +184,8 @@ public class IncomingConnectionDispatcher implements Runnable {
             }
             throw exp;
         } finally {
-            if (host.isConnected()) {
+            // a connection served by the reactor stays open.
+            if (host.isConnected() && (engine == null || !engine.isReactorManaged())) {
                 host.setStatus(HostStatus.DISCONNECTED, "Unknown");
                 host.disconnect();
             }
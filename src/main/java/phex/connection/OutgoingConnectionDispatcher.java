@@ -32,6 +32,7 @@ import phex.net.connection.ConnectionFactory;
 import phex.peer.Peer;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This class is responsible to dispatch an outgoing Gnutella network
@@ -62,12 +63,17 @@ public class OutgoingConnectionDispatcher implements Runnable {
      * to the next best hosts from the host catcher.
      */
     public static void dispatchConnectToNextHosts(int count, Peer peer) {
+        HostManager hostService = peer.getHostService();
+        ConnectionDialer dialer = hostService.getConnectionDialer();
+        if (dialer.isRunning()) {
+            dialer.dial(count);
+            return;
+        }
+
         // creating OCDs in batches could cause unneeded thread use and heavy
         // HostFetchingStrategy requests in case no hosts are in host catcher.
         // Instead host lookup is now done before creating OCD and dispatching
         // is stopped in case no hosts are available.
-
-        HostManager hostService = peer.getHostService();
         CaughtHostsContainer caughtHostsContainer = hostService.getCaughtHostsContainer();
         NetworkHostsContainer networkHostsCont = hostService.getNetworkHostsContainer();
         for (int i = 0; i < count; i++) {
@@ -96,8 +102,13 @@ public class OutgoingConnectionDispatcher implements Runnable {
         OutgoingConnectionDispatcher dispatcher = new OutgoingConnectionDispatcher(
                 hostAddress, peer);
 
-        Environment.getInstance().executeOnThreadPool(dispatcher,
-                "OutgoingConnectionDispatcher-" + Integer.toHexString(dispatcher.hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(dispatcher,
+                    "OutgoingConnectionDispatcher-" + Integer.toHexString(dispatcher.hashCode()));
+        } catch (RejectedExecutionException exp) {
+            NLogger.debug(OutgoingConnectionDispatcher.class,
+                    "Connection to " + hostAddress + " not dispatched: " + exp);
+        }
     }
 
     public void run() {
@@ -109,10 +120,13 @@ public class OutgoingConnectionDispatcher implements Runnable {
     }
 
     private void connectToHostAddress() {
-        NetworkHostsContainer netHostsCont = peer.getHostService().getNetworkHostsContainer();
+        HostManager hostService = peer.getHostService();
+        NetworkHostsContainer netHostsCont = hostService.getNetworkHostsContainer();
+        CaughtHostsContainer caughtHostsContainer = hostService.getCaughtHostsContainer();
         Host host = netHostsCont.createOutgoingHost(hostAddress);
         host.setStatus(HostStatus.CONNECTING);
 
+        long startTime = System.currentTimeMillis();
         Connection connection;
         try {
             connection = ConnectionFactory.createConnection(hostAddress,
@@ -121,13 +135,32 @@ public class OutgoingConnectionDispatcher implements Runnable {
 
             host.setStatus(HostStatus.ERROR, exp.getMessage());
             host.disconnect();
+            caughtHostsContainer.reportConnectResult(hostAddress, false, 0, false);
             logger.debug("can not connect: {} {}", hostAddress, exp.getMessage());
             return;
         }
+        long latency = System.currentTimeMillis() - startTime;
 
         // I am connected to the remote host at this point.
         host.setConnection(connection);
 
+        ConnectionEngine engine = initHandshake(peer, host);
+        caughtHostsContainer.reportConnectResult(hostAddress, true, latency,
+                engine != null);
+        if (engine == null) {
+            return;
+        }
+        hostService.getConnectionDialer().trackConnectionUptime(host);
+
+        processIncomingData(host, engine);
+    }
+
+    /**
+     * Initializes the handshake with the connected host.
+     *
+     * @return the engine of the connection or null if the handshake failed.
+     */
+    static ConnectionEngine initHandshake(Peer peer, Host host) {
         ConnectionEngine engine;
         try {
             engine = new ConnectionEngine(peer, host);
@@ -137,23 +170,30 @@ public class OutgoingConnectionDispatcher implements Runnable {
             host.setStatus(HostStatus.ERROR, exp.getMessage());
             host.disconnect();
             logger.debug("connect {} {}", host, exp.getMessage());
-            return;
+            return null;
         } catch (IOException exp) {
 
             host.setStatus(HostStatus.ERROR, exp.getMessage());
             host.disconnect();
             logger.debug("connect {} {}", host, exp.getMessage());
-            return;
+            return null;
         } catch (Exception exp) {
 
             host.setStatus(HostStatus.ERROR, exp.getMessage());
             host.disconnect();
             logger.warn("connect {}", exp);
-            return;
+            return null;
         }
 
         logger.info("connected {}", host);
+        return engine;
+    }
 
+    /**
+     * Processes the incoming data of the connected host, this blocks until
+     * the connection is closed unless the connection is reactor managed.
+     */
+    static void processIncomingData(Host host, ConnectionEngine engine) {
         try {
             engine.processIncomingData();
         } catch (IOException exp) {
@@ -0,0 +1,471 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.connection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.common.bandwidth.BandwidthController;
+import phex.host.Host;
+import phex.host.HostStatus;
+import phex.io.buffer.BufferCache;
+import phex.io.buffer.BufferSize;
+import phex.msg.MessageFrameDecoder;
+import phex.msg.MsgHeader;
+import phex.util.IOUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The state of a single Gnutella connection served by the
+ * {@link ConnectionReactor}. Holds the read buffer and frame decoder, the
+ * queue of framed but not yet dispatched messages and the pending output.
+ * <p>
+ * Reading and writing is only done by the selector thread. Received messages
+ * are processed in order by at most one dispatch thread at a time.
+ */
+public class ReactorChannel implements MessageFrameDecoder.FrameListener {
+    private static final Logger logger = LoggerFactory.getLogger(ReactorChannel.class);
+
+    /**
+     * The max number of framed messages waiting for dispatch before reading
+     * from the channel is paused.
+     */
+    private static final int MAX_PENDING_FRAMES = 100;
+
+    /**
+     * The number of bytes a throttled channel waits for before it is
+     * selected again, to not wake up for each refilled byte.
+     */
+    private static final int MIN_THROTTLED_TRANSFER = 1024;
+
+    private final ConnectionReactor reactor;
+    private final ConnectionEngine engine;
+    private final Host host;
+    private final SocketChannel channel;
+    private final BandwidthController bandwidthController;
+    private final MessageFrameDecoder frameDecoder;
+    private final Inflater inflater;
+    private final Deflater deflater;
+    private final Queue<Frame> pendingFrames;
+    private final AtomicInteger pendingFrameCount;
+    private final AtomicBoolean isDispatching;
+    private final Runnable frameDispatcher;
+    private ByteBuffer readBuffer;
+    private ByteBuffer inflateBuffer;
+    private ByteBuffer writeBuffer;
+    private volatile SelectionKey selectionKey;
+    private long throttledUntil;
+    private volatile boolean isWriteRequested;
+    private volatile boolean isReadPaused;
+    private volatile boolean isClosed;
+
+    ReactorChannel(ConnectionReactor reactor, ConnectionEngine engine, Host host,
+                   SocketChannel channel, BandwidthController bandwidthController, int maxLength,
+                   boolean isInputInflated, boolean isOutputDeflated) {
+        this.reactor = reactor;
+        this.engine = engine;
+        this.host = host;
+        this.channel = channel;
+        this.bandwidthController = bandwidthController;
+        frameDecoder = new MessageFrameDecoder(maxLength);
+        BufferCache bufferCache = BufferCache.getInstance();
+        readBuffer = bufferCache.borrowBuffer(BufferSize._16K);
+        if (isInputInflated) {
+            inflater = new Inflater();
+            inflateBuffer = bufferCache.borrowBuffer(BufferSize._16K);
+        } else {
+            inflater = null;
+            inflateBuffer = null;
+        }
+        deflater = isOutputDeflated ? new Deflater() : null;
+        writeBuffer = bufferCache.borrowBuffer(BufferSize._16K);
+        pendingFrames = new ConcurrentLinkedQueue<Frame>();
+        pendingFrameCount = new AtomicInteger();
+        isDispatching = new AtomicBoolean(false);
+        frameDispatcher = this::dispatchFrames;
+    }
+
+    void register(Selector selector) throws ClosedChannelException {
+        if (isClosed) {
+            throw new ClosedChannelException();
+        }
+        selectionKey = channel.register(selector, calculateInterestOps(), this);
+    }
+
+    /**
+     * Requests that the selector thread drains the message queue of the host
+     * as soon as the channel is writable.
+     */
+    public void requestWrite() {
+        if (isClosed) {
+            return;
+        }
+        isWriteRequested = true;
+        reactor.requestInterestUpdate(this);
+    }
+
+    /**
+     * Serializes a message into the pending output. Called by the selector
+     * thread while draining the message queue of the host.
+     */
+    public synchronized void write(phex.io.buffer.ByteBuffer headerBuf,
+                                   phex.io.buffer.ByteBuffer messageBuf) throws IOException {
+        if (isClosed) {
+            throw new ConnectionClosedException("Connection already closed");
+        }
+        appendOutput(headerBuf);
+        appendOutput(messageBuf);
+    }
+
+    /**
+     * Tries to write the pending output to the channel without blocking.
+     * Output that can't be written is kept until the channel is writable
+     * again.
+     */
+    public synchronized void flush() throws IOException {
+        if (isClosed) {
+            throw new ConnectionClosedException("Connection already closed");
+        }
+        if (deflater != null) {
+            deflater.setInput(IOUtil.EMPTY_BYTE_ARRAY);
+            int space;
+            int len;
+            do {
+                ensureWriteCapacity(BufferSize._2K);
+                space = writeBuffer.remaining();
+                len = deflater.deflate(writeBuffer.array(), writeBuffer.position(),
+                        space, Deflater.SYNC_FLUSH);
+                writeBuffer.position(writeBuffer.position() + len);
+            }
+            // a completely filled buffer indicates more flushed output.
+            while (len == space);
+        }
+        writePendingOutput();
+    }
+
+    void onReadable() throws IOException {
+        int available = bandwidthController.getAvailableByteCount(
+                readBuffer.remaining(), false, false);
+        if (available == 0) {
+            throttle(readBuffer.remaining());
+            return;
+        }
+        int oldLimit = readBuffer.limit();
+        readBuffer.limit(readBuffer.position() + available);
+        int read = channel.read(readBuffer);
+        readBuffer.limit(oldLimit);
+        if (read < 0) {
+            throw new ConnectionClosedException("Connection closed by remote host");
+        }
+        bandwidthController.markBytesUsed(read);
+        readBuffer.flip();
+        try {
+            decodeInput(readBuffer);
+        } finally {
+            readBuffer.compact();
+        }
+        if (pendingFrameCount.get() >= MAX_PENDING_FRAMES) {
+            isReadPaused = true;
+            updateInterestOps();
+        }
+    }
+
+    void onWritable() throws IOException {
+        boolean isOutputPending;
+        synchronized (this) {
+            writePendingOutput();
+            isOutputPending = writeBuffer.position() > 0;
+        }
+        if (!isOutputPending) {
+            isWriteRequested = false;
+            if (host.getSendQueueLength() > 0) {
+                // serializes and flushes the next burst of queued messages.
+                host.sendQueuedMessages();
+            }
+        }
+        updateInterestOps();
+    }
+
+    /**
+     * Feeds input that was received outside of the selector loop.
+     */
+    void receive(byte[] input) throws IOException {
+        if (input.length > 0) {
+            decodeInput(ByteBuffer.wrap(input));
+        }
+    }
+
+    public void onFrame(MsgHeader header, byte[] body) {
+        pendingFrames.add(new Frame(header, body));
+        pendingFrameCount.incrementAndGet();
+        if (isDispatching.compareAndSet(false, true)) {
+            reactor.dispatch(frameDispatcher);
+        }
+    }
+
+    boolean isClosed() {
+        return isClosed;
+    }
+
+    synchronized void updateInterestOps() throws IOException {
+        if (isClosed) {
+            releaseBuffers();
+            return;
+        }
+        if (selectionKey == null) {
+            return;
+        }
+        if (!selectionKey.isValid()) {
+            throw new ClosedChannelException();
+        }
+        selectionKey.interestOps(calculateInterestOps());
+    }
+
+    public void close(String reason) {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+        releasePendingFrames();
+        // buffers are released by the selector thread, which might still
+        // be reading into them.
+        reactor.requestInterestUpdate(this);
+        if (host.isConnected()) {
+            host.setStatus(HostStatus.ERROR, reason);
+            host.disconnect();
+        }
+    }
+
+    /**
+     * Ends the compression streams and gives the buffers back to the
+     * {@link BufferCache}. Must be called by the selector thread once the
+     * channel is closed.
+     */
+    synchronized void releaseBuffers() {
+        if (readBuffer == null) {
+            return;
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+        if (deflater != null) {
+            deflater.end();
+        }
+        // frames decoded after close() are not dispatched anymore.
+        releasePendingFrames();
+        frameDecoder.release();
+        BufferCache bufferCache = BufferCache.getInstance();
+        bufferCache.release(readBuffer);
+        bufferCache.release(inflateBuffer);
+        bufferCache.release(writeBuffer);
+        readBuffer = null;
+        inflateBuffer = null;
+        writeBuffer = null;
+    }
+
+    /**
+     * Gives the bodies of all frames not yet dispatched back to the
+     * {@link BufferCache}.
+     */
+    private void releasePendingFrames() {
+        BufferCache bufferCache = BufferCache.getInstance();
+        Frame frame;
+        while ((frame = pendingFrames.poll()) != null) {
+            bufferCache.release(frame.body);
+        }
+    }
+
+    private int calculateInterestOps() {
+        if (throttledUntil > 0) {
+            if (System.currentTimeMillis() < throttledUntil) {
+                // check again once the bandwidth is available.
+                reactor.requestInterestUpdate(this, throttledUntil);
+                return 0;
+            }
+            throttledUntil = 0;
+        }
+        int ops = 0;
+        if (!isReadPaused) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (isWriteRequested || writeBuffer.position() > 0
+                || host.getSendQueueLength() > 0) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        return ops;
+    }
+
+    /**
+     * Stops selecting the channel until the bandwidth controller refilled
+     * the bytes to transfer, since it has no bytes available now.
+     *
+     * @param byteCount the number of bytes to transfer.
+     */
+    private void throttle(int byteCount) throws IOException {
+        long waitNanos = bandwidthController.getNanosUntilAvailable(
+                Math.min(byteCount, MIN_THROTTLED_TRANSFER));
+        throttledUntil = System.currentTimeMillis()
+                + Math.max(1, (waitNanos + 999999) / 1000000);
+        updateInterestOps();
+    }
+
+    private void decodeInput(ByteBuffer input) throws IOException {
+        if (inflater == null) {
+            frameDecoder.decode(input, this);
+            return;
+        }
+        inflater.setInput(input.array(), input.arrayOffset() + input.position(),
+                input.remaining());
+        input.position(input.limit());
+        try {
+            while (true) {
+                int len = inflater.inflate(inflateBuffer.array(), inflateBuffer.position(),
+                        inflateBuffer.remaining());
+                inflateBuffer.position(inflateBuffer.position() + len);
+                inflateBuffer.flip();
+                frameDecoder.decode(inflateBuffer, this);
+                inflateBuffer.clear();
+                if (len == 0) {
+                    break;
+                }
+            }
+        } catch (DataFormatException exp) {
+            throw new IOException("Invalid deflated input: " + exp.getMessage());
+        }
+    }
+
+    private void dispatchFrames() {
+        do {
+            Frame frame;
+            while ((frame = pendingFrames.poll()) != null) {
+                pendingFrameCount.decrementAndGet();
+                try {
+                    engine.handleMessage(frame.header, frame.body);
+                } catch (Exception exp) {
+                    logger.warn(exp.toString(), exp);
+                    close(exp.getMessage());
+                    return;
+                }
+            }
+            if (isReadPaused && pendingFrameCount.get() < MAX_PENDING_FRAMES / 2) {
+                isReadPaused = false;
+                reactor.requestInterestUpdate(this);
+            }
+        }
+        while (checkForRepeat());
+    }
+
+    private boolean checkForRepeat() {
+        isDispatching.set(false);
+        // recheck to not miss frames added after the queue was drained.
+        return !pendingFrames.isEmpty() && isDispatching.compareAndSet(false, true);
+    }
+
+    private void appendOutput(phex.io.buffer.ByteBuffer buffer) {
+        ByteBuffer src = buffer.internalBuffer();
+        if (deflater == null) {
+            ensureWriteCapacity(src.remaining());
+            writeBuffer.put(src);
+            return;
+        }
+        byte[] input;
+        int offset;
+        int length = src.remaining();
+        if (src.hasArray()) {
+            input = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            input = new byte[length];
+            src.duplicate().get(input);
+            offset = 0;
+        }
+        src.position(src.limit());
+        deflater.setInput(input, offset, length);
+        while (!deflater.needsInput()) {
+            ensureWriteCapacity(BufferSize._2K);
+            int len = deflater.deflate(writeBuffer.array(), writeBuffer.position(),
+                    writeBuffer.remaining());
+            writeBuffer.position(writeBuffer.position() + len);
+        }
+    }
+
+    private void ensureWriteCapacity(int required) {
+        if (writeBuffer.remaining() >= required) {
+            return;
+        }
+        int newCapacity = Math.max(writeBuffer.capacity() * 2,
+                writeBuffer.position() + required);
+        BufferCache bufferCache = BufferCache.getInstance();
+        ByteBuffer newBuffer = bufferCache.borrowBuffer(newCapacity);
+        writeBuffer.flip();
+        newBuffer.put(writeBuffer);
+        bufferCache.release(writeBuffer);
+        writeBuffer = newBuffer;
+    }
+
+    private void writePendingOutput() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        try {
+            int available = bandwidthController.getAvailableByteCount(
+                    writeBuffer.remaining(), false, false);
+            if (available == 0) {
+                throttle(writeBuffer.remaining());
+                return;
+            }
+            int oldLimit = writeBuffer.limit();
+            writeBuffer.limit(writeBuffer.position() + available);
+            int written = channel.write(writeBuffer);
+            writeBuffer.limit(oldLimit);
+            bandwidthController.markBytesUsed(written);
+        } finally {
+            writeBuffer.compact();
+        }
+    }
+
+    private static class Frame {
+        private final MsgHeader header;
+        private final byte[] body;
+
+        private Frame(MsgHeader header, byte[] body) {
+            this.header = header;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.download;
+
+import phex.io.buffer.BufferSize;
+import phex.io.buffer.ByteBuffer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of recycled download data buffers. Downloads read directly into a
+ * borrowed buffer that is passed on to the MemoryFile and given back once
+ * the data was written to disk.
+ * <p>
+ * The pool keeps at most as many idle buffers as fit into the total
+ * download write buffer. Buffers borrowed while the pool is empty are
+ * allocated, buffers given back to a full pool are left to the garbage
+ * collector.
+ * <p>
+ * The buffered download volume is tracked by the length of the data, not
+ * by the capacity of the buffers. Small reads are therefore copied into a
+ * buffer of their size, so a mostly empty pooled buffer is never held
+ * until the data is written.
+ */
+public class DownloadBufferPool {
+    public static final int BUFFER_SIZE = BufferSize._16K;
+
+    /**
+     * Reads of less bytes are copied into a buffer of their size.
+     */
+    private static final int MIN_FILL_SIZE = BUFFER_SIZE / 2;
+
+    private final BlockingQueue<byte[]> pool;
+
+    /**
+     * @param maxPoolSize the max number of bytes kept in idle buffers.
+     */
+    public DownloadBufferPool(int maxPoolSize) {
+        pool = new ArrayBlockingQueue<byte[]>(Math.max(maxPoolSize / BUFFER_SIZE, 1));
+    }
+
+    /**
+     * Borrows a cleared buffer of BUFFER_SIZE bytes.
+     */
+    public ByteBuffer borrow() {
+        byte[] array = pool.poll();
+        if (array == null) {
+            array = new byte[BUFFER_SIZE];
+        }
+        return ByteBuffer.wrap(array);
+    }
+
+    /**
+     * Gives a buffer returned by borrow() back to the pool. The buffer must
+     * not be used by the caller afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        byte[] array = buffer.array();
+        if (array.length == BUFFER_SIZE) {
+            pool.offer(array);
+        }
+    }
+
+    /**
+     * Returns a buffer holding the first length bytes of a borrowed buffer.
+     * If only a small part of the buffer is filled the data is copied into
+     * a buffer of its size and the borrowed buffer is given back.
+     *
+     * @param buffer the borrowed buffer.
+     * @param length the number of bytes read into the buffer.
+     * @return the buffer to pass on, holding the data at position 0.
+     */
+    public ByteBuffer trim(ByteBuffer buffer, int length) {
+        if (length >= MIN_FILL_SIZE) {
+            return buffer;
+        }
+        byte[] data = new byte[length];
+        System.arraycopy(buffer.array(), 0, data, 0, length);
+        release(buffer);
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Returns the number of idle buffers in the pool.
+     */
+    public int getPooledCount() {
+        return pool.size();
+    }
+}
@@ -22,28 +22,52 @@
 package phex.download;
 
 import phex.common.ThreadTracking;
+import phex.common.bandwidth.TransferAverage;
 import phex.common.log.NLogger;
 import phex.download.swarming.SWDownloadFile;
 import phex.download.swarming.SwarmingManager;
-import phex.DownloadPrefs;
 import phex.util.DateUtils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Extra thread that is responsible to write buffered download data to
- * disk regulary.
+ * disk.
+ * <p>
+ * A MemoryFile schedules itself for writing once its buffered volume
+ * reaches half of the per download write buffer. When the total buffered
+ * volume runs high the downloads with the most buffered data are written
+ * first. All buffers are written at least once a minute.
  */
 public class DownloadDataWriter implements Runnable {
     private final SwarmingManager swarm;
+    private final DownloadBufferPool bufferPool;
+    /**
+     * The memory files scheduled for writing, guarded by this.
+     */
+    private final LinkedHashSet<MemoryFile> scheduledFiles;
+    private final TransferAverage writtenBytesAvg;
+    private final TransferAverage writeCountAvg;
+    private final AtomicLong totalBytesWritten;
+    private final AtomicLong totalWriteCount;
     private Thread thread;
-    private boolean isShutingDown;
+    private volatile boolean isShutingDown;
     private long lastCompleteWrite;
     private boolean isWriteCycleRequested;
 
     public DownloadDataWriter(SwarmingManager downloadService) {
         swarm = downloadService;
+        bufferPool = new DownloadBufferPool(
+                swarm.peer.downloadPrefs.MaxTotalDownloadWriteBuffer.get().intValue());
+        scheduledFiles = new LinkedHashSet<MemoryFile>();
+        writtenBytesAvg = new TransferAverage(1000, 10);
+        writeCountAvg = new TransferAverage(1000, 10);
+        totalBytesWritten = new AtomicLong();
+        totalWriteCount = new AtomicLong();
     }
 
     public void start() {
@@ -73,23 +97,27 @@ public class DownloadDataWriter implements Runnable {
         writeDownloadData();
     }
 
+    public DownloadBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     public void run() {
         while (!isShutingDown) {
             try {
-                do {
-                    writeDownloadData();
-                }
-                while (isWriteCycleRequested);
-                // loop around write cycles as long as data is filling...
-                // this is necessary for very fast downloads..
+                writeDownloadData();
 
                 //NLogger.debug(DownloadDataWriter.class, "Waiting...");
 
                 synchronized (this) {
-                    try {
-                        wait(5000);
-                    } catch (InterruptedException exp) {
-                        NLogger.error(DownloadDataWriter.class, exp, exp);
+                    // loop around write cycles as long as data is filling...
+                    // this is necessary for very fast downloads..
+                    if (!isWriteCycleRequested && scheduledFiles.isEmpty()
+                            && !isShutingDown) {
+                        try {
+                            wait(5000);
+                        } catch (InterruptedException exp) {
+                            NLogger.error(DownloadDataWriter.class, exp, exp);
+                        }
                     }
                 }
 
@@ -107,68 +135,105 @@ public class DownloadDataWriter implements Runnable {
         notifyAll();
     }
 
+    /**
+     * Schedules the buffers of the memory file to be written by the
+     * DownloadDataWriter thread.
+     */
+    public synchronized void scheduleWrite(MemoryFile memoryFile) {
+        if (scheduledFiles.add(memoryFile)) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Tracks a write to disk for the throughput statistics.
+     */
+    void trackWrite(long byteCount) {
+        writtenBytesAvg.addValue(byteCount);
+        writeCountAvg.addValue(1);
+        totalBytesWritten.addAndGet(byteCount);
+        totalWriteCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the bytes written to disk per second over the last seconds.
+     */
+    public long getWrittenBytesPerSecond() {
+        return writtenBytesAvg.getAverage();
+    }
+
+    /**
+     * Returns the writes to disk per second over the last seconds.
+     */
+    public long getWritesPerSecond() {
+        return writeCountAvg.getAverage();
+    }
+
+    public long getTotalBytesWritten() {
+        return totalBytesWritten.get();
+    }
+
+    public long getTotalWriteCount() {
+        return totalWriteCount.get();
+    }
+
     private void writeDownloadData() {
-        if (!swarm.isDownloadActive() && !isWriteCycleRequested) {
+        List<MemoryFile> scheduledList;
+        boolean performCompleteWrite = false;
+        synchronized (this) {
+            scheduledList = new ArrayList<MemoryFile>(scheduledFiles);
+            scheduledFiles.clear();
+            if (isShutingDown || isWriteCycleRequested ||
+                    lastCompleteWrite + DateUtils.MILLIS_PER_MINUTE < System.currentTimeMillis()) {
+                NLogger.debug(DownloadDataWriter.class, "Time for complete write cycle.");
+                isWriteCycleRequested = false;
+                performCompleteWrite = true;
+            }
+        }
+        if (!swarm.isDownloadActive() && !performCompleteWrite && scheduledList.isEmpty()) {
             return;
         }
 
         long bufferedDataWritten = 0;
-        long totalBufferedSize = 0;
-        boolean performCompleteWrite = false;
-        if (isShutingDown || isWriteCycleRequested ||
-                lastCompleteWrite + DateUtils.MILLIS_PER_MINUTE < System.currentTimeMillis()) {
-            NLogger.debug(DownloadDataWriter.class, "Time for complete write cycle.");
-            isWriteCycleRequested = false;
-            performCompleteWrite = true;
+        for (MemoryFile memoryFile : scheduledList) {
+            bufferedDataWritten += writeBuffers(memoryFile);
         }
 
         // write limit is 90% of configured max.
-        
         int maxPerDownloadBuffer = swarm.peer.downloadPrefs.MaxWriteBufferPerDownload.get().intValue();
         maxPerDownloadBuffer = (int) (maxPerDownloadBuffer * 0.9);
 
+        long totalBufferedSize = 0;
+        List<BufferedFile> bufferedFiles = new ArrayList<BufferedFile>();
         List<SWDownloadFile> downloadList = swarm.getDownloadFileListCopy();
-        ListIterator<SWDownloadFile> iterator = downloadList.listIterator();
-        while (iterator.hasNext()) {
-            SWDownloadFile downloadFile = iterator.next();
+        for (SWDownloadFile downloadFile : downloadList) {
             MemoryFile memoryFile = downloadFile.getMemoryFile();
-            long bufferedSize = memoryFile.getBufferedDataLength();
-            totalBufferedSize += bufferedSize;
-
+            int bufferedSize = memoryFile.getBufferedDataLength();
             if (performCompleteWrite || memoryFile.isBufferWritingRequested() ||
                     bufferedSize >= maxPerDownloadBuffer) {
-                NLogger.debug(DownloadDataWriter.class,
-                        "Trigger buffer write for " + downloadFile +
-                                ", amount: " + bufferedSize);
-                memoryFile.writeBuffersToDisk();
-                bufferedDataWritten += bufferedSize;
-                // remove from buffer since not needed anymore in possible
-                // following complete write cycle
-                iterator.remove();
+                bufferedDataWritten += writeBuffers(memoryFile);
+            } else if (bufferedSize > 0) {
+                totalBufferedSize += bufferedSize;
+                bufferedFiles.add(new BufferedFile(memoryFile, bufferedSize));
             }
         }
 
         NLogger.debug(DownloadDataWriter.class,
-                "Total buffered data was: " + totalBufferedSize);
+                "Total buffered data left: " + totalBufferedSize);
 
         // write limit is 90% of configured max.
         int maxTotalBuffer = swarm.peer.downloadPrefs.MaxTotalDownloadWriteBuffer.get().intValue();
-        maxTotalBuffer = (int) (maxTotalBuffer * 0.9);
-
-        // if we have not already written everything but have a high total buffer
-        // size, we write down the complete remaining download buffers to disk.
-        if (!performCompleteWrite && totalBufferedSize >= maxTotalBuffer) {
-            performCompleteWrite = true;
-            iterator = downloadList.listIterator();
-            while (iterator.hasNext()) {
-                SWDownloadFile downloadFile = iterator.next();
-                MemoryFile memoryFile = downloadFile.getMemoryFile();
-                long bufferedSize = memoryFile.getBufferedDataLength();
-                NLogger.debug(DownloadDataWriter.class,
-                        "Trigger buffer write for " + downloadFile +
-                                ", amount: " + bufferedSize);
-                memoryFile.writeBuffersToDisk();
-                bufferedDataWritten += bufferedSize;
+        if (totalBufferedSize >= (int) (maxTotalBuffer * 0.9)) {
+            // write the downloads with the most buffered data first until
+            // half of the total buffer is free again.
+            Collections.sort(bufferedFiles);
+            for (BufferedFile bufferedFile : bufferedFiles) {
+                if (totalBufferedSize < maxTotalBuffer / 2) {
+                    break;
+                }
+                long written = writeBuffers(bufferedFile.memoryFile);
+                bufferedDataWritten += written;
+                totalBufferedSize -= bufferedFile.bufferedSize;
             }
         }
         if (performCompleteWrite) {
@@ -178,4 +243,32 @@ public class DownloadDataWriter implements Runnable {
             swarm.notifyDownloadListChange();
         }
     }
-}
\ No newline at end of file
+
+    private long writeBuffers(MemoryFile memoryFile) {
+        long bufferedSize = memoryFile.getBufferedDataLength();
+        if (bufferedSize > 0 || memoryFile.isBufferWritingRequested()) {
+            NLogger.debug(DownloadDataWriter.class,
+                    "Trigger buffer write for " + memoryFile + ", amount: " + bufferedSize);
+            memoryFile.writeBuffersToDisk();
+        }
+        return bufferedSize;
+    }
+
+    /**
+     * A snapshot of the buffered volume of a memory file, ordered by the
+     * most buffered data first.
+     */
+    private static class BufferedFile implements Comparable<BufferedFile> {
+        private final MemoryFile memoryFile;
+        private final int bufferedSize;
+
+        BufferedFile(MemoryFile memoryFile, int bufferedSize) {
+            this.memoryFile = memoryFile;
+            this.bufferedSize = bufferedSize;
+        }
+
+        public int compareTo(BufferedFile other) {
+            return Integer.compare(other.bufferedSize, bufferedSize);
+        }
+    }
+}
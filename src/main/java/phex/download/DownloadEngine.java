@@ -58,6 +58,11 @@ public class DownloadEngine {
 
     private Connection connection;
     private DownloadHandler downloadHandler;
+    /**
+     * Verifies the data downloaded through this engine against the THEX
+     * tree, lazily created.
+     */
+    private ThexStreamVerifier thexStreamVerifier;
 
     /**
      * Create a download engine
@@ -84,6 +89,26 @@ public class DownloadEngine {
         return downloadSet;
     }
 
+    /**
+     * Returns the verifier of the downloaded data. It is kept for the
+     * lifetime of the engine so that THEX nodes spanning consecutive segment
+     * requests on a keep alive connection are verified as well.
+     */
+    public ThexStreamVerifier getThexStreamVerifier() {
+        if (thexStreamVerifier == null) {
+            SWDownloadFile downloadFile = downloadSet.downloadFile;
+            final MemoryFile memoryFile = downloadFile.getMemoryFile();
+            thexStreamVerifier = new ThexStreamVerifier(
+                    downloadFile.getThexVerificationData(),
+                    new ThexStreamVerifier.NodeVerificationHandler() {
+                        public void nodeVerified(DownloadScope nodeScope, boolean isValid) {
+                            memoryFile.inlineNodeVerified(nodeScope, isValid);
+                        }
+                    });
+        }
+        return thexStreamVerifier;
+    }
+
     /**
      * Called from external, usually on user request, to
      * abort a download operation.
@@ -25,39 +25,26 @@ import java.util.*;
 
 /**
  * Represents a collection of DownloadScopes.
+ * The scopes are kept in a balanced tree ordered by start position. Scopes in
+ * the list never overlap and neighboring scopes are merged, therefore adding,
+ * removing and lookups only need to touch the scopes around the given range.
  * This class is not thread safe. You should always lock this object when
  * accessing it or iterating through its iterator!
  */
 public class DownloadScopeList implements Iterable<DownloadScope>, Cloneable {
-    private static final DownloadScopeComparator DOWNLOAD_SCOPE_COMPARATOR =
-            new DownloadScopeComparator();
     /**
-     * The list of download scopes, orderd by scope start position.
+     * The download scopes, ordered by scope start position.
      */
-    private final List<DownloadScope> scopeList;
+    private final TreeMap<Long, DownloadScope> scopeMap;
     /**
-     * Counts the number of modifications on this scope list. A modification
-     * is a add or remove operation to the underlying list.
-     * The field is used to determine if cached values like aggregated length
-     * needs to be recalculated.
+     * The aggregated length of all scopes. Updated on each add or remove
+     * operation to the underlying map.
      */
-    private volatile int modificationCount;
-    /**
-     * Cached value of aggregated lengths. It is recalculated if modification
-     * count changed.
-     */
-    private long aggregatedLengthCache;
-
-    /**
-     * Modification count of last aggregated length calculation.
-     */
-    private int aggregatedLengthModCount;
+    private long aggregatedLength;
 
     public DownloadScopeList() {
-        scopeList = new ArrayList<DownloadScope>();
-        aggregatedLengthCache = 0;
-        modificationCount = 0;
-        aggregatedLengthModCount = 0;
+        scopeMap = new TreeMap<Long, DownloadScope>();
+        aggregatedLength = 0;
     }
 
     public void addAll(DownloadScopeList listToAdd) {
@@ -67,61 +54,42 @@ public class DownloadScopeList implements Iterable<DownloadScope>, Cloneable {
     }
 
     public void add(DownloadScope newScope) {
-        DownloadScope neighborBefore = null;
-        DownloadScope neighborAfter = null;
+        long start = newScope.getStart();
+        long end = newScope.getEnd();
 
-        Iterator<DownloadScope> iterator = scopeList.iterator();
-        while (iterator.hasNext()) {
-            DownloadScope scope = iterator.next();
-            // check if
-            // new   |------|
-            // scope   |--|
-            if (newScope.contains(scope)) {   // the new range completely contains the existing scope
-                // we remove the scope from the list... and check further
-                iterator.remove();
-                continue;
-            }
-
-            // check if
-            // scope |------|
-            // new     |--|
-            if (scope.contains(newScope)) {
-                // we don't need to add anything since this scope is already 
+        // check if a scope before overlaps or neighbors the new scope
+        // scope |----|
+        // new      |----|
+        Map.Entry<Long, DownloadScope> entry = scopeMap.floorEntry(start);
+        if (entry != null) {
+            DownloadScope scope = entry.getValue();
+            if (scope.getEnd() >= end) {
+                // we don't need to add anything since this scope is already
                 // part of a existing scope.
                 return;
             }
-
-            // check if neighbor/overlap
-            if (newScope.isNeighborBefore(scope)) {
-                neighborBefore = scope;
-            }
-            if (newScope.isNeighborAfter(scope)) {
-                neighborAfter = scope;
+            if (scope.getEnd() >= start - 1) {
+                start = scope.getStart();
+                removeInternal(scope);
             }
+        }
 
-            // we went far enough in the sorted scope list...
-            if (neighborAfter != null || scope.getStart() > newScope.getEnd()) {
-                break;
-            }
+        // merge all scopes starting inside or directly after the new scope
+        // new   |------|
+        // scope   |--|  |--|
+        Iterator<DownloadScope> iterator = scopeMap.subMap(
+                start, true, end + 1, true).values().iterator();
+        while (iterator.hasNext()) {
+            DownloadScope scope = iterator.next();
+            end = Math.max(end, scope.getEnd());
+            iterator.remove();
+            aggregatedLength -= scope.getLength();
         }
 
-        // add or merge the newScope into the list
-        if (neighborBefore == null && neighborAfter == null) {
+        if (start == newScope.getStart() && end == newScope.getEnd()) {
             addInternal(newScope);
-        } else if (neighborBefore != null && neighborAfter != null) {
-            // remove both and add a merged scope
-            removeInternal(neighborBefore);
-            removeInternal(neighborAfter);
-            addInternal(new DownloadScope(
-                    neighborBefore.getStart(), neighborAfter.getEnd()));
-        } else if (neighborAfter != null) {
-            removeInternal(neighborAfter);
-            addInternal(new DownloadScope(
-                    newScope.getStart(), neighborAfter.getEnd()));
-        } else if (neighborBefore != null) {
-            removeInternal(neighborBefore);
-            addInternal(new DownloadScope(
-                    neighborBefore.getStart(), newScope.getEnd()));
+        } else {
+            addInternal(new DownloadScope(start, end));
         }
     }
 
@@ -140,87 +108,77 @@ public class DownloadScopeList implements Iterable<DownloadScope>, Cloneable {
      * @param removeScope
      */
     public void remove(DownloadScope removeScope) {
-        DownloadScope beforeScope = null;
+        long start = removeScope.getStart();
+        long end = removeScope.getEnd();
+
+        // a scope starting before might need to be split (case2 and case3)
+        Map.Entry<Long, DownloadScope> entry = scopeMap.lowerEntry(start);
+        if (entry != null && entry.getValue().getEnd() >= start) {
+            DownloadScope scope = entry.getValue();
+            removeInternal(scope);
+            addInternal(new DownloadScope(scope.getStart(), start - 1));
+            if (scope.getEnd() > end) {
+                addInternal(new DownloadScope(end + 1, scope.getEnd()));
+                return;
+            }
+        }
+
+        // scopes starting inside the remove scope (case1)
         DownloadScope afterScope = null;
-        Iterator<DownloadScope> iterator = scopeList.iterator();
+        Iterator<DownloadScope> iterator = scopeMap.subMap(
+                start, true, end, true).values().iterator();
         while (iterator.hasNext()) {
             DownloadScope scope = iterator.next();
-            // check for overlap
-            if (scope.isOverlapping(removeScope)) {
-                // we remove the scope from the list... and check how to split
-                iterator.remove();
-                modificationCount++;
-                if (removeScope.getEnd() >= scope.getEnd()) { // case2 and case3
-                    if (removeScope.getStart() > scope.getStart()) {
-                        beforeScope = new DownloadScope(
-                                scope.getStart(), removeScope.getStart() - 1);
-                    }
-                    // continue searching for possible case2
-                } else if (scope.getStart() >= removeScope.getStart()) { // case1 and case2
-                    afterScope = new DownloadScope(
-                            removeScope.getEnd() + 1, scope.getEnd());
-                    // end of removeScope position reached.
-                    break;
-                } else {
-                    beforeScope = new DownloadScope(
-                            scope.getStart(), removeScope.getStart() - 1);
-                    afterScope = new DownloadScope(
-                            removeScope.getEnd() + 1, scope.getEnd());
-                    break;
-                }
-            } else if (scope.getStart() >= removeScope.getEnd()) {
-                break;
+            iterator.remove();
+            aggregatedLength -= scope.getLength();
+            if (scope.getEnd() > end) {
+                afterScope = new DownloadScope(end + 1, scope.getEnd());
             }
         }
-        if (beforeScope != null) {
-            add(beforeScope);
-        }
         if (afterScope != null) {
-            add(afterScope);
+            addInternal(afterScope);
         }
     }
 
     public boolean contains(DownloadScope scope) {
-        for (DownloadScope thisScope : scopeList) {
-            if (thisScope.contains(scope)) {
-                return true;
-            }
-        }
-        return false;
+        Map.Entry<Long, DownloadScope> entry = scopeMap.floorEntry(scope.getStart());
+        return entry != null && entry.getValue().contains(scope);
     }
 
     /**
-     * Retains all elements in the retain list.
+     * Retains all elements in the retain list. The parts of the scopes
+     * overlapping a scope of the retain list are kept.
      *
      * @param retainList
      */
     public void retainAll(DownloadScopeList retainList) {
-        ListIterator<DownloadScope> thisIterator = scopeList.listIterator();
-        boolean removeThis;
-        while (thisIterator.hasNext()) {
-            removeThis = true;
-            DownloadScope thisScope = thisIterator.next();
-
-            for (DownloadScope retainScope : retainList) {
-                if (thisScope.isOverlapping(retainScope)) {
-                    // we remove the scope from the list... and check how to split
-                    thisIterator.remove();
-                    long retainStart = Math.max(retainScope.getStart(), thisScope.getStart());
-                    long retainEnd = Math.min(retainScope.getEnd(), thisScope.getEnd());
-
-                    // since we can assume that the segment size is always only
-                    // reduced there will be no futher overlapping 
-                    thisIterator.add(new DownloadScope(retainStart, retainEnd));
-                    removeThis = false;
-                    break;
-                } else if (retainScope.getStart() >= thisScope.getEnd()) {
-                    break;
+        List<DownloadScope> retained = new ArrayList<DownloadScope>();
+        Iterator<DownloadScope> thisIterator = scopeMap.values().iterator();
+        Iterator<DownloadScope> retainIterator = retainList.iterator();
+        DownloadScope thisScope = thisIterator.hasNext() ? thisIterator.next() : null;
+        DownloadScope retainScope = retainIterator.hasNext() ? retainIterator.next() : null;
+        // both lists are sorted, walk them side by side
+        while (thisScope != null && retainScope != null) {
+            if (thisScope.isOverlapping(retainScope)) {
+                long retainStart = Math.max(retainScope.getStart(), thisScope.getStart());
+                long retainEnd = Math.min(retainScope.getEnd(), thisScope.getEnd());
+                if (retainStart == thisScope.getStart() && retainEnd == thisScope.getEnd()) {
+                    retained.add(thisScope);
+                } else {
+                    retained.add(new DownloadScope(retainStart, retainEnd));
                 }
             }
-            if (removeThis) {
-                thisIterator.remove();
+            if (thisScope.getEnd() < retainScope.getEnd()) {
+                thisScope = thisIterator.hasNext() ? thisIterator.next() : null;
+            } else {
+                retainScope = retainIterator.hasNext() ? retainIterator.next() : null;
             }
         }
+        scopeMap.clear();
+        aggregatedLength = 0;
+        for (DownloadScope scope : retained) {
+            addInternal(scope);
+        }
     }
 
     /**
@@ -229,80 +187,82 @@ public class DownloadScopeList implements Iterable<DownloadScope>, Cloneable {
      * @return The aggregated length of all download scopes.
      */
     public long getAggregatedLength() {
-        if (modificationCount == aggregatedLengthModCount) {
-            return aggregatedLengthCache;
-        }
-
-        long length = 0;
-        for (DownloadScope scope : scopeList) {
-            length += scope.getLength();
-        }
-        aggregatedLengthCache = length;
-        aggregatedLengthModCount = modificationCount;
-        return length;
+        return aggregatedLength;
     }
 
     public Iterator<DownloadScope> iterator() {
-        return scopeList.iterator();
+        final Iterator<DownloadScope> iterator = scopeMap.values().iterator();
+        return new Iterator<DownloadScope>() {
+            private DownloadScope current;
+
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public DownloadScope next() {
+                current = iterator.next();
+                return current;
+            }
+
+            public void remove() {
+                iterator.remove();
+                aggregatedLength -= current.getLength();
+            }
+        };
     }
 
     public boolean isEmpty() {
-        return scopeList.isEmpty();
+        return scopeMap.isEmpty();
     }
 
     public int size() {
-        return scopeList.size();
+        return scopeMap.size();
     }
 
     public DownloadScope getScopeAt(int pos) {
-        if (pos < 0 || pos >= scopeList.size()) {
+        int size = scopeMap.size();
+        if (pos < 0 || pos >= size) {
             return null;
         }
-        return scopeList.get(pos);
+        if (pos == 0) {
+            return scopeMap.firstEntry().getValue();
+        }
+        if (pos == size - 1) {
+            return scopeMap.lastEntry().getValue();
+        }
+        Iterator<DownloadScope> iterator = scopeMap.values().iterator();
+        for (int i = 0; i < pos; i++) {
+            iterator.next();
+        }
+        return iterator.next();
     }
 
     public void clear() {
-        scopeList.clear();
-        aggregatedLengthCache = 0;
-        modificationCount = 0;
-        aggregatedLengthModCount = 0;
+        scopeMap.clear();
+        aggregatedLength = 0;
     }
 
     @Override
     public Object clone() {
         DownloadScopeList copy = new DownloadScopeList();
-        copy.scopeList.addAll(scopeList);
+        copy.scopeMap.putAll(scopeMap);
+        copy.aggregatedLength = aggregatedLength;
         return copy;
     }
 
     protected void addInternal(DownloadScope scope) {
-        int index = Collections.binarySearch(scopeList, scope, DOWNLOAD_SCOPE_COMPARATOR);
-        assert index < 0;
-        scopeList.add(-(index + 1), scope);
-        modificationCount++;
+        DownloadScope previous = scopeMap.put(scope.getStart(), scope);
+        assert previous == null;
+        aggregatedLength += scope.getLength();
     }
 
     protected void removeInternal(DownloadScope scope) {
-        int index = Collections.binarySearch(scopeList, scope, DOWNLOAD_SCOPE_COMPARATOR);
-        assert index >= 0;
-        scopeList.remove(index);
-        modificationCount++;
+        DownloadScope removed = scopeMap.remove(scope.getStart());
+        assert removed != null;
+        aggregatedLength -= scope.getLength();
     }
 
     protected List<DownloadScope> getScopeListCopy() {
-        return new ArrayList<DownloadScope>(scopeList);
-    }
-
-    private static class DownloadScopeComparator implements Comparator<DownloadScope> {
-        public int compare(DownloadScope scope1, DownloadScope scope2) {
-            if (scope1 == scope2 || scope1.equals(scope2)) {
-                return 0;
-            }
-
-            if (scope1.getStart() > scope2.getStart()) {
-                return 1;
-            }
-            return -1;
-        }
+        return new ArrayList<DownloadScope>(scopeMap.values());
     }
 }
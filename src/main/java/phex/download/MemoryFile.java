@@ -27,6 +27,7 @@ import phex.common.FileHandlingException;
 import phex.common.RunnerQueueWorker;
 import phex.common.file.ManagedFile;
 import phex.common.file.ManagedFileException;
+import phex.io.buffer.ByteBuffer;
 import phex.download.ThexVerificationData.ThexData;
 import phex.download.strategy.ScopeSelectionStrategy;
 import phex.download.strategy.ScopeSelectionStrategyProvider;
@@ -41,8 +42,15 @@ import phex.xml.sax.downloads.DDownloadScope;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -61,6 +69,7 @@ import java.util.concurrent.locks.ReentrantLock;
  * gets written to disk -> unverifiedScopeList (4)
  * 4) unverifiedScopeList
  * gets verified against THEX -> toBeVerifiedScopeList (5)
+ * already verified against THEX while downloading -> finishedScopeList (6)
  * download finished and no THEX -> finishedScopeList (6)
  * 5) toBeVerifiedScopeList
  * scopes during verification
@@ -90,6 +99,14 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class MemoryFile {
     private static final Logger logger = LoggerFactory.getLogger(MemoryFile.class);
+
+    /**
+     * The max number of buffers written with a single gathering write.
+     */
+    private static final int MAX_GATHER_BUFFERS = 256;
+
+    private static final DataScopeStartComparator DATA_SCOPE_START_COMPARATOR =
+            new DataScopeStartComparator();
     /**
      * A list of missing download scopes.
      */
@@ -130,6 +147,11 @@ public class MemoryFile {
      * finalization phase and onto the disk.
      */
     private final DownloadScopeList finalizationPhaseScopeList;
+    /**
+     * The results of THEX nodes verified while they were downloaded, they
+     * spare reading the node back from disk. Guarded by finalizationLock.
+     */
+    private final Map<DownloadScope, Boolean> inlineVerificationResults;
     private final ReentrantLock allocationLock;
     private final ReentrantLock finalizationLock;
     /**
@@ -140,6 +162,16 @@ public class MemoryFile {
     private final boolean isBlockedScopeAllocated;
     private final SWDownloadFile downloadFile;
     private final RunnerQueueWorker downloadVerifyRunner;
+    private final DownloadDataWriter dataWriter;
+    /**
+     * The buffered volume at which the buffers are scheduled for writing.
+     */
+    private final int writeThreshold;
+    /**
+     * Indicates that the buffers are scheduled for writing in the
+     * DownloadDataWriter.
+     */
+    private final AtomicBoolean isWriteScheduled;
     private ScopeSelectionStrategy scopeSelectionStrategy;
     /**
      * This list contains rated download scopes representing the availability
@@ -159,9 +191,13 @@ public class MemoryFile {
     public MemoryFile(SWDownloadFile downloadFile,
                       BufferVolumeTracker globalBufferVolumeTracker,
                       DownloadDataWriter downloadDataWriter,
-                      RunnerQueueWorker downloadVerifyRunner) {
+                      RunnerQueueWorker downloadVerifyRunner,
+                      int maxWriteBufferSize) {
         this.downloadFile = downloadFile;
         this.downloadVerifyRunner = downloadVerifyRunner;
+        dataWriter = downloadDataWriter;
+        writeThreshold = Math.max(maxWriteBufferSize / 2, 1);
+        isWriteScheduled = new AtomicBoolean(false);
 
         isBufferWritingRequested = false;
         isBlockedScopeAllocated = false;
@@ -172,13 +208,12 @@ public class MemoryFile {
         toBeVerifiedScopeList = new DownloadScopeList();
         finishedScopeList = new DownloadScopeList();
         finalizationPhaseScopeList = new DownloadScopeList();
+        inlineVerificationResults = new HashMap<DownloadScope, Boolean>();
         allocationLock = new ReentrantLock();
         finalizationLock = new ReentrantLock();
 
         bufferedVolume = new BufferVolumeTracker(
-                globalBufferVolumeTracker,
-                DownloadPrefs.MaxWriteBufferPerDownload.get().intValue(),
-                downloadDataWriter);
+                globalBufferVolumeTracker, maxWriteBufferSize, downloadDataWriter);
 
         long fileSize = downloadFile.getTotalDataSize();
         if (fileSize == SWDownloadConstants.UNKNOWN_FILE_SIZE) {
@@ -722,6 +757,55 @@ public class MemoryFile {
         // this must happen after releasing locks.. otherwise
         // deadlock occurs in bufferedVolumne when full.
         bufferedVolume.addBufferedSize((int) dataScope.getLength());
+        if (bufferedVolume.getUsedBufferSize() >= writeThreshold) {
+            scheduleBufferWriting();
+        }
+    }
+
+    /**
+     * Borrows a buffer to read download data into. The buffer is given back
+     * once its data scope was written to disk.
+     */
+    public ByteBuffer borrowDataBuffer() {
+        return dataWriter.getBufferPool().borrow();
+    }
+
+    /**
+     * Returns the buffer to pass on in a data scope for len bytes read into
+     * a buffer borrowed with borrowDataBuffer(). Small reads are copied into
+     * a buffer of their size, since the buffered volume only accounts the
+     * data length.
+     */
+    public ByteBuffer trimDataBuffer(ByteBuffer buffer, int len) {
+        return dataWriter.getBufferPool().trim(buffer, len);
+    }
+
+    /**
+     * Gives back a buffer borrowed with borrowDataBuffer() that was not
+     * passed on in a data scope.
+     */
+    public void releaseDataBuffer(ByteBuffer buffer) {
+        dataWriter.getBufferPool().release(buffer);
+    }
+
+    /**
+     * Records the result of a THEX node verified while it was downloaded.
+     * Once the node is written to disk the result is used instead of reading
+     * the node back for verification.
+     */
+    public void inlineNodeVerified(DownloadScope nodeScope, boolean isValid) {
+        finalizationLock.lock();
+        try {
+            inlineVerificationResults.put(nodeScope, Boolean.valueOf(isValid));
+        } finally {
+            finalizationLock.unlock();
+        }
+    }
+
+    private void scheduleBufferWriting() {
+        if (isWriteScheduled.compareAndSet(false, true)) {
+            dataWriter.scheduleWrite(this);
+        }
     }
 
     public boolean isBufferWritingRequested() {
@@ -735,14 +819,19 @@ public class MemoryFile {
     public void requestBufferWriting() {
         logger.debug("MemoryFile requesting buffer write.");
         isBufferWritingRequested = true;
+        scheduleBufferWriting();
     }
 
     /**
      * This method should only be called by the single DownloadDataWriter thread,
      * to ensure integrity. This method is not able to handle multiple thread access
      * to its data scopes.
+     * <p>
+     * The buffered scopes are sorted by offset and adjacent scopes are written
+     * with a single gathering write.
      */
     public void writeBuffersToDisk() {
+        isWriteScheduled.set(false);
         if (bufferedDataScopeList.isEmpty()) {
             return;
         }
@@ -758,28 +847,17 @@ public class MemoryFile {
             } finally {
                 finalizationLock.unlock();
             }
-
-            for (DataDownloadScope dataScope : list) {
-                // if any part of the dataScope is already finished, 
-                // unverified, tobeverified 
-
-                destFile.write(dataScope.getDataBuffer(), dataScope.getStart());
-
-                finalizationLock.lock();
-                try {
-                    bufferedDataScopeList.remove(dataScope);
-                    //bufferedScopeList.remove( dataScope );
-                    unverifiedScopeList.add(dataScope);
-                } finally {
-                    finalizationLock.unlock();
+            Collections.sort(list, DATA_SCOPE_START_COMPARATOR);
+
+            int runStart = 0;
+            while (runStart < list.size()) {
+                int runEnd = runStart + 1;
+                while (runEnd < list.size() && runEnd - runStart < MAX_GATHER_BUFFERS
+                        && list.get(runEnd).getStart() == list.get(runEnd - 1).getEnd() + 1) {
+                    runEnd++;
                 }
-
-                assert dataScope.getLength() < Integer.MAX_VALUE;
-                bufferedVolume.reduceBufferedSize((int) dataScope.getLength());
-
-                // release scope buffer. After releasing we can use the
-                // DataDownloadScope like a simple DownloadScope.
-                dataScope.releaseDataBuffer();
+                writeScopes(destFile, list.subList(runStart, runEnd));
+                runStart = runEnd;
             }
 
             findScopesToVerify();
@@ -796,8 +874,54 @@ public class MemoryFile {
         }
     }
 
+    /**
+     * Writes a run of adjacent data scopes to disk and moves them to the
+     * unverified scopes.
+     */
+    private void writeScopes(ManagedFile destFile, List<DataDownloadScope> scopes)
+            throws ManagedFileException {
+        ByteBuffer[] buffers = new ByteBuffer[scopes.size()];
+        long length = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            DataDownloadScope dataScope = scopes.get(i);
+            buffers[i] = dataScope.getDataBuffer();
+            length += dataScope.getLength();
+        }
+        destFile.write(buffers, scopes.get(0).getStart());
+        dataWriter.trackWrite(length);
+
+        final Set<DataDownloadScope> writtenScopes = Collections.newSetFromMap(
+                new IdentityHashMap<DataDownloadScope, Boolean>());
+        writtenScopes.addAll(scopes);
+        finalizationLock.lock();
+        try {
+            Iterator<DataDownloadScope> iterator = bufferedDataScopeList.iterator();
+            while (iterator.hasNext()) {
+                if (writtenScopes.contains(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+            for (DataDownloadScope dataScope : scopes) {
+                unverifiedScopeList.add(dataScope);
+            }
+        } finally {
+            finalizationLock.unlock();
+        }
+
+        assert length < Integer.MAX_VALUE;
+        bufferedVolume.reduceBufferedSize((int) length);
+
+        // release scope buffers. After releasing we can use the
+        // DataDownloadScope like a simple DownloadScope.
+        for (int i = 0; i < buffers.length; i++) {
+            dataWriter.getBufferPool().release(buffers[i]);
+            scopes.get(i).releaseDataBuffer();
+        }
+    }
+
     private void findScopesToVerify() {
         List<DownloadScope> verifyableScopes;
+        boolean isInlineVerified = false;
         finalizationLock.lock();
         try {
             verifyableScopes = new ArrayList<DownloadScope>();
@@ -866,6 +990,14 @@ public class MemoryFile {
             if (verifyableScopes.size() > 0) {
                 for (DownloadScope scope : verifyableScopes) {
                     unverifiedScopeList.remove(scope);
+                    Boolean inlineResult = inlineVerificationResults.get(scope);
+                    if (inlineResult != null && inlineResult.booleanValue()) {
+                        // already verified while downloading.
+                        inlineVerificationResults.remove(scope);
+                        finishedScopeList.add(scope);
+                        isInlineVerified = true;
+                        continue;
+                    }
                     toBeVerifiedScopeList.add(scope);
                     downloadVerifyRunner.add(
                             new DownloadVerificationWorker(scope));
@@ -876,13 +1008,32 @@ public class MemoryFile {
             finalizationLock.unlock();
             scopeConsistencyCheck();
         }
+
+        if (isInlineVerified && !downloadFile.isFileCompletedOrMoved() && isComplete()) {
+            downloadFile.setStatus(SWDownloadConstants.STATUS_FILE_COMPLETED);
+            downloadFile.moveToDestinationFile();
+        }
     }
 
     private void verifyScope(DownloadScope scope) {
         try {
-            ManagedFile destFile = downloadFile.getIncompleteDownloadFile();
-            boolean succ = TTHashCalcUtils.verifyTigerTreeHash(downloadFile.getThexVerificationData().getThexData(),
-                    destFile, scope.getStart(), scope.getLength());
+            Boolean inlineResult;
+            finalizationLock.lock();
+            try {
+                inlineResult = inlineVerificationResults.remove(scope);
+            } finally {
+                finalizationLock.unlock();
+            }
+            boolean succ;
+            if (inlineResult != null) {
+                succ = inlineResult.booleanValue();
+            } else {
+                // the node was not completely seen by a single download
+                // connection, e.g. it spans a restart. Verify it from disk.
+                ManagedFile destFile = downloadFile.getIncompleteDownloadFile();
+                succ = TTHashCalcUtils.verifyTigerTreeHash(downloadFile.getThexVerificationData().getThexData(),
+                        destFile, scope.getStart(), scope.getLength());
+            }
 
             if (succ) {
                 finalizationLock.lock();
@@ -929,6 +1080,7 @@ public class MemoryFile {
         unverifiedScopeList.clear();
         toBeVerifiedScopeList.clear();
         finishedScopeList.clear();
+        inlineVerificationResults.clear();
 
         setScopeSelectionStrategy(ScopeSelectionStrategyProvider.getByClassName(
                 dFile.getScopeSelectionStrategy()));
@@ -1120,4 +1272,10 @@ public class MemoryFile {
             }
         }
     }
-}
\ No newline at end of file
+
+    private static class DataScopeStartComparator implements Comparator<DataDownloadScope> {
+        public int compare(DataDownloadScope scope1, DataDownloadScope scope2) {
+            return Long.compare(scope1.getStart(), scope2.getStart());
+        }
+    }
+}
@@ -26,54 +26,39 @@ import java.util.*;
 
 /**
  * Represents a collection of RatedDownloadScopes.
+ * The scopes are kept in a balanced tree ordered by start position and in a
+ * second tree ordered by rating. Scopes never overlap, adding or removing a
+ * scope only touches the scopes around the given range and the best and worst
+ * rated scopes are available without sorting.
  * This class is not thread safe. You should always lock this object when
  * accessing it or iterating through its iterator!
  */
 public class RatedDownloadScopeList {
-    private static final DownloadScopeComparator DOWNLOAD_SCOPE_COMPARATOR =
-            new DownloadScopeComparator();
     private static final RatedDownloadScopeComparator RATED_DOWNLOAD_SCOPE_COMPARATOR =
             new RatedDownloadScopeComparator();
     /**
-     * A list ordered by scope start position.
+     * The scopes ordered by scope start position.
      */
-    private final List<RatedDownloadScope> scopeList;
+    private final TreeMap<Long, RatedDownloadScope> scopeMap;
     /**
-     * A list ordered by download scope rating.
+     * The scopes ordered by download scope rating.
      */
-    private final List<RatedDownloadScope> ratedScopeList;
+    private final TreeSet<RatedDownloadScope> ratedScopeSet;
     /**
-     * Counts the number of modifications on this scope list. A modification
-     * is a add or remove operation to the underlying list.
-     * The field is used to determine if cached values like aggregated length
-     * needs to be recalculated.
+     * The aggregated length of all scopes. Updated on each add or remove
+     * operation to the underlying map.
      */
-    private int modificationCount;
-    /**
-     * Cached value of aggregated lengths. It is recalculated if modification
-     * count changed.
-     */
-    private long aggregatedLengthCache;
-
-    /**
-     * Modification count of last aggregated length calculation.
-     */
-    private int aggregatedLengthModCount;
+    private long aggregatedLength;
 
     public RatedDownloadScopeList() {
-        scopeList = new ArrayList<RatedDownloadScope>();
-        ratedScopeList = new ArrayList<RatedDownloadScope>();
-
-        aggregatedLengthCache = 0;
-        modificationCount = 0;
-        aggregatedLengthModCount = 0;
+        scopeMap = new TreeMap<Long, RatedDownloadScope>();
+        ratedScopeSet = new TreeSet<RatedDownloadScope>(RATED_DOWNLOAD_SCOPE_COMPARATOR);
+        aggregatedLength = 0;
     }
 
     public RatedDownloadScopeList(DownloadScopeList downloadScopes) {
         this();
-        for (DownloadScope scope : downloadScopes) {
-            add(new RatedDownloadScope(scope.getStart(), scope.getEnd()));
-        }
+        addAll(downloadScopes);
     }
 
     public void addAll(RatedDownloadScopeList ratedScopes) {
@@ -90,144 +75,57 @@ public class RatedDownloadScopeList {
         }
     }
 
+    /**
+     * Adds the scope to the list. The rating of the new scope is added to the
+     * rating of the overlapped parts of existing scopes, the parts not covered
+     * yet are added with the rating of the new scope.
+     *
+     * @param newScope the scope to add.
+     */
     public void add(RatedDownloadScope newScope) {
-        RatedDownloadScope neighborBefore = null;
-        RatedDownloadScope neighborAfter = null;
-
-        Iterator<RatedDownloadScope> iterator = getScopeIterator();
-        while (iterator.hasNext()) {
-            RatedDownloadScope scope = iterator.next();
-            // check if
-            // new   |------|
-            // scope   |--|
-            if (newScope.contains(scope)) {
-                iterator.remove();
-                RatedDownloadScope scope1 = new RatedDownloadScope(
-                        scope.getStart(), scope.getEnd(),
-                        scope.getCountRating() + newScope.getCountRating(),
-                        scope.getSpeedRating() + newScope.getSpeedRating());
-                addInternal(scope1);
-                if (newScope.getStart() < scope.getStart()) {
-                    RatedDownloadScope scope2 = new RatedDownloadScope(
-                            newScope.getStart(), scope.getStart() - 1,
-                            newScope.getCountRating(), newScope.getSpeedRating());
-                    add(scope2);
-                }
-                if (scope.getEnd() < newScope.getEnd()) {
-                    RatedDownloadScope scope3 = new RatedDownloadScope(
-                            scope.getEnd() + 1, newScope.getEnd(),
-                            newScope.getCountRating(), newScope.getSpeedRating());
-                    add(scope3);
-                }
-
-                return;
-            }
-
-            // check if
-            // scope |------|
-            // new     |--|
-            if (scope.contains(newScope)) {
-                if (newScope.getCountRating() == 0 && newScope.getSpeedRating() == 0) {
-                    // we dont need to add anything since this scope is already 
-                    // part of a existing scope.
-                    return;
-                }
-
-                iterator.remove();
-                if (scope.getStart() != newScope.getStart()) {
-                    RatedDownloadScope scope1 = new RatedDownloadScope(
-                            scope.getStart(), newScope.getStart() - 1,
-                            scope.getCountRating(), scope.getSpeedRating());
-                    addInternal(scope1);
-                }
-                // add the new segment on top of the existing segment
-                RatedDownloadScope scope2 = new RatedDownloadScope(
-                        newScope.getStart(), newScope.getEnd(),
-                        scope.getCountRating() + newScope.getCountRating(),
-                        scope.getSpeedRating() + newScope.getSpeedRating());
-                addInternal(scope2);
-
-                if (scope.getEnd() != newScope.getEnd()) {
-                    RatedDownloadScope scope3 = new RatedDownloadScope(
-                            newScope.getEnd() + 1, scope.getEnd(),
-                            scope.getCountRating(), scope.getSpeedRating());
-                    addInternal(scope3);
-                }
+        long start = newScope.getStart();
+        long end = newScope.getEnd();
+        int countRating = newScope.getCountRating();
+        long speedRating = newScope.getSpeedRating();
+        boolean isUnrated = countRating == 0 && speedRating == 0;
+
+        List<RatedDownloadScope> overlapping = getOverlappingScopes(start, end);
+        if (overlapping.isEmpty()) {
+            addInternal(newScope);
+            return;
+        }
 
-                return;
+        long position = start;
+        for (RatedDownloadScope scope : overlapping) {
+            if (position < scope.getStart()) {
+                // fill the gap before this scope
+                addInternal(new RatedDownloadScope(position, scope.getStart() - 1,
+                        countRating, speedRating));
             }
-
-            // check if neighbor/overlapp
-            if (newScope.isNeighborBefore(scope) && newScope.isOverlapping(scope)) {
-                neighborBefore = scope;
+            long overlapStart = Math.max(scope.getStart(), start);
+            long overlapEnd = Math.min(scope.getEnd(), end);
+            position = overlapEnd + 1;
+            if (isUnrated) {
+                // the existing scope keeps its rating
+                continue;
             }
-            if (newScope.isNeighborAfter(scope) && scope.isOverlapping(newScope)) {
-                neighborAfter = scope;
+            removeInternal(scope);
+            if (scope.getStart() < overlapStart) {
+                addInternal(new RatedDownloadScope(scope.getStart(), overlapStart - 1,
+                        scope.getCountRating(), scope.getSpeedRating()));
             }
-
-            // we went far enought in the sorted scope list...
-            if (neighborAfter != null || scope.getStart() > newScope.getEnd()) {
-                break;
+            // add the new segment on top of the existing segment
+            addInternal(new RatedDownloadScope(overlapStart, overlapEnd,
+                    scope.getCountRating() + countRating,
+                    scope.getSpeedRating() + speedRating));
+            if (overlapEnd < scope.getEnd()) {
+                addInternal(new RatedDownloadScope(overlapEnd + 1, scope.getEnd(),
+                        scope.getCountRating(), scope.getSpeedRating()));
             }
         }
-
-        // add or merge the newScope into the list
-        if (neighborBefore == null && neighborAfter == null) {
-            addInternal(newScope);
-        } else if (neighborAfter != null && neighborBefore != null &&
-                newScope.getCountRating() == 0 && newScope.getSpeedRating() == 0 &&
-                neighborAfter.getCountRating() == neighborBefore.getCountRating() &&
-                neighborAfter.getSpeedRating() == neighborBefore.getSpeedRating()) {
-            // remove both and add a merged scope
-            removeInternal(neighborBefore);
-            removeInternal(neighborAfter);
-            RatedDownloadScope scope1 = new RatedDownloadScope(
-                    neighborBefore.getStart(), neighborAfter.getEnd(),
-                    neighborAfter.getCountRating(), neighborAfter.getSpeedRating());
-            addInternal(scope1);
-        } else {
-            if (neighborAfter != null) {
-                if (newScope.getCountRating() == 0 && newScope.getSpeedRating() == 0) {
-                    removeInternal(neighborAfter);
-                    RatedDownloadScope scope1 = new RatedDownloadScope(
-                            newScope.getStart(), neighborAfter.getEnd(),
-                            neighborAfter.getCountRating(), neighborAfter.getSpeedRating());
-                    add(scope1);
-                } else {
-                    removeInternal(neighborAfter);
-                    RatedDownloadScope scope1 = new RatedDownloadScope(
-                            neighborAfter.getStart(), newScope.getEnd(),
-                            neighborAfter.getCountRating() + newScope.getCountRating(),
-                            neighborAfter.getSpeedRating() + newScope.getSpeedRating());
-                    add(scope1);
-
-                    RatedDownloadScope scope2 = new RatedDownloadScope(
-                            newScope.getEnd() + 1, neighborAfter.getEnd(),
-                            neighborAfter.getCountRating(), neighborAfter.getSpeedRating());
-                    add(scope2);
-                }
-            }
-            if (neighborBefore != null) {
-                if (newScope.getCountRating() == 0 && newScope.getSpeedRating() == 0) {
-                    removeInternal(neighborBefore);
-                    RatedDownloadScope scope1 = new RatedDownloadScope(
-                            neighborBefore.getStart(), newScope.getEnd(),
-                            neighborBefore.getCountRating(), neighborBefore.getSpeedRating());
-                    add(scope1);
-                } else {
-                    removeInternal(neighborBefore);
-                    RatedDownloadScope scope1 = new RatedDownloadScope(
-                            neighborBefore.getStart(), newScope.getStart() - 1,
-                            neighborBefore.getCountRating(), neighborBefore.getSpeedRating());
-                    add(scope1);
-
-                    RatedDownloadScope scope2 = new RatedDownloadScope(
-                            newScope.getStart(), neighborBefore.getEnd(),
-                            neighborBefore.getCountRating() + newScope.getCountRating(),
-                            neighborBefore.getSpeedRating() + newScope.getSpeedRating());
-                    add(scope2);
-                }
-            }
+        if (position <= end) {
+            addInternal(new RatedDownloadScope(position, end,
+                    countRating, speedRating));
         }
     }
 
@@ -248,81 +146,52 @@ public class RatedDownloadScopeList {
      * @param removeScope
      */
     public void remove(RatedDownloadScope removeScope) {
-        RatedDownloadScope beforeScope = null;
-        RatedDownloadScope afterScope = null;
-        Iterator<RatedDownloadScope> iterator = scopeList.iterator();
-        while (iterator.hasNext()) {
-            RatedDownloadScope scope = iterator.next();
-            // check for overlap
-            if (scope.isOverlapping(removeScope)) {
-                // we remove the scope from the list... and check how to split
-                iterator.remove();
-                if (removeScope.getEnd() >= scope.getEnd()) { // case2 and case3
-                    if (removeScope.getStart() > scope.getStart()) {
-                        beforeScope = new RatedDownloadScope(
-                                scope.getStart(), removeScope.getStart() - 1,
-                                scope.getCountRating(), scope.getSpeedRating());
-                    }
-                    // continue searching for possible case2
-                } else if (scope.getStart() >= removeScope.getStart()) { // case1 and case2
-                    afterScope = new RatedDownloadScope(
-                            removeScope.getEnd() + 1, scope.getEnd(),
-                            scope.getCountRating(), scope.getSpeedRating());
-                    // end of removeScope position reached.
-                    break;
-                } else {
-                    beforeScope = new RatedDownloadScope(
-                            scope.getStart(), removeScope.getStart() - 1,
-                            scope.getCountRating(), scope.getSpeedRating());
-                    afterScope = new RatedDownloadScope(
-                            removeScope.getEnd() + 1, scope.getEnd(),
-                            scope.getCountRating(), scope.getSpeedRating());
-                    break;
-                }
-            } else if (scope.getStart() >= removeScope.getEnd()) {
-                break;
+        long start = removeScope.getStart();
+        long end = removeScope.getEnd();
+        for (RatedDownloadScope scope : getOverlappingScopes(start, end)) {
+            removeInternal(scope);
+            if (scope.getStart() < start) {
+                addInternal(new RatedDownloadScope(scope.getStart(), start - 1,
+                        scope.getCountRating(), scope.getSpeedRating()));
+            }
+            if (scope.getEnd() > end) {
+                addInternal(new RatedDownloadScope(end + 1, scope.getEnd(),
+                        scope.getCountRating(), scope.getSpeedRating()));
             }
-        }
-        if (beforeScope != null) {
-            add(beforeScope);
-        }
-        if (afterScope != null) {
-            add(afterScope);
         }
     }
 
     /**
-     * Retains all elements in the retain list.
+     * Retains all elements in the retain list. The parts of the scopes
+     * overlapping a scope of the retain list are kept with their rating.
      *
      * @param retainList
      */
     public void retainAll(DownloadScopeList retainList) {
-        ListIterator<RatedDownloadScope> thisIterator = scopeList.listIterator();
-        boolean removeThis;
-        while (thisIterator.hasNext()) {
-            removeThis = true;
-            RatedDownloadScope thisScope = thisIterator.next();
-            for (DownloadScope retainScope : retainList) {
-                if (thisScope.isOverlapping(retainScope)) {
-                    // we remove the scope from the list... and check how to split
-                    thisIterator.remove();
-                    long retainStart = Math.max(retainScope.getStart(), thisScope.getStart());
-                    long retainEnd = Math.min(retainScope.getEnd(), thisScope.getEnd());
-
-                    // since we can assume that the segment size is always only
-                    // reduced there will be no futher overlapping 
-                    thisIterator.add(new RatedDownloadScope(retainStart, retainEnd,
+        List<RatedDownloadScope> retained = new ArrayList<RatedDownloadScope>();
+        Iterator<RatedDownloadScope> thisIterator = scopeMap.values().iterator();
+        Iterator<DownloadScope> retainIterator = retainList.iterator();
+        RatedDownloadScope thisScope = thisIterator.hasNext() ? thisIterator.next() : null;
+        DownloadScope retainScope = retainIterator.hasNext() ? retainIterator.next() : null;
+        // both lists are sorted, walk them side by side
+        while (thisScope != null && retainScope != null) {
+            if (thisScope.isOverlapping(retainScope)) {
+                long retainStart = Math.max(retainScope.getStart(), thisScope.getStart());
+                long retainEnd = Math.min(retainScope.getEnd(), thisScope.getEnd());
+                if (retainStart == thisScope.getStart() && retainEnd == thisScope.getEnd()) {
+                    retained.add(thisScope);
+                } else {
+                    retained.add(new RatedDownloadScope(retainStart, retainEnd,
                             thisScope.getCountRating(), thisScope.getSpeedRating()));
-                    removeThis = false;
-                    break;
-                } else if (retainScope.getStart() >= thisScope.getEnd()) {
-                    break;
                 }
             }
-            if (removeThis) {
-                thisIterator.remove();
+            if (thisScope.getEnd() < retainScope.getEnd()) {
+                thisScope = thisIterator.hasNext() ? thisIterator.next() : null;
+            } else {
+                retainScope = retainIterator.hasNext() ? retainIterator.next() : null;
             }
         }
+        replaceScopes(retained);
     }
 
     public void rateDownloadScopeList(DownloadScopeList downloadScopeList, long speedRateValue) {
@@ -332,19 +201,19 @@ public class RatedDownloadScopeList {
     }
 
     public void compressByRatings() {
-        ListIterator<RatedDownloadScope> iterator = scopeList.listIterator();
-        if (!iterator.hasNext()) {
+        if (scopeMap.size() < 2) {
             return;
         }
+        List<RatedDownloadScope> compressed = new ArrayList<RatedDownloadScope>(
+                scopeMap.size());
+        boolean isCompressed = false;
+        Iterator<RatedDownloadScope> iterator = scopeMap.values().iterator();
         RatedDownloadScope prev = iterator.next();
         RatedDownloadScope current;
         while (iterator.hasNext()) {
             current = iterator.next();
             if (current.getStart() == prev.getEnd() + 1 &&
                     hasCloseToleranze(prev, current, 5.0)) {
-                iterator.remove();
-                iterator.previous();
-                iterator.remove();
                 int minCount = (int) Math.round((prev.getLength() * prev.getCountRating()
                         + current.getLength() * current.getCountRating())
                         / (double) (prev.getLength() + current.getLength()));
@@ -354,12 +223,17 @@ public class RatedDownloadScopeList {
                 } else {
                     minSpeed = Math.min(prev.getSpeedRating(), current.getSpeedRating());
                 }
-                RatedDownloadScope scope1 = new RatedDownloadScope(
+                prev = new RatedDownloadScope(
                         prev.getStart(), current.getEnd(), minCount, minSpeed);
-                iterator.add(scope1);
-                current = scope1;
+                isCompressed = true;
+            } else {
+                compressed.add(prev);
+                prev = current;
             }
-            prev = current;
+        }
+        compressed.add(prev);
+        if (isCompressed) {
+            replaceScopes(compressed);
         }
     }
 
@@ -378,26 +252,11 @@ public class RatedDownloadScopeList {
     }
 
     private void rateDownloadScope(DownloadScope rateScope, long speedRateValue) {
-        ArrayList<RatedDownloadScope> scopesToAdd = new ArrayList<RatedDownloadScope>();
-        Iterator<RatedDownloadScope> iterator = scopeList.iterator();
-        while (iterator.hasNext()) {
-            RatedDownloadScope scope = iterator.next();
-            if (scope.isOverlapping(rateScope)) {
-                int overlapStart = (int) Math.max(scope.getStart(), rateScope.getStart());
-                int overlapEnd = (int) Math.min(scope.getEnd(), rateScope.getEnd());
-                RatedDownloadScope overlapScope = new RatedDownloadScope(
-                        overlapStart, overlapEnd, 1, speedRateValue);
-                scopesToAdd.add(overlapScope);
-            }
-            // we went far enough in the sorted scope list...
-            if (scope.getStart() > rateScope.getEnd()) {
-                break;
-            }
-        }
-        iterator = scopesToAdd.iterator();
-        while (iterator.hasNext()) {
-            RatedDownloadScope scope = iterator.next();
-            add(scope);
+        for (RatedDownloadScope scope : getOverlappingScopes(
+                rateScope.getStart(), rateScope.getEnd())) {
+            long overlapStart = Math.max(scope.getStart(), rateScope.getStart());
+            long overlapEnd = Math.min(scope.getEnd(), rateScope.getEnd());
+            add(new RatedDownloadScope(overlapStart, overlapEnd, 1, speedRateValue));
         }
     }
 
@@ -407,24 +266,20 @@ public class RatedDownloadScopeList {
      */
     public void prepareRating() {
         compressByRatings();
-        ratedScopeList.clear();
-        ratedScopeList.addAll(scopeList);
-        ratedScopeList.sort(RATED_DOWNLOAD_SCOPE_COMPARATOR);
-        dumpRatings();
     }
 
     public RatedDownloadScope getBestRated() {
-        if (ratedScopeList.size() > 0) {
-            return ratedScopeList.get(0);
+        if (ratedScopeSet.isEmpty()) {
+            return null;
         }
-        return null;
+        return ratedScopeSet.first();
     }
 
     public RatedDownloadScope getWorstRated() {
-        if (ratedScopeList.size() > 0) {
-            return ratedScopeList.get(ratedScopeList.size() - 1);
+        if (ratedScopeSet.isEmpty()) {
+            return null;
         }
-        return null;
+        return ratedScopeSet.last();
     }
 
     /**
@@ -444,100 +299,96 @@ public class RatedDownloadScopeList {
     }
 
     public long getAggregatedLength() {
-        if (modificationCount == aggregatedLengthModCount) {
-            return aggregatedLengthCache;
-        }
-
-        long length = 0;
-        Iterator<RatedDownloadScope> iterator = scopeList.iterator();
-        while (iterator.hasNext()) {
-            DownloadScope scope = iterator.next();
-            length += scope.getLength();
-        }
-        aggregatedLengthCache = length;
-        aggregatedLengthModCount = modificationCount;
-        return length;
+        return aggregatedLength;
     }
 
     /**
-     * Returns a new list containing all download scops of this list.
+     * Returns a iterator over all download scopes of this list ordered by
+     * start position.
      *
      * @return
      */
     public Iterator<RatedDownloadScope> getScopeIterator() {
-        return scopeList.listIterator();
+        final Iterator<RatedDownloadScope> iterator = scopeMap.values().iterator();
+        return new Iterator<RatedDownloadScope>() {
+            private RatedDownloadScope current;
+
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public RatedDownloadScope next() {
+                current = iterator.next();
+                return current;
+            }
+
+            public void remove() {
+                iterator.remove();
+                ratedScopeSet.remove(current);
+                aggregatedLength -= current.getLength();
+            }
+        };
     }
 
     public int size() {
-        return scopeList.size();
+        return scopeMap.size();
     }
 
     public void clear() {
-        scopeList.clear();
-        ratedScopeList.clear();
-        aggregatedLengthCache = 0;
-        modificationCount = 0;
-        aggregatedLengthModCount = 0;
+        scopeMap.clear();
+        ratedScopeSet.clear();
+        aggregatedLength = 0;
     }
 
-    protected void addInternal(RatedDownloadScope scope) {
-        int index = Collections.binarySearch(scopeList, scope, DOWNLOAD_SCOPE_COMPARATOR);
-        assert index < 0;
-        scopeList.add(-(index + 1), scope);
-        modificationCount++;
+    /**
+     * Returns the scopes overlapping the given range ordered by start position.
+     */
+    private List<RatedDownloadScope> getOverlappingScopes(long start, long end) {
+        Long fromKey = scopeMap.floorKey(start);
+        if (fromKey == null || scopeMap.get(fromKey).getEnd() < start) {
+            fromKey = start;
+        }
+        return new ArrayList<RatedDownloadScope>(
+                scopeMap.subMap(fromKey, true, end, true).values());
     }
 
-    protected void removeInternal(RatedDownloadScope scope) {
-        int index = Collections.binarySearch(scopeList, scope, DOWNLOAD_SCOPE_COMPARATOR);
-        assert index >= 0;
-        scopeList.remove(index);
-        modificationCount++;
+    private void replaceScopes(List<RatedDownloadScope> scopes) {
+        clear();
+        for (RatedDownloadScope scope : scopes) {
+            addInternal(scope);
+        }
     }
 
-    private void dumpRatings() {
-//        System.out.println( "---------------------------" );
-//        Iterator iterator = scopeList.iterator();
-//        while( iterator.hasNext() )
-//        {
-//            System.out.println( "SL: " + iterator.next() );
-//        }
-//        System.out.println( "---------------------------" );
-//        iterator = ratedScopeList.iterator();
-//        while( iterator.hasNext() )
-//        {
-//            System.out.println( "RL: " + iterator.next() );
-//        }
-//        System.out.println( "---------------------------" );
+    protected void addInternal(RatedDownloadScope scope) {
+        RatedDownloadScope previous = scopeMap.put(scope.getStart(), scope);
+        assert previous == null;
+        ratedScopeSet.add(scope);
+        aggregatedLength += scope.getLength();
     }
 
-    private static class DownloadScopeComparator implements Comparator<DownloadScope> {
-        public int compare(DownloadScope scope1, DownloadScope scope2) {
-            if (scope1 == scope2 || scope1.equals(scope2)) {
-                return 0;
-            }
-
-            if (scope1.getStart() > scope2.getStart()) {
-                return 1;
-            }
-            return -1;
-        }
+    protected void removeInternal(RatedDownloadScope scope) {
+        RatedDownloadScope removed = scopeMap.remove(scope.getStart());
+        assert removed != null;
+        ratedScopeSet.remove(scope);
+        aggregatedLength -= scope.getLength();
     }
 
+    /**
+     * Orders scopes by count rating, then speed rating. Scopes with the same
+     * rating are ordered by start position.
+     */
     private static class RatedDownloadScopeComparator implements Comparator<RatedDownloadScope> {
         public int compare(RatedDownloadScope scope1, RatedDownloadScope scope2) {
-            if (scope1 == scope2 || scope1.equals(scope2)) {
-                return 0;
+            if (scope1.getCountRating() != scope2.getCountRating()) {
+                return scope1.getCountRating() < scope2.getCountRating() ? -1 : 1;
             }
-            if (scope1.getCountRating() > scope2.getCountRating()) {
-                return 1;
-            } else if (scope1.getCountRating() < scope2.getCountRating()) {
-                return -1;
-            } else {
-                if (scope1.getSpeedRating() > scope2.getSpeedRating()) {
-                    return 1;
-                }
-                return -1;
+            if (scope1.getSpeedRating() != scope2.getSpeedRating()) {
+                return scope1.getSpeedRating() < scope2.getSpeedRating() ? -1 : 1;
+            }
+            if (scope1.getStart() != scope2.getStart()) {
+                return scope1.getStart() < scope2.getStart() ? -1 : 1;
             }
+            return 0;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.download;
+
+import phex.download.ThexVerificationData.ThexData;
+import phex.util.bitzi.TigerTree;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Verifies downloaded data against the THEX tree while it is received.
+ * <p>
+ * The data of a download connection is hashed as it streams in. Hashing
+ * starts at the first THEX node boundary and each completed node is compared
+ * with the expected node hash, before the data is written to disk. Data that
+ * is not contiguous to the previously received data restarts hashing at the
+ * next node boundary; nodes that were not seen completely by this verifier
+ * are left for the verification from disk.
+ * <p>
+ * A verifier is used by a single download thread and is not thread safe.
+ */
+public class ThexStreamVerifier {
+    private final ThexVerificationData verificationData;
+    private final NodeVerificationHandler handler;
+    private final MessageDigest tigerTree;
+
+    /**
+     * The file offset the next data is expected at, or -1 if unknown.
+     */
+    private long expectedOffset;
+
+    /**
+     * The THEX data the current node is verified against, or null if
+     * no node is hashed currently.
+     */
+    private ThexData nodeThexData;
+    private long nodeStart;
+    private long nodeEnd;
+
+    public ThexStreamVerifier(ThexVerificationData verificationData,
+                              NodeVerificationHandler handler) {
+        this.verificationData = verificationData;
+        this.handler = handler;
+        tigerTree = new TigerTree();
+        expectedOffset = -1;
+    }
+
+    /**
+     * Hashes the data received for the given file offset and verifies all
+     * THEX nodes it completes.
+     *
+     * @param fileOffset the file offset of the data.
+     * @param fileSize   the total size of the file, or a negative value if
+     *                   unknown.
+     * @return false if a node failed verification, true otherwise.
+     */
+    public boolean update(long fileOffset, byte[] data, int offset, int length,
+                          long fileSize) {
+        if (fileOffset != expectedOffset) {
+            resetNode();
+        }
+        expectedOffset = fileOffset + length;
+
+        boolean isValid = true;
+        while (length > 0) {
+            if (nodeThexData == null) {
+                int skip = startNode(fileOffset, length, fileSize);
+                if (skip < 0) {
+                    break;
+                }
+                fileOffset += skip;
+                offset += skip;
+                length -= skip;
+            }
+
+            int chunk = (int) Math.min(length, nodeEnd - fileOffset + 1);
+            tigerTree.update(data, offset, chunk);
+            fileOffset += chunk;
+            offset += chunk;
+            length -= chunk;
+
+            if (fileOffset == nodeEnd + 1) {
+                isValid &= verifyNode();
+            }
+        }
+        return isValid;
+    }
+
+    /**
+     * Starts hashing at the next node boundary inside the given range.
+     *
+     * @return the number of bytes to skip before the node starts, or -1 if
+     * no node starts in the range.
+     */
+    private int startNode(long fileOffset, int length, long fileSize) {
+        ThexData thexData = verificationData.getThexData();
+        if (thexData == null || fileSize <= 0) {
+            return -1;
+        }
+        int nodeSize = thexData.getNodeSize();
+        long boundary = (fileOffset + nodeSize - 1) / nodeSize * nodeSize;
+        if (boundary >= fileSize || boundary - fileOffset >= length) {
+            return -1;
+        }
+        nodeThexData = thexData;
+        nodeStart = boundary;
+        nodeEnd = Math.min(boundary + nodeSize, fileSize) - 1;
+        return (int) (boundary - fileOffset);
+    }
+
+    private boolean verifyNode() {
+        byte[] hash = tigerTree.digest();
+        byte[] expected = nodeThexData.getNodeHash(
+                (int) (nodeStart / nodeThexData.getNodeSize()));
+        boolean isValid = Arrays.equals(hash, expected);
+        handler.nodeVerified(new DownloadScope(nodeStart, nodeEnd), isValid);
+        nodeThexData = null;
+        return isValid;
+    }
+
+    private void resetNode() {
+        if (nodeThexData != null) {
+            tigerTree.reset();
+            nodeThexData = null;
+        }
+    }
+
+    /**
+     * Receives the result of each verified THEX node.
+     */
+    public interface NodeVerificationHandler {
+        void nodeVerified(DownloadScope nodeScope, boolean isValid);
+    }
+}
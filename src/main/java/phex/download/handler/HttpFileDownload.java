@@ -54,7 +54,6 @@ import java.util.*;
 public class HttpFileDownload extends AbstractHttpDownload {
     private static final Logger logger = LoggerFactory.getLogger(
             HttpFileDownload.class);
-    private static final int BUFFER_LENGTH = 16 * 1024;
 
     private InputStream inStream;
 
@@ -601,9 +600,18 @@ public class HttpFileDownload extends AbstractHttpDownload {
             MemoryFile memoryFile = downloadFile.getMemoryFile();
             long fileOffset = segment.getStart() + segment.getTransferredDataSize();
             long lengthDownloaded = segment.getTransferredDataSize();
+            ThexStreamVerifier thexVerifier = downloadEngine.getThexStreamVerifier();
             int len;
-            byte[] buffer = new byte[BUFFER_LENGTH];
-            while ((len = downloadStream.read(buffer, 0, BUFFER_LENGTH)) > 0) {
+            while (true) {
+                // read directly into a pooled buffer, it is given back by
+                // MemoryFile once the data is written to disk.
+                ByteBuffer byteBuffer = memoryFile.borrowDataBuffer();
+                len = downloadStream.read(byteBuffer.array(), 0, byteBuffer.capacity());
+                if (len <= 0) {
+                    memoryFile.releaseDataBuffer(byteBuffer);
+                    break;
+                }
+                byteBuffer = memoryFile.trimDataBuffer(byteBuffer, len);
                 if (logger.isDebugEnabled()) {
                     logger.debug("Reading in {} bytes.", len);
                     candidate.addToCandidateLog("Reading in " + len + "bytes.");
@@ -619,12 +627,12 @@ public class HttpFileDownload extends AbstractHttpDownload {
                         throw new IOException("TransferredDataSize would be larger then segment!");
                     }
 
-                    // this will request buffers between 1KB and 16KB of length.
-                    // don't release or clear directByteBuffer this will be done
+                    // don't release or clear byteBuffer this will be done
                     // by MemoryFile and DownloadDataWriter
-                    ByteBuffer byteBuffer = ByteBuffer.allocate(len);
-                    byteBuffer.put(buffer, 0, len);
-                    byteBuffer.flip();
+                    byteBuffer.limit(len);
+                    // verify against the THEX tree before the data is written.
+                    boolean isThexValid = thexVerifier.update(fileOffset,
+                            byteBuffer.array(), 0, len, downloadFile.getTotalDataSize());
                     DataDownloadScope dataScope = new DataDownloadScope(fileOffset,
                             fileOffset + len - 1, byteBuffer);
                     if (logger.isDebugEnabled()) {
@@ -649,6 +657,13 @@ public class HttpFileDownload extends AbstractHttpDownload {
                         downloadLengthLeft = Math.min(segmentDataSizeLeft, downloadLengthLeft);
                         downloadStream.setLengthLimit(downloadLengthLeft);
                     }
+
+                    if (!isThexValid) {
+                        // the corrupt data is dropped again once it is
+                        // finalized, stop downloading more of it.
+                        candidate.addToCandidateLog("Downloaded data failed THEX verification.");
+                        throw new IOException("Downloaded data failed THEX verification.");
+                    }
                 }
             }
             isDownloadSuccessful = true;
@@ -35,6 +35,7 @@ import phex.NetworkPrefs;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class SWDownloadWorker implements Runnable {
     private final Object workerThreadLock = new Object();
@@ -159,12 +160,26 @@ public class SWDownloadWorker implements Runnable {
         }
     }
 
-    public void startWorker() {
+    /**
+     * Starts the worker on the thread pool.
+     *
+     * @return false if the thread pool is exhausted and the worker is not
+     * running.
+     */
+    public boolean startWorker() {
         isRunning = true;
-        Environment.getInstance().executeOnThreadPool(this,
-                "SWDownloadWorker-" + Integer.toHexString(hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(this,
+                    "SWDownloadWorker-" + Integer.toHexString(hashCode()));
+        } catch (RejectedExecutionException exp) {
+            isRunning = false;
+            NLogger.warn(SWDownloadWorker.class,
+                    "Failed to start SWDownloadWorker " + this + ": " + exp);
+            return false;
+        }
         NLogger.debug(SWDownloadWorker.class,
                 "Started SWDownloadWorker " + this);
+        return true;
     }
 
     public void stopWorker() {
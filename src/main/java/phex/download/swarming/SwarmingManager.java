@@ -258,7 +258,8 @@ public class SwarmingManager extends AbstractLifeCycle {
 
     public MemoryFile createMemoryFile(SWDownloadFile file) {
         return new MemoryFile(file, downloadWriteBufferTracker, dataWriter,
-                downloadVerifyRunner);
+                downloadVerifyRunner,
+                peer.downloadPrefs.MaxWriteBufferPerDownload.get().intValue());
     }
 
     public synchronized SWDownloadFile addFileToDownload(RemoteFile remoteFile,
@@ -1049,8 +1050,12 @@ public class SwarmingManager extends AbstractLifeCycle {
                 if (temporaryWorker == null && workerList.size() < requiredCount) {// we have not enough workers... create some more
                     temporaryWorker = new SWDownloadWorker(SwarmingManager.this);
                     temporaryWorker.setTemporaryWorker(true);
-                    temporaryWorker.startWorker();
-                    workerList.add(temporaryWorker);
+                    if (temporaryWorker.startWorker()) {
+                        workerList.add(temporaryWorker);
+                    } else {
+                        // thread pool exhausted, retry on the next cycle.
+                        temporaryWorker = null;
+                    }
 //                    NLogger.debug(SwarmingManager.class,
 //                            "Creating new worker: " + temporaryWorker
 //                                    + " for a total of: " + workerList.size());
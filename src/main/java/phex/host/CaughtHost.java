@@ -32,6 +32,27 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class CaughtHost {
     private static final AtomicInteger UNIQUE_ID_PROVIDER = new AtomicInteger(0);
 
+    /**
+     * The weight of a new observation in the learned connect success rate.
+     */
+    private static final double SUCCESS_RATE_WEIGHT = 0.3;
+
+    /**
+     * The weight of a new observation in the averaged connect latency and
+     * connection uptime.
+     */
+    private static final double AVERAGE_WEIGHT = 0.25;
+
+    /**
+     * The connection uptime in seconds rated as fully stable.
+     */
+    private static final int STABLE_UPTIME = 2 * 60 * 60;
+
+    /**
+     * The connect latency in millis rated as worst.
+     */
+    private static final int SLOW_CONNECT_LATENCY = 5000;
+
     /**
      * A unique id of a host, it's main use is to provide
      * distinction in CaughtHostComparator.
@@ -51,6 +72,23 @@ public class CaughtHost {
     private int vendorVersionMinor;
     private boolean isUltrapeer;
 
+    /**
+     * The learned rate of connect attempts to this host that ended with an
+     * accepted handshake, between 0 and 1.
+     */
+    private double connectSuccessRate;
+
+    /**
+     * The average latency in millis of successful connects, or -1 if unknown.
+     */
+    private int connectLatency;
+
+    /**
+     * The average uptime in seconds of connections to this host, or -1 if
+     * unknown.
+     */
+    private int connectionUptime;
+
     /**
      * @param address
      */
@@ -59,6 +97,9 @@ public class CaughtHost {
         hostAddress = address;
         lastFailedConnection = -1;
         lastSuccessfulConnection = -1;
+        connectSuccessRate = 0.5;
+        connectLatency = -1;
+        connectionUptime = -1;
     }
 
     public DestAddress getHostAddress() {
@@ -187,10 +228,102 @@ public class CaughtHost {
         lastSuccessfulConnection = l;
     }
 
+    public double getConnectSuccessRate() {
+        return connectSuccessRate;
+    }
+
+    public void setConnectSuccessRate(double rate) {
+        connectSuccessRate = Math.max(0, Math.min(1, rate));
+    }
+
+    public int getConnectLatency() {
+        return connectLatency;
+    }
+
+    public void setConnectLatency(int latency) {
+        connectLatency = latency;
+    }
+
+    public int getConnectionUptime() {
+        return connectionUptime;
+    }
+
+    public void setConnectionUptime(int uptime) {
+        connectionUptime = uptime;
+    }
+
+    /**
+     * Learns from the result of a connect attempt to this host. A host that
+     * was reached but rejected the handshake counts as half a success, it
+     * is alive but might be busy.
+     *
+     * @param isConnected         true if the host was reached.
+     * @param latency             the connect latency in millis, only used if
+     *                            the host was reached.
+     * @param isHandshakeAccepted true if the handshake was accepted.
+     */
+    public void addConnectResult(boolean isConnected, long latency,
+                                 boolean isHandshakeAccepted) {
+        double result;
+        if (isHandshakeAccepted) {
+            result = 1;
+        } else if (isConnected) {
+            result = 0.5;
+        } else {
+            result = 0;
+        }
+        connectSuccessRate += (result - connectSuccessRate) * SUCCESS_RATE_WEIGHT;
+        if (isConnected) {
+            connectLatency = average(connectLatency, (int) Math.min(latency, Integer.MAX_VALUE));
+        }
+    }
+
+    /**
+     * Learns from the uptime of a closed connection to this host.
+     *
+     * @param uptime the connection uptime in seconds.
+     */
+    public void addConnectionUptime(int uptime) {
+        connectionUptime = average(connectionUptime, uptime);
+    }
+
+    private static int average(int average, int value) {
+        if (average < 0) {
+            return value;
+        }
+        return (int) Math.round(average + (value - average) * AVERAGE_WEIGHT);
+    }
+
+    /**
+     * Returns the learned score of the host, the higher the score the more
+     * likely a connection to the host succeeds and lasts. The score is
+     * between 0 and 1 and mainly depends on the connect success rate, the
+     * known uptime and the connect latency add to it.
+     *
+     * @return the learned score of the host.
+     */
+    public double getConnectScore() {
+        int uptime = Math.max(connectionUptime, avgDailyUptime);
+        double uptimeRating;
+        if (uptime <= 0) {
+            uptimeRating = 0.5;
+        } else {
+            uptimeRating = Math.min(uptime, STABLE_UPTIME) / (double) STABLE_UPTIME;
+        }
+        double latencyRating;
+        if (connectLatency < 0) {
+            latencyRating = 0.5;
+        } else {
+            latencyRating = 1 - Math.min(connectLatency, SLOW_CONNECT_LATENCY)
+                    / (double) SLOW_CONNECT_LATENCY;
+        }
+        return connectSuccessRate * 0.6 + uptimeRating * 0.3 + latencyRating * 0.1;
+    }
+
     public String toString() {
         return "CaughtHost[" + hostAddress.toString() + ",Failed=" +
                 lastFailedConnection + ",Successful=" + lastSuccessfulConnection +
-                ",Uptime=" + avgDailyUptime + ']';
+                ",Uptime=" + avgDailyUptime + ",Score=" + getConnectScore() + ']';
     }
 
     /**
@@ -26,7 +26,9 @@ import java.util.Comparator;
 /**
  * This class is responsible for comparing two CaughtHost instances.
  * The Comparator will determine which instance has a higher probability
- * of a successful connection.
+ * of a successful connection. Hosts are ordered by their learned
+ * {@link CaughtHost#getConnectScore() connect score} first, the static
+ * rules below only decide between hosts of equal score.
  * <p>
  * Test from 2007-12-03 by Arne Babenhauserheide with Phex SVN  after several restarts
  * from the output of 15936 comparisions:
@@ -48,10 +50,17 @@ public class CaughtHostComparator implements Comparator<CaughtHost> {
             return 0;
         }
 
-        // first check if last connection was failed or successfull
+        // first compare the score learned from connect results, uptime and
+        // connect latency.
+        int diff = Double.compare(host1.getConnectScore(), host2.getConnectScore());
+        if (diff != 0) {
+            return diff;
+        }
+
+        // then check if last connection was failed or successfull
         int h1Rating = host1.getConnectionTimeRating();
         int h2Rating = host2.getConnectionTimeRating();
-        int diff = h1Rating - h2Rating; 
+        diff = h1Rating - h2Rating; 
     /*
 	 * diffConnTime seems to have values between -2 and 2 
 	 * (each seperate check can return -1, 0 or 1).  
@@ -25,6 +25,7 @@ import org.apache.commons.collections4.set.ListOrderedSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import phex.common.Environment;
+import phex.common.Workload;
 import phex.common.address.AddressUtils;
 import phex.common.address.DefaultDestAddress;
 import phex.common.address.DestAddress;
@@ -120,6 +121,8 @@ public class CaughtHostsContainer {
         // IP:port         or:
         // IP:port,lastFailedConnection,lastSuccessfulConnection,dailyUptime
         // IP:port,lastFailedConnection,lastSuccessfulConnection,dailyUptime,vendor,vendorVersionMajor,vendorVersionMinor,isUltrapeer
+        // IP:port,lastFailedConnection,lastSuccessfulConnection,dailyUptime,vendor,vendorVersionMajor,vendorVersionMinor,isUltrapeer,
+        //     connectSuccessRate,connectLatency,connectionUptime
         StringTokenizer tokenizer = new StringTokenizer(line, ",");
         int tokenCount = tokenizer.countTokens();
 
@@ -131,12 +134,15 @@ public class CaughtHostsContainer {
         int vendorVersionMajor = -1;
         int vendorVersionMinor = -1;
         boolean isUltrapeer = false;
+        double connectSuccessRate = -1;
+        int connectLatency = -1;
+        int connectionUptime = -1;
         if (tokenCount == 1) {
             hostAddressStr = line;
             dailyUptime = -1;
             lastFailedconnection = -1;
             lastSuccessfulConnection = -1;
-        } else if (tokenCount == 4 || tokenCount == 8) {
+        } else if (tokenCount == 4 || tokenCount == 8 || tokenCount == 11) {
             hostAddressStr = tokenizer.nextToken();
             try {
                 lastFailedconnection = Long.parseLong(tokenizer.nextToken());
@@ -153,7 +159,7 @@ public class CaughtHostsContainer {
             } catch (NumberFormatException exp) {
                 dailyUptime = -1;
             }
-            if (tokenCount == 8) {
+            if (tokenCount >= 8) {
                 vendor = tokenizer.nextToken();
                 try {
                     vendorVersionMajor = Integer.parseInt(tokenizer.nextToken());
@@ -167,6 +173,17 @@ public class CaughtHostsContainer {
                 }
                 isUltrapeer = Boolean.parseBoolean(tokenizer.nextToken());
             }
+            if (tokenCount == 11) {
+                try {
+                    connectSuccessRate = Double.parseDouble(tokenizer.nextToken());
+                    connectLatency = Integer.parseInt(tokenizer.nextToken());
+                    connectionUptime = Integer.parseInt(tokenizer.nextToken());
+                } catch (NumberFormatException exp) {
+                    connectSuccessRate = -1;
+                    connectLatency = -1;
+                    connectionUptime = -1;
+                }
+            }
         } else {// Unknown format
             logger.warn("Unknown HostCache line format: {}", line);
             return null;
@@ -196,6 +213,19 @@ public class CaughtHostsContainer {
         if (vendor != null && !vendor.equals("-")) {
             caughtHost.setVendor(vendor, vendorVersionMajor, vendorVersionMinor);
         }
+        if (connectSuccessRate >= 0) {
+            caughtHost.setConnectSuccessRate(connectSuccessRate);
+            caughtHost.setConnectLatency(connectLatency);
+            caughtHost.setConnectionUptime(connectionUptime);
+        } else {
+            // no learned score yet, start from the last connection result.
+            int rating = caughtHost.getConnectionTimeRating();
+            if (rating > 0) {
+                caughtHost.setConnectSuccessRate(0.75);
+            } else if (rating < 0) {
+                caughtHost.setConnectSuccessRate(0.25);
+            }
+        }
 
         return caughtHost;
     }
@@ -405,6 +435,66 @@ public class CaughtHostsContainer {
         }
     }
 
+    /**
+     * Learns from the result of a connect attempt to the host address. The
+     * learned score of the host decides its position in the persistent
+     * caught hosts.
+     *
+     * @param hostAddress         the address connected to.
+     * @param isConnected         true if the host was reached.
+     * @param latency             the connect latency in millis.
+     * @param isHandshakeAccepted true if the handshake was accepted.
+     */
+    public void reportConnectResult(DestAddress hostAddress, boolean isConnected,
+                                    long latency, boolean isHandshakeAccepted) {
+        if (!isValidCaughtHostAddress(hostAddress)) {
+            return;
+        }
+        synchronized (caughtHostsCache) {
+            CaughtHost existingHost = removeForUpdate(hostAddress);
+            if (isConnected) {
+                existingHost.setLastSuccessfulConnection(System.currentTimeMillis());
+            } else {
+                existingHost.setLastFailedConnection(System.currentTimeMillis());
+            }
+            existingHost.addConnectResult(isConnected, latency, isHandshakeAccepted);
+            caughtHostsCache.add(existingHost);
+            hasChangedSinceLastSave = true;
+        }
+    }
+
+    /**
+     * Learns from the uptime of a closed connection to the host address.
+     *
+     * @param hostAddress the address of the closed connection.
+     * @param uptime      the connection uptime in seconds.
+     */
+    public void reportConnectionUptime(DestAddress hostAddress, int uptime) {
+        if (!isValidCaughtHostAddress(hostAddress)) {
+            return;
+        }
+        synchronized (caughtHostsCache) {
+            CaughtHost existingHost = removeForUpdate(hostAddress);
+            existingHost.addConnectionUptime(uptime);
+            caughtHostsCache.add(existingHost);
+            hasChangedSinceLastSave = true;
+        }
+    }
+
+    /**
+     * Returns the cached host of the address removed from the caught hosts
+     * cache, to maintain the correct order it must be added back after
+     * modifying. A new host is returned if the address is not cached.
+     */
+    private CaughtHost removeForUpdate(DestAddress hostAddress) {
+        CaughtHost existingHost = caughtHostsCache.getCaughHost(hostAddress);
+        if (existingHost == null) {
+            return new CaughtHost(hostAddress);
+        }
+        caughtHostsCache.remove(existingHost);
+        return existingHost;
+    }
+
     /**
      * Reacts on gnutella network changes to initialize or save caught hosts.
      */
@@ -593,7 +683,8 @@ public class CaughtHostsContainer {
                     String vendor = host.getVendor();
                     // line format is:
                     // IP:port,lastFailedConnection,lastSuccessfulConnection,dailyUptime,
-                    // vendor,vendorVersionMajor,vendorVersionMinor,isUltrapeer
+                    // vendor,vendorVersionMajor,vendorVersionMinor,isUltrapeer,
+                    // connectSuccessRate,connectLatency,connectionUptime
                     bw.write(hostAddress.getFullHostName() +
                             ',' + host.getLastFailedConnection() +
                             ',' + host.getLastSuccessfulConnection() +
@@ -601,7 +692,10 @@ public class CaughtHostsContainer {
                             ',' + (vendor == null ? "-" : vendor) +
                             ',' + host.getVendorVersionMajor() +
                             ',' + host.getVendorVersionMinor() +
-                            ',' + host.isUltrapeer());
+                            ',' + host.isUltrapeer() +
+                            ',' + host.getConnectSuccessRate() +
+                            ',' + host.getConnectLatency() +
+                            ',' + host.getConnectionUptime());
 
                     bw.newLine();
                 }
@@ -631,7 +725,7 @@ public class CaughtHostsContainer {
                 // trigger the save inside a background job to not
                 // slow down the timer too much
                 Environment.getInstance().executeOnThreadPool(new SaveHostsContainerRunner(),
-                        "SaveHostsContainer");
+                        "SaveHostsContainer", Workload.DISK);
             } catch (Throwable th) {
                 logger.error(th.toString(), th);
             }
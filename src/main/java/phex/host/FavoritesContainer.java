@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import phex.common.Environment;
 import phex.common.PhexVersion;
+import phex.common.Workload;
 import phex.common.address.DefaultDestAddress;
 import phex.common.address.DestAddress;
 import phex.common.file.FileManager;
@@ -271,7 +272,7 @@ public class FavoritesContainer {
             try {
                 // trigger the save inside a background job
                 Environment.getInstance().executeOnThreadPool(new SaveFavoritesRunner(),
-                        "SaveBookmarkedHosts");
+                        "SaveBookmarkedHosts", Workload.DISK);
             } catch (Throwable th) {
                 logger.error(th.toString(), th);
             }
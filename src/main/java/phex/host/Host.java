@@ -28,6 +28,7 @@ import phex.common.QueryRoutingTable;
 import phex.common.address.DestAddress;
 import phex.connection.ConnectionClosedException;
 import phex.connection.MessageQueue;
+import phex.connection.ReactorChannel;
 import phex.io.buffer.ByteBuffer;
 import phex.msg.GUID;
 import phex.msg.Message;
@@ -46,6 +47,7 @@ import phex.util.Localizer;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -97,6 +99,11 @@ public class Host {
      */
     private final MessageQueue messageQueue;
     private final SendEngine sendEngine = new SendEngine();
+    /**
+     * The reactor channel serving this host, or null if the connection is
+     * served by a blocking read thread and the SendEngine.
+     */
+    private volatile ReactorChannel reactorChannel;
     private final Peer peer;
     private DestAddress hostAddress;
     private final AtomicReference<Connection> connection = new AtomicReference<Connection>();
@@ -409,6 +416,13 @@ public class Host {
         this.statusTime = statusTime;
     }
 
+    /**
+     * Returns the time in millis the current status was set.
+     */
+    public long getStatusTime() {
+        return statusTime;
+    }
+
     /**
      * Checks if a connection status is stable. A stable connection
      * is a connection that last over STABLE_CONNECTION_TIME seconds.
@@ -671,6 +685,10 @@ public class Host {
             if (status != HostStatus.ERROR) {
                 setStatus(HostStatus.DISCONNECTED);
             }
+            ReactorChannel channel = reactorChannel;
+            if (channel != null) {
+                channel.close(null);
+            }
             x.disconnect();
         }
 
@@ -799,18 +817,49 @@ public class Host {
         ByteBuffer headerBuf = message.createHeaderBuffer();
         ByteBuffer messageBuf = message.createMessageBuffer();
 
-
-        c.write(headerBuf);
-        c.write(messageBuf);
+        ReactorChannel channel = reactorChannel;
+        if (channel != null) {
+            channel.write(headerBuf, messageBuf);
+        } else {
+            c.write(headerBuf);
+            c.write(messageBuf);
+        }
         incSentCount();
     }
 
     public void flushOutputStream() throws IOException {
+        ReactorChannel channel = reactorChannel;
+        if (channel != null) {
+            channel.flush();
+            return;
+        }
         Connection c = connection.get();
         if (c!=null)
             c.flush();
     }
 
+    /**
+     * Sends the next burst of queued messages. Used by the connection reactor
+     * once the connection is writable.
+     *
+     * @throws IOException when a send error occurs
+     */
+    public void sendQueuedMessages() throws IOException {
+        messageQueue.sendQueuedMessages();
+    }
+
+    public ReactorChannel getReactorChannel() {
+        return reactorChannel;
+    }
+
+    /**
+     * Sets the reactor channel that from now on serves this host's
+     * connection instead of the SendEngine.
+     */
+    public void setReactorChannel(ReactorChannel reactorChannel) {
+        this.reactorChannel = reactorChannel;
+    }
+
     public void queueMessageToSend(Message message) {
         // before queuing a query check hops flow limit...
         if (hopsFlowLimit > -1
@@ -940,11 +989,21 @@ public class Host {
         private final AtomicBoolean isRunning = new AtomicBoolean(false);
 
         public void dispatch() {
+            ReactorChannel channel = reactorChannel;
+            if (channel != null) {
+                channel.requestWrite();
+                return;
+            }
             boolean result = isRunning.compareAndSet(false, true);
             if (result) {
                 String jobName = "SendEngine-" + Integer.toHexString(sendEngine.hashCode());
-                Environment.getInstance().executeOnThreadPool(sendEngine,
-                        jobName);
+                try {
+                    Environment.getInstance().executeOnThreadPool(sendEngine,
+                            jobName);
+                } catch (RejectedExecutionException exp) {
+                    // retried with the next queued message.
+                    isRunning.set(false);
+                }
             }
         }
 
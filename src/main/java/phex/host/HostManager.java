@@ -26,6 +26,7 @@ import org.slf4j.LoggerFactory;
 import phex.bootstrap.UdpHostCacheContainer;
 import phex.common.AbstractLifeCycle;
 import phex.common.Environment;
+import phex.connection.ConnectionDialer;
 import phex.connection.OutgoingConnectionDispatcher;
 import phex.connection.PingWorker;
 import phex.msg.PongMsg;
@@ -45,6 +46,7 @@ final public class HostManager extends AbstractLifeCycle {
     private final CaughtHostsContainer caughtHostsContainer;
     private final UdpHostCacheContainer udpHostCacheContainer;
     private final FavoritesContainer favoritesContainer;
+    private final ConnectionDialer connectionDialer;
 
     public HostManager(Peer peer, boolean useUdpHostCache) {
         this.peer = peer;
@@ -56,7 +58,7 @@ final public class HostManager extends AbstractLifeCycle {
             udpHostCacheContainer = null;
         }
         favoritesContainer = new FavoritesContainer(peer);
-
+        connectionDialer = new ConnectionDialer(peer);
     }
 
     @Override
@@ -64,6 +66,7 @@ final public class HostManager extends AbstractLifeCycle {
         networkHostsContainer.start();
         caughtHostsContainer.setHostFetchingStrategy(
                 peer.getHostFetchingStrategy());
+        connectionDialer.start();
         PingWorker pingWorker = new PingWorker(peer);
         pingWorker.start();
         Environment.getInstance().scheduleTimerTask(
@@ -72,7 +75,8 @@ final public class HostManager extends AbstractLifeCycle {
     }
 
     @Override
-    public void doStop() {
+    public void doStop() throws Exception {
+        connectionDialer.stop();
         if (udpHostCacheContainer != null) {
             udpHostCacheContainer.saveCachesToFile();
         }
@@ -88,6 +92,10 @@ final public class HostManager extends AbstractLifeCycle {
         return caughtHostsContainer;
     }
 
+    public ConnectionDialer getConnectionDialer() {
+        return connectionDialer;
+    }
+
     /**
      * Returns the {@link UdpHostCacheContainer} of this HostManager.
      * Value might be null in case no UDP host cache is used.
@@ -184,6 +192,58 @@ final public class HostManager extends AbstractLifeCycle {
     }
 
 
+    /**
+     * Dials new hosts in case required ultrapeer connections are missing.
+     */
+    public void doAutoConnectCheck() {
+        if (!peer.getOnlineStatus().isNetworkOnline()) {
+            return;
+        }
+
+        // as a ultrapeer or leaf I'm primary searching for Ultrapeers only...
+        int hostCount = networkHostsContainer.getUltrapeerConnectionCount();
+        int requiredHostCount = getRequiredUltrapeerConnectionCount();
+
+        // count the number of missing connection tries this is the required count
+        // minus the available count. The result is multiplied by four to raise the
+        // connection try count.
+        int missingCount = (requiredHostCount - hostCount) * 4;
+
+        // find out the number of hosts where a connection is currently tried...
+        int allHostCount = networkHostsContainer.getNetworkHostCount();
+        int errorHostCount = networkHostsContainer.getNetworkHostCount(
+                HostStatus.ERROR);
+        // make sure the value is not negative.
+        int totalCount = networkHostsContainer.getTotalConnectionCount();
+        int currentTryCount = Math.max(0, allHostCount - totalCount - errorHostCount);
+
+        // we will never try more then a reasonable parallel tries..
+        int upperLimit = Math.min(MAX_PARALLEL_CONNECTION_TRIES,
+                peer.netPrefs.MaxConcurrentConnectAttempts.get()) - currentTryCount;
+
+        int outConnectCount = Math.min(missingCount - currentTryCount,
+                upperLimit);
+        if (outConnectCount > 0) {
+            logger.debug("Auto-connect to {} new hosts.", outConnectCount);
+            OutgoingConnectionDispatcher.dispatchConnectToNextHosts(
+                    outConnectCount, peer);
+        }
+    }
+
+    /**
+     * Returns the number of ultrapeer connections this node tries to keep.
+     */
+    public int getRequiredUltrapeerConnectionCount() {
+        if (peer.isAbleToBecomeUltrapeer()) {
+            // as a ultrapeer I'm primary searching for Ultrapeers only...
+            // to make sure I'm well connected...
+            return peer.connectionPrefs.Up2UpConnections.get();
+        }
+        // we don't support legacy peers anymore ( since 3.0 ) therefore we only
+        // handle leaf mode here
+        return peer.connectionPrefs.Leaf2UpConnections.get();
+    }
+
     private class HostCheckTimer extends TimerTask {
 
         public static final long TIMER_PERIOD = 1000 * 10;
@@ -194,59 +254,12 @@ final public class HostManager extends AbstractLifeCycle {
         @Override
         public void run() {
             try {
+                connectionDialer.periodicallyCheckConnections();
                 doAutoConnectCheck();
                 networkHostsContainer.periodicallyCheckHosts();
             } catch (Throwable th) {
                 logger.error(th.toString(), th);
             }
         }
-
-        public void doAutoConnectCheck() {
-            if (!peer.getOnlineStatus().isNetworkOnline()) {
-                return;
-            }
-
-            int hostCount;
-            int requiredHostCount;
-
-            if (peer.isAbleToBecomeUltrapeer()) {
-                // as a ultrapeer I'm primary searching for Ultrapeers only...
-                // to make sure I'm well connected...
-                hostCount = networkHostsContainer.getUltrapeerConnectionCount();
-                requiredHostCount = peer.connectionPrefs.Up2UpConnections.get();
-            }
-            // we don't support legacy peers anymore ( since 3.0 ) therefore we only
-            // handle leaf mode here
-            else {
-                // as a leaf I'm primary searching for Ultrapeers only...
-                hostCount = networkHostsContainer.getUltrapeerConnectionCount();
-                requiredHostCount = peer.connectionPrefs.Leaf2UpConnections.get();
-            }
-
-            // count the number of missing connection tries this is the required count
-            // minus the available count. The result is multiplied by four to raise the
-            // connection try count.
-            int missingCount = (requiredHostCount - hostCount) * 4;
-
-            // find out the number of hosts where a connection is currently tried...
-            int allHostCount = networkHostsContainer.getNetworkHostCount();
-            int errorHostCount = networkHostsContainer.getNetworkHostCount(
-                    HostStatus.ERROR);
-            // make sure the value is not negative.
-            int totalCount = networkHostsContainer.getTotalConnectionCount();
-            int currentTryCount = Math.max(0, allHostCount - totalCount - errorHostCount);
-
-            // we will never try more then a reasonable parallel tries..
-            int upperLimit = Math.min(MAX_PARALLEL_CONNECTION_TRIES,
-                    peer.netPrefs.MaxConcurrentConnectAttempts.get()) - currentTryCount;
-
-            int outConnectCount = Math.min(missingCount - currentTryCount,
-                    upperLimit);
-            if (outConnectCount > 0) {
-                logger.debug("Auto-connect to {} new hosts.", outConnectCount);
-                OutgoingConnectionDispatcher.dispatchConnectToNextHosts(
-                        outConnectCount, peer);
-            }
-        }
     }
 }
\ No newline at end of file
@@ -1,18 +1,392 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
 package phex.io.buffer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import phex.util.StringUtils;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Holds commonly used constant buffers and a size classed pool of byte
+ * arrays used for message framing and connection I/O.
+ * <p>
+ * A borrowed array is at least as large as requested and must be given back
+ * using {@link #release(byte[])} once it is no longer used. Requests larger
+ * than the biggest size class are allocated and not pooled.
+ * <p>
+ * Message bodies are borrowed using {@link #borrowExact(int)}, since every
+ * message class relies on the body length being the data length. Small
+ * bodies are pooled by their exact length. A borrowed body that is kept by
+ * its message must be handed over using {@link #detach(byte[])}.
+ * <p>
+ * When leak detection is enabled (by default when debug logging is enabled
+ * for this class) the allocation site of every borrowed array is recorded
+ * until it is released. Arrays garbage collected without being released are
+ * reported as leaks together with their allocation site.
+ */
 public class BufferCache {
+    private static final Logger logger = LoggerFactory.getLogger(BufferCache.class);
+
     public static final String OK = "OK";
     public static final ByteBuffer OK_BUFFER;
 
     public static final String LFLF = "\n\n";
     public static final ByteBuffer LFLF_BUFFER;
 
+    /**
+     * The size classes of pooled arrays.
+     */
+    private static final int[] SIZE_CLASSES = {256, BufferSize._2K, BufferSize._16K,
+            BufferSize._64K};
+
+    /**
+     * The max number of idle arrays kept per size class.
+     */
+    private static final int[] MAX_POOLED = {512, 128, 64, 16};
+
+    /**
+     * The max length of arrays pooled by their exact length.
+     */
+    private static final int MAX_EXACT_SIZE = 1024;
+
+    /**
+     * The max number of idle arrays kept per exact length.
+     */
+    private static final int MAX_POOLED_EXACT = 32;
+
+    private static final byte[] EMPTY_ARRAY = new byte[0];
+
+    private static final BufferCache instance;
+
     static {
         OK_BUFFER = ByteBuffer.wrap(StringUtils.getBytesInUsAscii(OK)).asReadOnlyBuffer();
         LFLF_BUFFER = ByteBuffer.wrap(StringUtils.getBytesInUsAscii(LFLF)).asReadOnlyBuffer();
+        instance = new BufferCache(logger.isDebugEnabled());
+    }
+
+    private final BlockingQueue<byte[]>[] pools;
+
+    /**
+     * The pools of arrays by exact length, created on first use.
+     */
+    private final AtomicReferenceArray<BlockingQueue<byte[]>> exactPools;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong discardCount;
+    private final AtomicLong leakCount;
+
+    /**
+     * The leases of borrowed arrays, only maintained when leak detection is
+     * enabled. Byte arrays use identity equality, so the weak map does not
+     * keep borrowed arrays from being garbage collected.
+     */
+    private final Map<byte[], Lease> outstanding;
+
+    /**
+     * Keeps the leases reachable until their array is released or reported.
+     */
+    private final Set<Lease> leases;
+    private final ReferenceQueue<byte[]> collectedArrays;
+    private volatile boolean isLeakDetectionEnabled;
+
+    @SuppressWarnings("unchecked")
+    BufferCache(boolean isLeakDetectionEnabled) {
+        pools = new BlockingQueue[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            pools[i] = new ArrayBlockingQueue<byte[]>(MAX_POOLED[i]);
+        }
+        exactPools = new AtomicReferenceArray<BlockingQueue<byte[]>>(MAX_EXACT_SIZE + 1);
+        hitCount = new AtomicLong();
+        missCount = new AtomicLong();
+        discardCount = new AtomicLong();
+        leakCount = new AtomicLong();
+        outstanding = Collections.synchronizedMap(new WeakHashMap<byte[], Lease>());
+        leases = Collections.newSetFromMap(new ConcurrentHashMap<Lease, Boolean>());
+        collectedArrays = new ReferenceQueue<byte[]>();
+        this.isLeakDetectionEnabled = isLeakDetectionEnabled;
+    }
+
+    public static BufferCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Borrows an array capable to hold at least the given number of bytes.
+     *
+     * @param minSize the min size of the array.
+     * @return an array of at least minSize bytes.
+     */
+    public byte[] borrow(int minSize) {
+        int sizeClass = sizeClassFor(minSize);
+        byte[] array = null;
+        if (sizeClass >= 0) {
+            array = pools[sizeClass].poll();
+        }
+        if (array == null) {
+            missCount.incrementAndGet();
+            array = new byte[sizeClass >= 0 ? SIZE_CLASSES[sizeClass] : minSize];
+        } else {
+            hitCount.incrementAndGet();
+        }
+        track(array);
+        return array;
+    }
+
+    /**
+     * Borrows an array of exactly the given length, used for message bodies.
+     * The array must either be given back using {@link #release(byte[])} or
+     * handed over to its user using {@link #detach(byte[])}.
+     *
+     * @param length the length of the array.
+     * @return an array of the given length.
+     */
+    public byte[] borrowExact(int length) {
+        if (length == 0) {
+            // shared since it can not be modified.
+            return EMPTY_ARRAY;
+        }
+        BlockingQueue<byte[]> pool = poolFor(length);
+        byte[] array = null;
+        if (pool != null) {
+            array = pool.poll();
+        }
+        if (array == null) {
+            missCount.incrementAndGet();
+            array = new byte[length];
+        } else {
+            hitCount.incrementAndGet();
+        }
+        track(array);
+        return array;
+    }
+
+    /**
+     * Borrows an array and wraps it into a cleared heap buffer. The buffer
+     * must be given back using {@link #release(ByteBuffer)}.
+     *
+     * @param minSize the min capacity of the buffer.
+     * @return a buffer with a capacity of at least minSize bytes.
+     */
+    public ByteBuffer borrowBuffer(int minSize) {
+        return ByteBuffer.wrap(borrow(minSize));
+    }
+
+    /**
+     * Gives a borrowed array back to the pool. The array must not be used
+     * by the caller afterwards.
+     *
+     * @param array the borrowed array.
+     */
+    public void release(byte[] array) {
+        if (array == null || array.length == 0) {
+            return;
+        }
+        if (isLeakDetectionEnabled) {
+            Lease lease = outstanding.remove(array);
+            if (lease == null) {
+                logger.warn("Released buffer of size {} that is not borrowed.",
+                        Integer.valueOf(array.length), new Exception());
+                return;
+            }
+            leases.remove(lease);
+            lease.clear();
+        }
+        BlockingQueue<byte[]> pool = poolFor(array.length);
+        if (pool == null || !pool.offer(array)) {
+            discardCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Hands a borrowed array over to its user for good. The array is no
+     * longer tracked and is left to the garbage collector.
+     *
+     * @param array the borrowed array.
+     */
+    public void detach(byte[] array) {
+        if (array == null || !isLeakDetectionEnabled) {
+            return;
+        }
+        Lease lease = outstanding.remove(array);
+        if (lease != null) {
+            leases.remove(lease);
+            lease.clear();
+        }
+    }
+
+    /**
+     * Gives the array backing a buffer returned by {@link #borrowBuffer(int)}
+     * back to the pool.
+     *
+     * @param buffer the borrowed buffer.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null) {
+            release(buffer.array());
+        }
+    }
+
+    /**
+     * @return the number of borrow requests served from the pool.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of borrow requests that needed a new allocation.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of released arrays dropped since the pool of their
+     * size class was full or they are not of a pooled size.
+     */
+    public long getDiscardCount() {
+        return discardCount.get();
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return isLeakDetectionEnabled;
+    }
+
+    /**
+     * Enables or disables the tracking of borrowed arrays. Should be set
+     * before any array is borrowed, since releasing an untracked array while
+     * leak detection is enabled is reported as a double release.
+     *
+     * @param isEnabled true to enable leak detection.
+     */
+    public void setLeakDetectionEnabled(boolean isEnabled) {
+        isLeakDetectionEnabled = isEnabled;
+        if (!isEnabled) {
+            outstanding.clear();
+            leases.clear();
+        }
+    }
+
+    /**
+     * @return the number of tracked arrays not yet released, always 0 when
+     * leak detection is disabled.
+     */
+    public int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    /**
+     * @return the number of borrowed arrays garbage collected without being
+     * released.
+     */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * Logs the allocation site of all tracked arrays that were garbage
+     * collected without being released since the last call.
+     *
+     * @return the number of reported arrays.
+     */
+    public int reportLeaks() {
+        int count = 0;
+        Lease lease;
+        while ((lease = (Lease) collectedArrays.poll()) != null) {
+            if (!leases.remove(lease)) {
+                continue;
+            }
+            count++;
+            logger.warn("Buffer of size {} was not released before garbage collection.",
+                    Integer.valueOf(lease.size), lease.allocationSite);
+        }
+        if (count > 0) {
+            leakCount.addAndGet(count);
+        }
+        return count;
+    }
+
+    private void track(byte[] array) {
+        if (!isLeakDetectionEnabled) {
+            return;
+        }
+        reportLeaks();
+        Lease lease = new Lease(array, collectedArrays);
+        leases.add(lease);
+        outstanding.put(array, lease);
+    }
+
+    /**
+     * Returns the pool for arrays of exactly the given length, or null if
+     * arrays of this length are not pooled.
+     */
+    private BlockingQueue<byte[]> poolFor(int length) {
+        int sizeClass = sizeClassFor(length);
+        if (sizeClass >= 0 && SIZE_CLASSES[sizeClass] == length) {
+            return pools[sizeClass];
+        }
+        if (length > MAX_EXACT_SIZE) {
+            return null;
+        }
+        BlockingQueue<byte[]> pool = exactPools.get(length);
+        if (pool == null) {
+            exactPools.compareAndSet(length, null,
+                    new ArrayBlockingQueue<byte[]>(MAX_POOLED_EXACT));
+            pool = exactPools.get(length);
+        }
+        return pool;
+    }
+
+    private static int sizeClassFor(int size) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (size <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Lease extends WeakReference<byte[]> {
+        private final int size;
+        private final Exception allocationSite;
+
+        private Lease(byte[] array, ReferenceQueue<byte[]> queue) {
+            super(array, queue);
+            size = array.length;
+            allocationSite = new Exception("Buffer borrowed by "
+                    + Thread.currentThread().getName());
+        }
     }
 }
@@ -0,0 +1,105 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.msg;
+
+import phex.common.address.IpAddress;
+import phex.io.buffer.ByteBuffer;
+
+import java.util.Arrays;
+
+/**
+ * A pong held by the pong cache in its wire format. The body is kept with
+ * and without the GGEP extensions, responses share the cached bytes and only
+ * carry their own header with the GUID and TTL of the answered ping.
+ */
+public class CachedPong {
+    /**
+     * The address ip of the pong, used to not send a pong back to its origin.
+     */
+    private final IpAddress pongIp;
+
+    /**
+     * The body as received, including possible GGEP extensions.
+     */
+    private final byte[] ggepBody;
+
+    /**
+     * The body without GGEP extensions, for hosts not supporting GGEP.
+     */
+    private final byte[] plainBody;
+
+    private final long expiryTime;
+
+    public CachedPong(PongMsg pong, long expiryTime) {
+        pongIp = pong.getPongAddress().getIpAddress();
+        ggepBody = pong.getBody();
+        if (ggepBody.length > PongMsg.MIN_PONG_DATA_LEN) {
+            plainBody = Arrays.copyOf(ggepBody, PongMsg.MIN_PONG_DATA_LEN);
+        } else {
+            plainBody = ggepBody;
+        }
+        this.expiryTime = expiryTime;
+    }
+
+    public IpAddress getPongIp() {
+        return pongIp;
+    }
+
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    /**
+     * Creates a pong message answering a ping. The message shares the
+     * cached body.
+     *
+     * @param msgId           the GUID of the ping answered.
+     * @param ttl             the TTL of the pong.
+     * @param isGgepSupported if the GGEP extensions should be included.
+     * @return the pong message to send.
+     */
+    public Message createResponse(GUID msgId, byte ttl, boolean isGgepSupported) {
+        byte[] body = isGgepSupported ? ggepBody : plainBody;
+        MsgHeader header = new MsgHeader(msgId, MsgHeader.PONG_PAYLOAD,
+                ttl, (byte) 0, body.length);
+        return new ResponseMsg(header, body);
+    }
+
+    private static class ResponseMsg extends Message {
+        private final byte[] body;
+
+        private ResponseMsg(MsgHeader header, byte[] body) {
+            super(header);
+            this.body = body;
+        }
+
+        @Override
+        public ByteBuffer createMessageBuffer() {
+            return ByteBuffer.wrap(body);
+        }
+
+        @Override
+        public String toString() {
+            return "CachedPong[" + getHeader() + ']';
+        }
+    }
+}
@@ -21,6 +21,7 @@
  */
 package phex.msg;
 
+import phex.io.buffer.BufferCache;
 import phex.io.buffer.ByteBuffer;
 
 
@@ -32,6 +33,12 @@ public abstract class Message {
     private boolean isUdpMsg;
     private long creationTime;
 
+    /**
+     * The body array as borrowed from the BufferCache when the message was
+     * received, or null if the body is not pooled.
+     */
+    private byte[] pooledBody;
+
     protected Message(MsgHeader header) {
         this.header = header;
         creationTime = System.currentTimeMillis();
@@ -71,6 +78,39 @@ public abstract class Message {
         creationTime = time;
     }
 
+    /**
+     * Sets the body array borrowed from the BufferCache this message was
+     * created from.
+     */
+    public void setPooledBody(byte[] body) {
+        pooledBody = body;
+    }
+
+    /**
+     * Gives the pooled body back to the BufferCache. Must only be called
+     * when the message is dropped before anything could keep a reference
+     * to the message or its body.
+     */
+    public void recycleBody() {
+        byte[] body = pooledBody;
+        if (body != null) {
+            pooledBody = null;
+            BufferCache.getInstance().release(body);
+        }
+    }
+
+    /**
+     * Hands the pooled body over to the message for good, called once the
+     * message was dispatched without being recycled.
+     */
+    public void keepBody() {
+        byte[] body = pooledBody;
+        if (body != null) {
+            pooledBody = null;
+            BufferCache.getInstance().detach(body);
+        }
+    }
+
     public ByteBuffer createHeaderBuffer() {
         return header.createHeaderBuffer();
     }
@@ -0,0 +1,132 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.msg;
+
+import phex.io.buffer.BufferCache;
+import phex.util.IOUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incrementally frames Gnutella messages out of a stream of received bytes.
+ * Unlike {@link MessageProcessor#parseMessageHeader(java.io.InputStream, byte[])}
+ * the decoder never blocks: it consumes whatever is available in the given
+ * buffer and keeps partially received headers and bodies until the next
+ * call. Used by the non-blocking connection reactor.
+ */
+public class MessageFrameDecoder {
+    /**
+     * Receives each completely framed message. The body is borrowed from
+     * the BufferCache and owned by the listener.
+     */
+    public interface FrameListener {
+        void onFrame(MsgHeader header, byte[] body) throws IOException;
+    }
+
+    private final byte[] headerBuffer;
+    private final int maxLength;
+    private int headerPos;
+    private MsgHeader header;
+    private byte[] body;
+    private int bodyPos;
+
+    /**
+     * @param maxLength the max body length accepted, larger messages cause
+     *                  the connection to fail.
+     */
+    public MessageFrameDecoder(int maxLength) {
+        this.maxLength = maxLength;
+        headerBuffer = new byte[MsgHeader.DATA_LENGTH];
+    }
+
+    /**
+     * Consumes all remaining bytes of the given buffer and reports every
+     * message completed by them to the listener.
+     *
+     * @return the number of messages completed.
+     * @throws IOException in case the stream contains an invalid header.
+     */
+    public int decode(ByteBuffer src, FrameListener listener) throws IOException {
+        int frameCount = 0;
+        while (src.hasRemaining()) {
+            if (header == null) {
+                int len = Math.min(src.remaining(), MsgHeader.DATA_LENGTH - headerPos);
+                src.get(headerBuffer, headerPos, len);
+                headerPos += len;
+                if (headerPos < MsgHeader.DATA_LENGTH) {
+                    break;
+                }
+                headerPos = 0;
+                header = createHeader();
+                body = BufferCache.getInstance().borrowExact(header.getDataLength());
+                bodyPos = 0;
+            }
+            int len = Math.min(src.remaining(), body.length - bodyPos);
+            src.get(body, bodyPos, len);
+            bodyPos += len;
+            if (bodyPos < body.length) {
+                break;
+            }
+            MsgHeader completedHeader = header;
+            byte[] completedBody = body;
+            header = null;
+            body = null;
+            frameCount++;
+            listener.onFrame(completedHeader, completedBody);
+        }
+        return frameCount;
+    }
+
+    /**
+     * Returns true if the decoder holds a partially received message.
+     */
+    public boolean isInsideFrame() {
+        return header != null || headerPos > 0;
+    }
+
+    /**
+     * Gives the body of a partially received message back to the
+     * BufferCache, called once the connection is closed.
+     */
+    public void release() {
+        if (body != null) {
+            BufferCache.getInstance().release(body);
+            body = null;
+        }
+        header = null;
+        headerPos = 0;
+    }
+
+    private MsgHeader createHeader() throws IOException {
+        int length = IOUtil.deserializeIntLE(headerBuffer, GUID.DATA_LENGTH + 3);
+        if (length < 0) {
+            throw new IOException("Negative body size. Disconnecting the remote host.");
+        } else if (length > maxLength) {
+            throw new IOException("Packet too big. Disconnecting the remote host.");
+        }
+        MsgHeader msgHeader = MessageProcessor.parseMessageHeader(
+                ByteBuffer.wrap(headerBuffer));
+        msgHeader.setArrivalTime(System.currentTimeMillis());
+        return msgHeader;
+    }
+}
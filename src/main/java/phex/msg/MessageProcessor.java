@@ -22,16 +22,17 @@
 package phex.msg;
 
 import phex.common.log.NLogger;
+import phex.io.buffer.BufferCache;
 import phex.msg.vendor.VendorMsg;
 import phex.net.connection.Connection;
 import phex.MessagePrefs;
 import phex.peer.Peer;
 import phex.security.PhexSecurityManager;
-import phex.util.IOUtil;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 
 public class MessageProcessor {
@@ -98,9 +99,22 @@ public class MessageProcessor {
         return null;
     }
 
+    /**
+     * Reads the body of a message into an array borrowed from the
+     * BufferCache. The caller must either release the body or hand it over
+     * to the message created from it.
+     */
     public static byte[] readMessageBody(Connection connection, int dataLength)
             throws IOException {
-        return readMessageBody(connection.getInputStream(), dataLength);
+        BufferCache bufferCache = BufferCache.getInstance();
+        byte[] body = bufferCache.borrowExact(dataLength);
+        try {
+            connection.getInputStream().read(body);
+        } catch (IOException exp) {
+            bufferCache.release(body);
+            throw exp;
+        }
+        return body;
     }
 
     public static byte[] readMessageBody(InputStream inStream, int dataLength)
@@ -161,9 +175,11 @@ public class MessageProcessor {
         byte ttl = buffer.get();
         byte hops = buffer.get();
 
-        byte[] lenArr = new byte[4];
-        buffer.get(lenArr);
-        int dataLength = IOUtil.deserializeIntLE(lenArr, 0);
+        // the length is little endian, read it without a temporary array.
+        int dataLength = buffer.getInt();
+        if (buffer.order() == ByteOrder.BIG_ENDIAN) {
+            dataLength = Integer.reverseBytes(dataLength);
+        }
 
         MsgHeader header = new MsgHeader(new GUID(guidArr), payload, ttl, hops,
                 dataLength);
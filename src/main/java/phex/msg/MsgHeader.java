@@ -376,14 +376,25 @@ public class MsgHeader {
      */
     public byte[] getBytes() {
         byte[] tmpArray = new byte[DATA_LENGTH];
-        System.arraycopy(msgID.getGuid(), 0, tmpArray, 0, GUID.DATA_LENGTH);
-        tmpArray[16] = payload;
-        tmpArray[17] = ttl;
-        tmpArray[18] = hopsTaken;
-        IOUtil.serializeIntLE(dataLength, tmpArray, 19);
+        writeTo(tmpArray, 0);
         return tmpArray;
     }
 
+    /**
+     * Writes the header in bytes form into the given array.
+     *
+     * @param outbuf the array to write to.
+     * @param offset the offset to start writing at.
+     * @return the offset after the written header.
+     */
+    public int writeTo(byte[] outbuf, int offset) {
+        System.arraycopy(msgID.getGuid(), 0, outbuf, offset, GUID.DATA_LENGTH);
+        outbuf[offset + 16] = payload;
+        outbuf[offset + 17] = ttl;
+        outbuf[offset + 18] = hopsTaken;
+        return IOUtil.serializeIntLE(dataLength, outbuf, offset + 19);
+    }
+
     @Override
     public String toString() {
         return "Header[" + payload + '-' + getPayloadName() + ",TTL=" + ttl
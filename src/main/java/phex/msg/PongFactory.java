@@ -261,15 +261,13 @@ public class PongFactory {
         return pong;
     }
 
-    public PongMsg createFromCachePong(GUID newGuid, byte newTTL, PongMsg pongMsg,
+    /**
+     * Creates a pong answering a ping from a cached pong. The pong shares the
+     * encoded body of the cached pong.
+     */
+    public Message createFromCachePong(GUID newGuid, byte newTTL, CachedPong cachedPong,
                                        boolean isGgepSupported) {
-        MsgHeader header = new MsgHeader(newGuid, MsgHeader.PONG_PAYLOAD,
-                newTTL, (byte) 0, 0);
-        PongMsg pong = new PongMsg(header, pongMsg.getBody(), securityService);
-        if (!isGgepSupported) {
-            pong.stripGgepBlock();
-        }
-        return pong;
+        return cachedPong.createResponse(newGuid, newTTL, isGgepSupported);
     }
 
     private GGEPBlock createMyGGEPBlock(int avgDailyUptime,
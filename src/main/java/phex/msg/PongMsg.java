@@ -292,8 +292,7 @@ public class PongMsg extends Message {
 
     public byte[] getbytes() {
         byte[] data = new byte[MsgHeader.DATA_LENGTH + body.length];
-        byte[] hdr = getHeader().getBytes();
-        System.arraycopy(hdr, 0, data, 0, MsgHeader.DATA_LENGTH);
+        getHeader().writeTo(data, 0);
         System.arraycopy(body, 0, data, MsgHeader.DATA_LENGTH, body.length);
         return data;
     }
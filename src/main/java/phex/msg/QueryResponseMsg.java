@@ -33,7 +33,6 @@ import phex.util.HexConverter;
 import phex.util.IOUtil;
 import phex.xml.XMLUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
@@ -267,28 +266,49 @@ public class QueryResponseMsg extends Message {
 
     private void buildBody(int speed, boolean isPushNeeded, boolean isServerBusy)
             throws IOException {
-        ByteArrayOutputStream bodyStream = new ByteArrayOutputStream();
-        int recordCount = records.length;
-        bodyStream.write((byte) recordCount);
-
-        IOUtil.serializeShortLE((short) destAddress.getPort(), bodyStream);
+        // the records carry their encoding, usually cached with the share file,
+        // the body is assembled by copying them into a buffer of exact size.
+        QueryResponseRecord[] r = this.records;
+        int recordCount = r.length;
+        byte[][] encodedRecords = new byte[recordCount][];
         byte[] ipAddress = destAddress.getIpAddress().getHostIP();
-        bodyStream.write(ipAddress);
-        IOUtil.serializeIntLE(speed, bodyStream);
+        // record count, port, ip, speed and the servent id
+        int bodyLength = 7 + ipAddress.length + GUID.DATA_LENGTH;
+        for (int i = 0; i < recordCount; i++) {
+            encodedRecords[i] = r[i].getEncoded();
+            bodyLength += encodedRecords[i].length;
+        }
+        byte[] ggepBytes = null;
+        if (INCLUDE_QHD) {
+            ggepBytes = GGEPBlock.getQueryReplyGGEPBlock(
+                    LibraryPrefs.AllowBrowsing.get(), pushProxyAddresses);
+            // vendor code, open data length, open data, private data
+            bodyLength += 8 + ggepBytes.length;
+        }
+
+        byte[] data = new byte[bodyLength];
+        int offset = 0;
+        data[offset++] = (byte) recordCount;
+
+        offset = IOUtil.serializeShortLE((short) destAddress.getPort(), data, offset);
+        System.arraycopy(ipAddress, 0, data, offset, ipAddress.length);
+        offset += ipAddress.length;
+        offset = IOUtil.serializeIntLE(speed, data, offset);
 
-        QueryResponseRecord[] r = this.records;
         for (int i = 0; i < recordCount; i++) {
-            r[i].write(bodyStream);
+            System.arraycopy(encodedRecords[i], 0, data, offset,
+                    encodedRecords[i].length);
+            offset += encodedRecords[i].length;
         }
 
         if (INCLUDE_QHD) {
             // add vendor code 'PHEX'
-            bodyStream.write((byte) 0x50);
-            bodyStream.write((byte) 0x48);
-            bodyStream.write((byte) 0x45);
-            bodyStream.write((byte) 0x58);
+            data[offset++] = (byte) 0x50;
+            data[offset++] = (byte) 0x48;
+            data[offset++] = (byte) 0x45;
+            data[offset++] = (byte) 0x58;
             // open data length
-            bodyStream.write((byte) 2);
+            data[offset++] = (byte) 2;
             // open data flags
             byte isPushNeededByte = (byte) 0;
             if (isPushNeeded) {
@@ -304,39 +324,37 @@ public class QueryResponseMsg extends Message {
                 isGGEPUsedByte = GGEP_MASK;
             }
 
-            bodyStream.write((byte) (
+            data[offset++] = (byte) (
                     isPushNeededByte
                             | SERVER_BUSY_MASK
                             | 0 //HAS_UPLOADED_MASK we dont know that yet
                             // we know we never measured that speed
                             | UPLOAD_SPEED_MASK
-                            | GGEP_MASK));
-            bodyStream.write((byte) (
+                            | GGEP_MASK);
+            data[offset++] = (byte) (
                     PUSH_NEEDED_MASK
                             | isServerBusyByte
                             | 0 //(hasUploadedSuccessfully ? HAS_UPLOADED_MASK : 0)
                             // we know we never measured that speed
                             | 0 //(isSpeedMeasured ? UPLOAD_SPEED_MASK : 0));
-                            | isGGEPUsedByte));
+                            | isGGEPUsedByte);
 
             // private QHD area
             // mark for chat able.
-            bodyStream.write(
+            data[offset++] =
                     //peer.prefs.AllowChatConnection.get() ?
                             (byte) 0x01
                             //: (byte) 0x00
-            );
+            ;
 
             //GGEP block
-            byte[] ggepBytes = GGEPBlock.getQueryReplyGGEPBlock(
-                    LibraryPrefs.AllowBrowsing.get(), pushProxyAddresses);
-            if (ggepBytes.length > 0) {
-                bodyStream.write(ggepBytes);
-            }
+            System.arraycopy(ggepBytes, 0, data, offset, ggepBytes.length);
+            offset += ggepBytes.length;
         }
-        remoteClientID.write(bodyStream);
+        offset = remoteClientID.serialize(data, offset);
+        assert offset == bodyLength;
 
-        body = bodyStream.toByteArray();
+        body = data;
     }
 
     /**
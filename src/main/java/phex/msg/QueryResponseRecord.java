@@ -51,6 +51,19 @@ public class QueryResponseRecord {
     private DestAddress[] alternateLocations;
     private long creationTime;
 
+    /**
+     * The encoded record, created lazily on first write and reused for all
+     * query hits carrying this record.
+     */
+    private volatile byte[] encodedRecord;
+
+    /**
+     * The alt-loc version and local address of the share file this record
+     * was created from. Used to check if a cached record is outdated.
+     */
+    private int altLocVersion;
+    private DestAddress localAddress;
+
     /**
      * Create a new MsgResRecord.
      */
@@ -91,7 +104,20 @@ public class QueryResponseRecord {
         pathInfo = "";
     }
 
+    /**
+     * Returns the query response record of the share file. The record last
+     * created for the file is reused together with its encoding as long as
+     * the file index, urn, name, creation time and alt-locs of the file
+     * did not change.
+     */
     public static QueryResponseRecord createFromShareFile(ShareFile shareFile, DestAddress localAddress) {
+        int altLocVersion = shareFile.getAltLocVersion();
+        QueryResponseRecord record = shareFile.getQueryResponseRecord();
+        if (record != null && record.isCreatedFrom(shareFile, altLocVersion,
+                localAddress)) {
+            return record;
+        }
+
         int fileIndex = shareFile.getFileIndex();
         URN urn = shareFile.getURN();
         long fileSize = shareFile.getFileSize();
@@ -106,11 +132,28 @@ public class QueryResponseRecord {
             altLocSet = shareFile.getAltLocContainer().getAltLocForQueryResponseRecord(
                     localAddress);
         }
-        QueryResponseRecord record = new QueryResponseRecord(fileIndex, urn,
+        record = new QueryResponseRecord(fileIndex, urn,
                 fileSize, fileName, networkCreateTime, altLocSet);
+        record.altLocVersion = altLocVersion;
+        record.localAddress = localAddress;
+        shareFile.setQueryResponseRecord(record);
         return record;
     }
 
+    private boolean isCreatedFrom(ShareFile shareFile, int shareAltLocVersion,
+                                  DestAddress shareLocalAddress) {
+        URN shareUrn = shareFile.getURN();
+        Long shareCreateTime = shareFile.getNetworkCreateTime();
+        return altLocVersion == shareAltLocVersion
+                && fileIndex == shareFile.getFileIndex()
+                && fileSize == shareFile.getFileSize()
+                && (urn == null ? shareUrn == null : urn.equals(shareUrn))
+                && shareCreateTime != null && creationTime == shareCreateTime.longValue()
+                && (localAddress == null ? shareLocalAddress == null
+                : localAddress.equals(shareLocalAddress))
+                && fileName.equals(shareFile.getFileName());
+    }
+
     /**
      * Get the current file index.
      *
@@ -169,10 +212,39 @@ public class QueryResponseRecord {
         fileName = b.fileName;
         fileNameBytes = b.fileNameBytes;
         pathInfo = b.pathInfo;
+        encodedRecord = null;
     }
 
     public void write(OutputStream outStream)
             throws IOException {
+        outStream.write(getEncoded());
+    }
+
+    /**
+     * Returns the encoded record as written into query response messages.
+     * The encoding is created once and must not be modified by the caller.
+     *
+     * @return the encoded record.
+     */
+    public byte[] getEncoded() {
+        byte[] encoded = encodedRecord;
+        if (encoded == null) {
+            ByteArrayOutputStream outStream = new ByteArrayOutputStream(
+                    fileNameBytes.length + 64);
+            try {
+                encode(outStream);
+            } catch (IOException exp) {// should never happen
+                logger.error(exp.toString(), exp);
+                throw new RuntimeException(exp);
+            }
+            encoded = outStream.toByteArray();
+            encodedRecord = encoded;
+        }
+        return encoded;
+    }
+
+    private void encode(OutputStream outStream)
+            throws IOException {
         // Convert to Intel little-endian
         IOUtil.serializeIntLE(fileIndex, outStream);
 
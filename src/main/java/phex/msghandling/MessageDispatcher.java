@@ -54,6 +54,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 class MessageDispatcher {
     private static final Logger logger = LoggerFactory.getLogger(
@@ -229,7 +230,7 @@ class MessageDispatcher {
         // See if I have seen this Ping before.  Drop msg if duplicate.
         if (!msgRouting.checkAndAddToPingRoutingTable(header.getMsgID(),
                 sourceHost)) {
-            dropMessage(pingMsg, "Dropping already seen ping", sourceHost);
+            discardMessage(pingMsg, "Dropping already seen ping", sourceHost);
         } else {
 
             // count ping statistic
@@ -293,13 +294,16 @@ class MessageDispatcher {
             return;
         }
         GUID guid = header.getMsgID();
-        List<PongMsg> pongs = peer.getMessageService().getCachedPongs();
-        for (PongMsg pMsg : pongs) {
-            if (ip.equals(pMsg.getPongAddress().getIpAddress())) {
+        boolean isGgepSupported = sourceHost.isGgepSupported();
+        long now = System.currentTimeMillis();
+        CachedPong[] pongs = peer.getMessageService().getCachedPongs();
+        for (CachedPong cachedPong : pongs) {
+            if (cachedPong == null || cachedPong.getExpiryTime() < now
+                    || ip.equals(cachedPong.getPongIp())) {
                 continue;
             }
-            PongMsg pongCpy = pongFactory.createFromCachePong(
-                    guid, newTTL, pMsg, sourceHost.isGgepSupported());
+            Message pongCpy = pongFactory.createFromCachePong(
+                    guid, newTTL, cachedPong, isGgepSupported);
             sourceHost.queueMessageToSend(pongCpy);
         }
     }
@@ -319,7 +323,7 @@ class MessageDispatcher {
         AccessType access = securityService.controlHostAddressAccess(pongAddress);
         if (access == AccessType.ACCESS_STRONGLY_DENIED) {
             // drop message
-            dropMessage(msg, "IP access strongly denied.", sourceHost);
+            discardMessage(msg, "IP access strongly denied.", sourceHost);
             return;
         }
 
@@ -380,7 +384,7 @@ class MessageDispatcher {
         // is doubtful. 
         if (!msgRouting.checkAndAddToQueryRoutingTable(header.getMsgID(),
                 sourceHost)) {
-            dropMessage(msg, "Drop already seen query", sourceHost);
+            discardMessage(msg, "Drop already seen query", sourceHost);
             return;
         }
 
@@ -482,15 +486,15 @@ class MessageDispatcher {
         // validate remote client id
         GUID respServentId = queryResponseMsg.getRemoteServentID();
         if (respServentId.equals(peer.getServentGuid())) {
-            dropMessage(queryResponseMsg, "My query response should never reach me.", sourceHost);
+            discardMessage(queryResponseMsg, "My query response should never reach me.", sourceHost);
             return;
         }
         if (respServentId.equals(header.getMsgID())) {
-            dropMessage(queryResponseMsg, "Message id equals servent id.", sourceHost);
+            discardMessage(queryResponseMsg, "Message id equals servent id.", sourceHost);
             return;
         }
         if (respServentId.equals(GUID.EMPTY_GUID)) {
-            dropMessage(queryResponseMsg, "Servent id is empty.", sourceHost);
+            discardMessage(queryResponseMsg, "Servent id is empty.", sourceHost);
             return;
         }
 
@@ -498,7 +502,7 @@ class MessageDispatcher {
         AccessType access = securityService.controlHostAddressAccess(queryAddress);
         if (access == AccessType.ACCESS_STRONGLY_DENIED) {
             // drop message
-            dropMessage(queryResponseMsg, "IP access strongly denied.", sourceHost);
+            discardMessage(queryResponseMsg, "IP access strongly denied.", sourceHost);
             return;
         }
 
@@ -568,6 +572,9 @@ class MessageDispatcher {
             }
         } catch (InvalidMessageException exp) {// drop message
             dropMessage(message, "Invalid QRT update message.", sourceHost);
+        } finally {
+            // the index follows each applied patch, also a partially applied one.
+            peer.getMessageService().getQueryRoutingIndex().updateTable(sourceHost, qrTable);
         }
     }
 
@@ -669,7 +676,11 @@ class MessageDispatcher {
                 }
             }
         };
-        Environment.getInstance().executeOnThreadPool(connectBackRunner, "TCPConnectBackJob");
+        try {
+            Environment.getInstance().executeOnThreadPool(connectBackRunner, "TCPConnectBackJob");
+        } catch (RejectedExecutionException exp) {
+            // like a failed connect back.. don't care..
+        }
     }
 
     private void handlePushProxyRequestVMsg(PushProxyRequestVMsg pprvmsg, Host sourceHost) {
@@ -743,6 +754,16 @@ class MessageDispatcher {
 
     }
 
+    /**
+     * Drops a message before it was handed to any subscriber or routing
+     * structure. Nothing else references the message at this point, so its
+     * pooled body is given back to the BufferCache.
+     */
+    private void discardMessage(Message msg, String reason, Host sourceHost) {
+        dropMessage(msg, reason, sourceHost);
+        msg.recycleBody();
+    }
+
     public void dropMessage(MsgHeader header, byte[] body, String reason, Host sourceHost) {
 
         logger.debug("Dropping message: {} from: {}", reason, sourceHost);
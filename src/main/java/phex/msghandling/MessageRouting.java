@@ -27,6 +27,8 @@ import phex.util.GUIDRoutingTable;
 import phex.util.QueryGUIDRoutingPair;
 import phex.util.QueryGUIDRoutingTable;
 
+import java.util.function.IntConsumer;
+
 class MessageRouting {
     private static final int MAX_ROUTED_QUERY_RESULTS = 200;
 
@@ -46,12 +48,24 @@ class MessageRouting {
     private final GUIDRoutingTable pushRoutingTable;
 
     public MessageRouting() {
-        // holds from 2-4 minutes of ping GUIDs
-        pingRoutingTable = new GUIDRoutingTable(2 * 60 * 1000);
-        // holds from 5-10 minutes of query GUIDs
-        queryRoutingTable = new QueryGUIDRoutingTable(5 * 60 * 1000);
-        // holds from 7-14 minutes of QueryReply GUIDs for push routes.
-        pushRoutingTable = new GUIDRoutingTable(7 * 60 * 1000);
+        // holds 4 minutes of ping GUIDs
+        pingRoutingTable = new GUIDRoutingTable(4 * 60 * 1000, 16 * 1024);
+        // holds 10 minutes of query GUIDs
+        queryRoutingTable = new QueryGUIDRoutingTable(10 * 60 * 1000, 64 * 1024);
+        // holds 14 minutes of QueryReply GUIDs for push routes.
+        pushRoutingTable = new GUIDRoutingTable(14 * 60 * 1000, 64 * 1024);
+    }
+
+    public int getPingRoutingCount() {
+        return pingRoutingTable.getRoutingCount();
+    }
+
+    public int getQueryRoutingCount() {
+        return queryRoutingTable.getRoutingCount();
+    }
+
+    public int getPushRoutingCount() {
+        return pushRoutingTable.getRoutingCount();
     }
 
     /**
@@ -133,6 +147,17 @@ class MessageRouting {
         return queryRoutingTable.findRoutingForQuerys(queryGUID, resultCount);
     }
 
+    /**
+     * Sets the listener that is notified with the result count of each
+     * query reply routed back for the query GUID.
+     *
+     * @param queryGUID the GUID of the routed query.
+     * @param listener  the listener to notify.
+     */
+    public void setQueryResultCountListener(GUID queryGUID, IntConsumer listener) {
+        queryRoutingTable.setResultCountListener(queryGUID, listener);
+    }
+
     public boolean routeQueryResponse(QueryResponseMsg queryResponseMsg, Host sourceHost)
             throws InvalidMessageException {
         MsgHeader header = queryResponseMsg.getHeader();
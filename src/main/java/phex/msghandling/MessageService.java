@@ -29,6 +29,9 @@ import phex.common.AbstractLifeCycle;
 import phex.common.Environment;
 import phex.common.PongCache;
 import phex.common.QueryRoutingTable;
+import phex.common.QueryRoutingIndex;
+import phex.common.QueryRoutingTableAggregator;
+import phex.common.Workload;
 import phex.common.address.DestAddress;
 import phex.host.CaughtHostsContainer;
 import phex.host.Host;
@@ -38,10 +41,16 @@ import phex.msg.vendor.*;
 import phex.security.PhexSecurityManager;
 import phex.peer.Peer;
 import phex.share.SharedFilesService;
+import phex.statistic.LatencyHistogram;
+import phex.statistic.MetricsRegistry;
+import phex.statistic.StatisticsManager;
 
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MessageService extends AbstractLifeCycle {
     private static final Logger logger = LoggerFactory.getLogger(
@@ -51,6 +60,11 @@ public class MessageService extends AbstractLifeCycle {
     private final MessageRouting messageRouting;
     private final MessageDispatcher messageDispatcher;
     private final QueryMsgRoutingHandler queryMsgRoutingHandler;
+
+    /**
+     * The index of the routing tables received from leaves and ultrapeers.
+     */
+    private final QueryRoutingIndex queryRoutingIndex;
     private final PongFactory pongFactory;
 
     private UdpMessageDataHandler udpHandler;
@@ -76,6 +90,11 @@ public class MessageService extends AbstractLifeCycle {
     private int numberOfTCPRedirectsSent;
     public MessagePrefs prefs;
 
+    /**
+     * The latency of dispatching a received message.
+     */
+    private LatencyHistogram dispatchLatency;
+
     public MessageService(NetworkHostsContainer netHostsContainer,
                           CaughtHostsContainer caughtHostsContainer, UdpHostCacheContainer uhcContainer,
                           PhexSecurityManager securityService, Peer peer) {
@@ -92,7 +111,9 @@ public class MessageService extends AbstractLifeCycle {
         messageDispatcher = new MessageDispatcher(peer, messageRouting,
                 pongFactory);
 
-        queryMsgRoutingHandler = new QueryMsgRoutingHandler(peer, messageRouting);
+        queryRoutingIndex = new QueryRoutingIndex();
+        queryMsgRoutingHandler = new QueryMsgRoutingHandler(peer, messageRouting,
+                queryRoutingIndex);
         messageDispatcher.addMessageSubscriber(QueryMsg.class, queryMsgRoutingHandler);
 
     }
@@ -104,6 +125,7 @@ public class MessageService extends AbstractLifeCycle {
     @Override
     public void doStart() {
         messageDispatcher.initStats(peer.getStatisticsService());
+        initMetrics(peer.getStatisticsService().getMetrics());
 
         udpHandler = new UdpMessageDataHandler(peer, peer.getStatisticsService(),
                 peer.getSharedFilesService(), pongFactory,
@@ -125,10 +147,29 @@ public class MessageService extends AbstractLifeCycle {
                 HopsFlowTimer.TIMER_PERIOD);
     }
 
+    private void initMetrics(MetricsRegistry metrics) {
+        dispatchLatency = metrics.getHistogram(
+                StatisticsManager.DISPATCH_LATENCY_PROVIDER);
+        metrics.registerGauge("PingRoutingTableSize",
+                messageRouting::getPingRoutingCount);
+        metrics.registerGauge("QueryRoutingTableSize",
+                messageRouting::getQueryRoutingCount);
+        metrics.registerGauge("PushRoutingTableSize",
+                messageRouting::getPushRoutingCount);
+        metrics.registerGauge("SendQueueDepth", () -> {
+            long depth = 0;
+            for (Host host : peer.getHostService().getNetworkHostsContainer().getNetworkHosts()) {
+                depth += host.getSendQueueLength();
+            }
+            return depth;
+        });
+    }
+
     //@EventTopicSubscriber(topic=PhexEventTopics.Host_Disconnect)
     public void onHostDisconnectEvent(String topic, Host host) {
         // remove routings of obsolete host.
         messageRouting.removeRoutings(host);
+        queryRoutingIndex.removeTable(host);
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -163,37 +204,42 @@ public class MessageService extends AbstractLifeCycle {
     public void dispatchMessage(Message message, Host sourceHost) {
         //Logger.logMessage( Logger.FINEST, Logger.NETWORK,
         //    "Received Header function: " + header.getPayload() );
+        long start = System.nanoTime();
         MsgHeader header = message.getHeader();
-        switch (header.getPayload()) {
-            case MsgHeader.PING_PAYLOAD:
-                messageDispatcher.handlePing((PingMsg) message, sourceHost);
-                break;
-
-            case MsgHeader.PONG_PAYLOAD:
-                messageDispatcher.handlePong((PongMsg) message, sourceHost);
-                break;
-
-            case MsgHeader.PUSH_PAYLOAD:
-                messageDispatcher.handlePushRequest((PushRequestMsg) message, sourceHost);
-                break;
-
-            case MsgHeader.QUERY_PAYLOAD:
-                messageDispatcher.handleQuery((QueryMsg) message, sourceHost);
-                break;
-
-            case MsgHeader.QUERY_HIT_PAYLOAD:
-                messageDispatcher.handleQueryResponse((QueryResponseMsg) message, sourceHost);
-                break;
-            case MsgHeader.ROUTE_TABLE_UPDATE_PAYLOAD:
-                messageDispatcher.handleRouteTableUpdate((RouteTableUpdateMsg) message,
-                        sourceHost);
-                break;
-            case MsgHeader.VENDOR_MESSAGE_PAYLOAD:
-            case MsgHeader.STANDARD_VENDOR_MESSAGE_PAYLOAD:
-                messageDispatcher.handleVendorMessage((VendorMsg) message, sourceHost);
-                break;
+        try {
+            switch (header.getPayload()) {
+                case MsgHeader.PING_PAYLOAD:
+                    messageDispatcher.handlePing((PingMsg) message, sourceHost);
+                    break;
+
+                case MsgHeader.PONG_PAYLOAD:
+                    messageDispatcher.handlePong((PongMsg) message, sourceHost);
+                    break;
+
+                case MsgHeader.PUSH_PAYLOAD:
+                    messageDispatcher.handlePushRequest((PushRequestMsg) message, sourceHost);
+                    break;
+
+                case MsgHeader.QUERY_PAYLOAD:
+                    messageDispatcher.handleQuery((QueryMsg) message, sourceHost);
+                    break;
+
+                case MsgHeader.QUERY_HIT_PAYLOAD:
+                    messageDispatcher.handleQueryResponse((QueryResponseMsg) message, sourceHost);
+                    break;
+                case MsgHeader.ROUTE_TABLE_UPDATE_PAYLOAD:
+                    messageDispatcher.handleRouteTableUpdate((RouteTableUpdateMsg) message,
+                            sourceHost);
+                    break;
+                case MsgHeader.VENDOR_MESSAGE_PAYLOAD:
+                case MsgHeader.STANDARD_VENDOR_MESSAGE_PAYLOAD:
+                    messageDispatcher.handleVendorMessage((VendorMsg) message, sourceHost);
+                    break;
+            }
+        } finally {
+            // also count messages whose handler failed.
+            dispatchLatency.recordSince(start);
         }
-
     }
 
     public void dropMessage(MsgHeader header, byte[] body, String reason, Host sourceHost) {
@@ -359,7 +405,7 @@ public class MessageService extends AbstractLifeCycle {
     /**
      * @see phex.common.PongCache#getPongs()
      */
-    public List<PongMsg> getCachedPongs() {
+    public CachedPong[] getCachedPongs() {
         return pongCache.getPongs();
     }
 
@@ -400,13 +446,24 @@ public class MessageService extends AbstractLifeCycle {
         return lastSentQueryRoutingTable;
     }
 
+    /**
+     * Returns the index of the query routing tables received from the
+     * connected hosts, used to route queries to leaves and ultrapeers.
+     *
+     * @return the query routing index.
+     */
+    public QueryRoutingIndex getQueryRoutingIndex() {
+        return queryRoutingIndex;
+    }
+
     ////////////////////////////////////////////////////////////////////////////
     // HopsFlow Vendor Messages
     ////////////////////////////////////////////////////////////////////////////
 
     public void triggerQueryRoutingTableUpdate() {
-        Environment.getInstance().executeOnThreadPool(qrpUpdateTimer,
-                "TriggerQueryRoutingTableUpdate");
+        // the timer only hands the update to the thread pool, in case the
+        // pool is exhausted the update is left to the next periodic run.
+        qrpUpdateTimer.run();
     }
 
     ////////////////////////////////////////////////////////////////////////////
@@ -488,16 +545,38 @@ public class MessageService extends AbstractLifeCycle {
     private class QRPUpdateTimer extends TimerTask {
         private static final long TIMER_PERIOD = 1000 * 10;
         private final SharedFilesService sharedFilesService;
+        private final QueryRoutingTableAggregator aggregator;
+        /**
+         * Indicates if an update is running on the thread pool. Building and
+         * compressing patches is kept off the timer thread.
+         */
+        private final AtomicBoolean isUpdateRunning;
 
         public QRPUpdateTimer(SharedFilesService sharedFilesService) {
             this.sharedFilesService = sharedFilesService;
+            aggregator = new QueryRoutingTableAggregator();
+            isUpdateRunning = new AtomicBoolean(false);
         }
 
         @Override
         public void run() {
+            if (!isUpdateRunning.compareAndSet(false, true)) {
+                return;
+            }
             try {
-                sendQueryRoutingTable();
+                Environment.getInstance().executeOnThreadPool(new Runnable() {
+                    public void run() {
+                        try {
+                            sendQueryRoutingTable();
+                        } catch (Throwable th) {
+                            logger.error(th.toString(), th);
+                        } finally {
+                            isUpdateRunning.set(false);
+                        }
+                    }
+                }, "QRPUpdate", Workload.DISPATCH);
             } catch (Throwable th) {
+                isUpdateRunning.set(false);
                 logger.error(th.toString(), th);
             }
         }
@@ -507,6 +586,10 @@ public class MessageService extends AbstractLifeCycle {
          * been updated for a while.
          */
         private void sendQueryRoutingTable() {
+            // drop the indexed tables of disconnected hosts.
+            queryRoutingIndex.retainTables(Arrays.asList(peer.getHostService()
+                    .getNetworkHostsContainer().getNetworkHosts()));
+
             boolean isUltrapeer = peer.isUltrapeer();
             // check if we are a shielded leaf node or a Ultrapeer.
             // Forwarding QRT is not wanted otherwise.
@@ -516,10 +599,7 @@ public class MessageService extends AbstractLifeCycle {
 
             Host[] hosts = peer.getHostService().getUltrapeerConnections();
 
-            QueryRoutingTable shareQRT = sharedFilesService.getLocalRoutingTable();
-
             QueryRoutingTable currentTable = null;
-            QueryRoutingTable lastSentTable;
             for (int i = 0; i < hosts.length; i++) {
                 // first check if we are a UP or leaf supports QRP
                 if (isUltrapeer) {
@@ -538,19 +618,14 @@ public class MessageService extends AbstractLifeCycle {
 
                 logger.debug("Updating QRTable for: {}", hosts[i]);
                 if (currentTable == null) {// lazy initialize
-                    currentTable = new QueryRoutingTable(shareQRT.getTableSize());
-                    currentTable.aggregateToRouteTable(shareQRT);
-                    QueryRoutingTable.fillQRTWithLeaves(currentTable, peer);
+                    currentTable = updateAggregatedTable(isUltrapeer);
                     lastSentQueryRoutingTable = currentTable;
                 }
-                lastSentTable = hosts[i].getLastSentRoutingTable();
-
-                Iterator<RouteTableUpdateMsg> msgIterator =
-                        QueryRoutingTable.buildRouteTableUpdateMsgIterator(
-                                currentTable, lastSentTable);
-                RouteTableUpdateMsg msg;
-                while (msgIterator.hasNext()) {
-                    msg = msgIterator.next();
+
+                // hosts holding the same previous table share the messages.
+                List<RouteTableUpdateMsg> msgList = aggregator.getUpdateMessages(
+                        hosts[i].getLastSentRoutingTable());
+                for (RouteTableUpdateMsg msg : msgList) {
                     hosts[i].queueMessageToSend(msg);
                 }
                 // when setting the last sent routing table the next routing
@@ -558,5 +633,35 @@ public class MessageService extends AbstractLifeCycle {
                 hosts[i].setLastSentRoutingTable(currentTable);
             }
         }
+
+        /**
+         * Updates the aggregator with the local table and the tables of the
+         * leaves, only tables that changed since the last run are diffed.
+         */
+        private QueryRoutingTable updateAggregatedTable(boolean isUltrapeer) {
+            QueryRoutingTable shareQRT = sharedFilesService.getLocalRoutingTable();
+            aggregator.setTableSize(shareQRT.getTableSize());
+
+            Set<Object> contributors = new HashSet<Object>();
+            aggregator.updateContribution(sharedFilesService, shareQRT);
+            contributors.add(sharedFilesService);
+            if (isUltrapeer) {
+                Host[] leaves = peer.getHostService().getNetworkHostsContainer()
+                        .getLeafConnections();
+                for (Host leaf : leaves) {
+                    // http://groups.yahoo.com/group/the_gdf/message/23092
+                    if (leaf.getHopsFlowLimit() < 3) {// don't aggregate QRT of a leaf which doesn't want any queries...
+                        continue;
+                    }
+                    QueryRoutingTable hostQRT = leaf.getLastReceivedRoutingTable();
+                    if (hostQRT != null) {
+                        aggregator.updateContribution(leaf, hostQRT);
+                        contributors.add(leaf);
+                    }
+                }
+            }
+            aggregator.retainContributions(contributors);
+            return aggregator.getCurrentTable();
+        }
     }
-}
\ No newline at end of file
+}
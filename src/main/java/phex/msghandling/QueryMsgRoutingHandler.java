@@ -21,12 +21,15 @@
  */
 package phex.msghandling;
 
+import phex.common.QueryRoutingIndex;
 import phex.common.QueryRoutingTable;
 import phex.host.Host;
 import phex.host.NetworkHostsContainer;
+import phex.msg.GUID;
 import phex.msg.QueryMsg;
+import phex.query.DynamicQueryEngine;
 import phex.query.LeafGuidedSearchProgress;
-import phex.query.SearchProgress;
+import phex.query.QueryManager;
 import phex.peer.Peer;
 import phex.util.QueryGUIDRoutingPair;
 
@@ -35,11 +38,14 @@ class QueryMsgRoutingHandler implements MessageSubscriber<QueryMsg> {
     private final Peer peer;
     private final MessageRouting msgRouting;
     private final NetworkHostsContainer hostsContainer;
+    private final QueryRoutingIndex routingIndex;
 
 
-    public QueryMsgRoutingHandler(Peer peer, MessageRouting msgRouting) {
+    public QueryMsgRoutingHandler(Peer peer, MessageRouting msgRouting,
+                                  QueryRoutingIndex routingIndex) {
         this.peer = peer;
         this.msgRouting = msgRouting;
+        this.routingIndex = routingIndex;
         this.hostsContainer = peer.getHostService().getNetworkHostsContainer();
     }
 
@@ -69,13 +75,19 @@ class QueryMsgRoutingHandler implements MessageSubscriber<QueryMsg> {
             return;
         }
         if (sourceHost.isUltrapeerLeafConnection()) {// do dynamic query for my leaf.
+            GUID queryGUID = queryMsg.getHeader().getMsgID();
             QueryGUIDRoutingPair routingPair = msgRouting.getQueryRouting(
-                    queryMsg.getHeader().getMsgID(), 0);
-            SearchProgress searchProgress = new LeafGuidedSearchProgress(
+                    queryGUID, 0);
+            LeafGuidedSearchProgress searchProgress = new LeafGuidedSearchProgress(
                     routingPair, queryMsg.hasQueryURNs());
 
-            peer.getQueryService().sendDynamicQuery(queryMsg, sourceHost,
-                    searchProgress);
+            QueryManager queryService = peer.getQueryService();
+            DynamicQueryEngine engine = queryService.sendDynamicQuery(queryMsg,
+                    sourceHost, searchProgress);
+            // continue the dynamic query as soon as results are routed back.
+            searchProgress.setResultsListener(() -> queryService.wakeDynamicQuery(engine));
+            msgRouting.setQueryResultCountListener(queryGUID,
+                    searchProgress::incReceivedResultsCount);
         } else {
             // only forward to ultrapeers if TTL > 0
             if (queryMsg.getHeader().getTTL() > 0) {
@@ -100,13 +112,20 @@ class QueryMsgRoutingHandler implements MessageSubscriber<QueryMsg> {
      */
     public void forwardQueryToLeaves(QueryMsg msg, Host fromHost) {
         Host[] hosts = hostsContainer.getLeafConnections();
+        // the keywords are hashed once for all leaves.
+        QueryRoutingIndex.Match match = null;
         for (int i = 0; i < hosts.length; i++) {
             if (hosts[i] == fromHost) {
                 continue;
             }
             QueryRoutingTable qrt = hosts[i].getLastReceivedRoutingTable();
-            if (qrt != null && !qrt.containsQuery(msg)) {
-                continue;
+            if (qrt != null) {
+                if (match == null) {
+                    match = routingIndex.match(msg);
+                }
+                if (!match.contains(hosts[i], qrt, msg)) {
+                    continue;
+                }
             }
             hosts[i].queueMessageToSend(msg);
         }
@@ -122,6 +141,7 @@ class QueryMsgRoutingHandler implements MessageSubscriber<QueryMsg> {
     public void forwardQueryToUltrapeers(QueryMsg msg, Host fromHost) {
         Host[] ultrapeers = hostsContainer.getUltrapeerConnections();
         boolean lastHop = msg.getHeader().getTTL() == 1;
+        QueryRoutingIndex.Match match = null;
         for (int i = 0; i < ultrapeers.length; i++) {
             if (ultrapeers[i] == fromHost) {
                 continue;
@@ -131,8 +151,13 @@ class QueryMsgRoutingHandler implements MessageSubscriber<QueryMsg> {
             if (lastHop && ultrapeers[i].isUPQueryRoutingSupported()) {
                 QueryRoutingTable qrt = ultrapeers[i].
                         getLastReceivedRoutingTable();
-                if (qrt != null && !qrt.containsQuery(msg)) {
-                    continue;
+                if (qrt != null) {
+                    if (match == null) {
+                        match = routingIndex.match(msg);
+                    }
+                    if (!match.contains(ultrapeers[i], qrt, msg)) {
+                        continue;
+                    }
                 }
             }
             ultrapeers[i].queueMessageToSend(msg);
@@ -36,6 +36,7 @@ import phex.peer.Peer;
 import phex.util.DateUtils;
 
 import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -54,6 +55,7 @@ public class OnlineObserver {
     private final Peer peer;
     private final HostFetchingStrategy fetchingStrategy;
     private AutoReconnectTimer autoReconnectTimer;
+    private ScheduledFuture<?> autoReconnectFuture;
     private long lastOfflineTime;
 
     /**
@@ -114,7 +116,7 @@ public class OnlineObserver {
         autoReconnectTimer = new AutoReconnectTimer();
         autoReconnectTimer.setReconnectStatus(oldStatus);
         autoReconnectTimer.setOfflineTime(lastOfflineTime);
-        Environment.getInstance().scheduleTimerTask(autoReconnectTimer,
+        autoReconnectFuture = Environment.getInstance().scheduleTimerTask(autoReconnectTimer,
                 DateUtils.MILLIS_PER_MINUTE, 2 * DateUtils.MILLIS_PER_MINUTE);
     }
 
@@ -127,12 +129,19 @@ public class OnlineObserver {
     private synchronized void resetAutoReconnect() {
         if (autoReconnectTimer != null) {
             logger.debug("Reset auto-reconnect");
-            autoReconnectTimer.cancel();
-            autoReconnectTimer = null;
+            cancelAutoReconnectTimer();
         }
         failedConnections.set(0);
     }
 
+    private synchronized void cancelAutoReconnectTimer() {
+        if (autoReconnectTimer != null) {
+            autoReconnectFuture.cancel(false);
+            autoReconnectTimer = null;
+            autoReconnectFuture = null;
+        }
+    }
+
     /**
      * Reacts on online status changes to reset failed connection counter.
      */
@@ -158,7 +167,7 @@ public class OnlineObserver {
         public void run() {
             try {
                 if (lastOfflineTime != offlineTime) {
-                    cancel();
+                    cancelAutoReconnectTimer();
                     return;
                 }
                 if (!peer.getOnlineStatus().isNetworkOnline()) {
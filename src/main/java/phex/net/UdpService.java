@@ -28,9 +28,11 @@ import org.xsocket.datagram.IDatagramHandler;
 import org.xsocket.datagram.IEndpoint;
 import org.xsocket.datagram.UserDatagram;
 import phex.common.Environment;
+import phex.common.Workload;
 import phex.common.address.AddressUtils;
 import phex.common.address.DefaultDestAddress;
 import phex.common.address.DestAddress;
+import phex.net.repres.memory.MemoryNetwork;
 import phex.util.IOUtil;
 
 import java.io.IOException;
@@ -50,6 +52,12 @@ public class UdpService implements IDatagramHandler {
 
     private IEndpoint endpoint;
 
+    /**
+     * The in-memory network datagrams are sent on instead of a socket, or null.
+     */
+    private final MemoryNetwork memoryNetwork;
+    private final DestAddress memoryAddress;
+
     public UdpService(int bindPort) {
         this(null, bindPort, null);
     }
@@ -66,6 +74,22 @@ public class UdpService implements IDatagramHandler {
         this.bindAddress = bindAddress;
         this.bindPort = bindPort;
         this.udpDataHandler = udpDataHandler;
+        memoryNetwork = null;
+        memoryAddress = null;
+    }
+
+    /**
+     * Creates a service sending and receiving datagrams on an in-memory
+     * network.
+     *
+     * @param memoryNetwork the network.
+     * @param localAddress  the address to receive datagrams on.
+     */
+    public UdpService(MemoryNetwork memoryNetwork, DestAddress localAddress) {
+        this.memoryNetwork = memoryNetwork;
+        this.memoryAddress = localAddress;
+        bindAddress = null;
+        bindPort = localAddress.getPort();
     }
 
     /**
@@ -80,11 +104,17 @@ public class UdpService implements IDatagramHandler {
             return;
         }
 
+        if (memoryNetwork != null) {
+            memoryNetwork.bindDatagramReceiver(memoryAddress, this::onMemoryDatagram);
+            isRunning = true;
+            return;
+        }
+
         //Map<String, Object> options = new HashMap<String, Object>();
         //options.put( IEndpoint.SO_RCVBUF, RECV_SEND_BUFFER_SIZE );
         //options.put( IEndpoint.SO_SNDBUF, RECV_SEND_BUFFER_SIZE );
         endpoint = new Endpoint(RECV_SEND_BUFFER_SIZE, this,
-                Environment.getInstance().getThreadPool(),
+                Environment.getInstance().getThreadPool(Workload.DISPATCH),
                 bindAddress, bindPort);
 
         isRunning = true;
@@ -95,7 +125,11 @@ public class UdpService implements IDatagramHandler {
         if (!isRunning) {
             return;
         }
-        IOUtil.closeQuietly(endpoint);
+        if (memoryNetwork != null) {
+            memoryNetwork.unbindDatagramReceiver(memoryAddress);
+        } else {
+            IOUtil.closeQuietly(endpoint);
+        }
         isRunning = false;
     }
 
@@ -103,6 +137,10 @@ public class UdpService implements IDatagramHandler {
         if (!isRunning) {
             return;
         }
+        if (memoryNetwork != null) {
+            memoryNetwork.sendDatagram(data, memoryAddress, address);
+            return;
+        }
         SocketAddress socketAddress = AddressUtils.createSocketAddress(address);
         UserDatagram datagram = new UserDatagram(socketAddress, data);
         logger.debug("Sending Datagram {}", datagram);
@@ -130,4 +168,17 @@ public class UdpService implements IDatagramHandler {
             throw new RuntimeException(exp);
         }
     }
-}
\ No newline at end of file
+
+    private void onMemoryDatagram(byte[] data, DestAddress origin) {
+        if (udpDataHandler == null) {
+            return;
+        }
+        try {
+            UserDatagram datagram = new UserDatagram(
+                    AddressUtils.createSocketAddress(origin), data);
+            udpDataHandler.handleUdpData(datagram, origin);
+        } catch (Exception exp) {
+            logger.error(exp.toString(), exp);
+        }
+    }
+}
@@ -35,6 +35,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 
 /**
  *
@@ -75,6 +76,10 @@ public class Connection {
         }
     }
 
+    public BandwidthController getBandwidthController() {
+        return bandwidthController;
+    }
+
     private synchronized void initBandwidthByteChannel() throws IOException {
         if (bandwidthByteChannel == null) {
             bandwidthByteChannel = new BandwidthByteChannel(socket.getChannel(),
@@ -136,6 +141,26 @@ public class Connection {
         return outputStream;
     }
 
+    /**
+     * Returns the socket channel to write to directly, bypassing the output
+     * stream and the bandwidth controller of this connection. Returns null
+     * in case the socket is not backed by a blocking channel or the output
+     * is deflated.
+     */
+    public SocketChannel getDirectOutputChannel() {
+        if (socket == null) {
+            return null;
+        }
+        if (outputStream != null && outputStream.isOutputDeflated()) {
+            return null;
+        }
+        SocketChannel channel = socket.getSocketChannel();
+        if (channel == null || !channel.isBlocking()) {
+            return null;
+        }
+        return channel;
+    }
+
     public void write(ByteBuffer buffer) throws IOException {
         int pos = buffer.position();
         int limit = buffer.limit();
@@ -26,6 +26,7 @@ import phex.common.address.DestAddress;
 import phex.common.address.DestAddressFactory;
 
 import java.io.IOException;
+import java.nio.channels.SocketChannel;
 
 
 /**
@@ -44,6 +45,15 @@ public abstract class PresentationManager implements DestAddressFactory {
         return instance;
     }
 
+    /**
+     * Replaces the manager used by all peers of the JVM, like with an
+     * in-memory transport for simulations. Must be called before the first
+     * peer is created.
+     */
+    public static void setInstance(PresentationManager manager) {
+        instance = manager;
+    }
+
 
     ////////////////////////////////////////////////////////////////////////////
     /// Manager methods
@@ -96,6 +106,34 @@ public abstract class PresentationManager implements DestAddressFactory {
     public abstract SocketFacade createSocket(DestAddress address, int connectTimeout)
             throws IOException;
 
+    /**
+     * Opens a non-blocking channel and starts connecting it to the given
+     * address. The connect must be completed by the caller using
+     * {@link SocketChannel#finishConnect()}.
+     *
+     * @param address the address to connect to.
+     * @return the connecting channel, or null in case the presentation does
+     * not support non-blocking connects.
+     * @throws IOException if the connect can't be started.
+     */
+    public SocketChannel openConnectingChannel(DestAddress address)
+            throws IOException {
+        return null;
+    }
+
+    /**
+     * Creates a socket for a channel opened by
+     * {@link #openConnectingChannel(DestAddress)} that completed connecting.
+     *
+     * @param connectedChannel the connected channel.
+     * @return the socket of the channel.
+     * @throws IOException if the socket can't be created.
+     */
+    public SocketFacade createSocket(SocketChannel connectedChannel)
+            throws IOException {
+        throw new IOException("Non-blocking connect not supported.");
+    }
+
     /**
      * This method is called after the complete application including GUI completed
      * its startup process. This notification must be used to activate runtime
@@ -28,12 +28,19 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.SocketException;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
 
 public interface SocketFacade extends Closeable {
     void setSoTimeout(int socketRWTimeout) throws SocketException;
 
     ByteChannel getChannel() throws IOException;
 
+    /**
+     * Returns the selectable socket channel backing this socket, or null
+     * if the socket was not created through a channel.
+     */
+    SocketChannel getSocketChannel();
+
     void close() throws IOException;
 
     DestAddress getRemoteAddress();
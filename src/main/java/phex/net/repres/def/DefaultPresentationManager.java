@@ -29,17 +29,48 @@ import phex.net.repres.SocketFacade;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 public class DefaultPresentationManager extends PresentationManager {
     @Override
     public SocketFacade createSocket(DestAddress address, int connectTimeout)
             throws IOException {
-        Socket socket = new Socket();
-        socket.connect(new InetSocketAddress(
-                address.getHostName(), address.getPort()), connectTimeout);
+        // backed by a channel, to allow zero-copy uploads and to hand the
+        // connection to the connection reactor.
+        SocketChannel channel = SocketChannel.open();
+        Socket socket = channel.socket();
+        try {
+            socket.connect(new InetSocketAddress(
+                    address.getHostName(), address.getPort()), connectTimeout);
+        } catch (IOException exp) {
+            channel.close();
+            throw exp;
+        }
         return new DefaultSocketFacade(socket);
     }
 
+    @Override
+    public SocketChannel openConnectingChannel(DestAddress address)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(
+                    address.getHostName(), address.getPort()));
+            return channel;
+        } catch (IOException exp) {
+            channel.close();
+            throw exp;
+        }
+    }
+
+    @Override
+    public SocketFacade createSocket(SocketChannel connectedChannel)
+            throws IOException {
+        connectedChannel.configureBlocking(true);
+        return new DefaultSocketFacade(connectedChannel.socket());
+    }
+
     /**
      * Creates a host address object from a given address representation.
      * The address representation we expect is hostname:port.
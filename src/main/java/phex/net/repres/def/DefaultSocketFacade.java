@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
 
 public class DefaultSocketFacade implements SocketFacade {
     private final Socket socket;
@@ -48,6 +49,10 @@ public class DefaultSocketFacade implements SocketFacade {
         return channel;
     }
 
+    public SocketChannel getSocketChannel() {
+        return socket.getChannel();
+    }
+
     public void setSoTimeout(int socketRWTimeout)
             throws SocketException {
         socket.setSoTimeout(socketRWTimeout);
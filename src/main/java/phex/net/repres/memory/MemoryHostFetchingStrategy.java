@@ -0,0 +1,78 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.repres.memory;
+
+import phex.common.address.DestAddress;
+import phex.host.CaughtHostsContainer;
+import phex.host.HostFetchingStrategy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fetches new hosts from the listening hosts of a {@link MemoryNetwork}
+ * instead of GWebCaches and UDP host caches, so a simulated peer never
+ * bootstraps from the live network.
+ */
+public class MemoryHostFetchingStrategy implements HostFetchingStrategy {
+    /**
+     * The number of hosts added per fetch.
+     */
+    private static final int FETCH_COUNT = 20;
+
+    private final MemoryNetwork network;
+    private final CaughtHostsContainer caughtHostsContainer;
+    private final DestAddress localAddress;
+    private final Random random;
+
+    public MemoryHostFetchingStrategy(MemoryNetwork network,
+                                      CaughtHostsContainer caughtHostsContainer,
+                                      DestAddress localAddress, long seed) {
+        this.network = network;
+        this.caughtHostsContainer = caughtHostsContainer;
+        this.localAddress = localAddress;
+        random = new Random(seed);
+    }
+
+    public void postManagerInitRoutine() {
+    }
+
+    public void fetchNewHosts(FetchingReason reason) {
+        List<DestAddress> addresses = network.getListeningAddresses();
+        synchronized (random) {
+            Collections.shuffle(addresses, random);
+        }
+        int count = 0;
+        for (DestAddress address : addresses) {
+            if (count == FETCH_COUNT) {
+                break;
+            }
+            if (address.equals(localAddress)) {
+                continue;
+            }
+            caughtHostsContainer.addCaughtHost(address,
+                    CaughtHostsContainer.NORMAL_PRIORITY);
+            count++;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.repres.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.common.Environment;
+import phex.common.Workload;
+import phex.common.address.AddressUtils;
+import phex.common.address.DefaultDestAddress;
+import phex.common.address.DestAddress;
+import phex.common.address.IpAddress;
+
+import java.net.BindException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory network connecting the peers of a simulation running in one
+ * JVM. Stream connections are carried by bounded in-memory pipes, datagrams
+ * are delivered to the receiver bound to the destination address and are
+ * dropped at a configurable loss rate.
+ * <p>
+ * Host addresses are assigned from the benchmarking network 198.18.0.0/16,
+ * the outgoing ends of connections get addresses of 198.19.0.0/16. Nothing
+ * of the network ever reaches a real socket, connections and datagrams to
+ * addresses outside the network fail or are dropped.
+ */
+public class MemoryNetwork {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryNetwork.class);
+
+    /**
+     * The capacity of each direction of a connection, like a socket buffer.
+     */
+    private static final int PIPE_CAPACITY = 64 * 1024;
+
+    private static final int HOST_NETWORK = 0xC6120000;
+    private static final int EPHEMERAL_NETWORK = 0xC6130000;
+    private static final int FIRST_EPHEMERAL_PORT = 1024;
+
+    private final Random lossRandom;
+    private final double datagramLossRate;
+
+    private final Map<Long, MemoryServerSocket> listeners;
+    private final Map<Long, DatagramReceiver> datagramReceivers;
+    private final AtomicInteger nextHostIndex;
+    private final AtomicInteger nextEphemeralIndex;
+
+    private final LongAdder connectionCount;
+    private final LongAdder refusedConnectionCount;
+    private final LongAdder transferredBytes;
+    private final LongAdder sentDatagramCount;
+    private final LongAdder lostDatagramCount;
+    private final LongAdder undeliverableDatagramCount;
+
+    /**
+     * @param seed             the seed of the datagram loss.
+     * @param datagramLossRate the share of datagrams dropped, between 0 and 1.
+     */
+    public MemoryNetwork(long seed, double datagramLossRate) {
+        if (datagramLossRate < 0 || datagramLossRate > 1) {
+            throw new IllegalArgumentException("Invalid loss rate: " + datagramLossRate);
+        }
+        this.datagramLossRate = datagramLossRate;
+        lossRandom = new Random(seed);
+        listeners = new ConcurrentSkipListMap<>();
+        datagramReceivers = new ConcurrentSkipListMap<>();
+        nextHostIndex = new AtomicInteger();
+        nextEphemeralIndex = new AtomicInteger();
+        connectionCount = new LongAdder();
+        refusedConnectionCount = new LongAdder();
+        transferredBytes = new LongAdder();
+        sentDatagramCount = new LongAdder();
+        lostDatagramCount = new LongAdder();
+        undeliverableDatagramCount = new LongAdder();
+    }
+
+    /**
+     * Assigns the IP of a new host of the network.
+     */
+    public IpAddress createHostIp() {
+        return new IpAddress(AddressUtils.intIp2ByteIp(
+                HOST_NETWORK + toHostPart(nextHostIndex.getAndIncrement())));
+    }
+
+    /**
+     * Maps an index to the host part of a /16 network, leaving out the
+     * addresses ending with 0 or 255.
+     */
+    private static int toHostPart(int index) {
+        int host = index % (254 * 256);
+        return (host / 254) << 8 | (host % 254 + 1);
+    }
+
+    public MemoryServerSocket bind(DestAddress address) throws BindException {
+        MemoryServerSocket serverSocket = new MemoryServerSocket(this, address);
+        if (listeners.putIfAbsent(toKey(address), serverSocket) != null) {
+            throw new BindException("Address already in use: " + address);
+        }
+        return serverSocket;
+    }
+
+    void unbind(MemoryServerSocket serverSocket) {
+        listeners.remove(toKey(serverSocket.getLocalAddress()), serverSocket);
+    }
+
+    /**
+     * Returns the addresses of all listening hosts, in address order.
+     */
+    public List<DestAddress> getListeningAddresses() {
+        List<DestAddress> addresses = new ArrayList<>(listeners.size());
+        for (MemoryServerSocket serverSocket : listeners.values()) {
+            addresses.add(serverSocket.getLocalAddress());
+        }
+        return addresses;
+    }
+
+    /**
+     * Opens a connection to the host listening on the address.
+     *
+     * @return the client end of the connection.
+     * @throws ConnectException if no host listens on the address.
+     */
+    public MemorySocketFacade connect(DestAddress address) throws ConnectException {
+        MemoryServerSocket serverSocket = address.getIpAddress() != null
+                ? listeners.get(toKey(address)) : null;
+        if (serverSocket == null) {
+            refusedConnectionCount.increment();
+            throw new ConnectException("Connection refused: " + address);
+        }
+        int ephemeralIndex = nextEphemeralIndex.getAndIncrement();
+        DestAddress clientAddress = new DefaultDestAddress(
+                AddressUtils.intIp2ByteIp(EPHEMERAL_NETWORK + toHostPart(ephemeralIndex)),
+                FIRST_EPHEMERAL_PORT + ephemeralIndex % (65536 - FIRST_EPHEMERAL_PORT));
+
+        MemoryPipe upstream = new MemoryPipe(PIPE_CAPACITY);
+        MemoryPipe downstream = new MemoryPipe(PIPE_CAPACITY);
+        MemorySocketFacade clientSocket = new MemorySocketFacade(this, downstream,
+                upstream, address);
+        MemorySocketFacade serverEnd = new MemorySocketFacade(this, upstream,
+                downstream, clientAddress);
+        if (!serverSocket.offer(serverEnd)) {
+            refusedConnectionCount.increment();
+            throw new ConnectException("Connection refused: " + address);
+        }
+        connectionCount.increment();
+        return clientSocket;
+    }
+
+    void countTransferred(int byteCount) {
+        transferredBytes.add(byteCount);
+    }
+
+    public void bindDatagramReceiver(DestAddress address, DatagramReceiver receiver)
+            throws BindException {
+        if (datagramReceivers.putIfAbsent(toKey(address), receiver) != null) {
+            throw new BindException("Address already in use: " + address);
+        }
+    }
+
+    public void unbindDatagramReceiver(DestAddress address) {
+        datagramReceivers.remove(toKey(address));
+    }
+
+    /**
+     * Sends a datagram. The datagram is delivered on the dispatch thread pool,
+     * unless it is lost or no receiver is bound to the destination.
+     */
+    public void sendDatagram(final byte[] data, final DestAddress origin,
+                             DestAddress destination) {
+        sentDatagramCount.increment();
+        final DatagramReceiver receiver = destination.getIpAddress() != null
+                ? datagramReceivers.get(toKey(destination)) : null;
+        if (receiver == null) {
+            undeliverableDatagramCount.increment();
+            return;
+        }
+        if (isDatagramLost()) {
+            lostDatagramCount.increment();
+            return;
+        }
+        final byte[] copy = data.clone();
+        try {
+            Environment.getInstance().executeOnThreadPool(
+                    () -> receiver.receiveDatagram(copy, origin),
+                    "MemoryDatagram", Workload.DISPATCH);
+        } catch (RejectedExecutionException exp) {
+            logger.debug("Datagram dropped: {}", exp.toString());
+            lostDatagramCount.increment();
+        }
+    }
+
+    private boolean isDatagramLost() {
+        if (datagramLossRate == 0) {
+            return false;
+        }
+        synchronized (lossRandom) {
+            return lossRandom.nextDouble() < datagramLossRate;
+        }
+    }
+
+    private static Long toKey(DestAddress address) {
+        IpAddress ip = address.getIpAddress();
+        long ipValue = ip != null ? ip.getLongHostIP() : 0;
+        return Long.valueOf(ipValue << 16 | address.getPort());
+    }
+
+    public long getConnectionCount() {
+        return connectionCount.sum();
+    }
+
+    public long getRefusedConnectionCount() {
+        return refusedConnectionCount.sum();
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes.sum();
+    }
+
+    public long getSentDatagramCount() {
+        return sentDatagramCount.sum();
+    }
+
+    public long getLostDatagramCount() {
+        return lostDatagramCount.sum();
+    }
+
+    public long getUndeliverableDatagramCount() {
+        return undeliverableDatagramCount.sum();
+    }
+
+    /**
+     * Receives the datagrams sent to a bound address.
+     */
+    public interface DatagramReceiver {
+        void receiveDatagram(byte[] data, DestAddress origin);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.repres.memory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * A bounded, unidirectional byte pipe carrying one direction of an in-memory
+ * connection. Reads block until data is available, the writer closed the pipe
+ * or the read timeout expired. Writes block while the pipe is full, like
+ * writes to a socket with a full send buffer.
+ */
+final class MemoryPipe {
+    private final byte[] buffer;
+    private int readPos;
+    private int count;
+    private boolean isWriterClosed;
+    private boolean isReaderClosed;
+
+    MemoryPipe(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Reads available data into dst.
+     *
+     * @param timeout the read timeout in milliseconds, 0 for no timeout.
+     * @return the number of bytes read or -1 if the writer closed the pipe.
+     */
+    synchronized int read(ByteBuffer dst, int timeout) throws IOException {
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        while (count == 0) {
+            if (isReaderClosed) {
+                throw new ClosedChannelException();
+            }
+            if (isWriterClosed) {
+                return -1;
+            }
+            long waitTime = 0;
+            if (deadline != 0) {
+                waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+            }
+            awaitChange(waitTime);
+        }
+        if (isReaderClosed) {
+            throw new ClosedChannelException();
+        }
+        int length = Math.min(count, dst.remaining());
+        int firstPart = Math.min(length, buffer.length - readPos);
+        dst.put(buffer, readPos, firstPart);
+        dst.put(buffer, 0, length - firstPart);
+        readPos = (readPos + length) % buffer.length;
+        count -= length;
+        notifyAll();
+        return length;
+    }
+
+    /**
+     * Writes all data of src, blocking while the pipe is full.
+     *
+     * @return the number of bytes written.
+     */
+    synchronized int write(ByteBuffer src) throws IOException {
+        int written = 0;
+        while (src.hasRemaining()) {
+            if (isWriterClosed) {
+                throw new ClosedChannelException();
+            }
+            if (isReaderClosed) {
+                throw new IOException("Connection reset by peer");
+            }
+            if (count == buffer.length) {
+                awaitChange(0);
+                continue;
+            }
+            int writePos = (readPos + count) % buffer.length;
+            int length = Math.min(src.remaining(), Math.min(buffer.length - count,
+                    buffer.length - writePos));
+            src.get(buffer, writePos, length);
+            count += length;
+            written += length;
+            notifyAll();
+        }
+        return written;
+    }
+
+    synchronized void closeWriter() {
+        isWriterClosed = true;
+        notifyAll();
+    }
+
+    synchronized void closeReader() {
+        isReaderClosed = true;
+        count = 0;
+        notifyAll();
+    }
+
+    private void awaitChange(long waitTime) throws InterruptedIOException {
+        try {
+            wait(waitTime);
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(exp.getMessage());
+        }
+    }
+}
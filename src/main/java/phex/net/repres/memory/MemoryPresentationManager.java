@@ -0,0 +1,60 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.repres.memory;
+
+import phex.common.address.DestAddress;
+import phex.net.repres.SocketFacade;
+import phex.net.repres.def.DefaultPresentationManager;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Creates the sockets of all peers of the JVM on a {@link MemoryNetwork}.
+ * Install it with {@link phex.net.repres.PresentationManager#setInstance}
+ * before the first peer is created.
+ */
+public class MemoryPresentationManager extends DefaultPresentationManager {
+    private final MemoryNetwork network;
+
+    public MemoryPresentationManager(MemoryNetwork network) {
+        this.network = network;
+    }
+
+    public MemoryNetwork getNetwork() {
+        return network;
+    }
+
+    @Override
+    public SocketFacade createSocket(DestAddress address, int connectTimeout)
+            throws IOException {
+        return network.connect(address);
+    }
+
+    /**
+     * Memory sockets connect immediately, the blocking connect is used.
+     */
+    @Override
+    public SocketChannel openConnectingChannel(DestAddress address) {
+        return null;
+    }
+}
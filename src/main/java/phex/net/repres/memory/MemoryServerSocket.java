@@ -0,0 +1,87 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.repres.memory;
+
+import phex.common.address.DestAddress;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A listening address of a {@link MemoryNetwork}, queueing the server ends of
+ * incoming connections until they are accepted.
+ */
+public class MemoryServerSocket {
+    private final MemoryNetwork network;
+    private final DestAddress localAddress;
+    private final LinkedBlockingQueue<MemorySocketFacade> acceptQueue;
+    private volatile boolean isClosed;
+
+    MemoryServerSocket(MemoryNetwork network, DestAddress localAddress) {
+        this.network = network;
+        this.localAddress = localAddress;
+        acceptQueue = new LinkedBlockingQueue<>();
+    }
+
+    public DestAddress getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * Waits for the next incoming connection.
+     *
+     * @return the server end of the connection, or null if the server socket
+     * was closed.
+     */
+    public MemorySocketFacade accept() throws InterruptedIOException {
+        try {
+            MemorySocketFacade socket = acceptQueue.take();
+            return isClosed ? null : socket;
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(exp.getMessage());
+        }
+    }
+
+    boolean offer(MemorySocketFacade socket) {
+        return !isClosed && acceptQueue.offer(socket);
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        network.unbind(this);
+        MemorySocketFacade socket;
+        while ((socket = acceptQueue.poll()) != null) {
+            socket.close();
+        }
+        // wakes up a thread waiting in accept.
+        acceptQueue.offer(new MemorySocketFacade(network, new MemoryPipe(1),
+                new MemoryPipe(1), localAddress));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.repres.memory;
+
+import phex.common.address.DestAddress;
+import phex.net.repres.SocketFacade;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One end of an in-memory connection of a {@link MemoryNetwork}. There is no
+ * selectable channel behind it, connections are served by blocking reads.
+ */
+public class MemorySocketFacade implements SocketFacade {
+    private final MemoryNetwork network;
+    private final MemoryPipe inPipe;
+    private final MemoryPipe outPipe;
+    private final DestAddress remoteAddress;
+    private final ByteChannel channel;
+    private volatile int soTimeout;
+    private volatile boolean isClosed;
+
+    MemorySocketFacade(MemoryNetwork network, MemoryPipe inPipe, MemoryPipe outPipe,
+                       DestAddress remoteAddress) {
+        this.network = network;
+        this.inPipe = inPipe;
+        this.outPipe = outPipe;
+        this.remoteAddress = remoteAddress;
+        channel = new PipeChannel();
+    }
+
+    public void setSoTimeout(int socketRWTimeout) {
+        soTimeout = socketRWTimeout;
+    }
+
+    public ByteChannel getChannel() {
+        return channel;
+    }
+
+    public SocketChannel getSocketChannel() {
+        return null;
+    }
+
+    public void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        inPipe.closeReader();
+        outPipe.closeWriter();
+    }
+
+    public DestAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    private final class PipeChannel implements ByteChannel {
+        public int read(ByteBuffer dst) throws IOException {
+            if (isClosed) {
+                throw new ClosedChannelException();
+            }
+            return inPipe.read(dst, soTimeout);
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            if (isClosed) {
+                throw new ClosedChannelException();
+            }
+            int written = outPipe.write(src);
+            network.countTransferred(written);
+            return written;
+        }
+
+        public boolean isOpen() {
+            return !isClosed;
+        }
+
+        public void close() {
+            MemorySocketFacade.this.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.server;
+
+import phex.common.address.DestAddress;
+import phex.common.address.IpAddress;
+import phex.common.log.NLogger;
+import phex.net.repres.PresentationManager;
+import phex.net.repres.memory.MemoryNetwork;
+import phex.net.repres.memory.MemoryServerSocket;
+import phex.net.repres.memory.MemorySocketFacade;
+import phex.peer.Peer;
+import phex.security.PhexSecurityException;
+
+import java.io.IOException;
+
+/**
+ * A server accepting the connections of a {@link MemoryNetwork}, used to run
+ * simulated peers in one JVM.
+ */
+public class MemoryServer extends OIOServer {
+    private final MemoryNetwork network;
+    private final IpAddress hostIP;
+    private volatile MemoryServerSocket memoryServerSocket;
+
+    public MemoryServer(Peer peer, MemoryNetwork network, IpAddress hostIP) {
+        super(peer);
+        this.network = network;
+        this.hostIP = hostIP;
+    }
+
+    // The listening thread.
+    @Override
+    public void run() {
+        MemoryServerSocket serverSocket = memoryServerSocket;
+        NLogger.debug(MemoryServer.class, "Listener started. Listening on: "
+                + serverSocket.getLocalAddress().getFullHostName());
+        try {
+            while (!serverSocket.isClosed()) {
+                try {
+                    MemorySocketFacade incoming = serverSocket.accept();
+                    if (incoming != null) {
+                        handleIncomingSocket(incoming);
+                    }
+                } catch (PhexSecurityException exp) {
+                    NLogger.debug(MemoryServer.class, exp);
+                } catch (IOException exp) {
+                    NLogger.error(MemoryServer.class, exp, exp);
+                }
+            }
+        } catch (Exception exp) {
+            NLogger.error(MemoryServer.class, exp, exp);
+        }
+
+        isRunning = false;
+        NLogger.debug(MemoryServer.class, "Listener stopped.");
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    protected synchronized void bind(int initialPort) throws IOException {
+        assert (memoryServerSocket == null);
+        DestAddress address = PresentationManager.getInstance().createHostAddress(
+                hostIP, initialPort);
+        memoryServerSocket = network.bind(address);
+        localAddress.updateLocalAddress(address);
+    }
+
+    @Override
+    protected synchronized void closeServer() {
+        if (memoryServerSocket != null) {
+            memoryServerSocket.close();
+            memoryServerSocket = null;
+        }
+    }
+
+    @Override
+    protected boolean isPortMappingRequired() {
+        return false;
+    }
+
+    @Override
+    public IpAddress resolveLocalHostIP() {
+        return hostIP;
+    }
+
+    @Override
+    public int getListeningLocalPort() {
+        MemoryServerSocket serverSocket = memoryServerSocket;
+        if (serverSocket != null) {
+            return serverSocket.getLocalAddress().getPort();
+        }
+        return peer.netPrefs.ListeningPort.get();
+    }
+}
@@ -32,6 +32,7 @@ import phex.net.repres.def.DefaultSocketFacade;
 import phex.security.AccessType;
 import phex.security.PhexSecurityException;
 import phex.peer.Peer;
+import phex.util.IOUtil;
 
 import java.io.IOException;
 import java.net.BindException;
@@ -43,8 +44,14 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
 
-//// NOT USED YET ////
+/**
+ * A server accepting connections through a non-blocking ServerSocketChannel.
+ * Used when the ConnectionReactor is active, since all accepted sockets are
+ * backed by a selectable SocketChannel the reactor can take over after the
+ * handshake.
+ */
 public class NIOServer extends Server {
     private ServerSocketChannel listeningChannel;
     private Selector selector;
@@ -156,44 +163,57 @@ public class NIOServer extends Server {
         DefaultSocketFacade clientFacade = new DefaultSocketFacade(clientSocket);
         IncomingConnectionDispatcher dispatcher = new IncomingConnectionDispatcher(
                 clientFacade, peer);
-        Environment.getInstance().executeOnThreadPool(dispatcher,
-                "IncomingConnectionDispatcher-" + Integer.toHexString(hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(dispatcher,
+                    "IncomingConnectionDispatcher-" + Integer.toHexString(hashCode()));
+        } catch (RejectedExecutionException exp) {
+            // too many connections in progress, drop this one but keep
+            // accepting.
+            NLogger.warn(NIOServer.class, "Dropped incoming connection from "
+                    + address.getFullHostName() + ": " + exp);
+            IOUtil.closeQuietly(clientFacade);
+        }
     }
 
     @Override
     protected synchronized void bind(int initialPort) throws IOException {
         assert (listeningChannel == null);
 
-        listeningChannel = ServerSocketChannel.open();
-        serverSocket = listeningChannel.socket();
-        listeningChannel.configureBlocking(false);
-
         // Create a listening socket at the port.
         int tries = 0;
         boolean error;
+        int tryingPort = initialPort;
         // try to find new port if port not valid
         do {
             error = false;
 
+            listeningChannel = ServerSocketChannel.open();
+            serverSocket = listeningChannel.socket();
             try {
-                NLogger.debug(NIOServer.class, "Binding to port " + initialPort);
-                serverSocket.bind(new InetSocketAddress(initialPort));
-            } catch (BindException exp) {
-                NLogger.debug(NIOServer.class, "Binding failed to port " + initialPort);
-                if (tries > 10) {
-                    throw exp;
+                NLogger.debug(NIOServer.class, "Binding to port " + tryingPort);
+                serverSocket.bind(new InetSocketAddress(tryingPort));
+            } catch (SocketException exp) {
+                NLogger.debug(NIOServer.class, "Binding failed to port " + tryingPort);
+                // a channel that failed to bind can't be reused.
+                listeningChannel.close();
+                listeningChannel = null;
+                serverSocket = null;
+                if (tries > 50) {
+                    throw new BindException("Failed to bind to port (" + initialPort + " - "
+                            + tryingPort + "). Last reason was: " + exp.getMessage());
                 }
                 error = true;
-                initialPort++;
+                tryingPort++;
                 tries++;
             }
         }
         while (error == true);
+        listeningChannel.configureBlocking(false);
 
         IpAddress hostIP = resolveLocalHostIP();
-        initialPort = serverSocket.getLocalPort();
+        tryingPort = serverSocket.getLocalPort();
         DestAddress newAddress = PresentationManager.getInstance().createHostAddress(
-                hostIP, initialPort);
+                hostIP, tryingPort);
         localAddress.updateLocalAddress(newAddress);
 
         selector = Selector.open();
@@ -34,9 +34,12 @@ import phex.net.repres.def.DefaultSocketFacade;
 import phex.security.AccessType;
 import phex.security.PhexSecurityException;
 import phex.peer.Peer;
+import phex.util.IOUtil;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.RejectedExecutionException;
 
 public class OIOServer extends Server {
     public OIOServer(Peer peer) {
@@ -84,7 +87,7 @@ public class OIOServer extends Server {
      * @throws PhexSecurityException
      * @throws SocketException
      */
-    private void handleIncomingSocket(SocketFacade clientSocket)
+    protected void handleIncomingSocket(SocketFacade clientSocket)
             throws IOException, PhexSecurityException {
         clientSocket.setSoTimeout(peer.netPrefs.TcpRWTimeout.get());
 
@@ -121,15 +124,24 @@ public class OIOServer extends Server {
 
         IncomingConnectionDispatcher dispatcher = new IncomingConnectionDispatcher(
                 clientSocket, peer);
-        Environment.getInstance().executeOnThreadPool(dispatcher,
-                "IncomingConnectionDispatcher-" + Integer.toHexString(hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(dispatcher,
+                    "IncomingConnectionDispatcher-" + Integer.toHexString(hashCode()));
+        } catch (RejectedExecutionException exp) {
+            // too many connections in progress, drop this one but keep
+            // accepting.
+            NLogger.warn(OIOServer.class, "Dropped incoming connection from "
+                    + address.getFullHostName() + ": " + exp);
+            IOUtil.closeQuietly(clientSocket);
+        }
     }
 
     @Override
     protected synchronized void bind(int initialPort) throws IOException {
         assert (serverSocket == null);
 
-        serverSocket = new ServerSocket();
+        // accepted sockets are backed by a channel, to allow zero-copy uploads.
+        serverSocket = ServerSocketChannel.open().socket();
 
         // Create a listening socket at the port.
         int tries = 0;
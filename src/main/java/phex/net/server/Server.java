@@ -39,6 +39,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  *
@@ -65,7 +67,7 @@ public abstract class Server implements Runnable {
      * The time the last incoming connection was seen.
      */
     protected long lastInConnectionTime;
-    private FirewallCheckTimer firewallCheckTimer;
+    private ScheduledFuture<?> firewallCheckTimer;
 
 
     public Server(Peer peer) {
@@ -91,27 +93,48 @@ public abstract class Server implements Runnable {
         logger.debug("Starting listener");
         isRunning = true;
 
-        firewallCheckTimer = new FirewallCheckTimer(
-                peer.getHostService().getNetworkHostsContainer(),
-                peer.getMessageService());
-        Environment.getInstance().scheduleTimerTask(firewallCheckTimer,
+        firewallCheckTimer = Environment.getInstance().scheduleTimerTask(
+                new FirewallCheckTimer(
+                        peer.getHostService().getNetworkHostsContainer(),
+                        peer.getMessageService()),
                 FirewallCheckTimer.TIMER_PERIOD,
                 FirewallCheckTimer.TIMER_PERIOD);
 
         bind(peer.netPrefs.ListeningPort.get());
 
-        try {
-            upnpMapper.initialize();
-        } catch (Exception e) {
-            logger.error("PnP: {}", e);
+        if (isPortMappingRequired()) {
+            try {
+                upnpMapper.initialize();
+            } catch (Exception e) {
+                logger.error("PnP: {}", e);
+            }
         }
 
-        Environment.getInstance().executeOnThreadPool(this,
-                "IncommingListener-" + Integer.toHexString(hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(this,
+                    "IncommingListener-" + Integer.toHexString(hashCode()));
+        } catch (RejectedExecutionException exp) {
+            // nobody would accept on the bound socket, undo the startup.
+            if (isPortMappingRequired()) {
+                upnpMapper.shutdown();
+            }
+            firewallCheckTimer.cancel(false);
+            firewallCheckTimer = null;
+            closeServer();
+            isRunning = false;
+            throw new IOException("Listener not started: " + exp.toString(), exp);
+        }
     }
 
     protected abstract void bind(int initialPort) throws IOException;
 
+    /**
+     * Indicates if the listening port is mapped on the UPnP gateway.
+     */
+    protected boolean isPortMappingRequired() {
+        return true;
+    }
+
     protected abstract void closeServer();
 
     public synchronized void restart() throws IOException {
@@ -126,9 +149,11 @@ public abstract class Server implements Runnable {
         }
         logger.debug("Shutting down listener");
 
-        upnpMapper.shutdown();
+        if (isPortMappingRequired()) {
+            upnpMapper.shutdown();
+        }
 
-        firewallCheckTimer.cancel();
+        firewallCheckTimer.cancel(false);
         firewallCheckTimer = null;
 
         peer.connectionPrefs.HasConnectedIncomming.set(hasConnectedIncomming);
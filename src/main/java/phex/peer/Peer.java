@@ -26,9 +26,12 @@ import org.slf4j.LoggerFactory;
 import phex.*;
 import phex.chat.ChatService;
 import phex.common.*;
+import phex.common.address.DefaultDestAddress;
 import phex.common.address.DestAddress;
+import phex.common.address.IpAddress;
 import phex.common.bandwidth.BandwidthManager;
 import phex.common.file.FileManager;
+import phex.connection.ConnectionReactor;
 import phex.download.swarming.SwarmingManager;
 import phex.host.DefaultHostFetchingStrategy;
 import phex.host.HostFetchingStrategy;
@@ -38,6 +41,10 @@ import phex.msg.GUID;
 import phex.msghandling.MessageService;
 import phex.net.OnlineObserver;
 import phex.net.UdpService;
+import phex.net.repres.memory.MemoryHostFetchingStrategy;
+import phex.net.repres.memory.MemoryNetwork;
+import phex.net.server.MemoryServer;
+import phex.net.server.NIOServer;
 import phex.net.server.OIOServer;
 import phex.net.server.Server;
 import phex.query.QueryManager;
@@ -66,6 +73,8 @@ public class Peer extends AbstractLifeCycle implements PeerInfo {
     public static final String XML_GUI_SETTINGS_FILE_NAME = "phexgui.xml";
     public static final String XML_SECURITY_FILE_NAME = "security.xml";
     public static final String XML_SHARED_LIBRARY_FILE_NAME = "sharedlibrary.xml";
+    public static final String SHARED_LIBRARY_JOURNAL_FILE_NAME = "sharedlibrary.journal";
+    public static final String HOSTILE_HOSTS_CACHE_FILE_NAME = "hostiles.cache";
     public static final String XML_FILTER_LIST_FILE_NAME = "filterlist.xml";
     public static final String XML_FAVORITES_FILE_NAME = "favorites.xml";
     public static final String XML_SEARCH_FILTER_FILE_NAME = "searchfilters.xml";
@@ -84,6 +93,11 @@ public class Peer extends AbstractLifeCycle implements PeerInfo {
 
     private final List<LifeCycle> dependentLifeCycles;
     private final Server server;
+    /**
+     * The non-blocking connection reactor, or null if Gnutella connections
+     * are served by a read thread each.
+     */
+    private final ConnectionReactor connectionReactor;
     private final UdpService udpService;
     // hold reference to not loose to GC.
     @SuppressWarnings("unused")
@@ -134,6 +148,17 @@ public class Peer extends AbstractLifeCycle implements PeerInfo {
     }
 
     public Peer(String network, File home) {
+        this(network, home, null);
+    }
+
+    /**
+     * Creates a peer connecting through the given in-memory network instead of
+     * sockets, to simulate many peers in one JVM. The memory presentation
+     * manager of the network must be installed before.
+     *
+     * @param memoryNetwork the in-memory network, or null to use sockets.
+     */
+    public Peer(String network, File home, MemoryNetwork memoryNetwork) {
         this.home = home;
         
         this.netPrefs = new NetworkPrefs(network, file(NETWORK_PREFERENCES_FILE_NAME));
@@ -176,7 +201,7 @@ public class Peer extends AbstractLifeCycle implements PeerInfo {
             setOnlineStatus(OnlineStatus.OFFLINE);
         }
 
-        securityService = new PhexSecurityManager();
+        securityService = new PhexSecurityManager(file(HOSTILE_HOSTS_CACHE_FILE_NAME));
         dependentLifeCycles.add(securityService);
 
         sharedFilesService = new SharedFilesService(this);
@@ -205,14 +230,40 @@ public class Peer extends AbstractLifeCycle implements PeerInfo {
         queryService = new QueryManager(messageService, this);
         dependentLifeCycles.add(queryService);
 
-        hostFetchingStrategy = new DefaultHostFetchingStrategy(this,
-                hostService.getUhcContainer());
+        IpAddress memoryIp = null;
+        DestAddress memoryAddress = null;
+        if (memoryNetwork != null) {
+            memoryIp = memoryNetwork.createHostIp();
+            memoryAddress = new DefaultDestAddress(memoryIp,
+                    netPrefs.ListeningPort.get().intValue());
+            hostFetchingStrategy = new MemoryHostFetchingStrategy(memoryNetwork,
+                    hostService.getCaughtHostsContainer(), memoryAddress,
+                    memoryIp.getLongHostIP());
+        } else {
+            hostFetchingStrategy = new DefaultHostFetchingStrategy(this,
+                    hostService.getUhcContainer());
+        }
 
         onlineObserver = new OnlineObserver(this, hostFetchingStrategy);
 
-        server = new OIOServer(this);//new JettyServer();
+        if (memoryNetwork != null) {
+            // memory connections are not selectable.
+            connectionReactor = null;
+            server = new MemoryServer(this, memoryNetwork, memoryIp);
+        } else if (connectionPrefs.UseConnectionReactor.get().booleanValue()) {
+            connectionReactor = new ConnectionReactor(this);
+            dependentLifeCycles.add(connectionReactor);
+            server = new NIOServer(this);
+        } else {
+            connectionReactor = null;
+            server = new OIOServer(this);//new JettyServer();
+        }
 
-        udpService = new UdpService(netPrefs.ListeningPort.get().intValue());
+        if (memoryNetwork != null) {
+            udpService = new UdpService(memoryNetwork, memoryAddress);
+        } else {
+            udpService = new UdpService(netPrefs.ListeningPort.get().intValue());
+        }
     }
 
 
@@ -293,6 +344,16 @@ public class Peer extends AbstractLifeCycle implements PeerInfo {
         return chatService;
     }
 
+    /**
+     * Returns the connection reactor serving Gnutella connections, or null
+     * if the reactor is not used.
+     *
+     * @return the connection reactor or null.
+     */
+    public ConnectionReactor getConnectionReactor() {
+        return connectionReactor;
+    }
+
     public MessageService getMessageService() {
         return messageService;
     }
@@ -37,6 +37,7 @@ import phex.peer.Peer;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
 
 
 public class BrowseHostResults extends Search {
@@ -82,8 +83,15 @@ public class BrowseHostResults extends Search {
                 stopSearching();
             }
         };
-        Environment.getInstance().executeOnThreadPool(runner,
-                "BrowseHostConnection-" + Integer.toHexString(runner.hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(runner,
+                    "BrowseHostConnection-" + Integer.toHexString(runner.hashCode()));
+        } catch (RejectedExecutionException exp) {
+            logger.warn(exp.toString(), exp);
+            browseHostStatus = BrowseHostStatus.CONNECTION_ERROR;
+            stopSearching();
+            return;
+        }
         fireSearchStarted();
     }
 
@@ -202,10 +202,19 @@ public class DynamicQueryEngine implements DynamicQueryConstants {
         return Math.min(horizonProgress, 100);
     }
 
+    /**
+     * Returns the time when the next query process step is taken.
+     *
+     * @return the time in millis of the next query process step.
+     */
+    public long getNextProcessTime() {
+        return nextProcessTime;
+    }
+
     /**
      * Runs the dynamic query process. This method is called
-     * regularly from the DynamicQueryWorker to continue the
-     * query process.
+     * from the DynamicQueryScheduler once the next query process
+     * step is due to continue the query process.
      */
     public void processQuery() {
         long currentTime = System.currentTimeMillis();
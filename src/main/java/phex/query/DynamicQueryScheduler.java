@@ -0,0 +1,260 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.query;
+
+import phex.common.ThreadTracking;
+import phex.common.log.NLogger;
+import phex.host.Host;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * The dynamic query scheduler contains all active dynamic query engines and
+ * runs each engine through its dynamic query process once it is due.
+ * <p>
+ * Engines are kept in a queue ordered by the time of their next query
+ * process step, the scheduler thread sleeps until the first engine is due.
+ * An engine can be woken up before, like when new results are received.
+ * Engines of a host are indexed to remove them without scanning all
+ * engines.
+ */
+public class DynamicQueryScheduler implements Runnable {
+    /**
+     * The min number of outdated entries in the due queue before they are
+     * pruned.
+     */
+    private static final int MIN_OUTDATED_ENTRIES = 16;
+
+    /**
+     * The due queue of the scheduled engines, it can contain outdated entries
+     * that are skipped once they are taken. Once they outnumber the active
+     * engines the outdated entries are pruned.
+     */
+    private final PriorityQueue<ScheduleEntry> dueQueue;
+
+    /**
+     * The active engines with the entry they are currently scheduled with,
+     * or null while the engine is processed.
+     */
+    private final Map<DynamicQueryEngine, ScheduleEntry> engines;
+
+    /**
+     * The active engines by the host the query is coming from.
+     */
+    private final Map<Host, Set<DynamicQueryEngine>> hostEngines;
+
+    /**
+     * The sequence number of the last created entry.
+     */
+    private long entrySequence;
+
+    /**
+     * Creates a new dynamic query scheduler.
+     */
+    public DynamicQueryScheduler() {
+        dueQueue = new PriorityQueue<ScheduleEntry>();
+        engines = new HashMap<DynamicQueryEngine, ScheduleEntry>();
+        hostEngines = new HashMap<Host, Set<DynamicQueryEngine>>();
+    }
+
+    public void addDynamicQueryEngine(DynamicQueryEngine engine) {
+        synchronized (dueQueue) {
+            engines.put(engine, null);
+            Set<DynamicQueryEngine> set = hostEngines.get(engine.getFromHost());
+            if (set == null) {
+                set = new HashSet<DynamicQueryEngine>();
+                hostEngines.put(engine.getFromHost(), set);
+            }
+            set.add(engine);
+            schedule(engine, System.currentTimeMillis());
+        }
+    }
+
+    public void removeDynamicQuerysForHost(Host host) {
+        synchronized (dueQueue) {
+            Set<DynamicQueryEngine> set = hostEngines.remove(host);
+            if (set == null) {
+                return;
+            }
+            for (DynamicQueryEngine engine : set) {
+                // the queued entries of the engine are skipped once taken.
+                engines.remove(engine);
+            }
+        }
+    }
+
+    /**
+     * Wakes up the engine to continue its dynamic query process right
+     * away, like after new results are received. Nothing is queued in case
+     * the engine is already due.
+     *
+     * @param engine the engine to wake up.
+     */
+    public void wakeUp(DynamicQueryEngine engine) {
+        synchronized (dueQueue) {
+            schedule(engine, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Returns the number of entries in the due queue, including outdated
+     * ones.
+     */
+    int getQueuedEntryCount() {
+        synchronized (dueQueue) {
+            return dueQueue.size();
+        }
+    }
+
+    /**
+     * Returns the number of active engines.
+     */
+    public int getDynamicQueryCount() {
+        synchronized (dueQueue) {
+            return engines.size();
+        }
+    }
+
+    public void startScheduler() {
+        Thread thread = new Thread(ThreadTracking.rootThreadGroup, this,
+                "DynamicQueryScheduler-" + Integer.toHexString(hashCode()));
+        thread.setPriority(Thread.NORM_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        while (true) {
+            DynamicQueryEngine engine;
+            try {
+                engine = takeDueEngine();
+            } catch (InterruptedException exp) {// reset interrupted signal of thread...
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                processEngine(engine);
+            } catch (Throwable th) {// make sure thread does not stop due to error...
+                NLogger.error(DynamicQueryScheduler.class, th, th);
+                removeEngine(engine);
+            }
+        }
+    }
+
+    /**
+     * Waits until the first engine is due and returns it.
+     */
+    private DynamicQueryEngine takeDueEngine() throws InterruptedException {
+        synchronized (dueQueue) {
+            while (true) {
+                ScheduleEntry entry = dueQueue.peek();
+                if (entry == null) {
+                    dueQueue.wait();
+                    continue;
+                }
+                if (engines.get(entry.engine) != entry) {
+                    // outdated entry of a rescheduled or removed engine.
+                    dueQueue.poll();
+                    continue;
+                }
+                long delay = entry.dueTime - System.currentTimeMillis();
+                if (delay > 0) {
+                    dueQueue.wait(delay);
+                    continue;
+                }
+                dueQueue.poll();
+                engines.put(entry.engine, null);
+                return entry.engine;
+            }
+        }
+    }
+
+    private void processEngine(DynamicQueryEngine engine) {
+        if (!engine.isQueryFinished()) {
+            engine.processQuery();
+        }
+        if (engine.isQueryFinished()) {
+            removeEngine(engine);
+            return;
+        }
+        synchronized (dueQueue) {
+            schedule(engine, engine.getNextProcessTime());
+        }
+    }
+
+    /**
+     * Schedules an active engine for the given time, unless it is already
+     * scheduled earlier. Must be called while holding the dueQueue lock.
+     */
+    private void schedule(DynamicQueryEngine engine, long dueTime) {
+        if (!engines.containsKey(engine)) {
+            return;
+        }
+        ScheduleEntry current = engines.get(engine);
+        if (current != null && current.dueTime <= dueTime) {
+            return;
+        }
+        ScheduleEntry entry = new ScheduleEntry(engine, dueTime, ++entrySequence);
+        engines.put(engine, entry);
+        if (current != null && dueQueue.size() > 2 * engines.size() + MIN_OUTDATED_ENTRIES) {
+            dueQueue.removeIf(queued -> engines.get(queued.engine) != queued);
+        }
+        dueQueue.add(entry);
+        if (dueQueue.peek() == entry) {
+            dueQueue.notify();
+        }
+    }
+
+    private void removeEngine(DynamicQueryEngine engine) {
+        synchronized (dueQueue) {
+            engines.remove(engine);
+            Host host = engine.getFromHost();
+            Set<DynamicQueryEngine> set = hostEngines.get(host);
+            if (set != null && set.remove(engine) && set.isEmpty()) {
+                hostEngines.remove(host);
+            }
+        }
+    }
+
+    private static class ScheduleEntry implements Comparable<ScheduleEntry> {
+        private final DynamicQueryEngine engine;
+        private final long dueTime;
+        private final long sequence;
+
+        private ScheduleEntry(DynamicQueryEngine engine, long dueTime, long sequence) {
+            this.engine = engine;
+            this.dueTime = dueTime;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(ScheduleEntry entry) {
+            if (dueTime != entry.dueTime) {
+                return dueTime < entry.dueTime ? -1 : 1;
+            }
+            return sequence < entry.sequence ? -1 : (sequence == entry.sequence ? 0 : 1);
+        }
+    }
+}
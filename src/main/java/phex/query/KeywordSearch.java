@@ -24,6 +24,7 @@ package phex.query;
 import phex.common.URN;
 import phex.common.address.DestAddress;
 import phex.download.RemoteFile;
+import phex.msg.GUID;
 import phex.msg.InvalidMessageException;
 import phex.msg.QueryFactory;
 import phex.msg.QueryResponseMsg;
@@ -91,10 +92,12 @@ public class KeywordSearch extends QuerySearch {
     }
 
     public void setSearchString(String aSearchString) {
+        GUID oldQueryGUID = getQueryGUID();
         searchString = aSearchString;
         searchURN = null;
         //queryMsg = queryFactory.createKeywordQuery( aSearchString, searchURN );
         queryMsg = queryFactory.createOOBKeywordQuery(aSearchString, searchURN);
+        fireQueryReplaced(oldQueryGUID);
         fireSearchChanged();
     }
 
@@ -145,7 +148,7 @@ public class KeywordSearch extends QuerySearch {
 
                 if (availableHit != null) {
                     // update availableHit
-                    availableHit.updateQueryHitHost(qhHost);
+                    searchResultHolder.updateQueryHit(availableHit, qhHost);
                     availableHit.setMetaData(metaData);
                 } else {
                     String pathInfo = records[i].getPathInfo();
@@ -165,7 +168,7 @@ public class KeywordSearch extends QuerySearch {
                                 urn, filename, fileSize, fileIndex);
                         if (availableHit != null) {
                             // update availableHit
-                            availableHit.updateQueryHitHost(qhHost);
+                            searchResultHolder.updateQueryHit(availableHit, qhHost);
                             availableHit.setMetaData(metaData);
                         } else {
                             rfile = new RemoteFile(qhh, -1, filename, "",
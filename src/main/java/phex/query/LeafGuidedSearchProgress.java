@@ -23,6 +23,14 @@ package phex.query;
 
 import phex.util.QueryGUIDRoutingPair;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The search progress of a dynamic query an ultrapeer runs for its leaf.
+ * The results routed back to the leaf are counted through
+ * {@link #incReceivedResultsCount(int)}, each count notifies the results
+ * listener to let the dynamic query continue right away.
+ */
 public class LeafGuidedSearchProgress extends DefaultSearchProgress {
     /**
      * The number of results to get if we are starting the dynamic query
@@ -30,22 +38,46 @@ public class LeafGuidedSearchProgress extends DefaultSearchProgress {
      */
     public static final int DESIRED_LEAF_GUIDED_RESULTS = 50;
 
-    private final QueryGUIDRoutingPair routingPair;
+    /**
+     * The results routed back to the leaf. Counted without locking, since
+     * the routing table notifies while holding its lock.
+     */
+    private final AtomicInteger routedResultsCount;
+
+    private volatile Runnable resultsListener;
 
     public LeafGuidedSearchProgress(QueryGUIDRoutingPair routingPair,
                                     boolean isUrnQuery) {
         super(DEFAULT_QUERY_TIMEOUT,
                 isUrnQuery ? DESIRED_HASH_RESULTS : DESIRED_LEAF_GUIDED_RESULTS);
-        this.routingPair = routingPair;
+        routedResultsCount = new AtomicInteger(routingPair != null
+                ? routingPair.getRoutedResultCount() : 0);
     }
 
+    /**
+     * Sets the listener notified after results are received.
+     *
+     * @param listener the listener to notify.
+     */
+    public void setResultsListener(Runnable listener) {
+        resultsListener = listener;
+    }
+
+    /**
+     * Counts the results routed back to the leaf, this is called by
+     * concurrent message dispatching threads.
+     */
     @Override
     public int getReceivedResultsCount() {
-        return routingPair.getRoutedResultCount();
+        return routedResultsCount.get();
     }
 
     @Override
     public void incReceivedResultsCount(int inc) {
-        throw new UnsupportedOperationException();
+        routedResultsCount.addAndGet(inc);
+        Runnable listener = resultsListener;
+        if (listener != null) {
+            listener.run();
+        }
     }
 }
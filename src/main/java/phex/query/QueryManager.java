@@ -42,7 +42,7 @@ public class QueryManager extends AbstractLifeCycle {
     private final MessageService msgService;
     private final SearchContainer searchContainer;
     private final BackgroundSearchContainer backgroundSearchContainer;
-    private final DynamicQueryWorker dynamicQueryWorker;
+    private final DynamicQueryScheduler dynamicQueryScheduler;
     private final QueryFactory queryFactory;
 
     /**
@@ -69,13 +69,13 @@ public class QueryManager extends AbstractLifeCycle {
 
         File filterFile = peer.getGnutellaNetwork().getSearchFilterFile();
         //researchService = new ResearchService( new ResearchServiceConfig() );
-        dynamicQueryWorker = new DynamicQueryWorker();
+        dynamicQueryScheduler = new DynamicQueryScheduler();
 
     }
 
     @Override
     protected void doStart() {
-        dynamicQueryWorker.startQueryWorker();
+        dynamicQueryScheduler.startScheduler();
         Environment.getInstance().scheduleTimerTask(
                 new ExpiredSearchCheckTimer(), ExpiredSearchCheckTimer.TIMER_PERIOD,
                 ExpiredSearchCheckTimer.TIMER_PERIOD);
@@ -112,7 +112,7 @@ public class QueryManager extends AbstractLifeCycle {
      */
     public void removeHostQueries(Host host) {
         if (host.isUltrapeerLeafConnection()) {
-            dynamicQueryWorker.removeDynamicQuerysForHost(host);
+            dynamicQueryScheduler.removeDynamicQuerysForHost(host);
         }
     }
 
@@ -126,10 +126,20 @@ public class QueryManager extends AbstractLifeCycle {
         DynamicQueryEngine engine = new DynamicQueryEngine(query, sourceHost,
                 searchProgress, peer.getHostService().getNetworkHostsContainer(),
                 msgService);
-        dynamicQueryWorker.addDynamicQueryEngine(engine);
+        dynamicQueryScheduler.addDynamicQueryEngine(engine);
         return engine;
     }
 
+    /**
+     * Continues the dynamic query process of the engine right away, like
+     * after new results are received for the query.
+     *
+     * @param engine the engine to wake up.
+     */
+    public void wakeDynamicQuery(DynamicQueryEngine engine) {
+        dynamicQueryScheduler.wakeUp(engine);
+    }
+
     /**
      * Sends a query for this host, usually initiated by the user.
      *
@@ -24,6 +24,7 @@ package phex.query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import phex.common.address.DestAddress;
+import phex.msg.GUID;
 import phex.msg.InvalidMessageException;
 import phex.msg.QueryResponseMsg;
 import phex.msg.vendor.OOBReplyCountVMsg;
@@ -40,10 +41,43 @@ public abstract class QuerySearch extends Search {
     private HashMap<Long, OOBQueryToken> queryTokens;
     private volatile int totalExpectedResults;
 
+    /**
+     * The container indexing this search by its query GUID, null while the
+     * search is not part of a container.
+     */
+    private volatile SearchContainer searchContainer;
+
     public QuerySearch(Peer peer) {
         super(peer);
     }
 
+    /**
+     * Returns the GUID of the query of this search. Responses to the query
+     * carry the same GUID.
+     *
+     * @return the query GUID.
+     */
+    public GUID getQueryGUID() {
+        return queryMsg.getHeader().getMsgID();
+    }
+
+    void setSearchContainer(SearchContainer searchContainer) {
+        this.searchContainer = searchContainer;
+    }
+
+    /**
+     * Needs to be called after the query of this search was replaced, to
+     * dispatch responses to the new query GUID to this search.
+     *
+     * @param oldQueryGUID the GUID of the replaced query.
+     */
+    protected void fireQueryReplaced(GUID oldQueryGUID) {
+        SearchContainer container = searchContainer;
+        if (container != null) {
+            container.reindexSearch(this, oldQueryGUID);
+        }
+    }
+
     /**
      * Tries a very basic calculation about the search progress.
      *
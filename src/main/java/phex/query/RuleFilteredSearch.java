@@ -22,7 +22,9 @@
 package phex.query;
 
 import phex.download.RemoteFile;
+import phex.rules.CompiledRules;
 import phex.rules.Rule;
+import phex.rules.RuleCompiler;
 import phex.peer.Peer;
 
 import java.util.ArrayList;
@@ -46,7 +48,7 @@ public class RuleFilteredSearch {
      */
     private final SearchResultHolder hiddenSearchResults;
 
-    private final Rule[] searchFilterRules;
+    private final CompiledRules searchFilterRules;
 
     private DefaultSearchProgress searchProgress;
 
@@ -61,7 +63,7 @@ public class RuleFilteredSearch {
         displayedSearchResults = new SearchResultHolder();
         hiddenSearchResults = new SearchResultHolder();
         this.search = search;
-        this.searchFilterRules = ruleFilters;
+        this.searchFilterRules = RuleCompiler.compile(ruleFilters);
 
     }
 
@@ -100,9 +102,7 @@ public class RuleFilteredSearch {
     }
 
     private void processRules(RemoteFile[] remoteFiles) {
-        for (int i = 0; i < searchFilterRules.length; i++) {
-            searchFilterRules[i].process(search, remoteFiles, peer);
-        }
+        searchFilterRules.process(search, remoteFiles, peer);
 
         ArrayList<RemoteFile> newHitList = new ArrayList<RemoteFile>(remoteFiles.length);
         for (int j = 0; j < remoteFiles.length; j++) {
@@ -128,6 +128,14 @@ public abstract class Search {
         return true;
     }
 
+    public int getQueryHitCount() {
+        return searchResultHolder.getQueryHitCount();
+    }
+
+    public RemoteFile getQueryHit(int index) {
+        return searchResultHolder.getQueryHit(index);
+    }
+
     public abstract void processResponse(QueryResponseMsg msg)
             throws InvalidMessageException;
 
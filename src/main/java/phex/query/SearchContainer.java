@@ -32,8 +32,9 @@ import phex.peer.OnlineStatus;
 import phex.peer.Peer;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SearchContainer implements MessageSubscriber<QueryResponseMsg>,
         UdpMessageSubscriber<Message> {
@@ -42,14 +43,17 @@ public class SearchContainer implements MessageSubscriber<QueryResponseMsg>,
 
     // to let the background search container share.
     protected final List<Search> searchList;
-    protected final HashMap<GUID, Search> idSearchMap;
+    /**
+     * Maps the query GUID of each QuerySearch in the search list to the
+     * search. Used to dispatch responses without asking every search.
+     */
+    protected final Map<GUID, QuerySearch> idSearchMap;
 
     public SearchContainer(QueryFactory queryFactory, Peer peer) {
         this.peer = peer;
         this.queryFactory = queryFactory;
         searchList = new ArrayList<Search>();
-        idSearchMap = new HashMap<GUID, Search>();
-
+        idSearchMap = new ConcurrentHashMap<GUID, QuerySearch>();
     }
 
     /**
@@ -85,6 +89,11 @@ public class SearchContainer implements MessageSubscriber<QueryResponseMsg>,
      */
     protected synchronized void insertToSearchList(Search search, int position) {
         searchList.add(position, search);
+        if (search instanceof QuerySearch) {
+            QuerySearch querySearch = (QuerySearch) search;
+            idSearchMap.put(querySearch.getQueryGUID(), querySearch);
+            querySearch.setSearchContainer(this);
+        }
         fireSearchAdded(search, position);
     }
 
@@ -96,9 +105,25 @@ public class SearchContainer implements MessageSubscriber<QueryResponseMsg>,
         Search search = getSearchAt(index);
         search.stopSearching();
         searchList.remove(index);
+        if (search instanceof QuerySearch) {
+            QuerySearch querySearch = (QuerySearch) search;
+            idSearchMap.remove(querySearch.getQueryGUID(), querySearch);
+            querySearch.setSearchContainer(null);
+        }
         fireSearchRemoved(search, index);
     }
 
+    /**
+     * Moves the search from the GUID of its replaced query to the GUID of
+     * its current query.
+     */
+    synchronized void reindexSearch(QuerySearch search, GUID oldQueryGUID) {
+        // only if the search was not removed in the meantime.
+        if (idSearchMap.remove(oldQueryGUID, search)) {
+            idSearchMap.put(search.getQueryGUID(), search);
+        }
+    }
+
     /**
      * Returns the first found existing Search with the specified search string
      * if it is still searching. If there is no running search with the given
@@ -203,32 +228,37 @@ public class SearchContainer implements MessageSubscriber<QueryResponseMsg>,
      */
     public void onMessage(QueryResponseMsg message, Host sourceHost)
             throws InvalidMessageException {
-        for (int i = 0; i < searchList.size(); i++) {
-            Search search = searchList.get(i);
-            if (search instanceof BrowseHostResults) {
-                continue;
-            }
+        QuerySearch search = findQuerySearch(message);
+        if (search != null) {
             search.processResponse(message);
         }
     }
 
     public void onUdpMessage(Message message, DestAddress sourceAddress)
             throws InvalidMessageException {
+        QuerySearch search = findQuerySearch(message);
+        if (search == null) {
+            return;
+        }
         if (message instanceof OOBReplyCountVMsg) {
-            for (int i = 0; i < searchList.size(); i++) {
-                Search search = searchList.get(i);
-                if (search instanceof QuerySearch) {
-                    ((QuerySearch) search).processOOBReplyCountResponse((OOBReplyCountVMsg) message, sourceAddress);
-                }
-            }
+            search.processOOBReplyCountResponse((OOBReplyCountVMsg) message, sourceAddress);
         } else if (message instanceof QueryResponseMsg) {
-            for (int i = 0; i < searchList.size(); i++) {
-                Search search = searchList.get(i);
-                if (search instanceof QuerySearch) {
-                    ((QuerySearch) search).processOOBResponse((QueryResponseMsg) message, sourceAddress);
-                }
-            }
+            search.processOOBResponse((QueryResponseMsg) message, sourceAddress);
+        }
+    }
+
+    /**
+     * Returns the search the message is a response to or null if it does not
+     * belong to a search of this container.
+     */
+    private QuerySearch findQuerySearch(Message message) {
+        GUID queryGUID = message.getHeader().getMsgID();
+        QuerySearch search = idSearchMap.get(queryGUID);
+        // the query of a search might have been replaced after indexing.
+        if (search != null && !queryGUID.equals(search.getQueryGUID())) {
+            return null;
         }
+        return search;
     }
 
     ///////////////////// START event handling methods ////////////////////////
@@ -27,8 +27,11 @@ import phex.common.address.DestAddress;
 import phex.download.RemoteFile;
 import phex.msg.GUID;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Holds search results of a Search.
@@ -36,34 +39,99 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public class SearchResultHolder {
     /**
      * The list of query hits returned by the query. Contains the RemoteFile
-     * objects.
+     * objects. Hits are only appended, access is locked by the rwLock.
      */
     private final List<RemoteFile> queryHitList;
+    /**
+     * Index of the query hits by host GUID and host address combined with the
+     * URN or the file name, size and index. Used to find duplicate hits
+     * without scanning the query hit list. Access is locked by the rwLock.
+     */
+    private final Map<HitKey, RemoteFile> queryHitIndex;
+    private final ReentrantReadWriteLock rwLock;
 
     protected SearchResultHolder() {
-        queryHitList = new CopyOnWriteArrayList<>();
+        queryHitList = new ArrayList<RemoteFile>();
+        queryHitIndex = new HashMap<HitKey, RemoteFile>();
+        rwLock = new ReentrantReadWriteLock();
     }
 
     public void addQueryHit(RemoteFile remoteFile) {
-        queryHitList.add(remoteFile);
+        rwLock.writeLock().lock();
+        try {
+            queryHitList.add(remoteFile);
+            GUID hostGUID = remoteFile.getRemoteClientID();
+            if (hostGUID != null) {
+                indexQueryHit(hostGUID, remoteFile);
+            }
+            indexQueryHit(remoteFile.getHostAddress(), remoteFile);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Updates a query hit found with findQueryHit() with the information of
+     * the given query hit host.
+     *
+     * @param remoteFile the query hit to update.
+     * @param qhh        the query hit host that returned the hit again.
+     */
+    public void updateQueryHit(RemoteFile remoteFile, QueryHitHost qhh) {
+        rwLock.writeLock().lock();
+        try {
+            boolean hadHostGUID = remoteFile.getRemoteClientID() != null;
+            remoteFile.updateQueryHitHost(qhh);
+            GUID hostGUID = remoteFile.getRemoteClientID();
+            if (!hadHostGUID && hostGUID != null) {
+                indexQueryHit(hostGUID, remoteFile);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private void indexQueryHit(Object hostKey, RemoteFile remoteFile) {
+        URN urn = remoteFile.getURN();
+        if (urn != null) {
+            putIfAbsent(new HitKey(hostKey, urn), remoteFile);
+        }
+        putIfAbsent(new HitKey(hostKey, remoteFile.getFilename(),
+                remoteFile.getFileSize(), remoteFile.getFileIndex()), remoteFile);
+    }
+
+    private void putIfAbsent(HitKey key, RemoteFile remoteFile) {
+        // keep the first hit, like a scan over the query hit list would.
+        if (!queryHitIndex.containsKey(key)) {
+            queryHitIndex.put(key, remoteFile);
+        }
     }
 
     /**
      * Returns the query hit count.
      */
     public int getQueryHitCount() {
-        return queryHitList.size();
+        rwLock.readLock().lock();
+        try {
+            return queryHitList.size();
+        } finally {
+            rwLock.readLock().unlock();
+        }
     }
 
     /**
      * Returns the query hit at the given index.
      */
     public RemoteFile getQueryHit(int index) {
-        if (index < 0 || index >= queryHitList.size()) {
-            return null;
+        rwLock.readLock().lock();
+        try {
+            if (index < 0 || index >= queryHitList.size()) {
+                return null;
+            }
+            return queryHitList.get(index);
+        } finally {
+            rwLock.readLock().unlock();
         }
-        return queryHitList.get(index);
-
     }
 
     /**
@@ -71,8 +139,13 @@ public class SearchResultHolder {
      */
     public RemoteFile[] getQueryHits(int[] indices) {
         RemoteFile[] results = new RemoteFile[indices.length];
-        for (int i = 0; i < indices.length; i++) {
-            results[i] = queryHitList.get(indices[i]);
+        rwLock.readLock().lock();
+        try {
+            for (int i = 0; i < indices.length; i++) {
+                results[i] = queryHitList.get(indices[i]);
+            }
+        } finally {
+            rwLock.readLock().unlock();
         }
         return results;
     }
@@ -92,48 +165,102 @@ public class SearchResultHolder {
      */
     public RemoteFile findQueryHit(QueryHitHost qhh, URN urn,
                                    String fileName, long fileSize, int fileIndex) {
-        GUID fileHostGUID;
         GUID hostGUID = qhh.getHostGUID();
         DestAddress hostAddress = qhh.getHostAddress();
 
-        int size = queryHitList.size();
-        for (int i = 0; i < size; i++) {
-            RemoteFile file = queryHitList.get(i);
-
-            fileHostGUID = file.getRemoteClientID();
-
-            boolean foundMatch = false;
+        rwLock.readLock().lock();
+        try {
+            RemoteFile file = null;
             // first try by comparing GUIDs if possible
-            if (fileHostGUID != null && hostGUID != null) {
-                if (fileHostGUID.equals(hostGUID)) {
-                    foundMatch = true;
-                }
+            if (hostGUID != null) {
+                file = findQueryHit(hostGUID, urn, fileName, fileSize, fileIndex);
             }
-
-            if (!foundMatch) {// now try by comparing IP:port
-                DestAddress fileHostAddress = file.getHostAddress();
-                if (fileHostAddress.equals(hostAddress)) {
-                    foundMatch = true;
-                }
+            if (file == null) {// now try by comparing IP:port
+                file = findQueryHit(hostAddress, urn, fileName, fileSize, fileIndex);
             }
+            return file;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
 
-            if (!foundMatch) {
-                continue;
+    private RemoteFile findQueryHit(Object hostKey, URN urn,
+                                    String fileName, long fileSize, int fileIndex) {
+        if (urn != null) {
+            RemoteFile file = queryHitIndex.get(new HitKey(hostKey, urn));
+            if (file != null) {
+                return file;
             }
+        }
+        RemoteFile file = queryHitIndex.get(
+                new HitKey(hostKey, fileName, fileSize, fileIndex));
+        // hits that have a URN only match by URN if a URN is provided.
+        if (file != null && urn != null && file.getURN() != null) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * The key of a query hit in the index. It combines the host GUID or host
+     * address with either the URN or the file name, size and index.
+     */
+    private static final class HitKey {
+        private final Object hostKey;
+        private final URN urn;
+        private final String fileName;
+        private final long fileSize;
+        private final int fileIndex;
+        private final int hashCode;
 
-            if (urn != null && file.getURN() != null) {
-                if (urn.equals(file.getURN())) {
-                    return file;
-                }
+        private HitKey(Object hostKey, URN urn) {
+            this(hostKey, urn, null, -1, -1);
+        }
+
+        private HitKey(Object hostKey, String fileName, long fileSize, int fileIndex) {
+            this(hostKey, null, fileName, fileSize, fileIndex);
+        }
+
+        private HitKey(Object hostKey, URN urn, String fileName, long fileSize,
+                       int fileIndex) {
+            this.hostKey = hostKey;
+            this.urn = urn;
+            this.fileName = fileName;
+            this.fileSize = fileSize;
+            this.fileIndex = fileIndex;
+            int h = hostKey.hashCode();
+            if (urn != null) {
+                h = 31 * h + urn.hashCode();
             } else {
-                if (fileIndex == file.getFileIndex()
-                        && fileSize == file.getFileSize()
-                        && fileName.equals(file.getFilename())) {
-                    return file;
-                }
+                h = 31 * h + fileName.hashCode();
+                h = 31 * h + (int) (fileSize ^ (fileSize >>> 32));
+                h = 31 * h + fileIndex;
             }
+            hashCode = h;
         }
 
-        return null;
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof HitKey)) {
+                return false;
+            }
+            HitKey key = (HitKey) obj;
+            if (hashCode != key.hashCode || !hostKey.equals(key.hostKey)) {
+                return false;
+            }
+            if (urn != null || key.urn != null) {
+                return urn != null && urn.equals(key.urn);
+            }
+            return fileIndex == key.fileIndex && fileSize == key.fileSize
+                    && fileName.equals(key.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
     }
-}
\ No newline at end of file
+}
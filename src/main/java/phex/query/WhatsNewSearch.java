@@ -72,7 +72,7 @@ public class WhatsNewSearch extends QuerySearch {
 
                 if (availableHit != null) {
                     // update availableHit
-                    availableHit.updateQueryHitHost(qhHost);
+                    searchResultHolder.updateQueryHit(availableHit, qhHost);
                     availableHit.setMetaData(metaData);
                 } else {
                     String pathInfo = records[i].getPathInfo();
@@ -92,7 +92,7 @@ public class WhatsNewSearch extends QuerySearch {
                                 urn, filename, fileSize, fileIndex);
                         if (availableHit != null) {
                             // update availableHit
-                            availableHit.updateQueryHitHost(qhHost);
+                            searchResultHolder.updateQueryHit(availableHit, qhHost);
                             availableHit.setMetaData(metaData);
                         } else {
                             rfile = new RemoteFile(qhh, -1, filename, "",
@@ -0,0 +1,83 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.rules;
+
+import phex.download.RemoteFile;
+import phex.peer.Peer;
+import phex.query.Search;
+import phex.rules.PlanNode.EvaluationContext;
+import phex.rules.consequence.Consequence;
+import phex.util.AhoCorasickMatcher;
+
+/**
+ * The immutable evaluation plan of a list of rules, created by the
+ * {@link RuleCompiler}. Each file is evaluated against all rules in one
+ * pass: the filename is scanned once for the terms of all filename
+ * conditions and no locks are taken. Changes to the rules after
+ * compilation are not reflected.
+ */
+public final class CompiledRules {
+    private final PlanNode[] conditions;
+    private final Consequence[][] consequences;
+    private final AhoCorasickMatcher filenameMatcher;
+    private final int filenameConditionCount;
+
+    CompiledRules(PlanNode[] conditions, Consequence[][] consequences,
+                  AhoCorasickMatcher filenameMatcher, int filenameConditionCount) {
+        this.conditions = conditions;
+        this.consequences = consequences;
+        this.filenameMatcher = filenameMatcher;
+        this.filenameConditionCount = filenameConditionCount;
+    }
+
+    public int getRuleCount() {
+        return conditions.length;
+    }
+
+    /**
+     * Invokes the consequences of all matching rules for each file, in the
+     * order of the rules. Like {@link Rule#process(Search, RemoteFile[], Peer)}
+     * a file marked as removed is not processed any further.
+     */
+    public void process(Search search, RemoteFile[] remoteFiles, Peer peer) {
+        EvaluationContext context = new EvaluationContext(this,
+                filenameConditionCount);
+        for (RemoteFile remoteFile : remoteFiles) {
+            context.reset(search, remoteFile);
+            for (int i = 0; i < conditions.length; i++) {
+                if (remoteFile.isFilteredRemoved()) {
+                    break;
+                }
+                if (!conditions[i].evaluate(context)) {
+                    continue;
+                }
+                for (Consequence conseq : consequences[i]) {
+                    conseq.invoke(search, remoteFile, peer);
+                }
+            }
+        }
+    }
+
+    void scanFilename(String filename, boolean[] matches) {
+        filenameMatcher.match(filename, matches);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.rules;
+
+import phex.common.MediaType;
+import phex.common.URN;
+import phex.download.RemoteFile;
+import phex.query.Search;
+import phex.rules.condition.Condition;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A node of the evaluation plan of compiled rules. Nodes are immutable,
+ * the state of the evaluated file is kept in a {@link EvaluationContext}.
+ */
+abstract class PlanNode {
+    /**
+     * The relative cost of evaluating a node. The children of AND and OR
+     * nodes are evaluated cheapest first.
+     */
+    static final int COST_LOOKUP = 1;
+    static final int COST_SCAN = 2;
+    static final int COST_EXPENSIVE = 8;
+
+    abstract boolean evaluate(EvaluationContext context);
+
+    abstract int getCost();
+
+    static final class Constant extends PlanNode {
+        static final Constant TRUE = new Constant(true);
+        static final Constant FALSE = new Constant(false);
+
+        private final boolean value;
+
+        private Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            return value;
+        }
+
+        @Override
+        int getCost() {
+            return 0;
+        }
+    }
+
+    /**
+     * Matches if the filename contains a term of a filename condition. All
+     * terms of all rules are found in a single scan of the filename.
+     */
+    static final class FilenameTerms extends PlanNode {
+        private final int conditionIndex;
+
+        FilenameTerms(int conditionIndex) {
+            this.conditionIndex = conditionIndex;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            return context.isFilenameConditionMatched(conditionIndex);
+        }
+
+        @Override
+        int getCost() {
+            return COST_SCAN;
+        }
+    }
+
+    static final class FilenamePattern extends PlanNode {
+        private final Pattern pattern;
+
+        FilenamePattern(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            return pattern.matcher(context.getFilename()).matches();
+        }
+
+        @Override
+        int getCost() {
+            return COST_EXPENSIVE;
+        }
+    }
+
+    /**
+     * Matches if the file size is inside one of a set of sorted, disjoint
+     * intervals.
+     */
+    static final class SizeIntervals extends PlanNode {
+        private final long[] mins;
+        private final long[] maxs;
+
+        SizeIntervals(long[] mins, long[] maxs) {
+            this.mins = mins;
+            this.maxs = maxs;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            long fileSize = context.getFileSize();
+            int index = Arrays.binarySearch(mins, fileSize);
+            if (index < 0) {
+                // the interval starting before the size.
+                index = -index - 2;
+            }
+            return index >= 0 && fileSize <= maxs[index];
+        }
+
+        @Override
+        int getCost() {
+            return COST_LOOKUP;
+        }
+    }
+
+    static final class UrnSet extends PlanNode {
+        private final Set<URN> urns;
+
+        UrnSet(Set<URN> urns) {
+            this.urns = urns;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            URN urn = context.getUrn();
+            return urn != null && urns.contains(urn);
+        }
+
+        @Override
+        int getCost() {
+            return COST_LOOKUP;
+        }
+    }
+
+    static final class MediaTypes extends PlanNode {
+        private final MediaType[] types;
+
+        MediaTypes(MediaType[] types) {
+            this.types = types;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            String filename = context.getFilename();
+            for (MediaType type : types) {
+                if (type.isFilenameOf(filename)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        int getCost() {
+            return COST_SCAN;
+        }
+    }
+
+    static final class Not extends PlanNode {
+        private final PlanNode node;
+
+        Not(PlanNode node) {
+            this.node = node;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            return !node.evaluate(context);
+        }
+
+        @Override
+        int getCost() {
+            return node.getCost();
+        }
+    }
+
+    static final class And extends PlanNode {
+        private final PlanNode[] nodes;
+        private final int cost;
+
+        And(PlanNode[] nodes) {
+            this.nodes = nodes;
+            cost = sumCost(nodes);
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            for (PlanNode node : nodes) {
+                if (!node.evaluate(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        int getCost() {
+            return cost;
+        }
+    }
+
+    static final class Or extends PlanNode {
+        private final PlanNode[] nodes;
+        private final int cost;
+
+        Or(PlanNode[] nodes) {
+            this.nodes = nodes;
+            cost = sumCost(nodes);
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            for (PlanNode node : nodes) {
+                if (node.evaluate(context)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        int getCost() {
+            return cost;
+        }
+    }
+
+    /**
+     * Evaluates a condition type the compiler does not know. The condition
+     * is evaluated directly and is not copied.
+     */
+    static final class ConditionCall extends PlanNode {
+        private final Condition condition;
+
+        ConditionCall(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        boolean evaluate(EvaluationContext context) {
+            return condition.isMatched(context.getSearch(), context.getRemoteFile());
+        }
+
+        @Override
+        int getCost() {
+            return COST_EXPENSIVE;
+        }
+    }
+
+    private static int sumCost(PlanNode[] nodes) {
+        int cost = 0;
+        for (PlanNode node : nodes) {
+            cost += node.getCost();
+        }
+        return cost;
+    }
+
+    /**
+     * The state of the file a plan is evaluated for. A context is used by a
+     * single thread and reused for all files it evaluates.
+     */
+    static final class EvaluationContext {
+        private final CompiledRules rules;
+        private final boolean[] filenameConditionMatches;
+        private Search search;
+        private RemoteFile remoteFile;
+        private String filename;
+        private long fileSize;
+        private URN urn;
+        private boolean isFilenameScanned;
+
+        EvaluationContext(CompiledRules rules, int filenameConditionCount) {
+            this.rules = rules;
+            filenameConditionMatches = new boolean[filenameConditionCount];
+        }
+
+        void reset(Search search, RemoteFile remoteFile) {
+            this.search = search;
+            this.remoteFile = remoteFile;
+            filename = remoteFile.getFilename();
+            fileSize = remoteFile.getFileSize();
+            urn = remoteFile.getURN();
+            isFilenameScanned = false;
+        }
+
+        boolean isFilenameConditionMatched(int conditionIndex) {
+            if (!isFilenameScanned) {
+                Arrays.fill(filenameConditionMatches, false);
+                rules.scanFilename(filename, filenameConditionMatches);
+                isFilenameScanned = true;
+            }
+            return filenameConditionMatches[conditionIndex];
+        }
+
+        Search getSearch() {
+            return search;
+        }
+
+        RemoteFile getRemoteFile() {
+            return remoteFile;
+        }
+
+        String getFilename() {
+            return filename;
+        }
+
+        long getFileSize() {
+            return fileSize;
+        }
+
+        URN getUrn() {
+            return urn;
+        }
+    }
+}
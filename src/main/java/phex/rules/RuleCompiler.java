@@ -0,0 +1,226 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.rules;
+
+import phex.common.MediaType;
+import phex.common.URN;
+import phex.rules.condition.AndConcatCondition;
+import phex.rules.condition.Condition;
+import phex.rules.condition.FileSizeCondition;
+import phex.rules.condition.FileUrnCondition;
+import phex.rules.condition.FilenameCondition;
+import phex.rules.condition.MediaTypeCondition;
+import phex.rules.condition.NotCondition;
+import phex.rules.condition.OrConcatCondition;
+import phex.rules.condition.RegexpFilenameCondition;
+import phex.rules.consequence.Consequence;
+import phex.util.AhoCorasickMatcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles rules into an immutable {@link CompiledRules} evaluation plan.
+ * <p>
+ * The terms of all filename conditions are combined into one Aho-Corasick
+ * automaton, URN conditions become hash set lookups and size conditions
+ * binary searches in sorted, merged intervals. The state of the conditions
+ * is copied, the plan does not change when the rules are edited later.
+ */
+public final class RuleCompiler {
+    private final AhoCorasickMatcher.Builder filenameMatcherBuilder;
+    private int filenameConditionCount;
+
+    private RuleCompiler() {
+        filenameMatcherBuilder = new AhoCorasickMatcher.Builder(true);
+    }
+
+    public static CompiledRules compile(Rule... rules) {
+        RuleCompiler compiler = new RuleCompiler();
+        PlanNode[] conditions = new PlanNode[rules.length];
+        Consequence[][] consequences = new Consequence[rules.length][];
+        for (int i = 0; i < rules.length; i++) {
+            conditions[i] = compiler.compileAnd(new ArrayList<Condition>(
+                    rules[i].getConditions()));
+            consequences[i] = rules[i].getConsequences().toArray(
+                    new Consequence[0]);
+        }
+        return new CompiledRules(conditions, consequences,
+                compiler.filenameMatcherBuilder.build(),
+                compiler.filenameConditionCount);
+    }
+
+    private PlanNode compile(Condition condition) {
+        if (condition instanceof AndConcatCondition) {
+            List<Condition> list;
+            synchronized (condition) {
+                list = new ArrayList<Condition>(
+                        ((AndConcatCondition) condition).getConditions());
+            }
+            return compileAnd(list);
+        } else if (condition instanceof OrConcatCondition) {
+            List<Condition> list;
+            synchronized (condition) {
+                list = new ArrayList<Condition>(
+                        ((OrConcatCondition) condition).getConditions());
+            }
+            return compileOr(list);
+        } else if (condition instanceof NotCondition) {
+            PlanNode node = compile(((NotCondition) condition).getContainedCondition());
+            if (node == PlanNode.Constant.TRUE) {
+                return PlanNode.Constant.FALSE;
+            } else if (node == PlanNode.Constant.FALSE) {
+                return PlanNode.Constant.TRUE;
+            }
+            return new PlanNode.Not(node);
+        } else if (condition instanceof FilenameCondition) {
+            return compileFilename((FilenameCondition) condition);
+        } else if (condition instanceof RegexpFilenameCondition) {
+            return new PlanNode.FilenamePattern(
+                    ((RegexpFilenameCondition) condition).getPattern());
+        } else if (condition instanceof FileSizeCondition) {
+            return compileSize((FileSizeCondition) condition);
+        } else if (condition instanceof FileUrnCondition) {
+            Set<URN> urns;
+            synchronized (condition) {
+                urns = new HashSet<URN>(((FileUrnCondition) condition).getUrnSet());
+            }
+            return urns.isEmpty() ? PlanNode.Constant.FALSE : new PlanNode.UrnSet(urns);
+        } else if (condition instanceof MediaTypeCondition) {
+            MediaType[] types;
+            synchronized (condition) {
+                types = ((MediaTypeCondition) condition).getTypes().toArray(
+                        new MediaType[0]);
+            }
+            return types.length == 0 ? PlanNode.Constant.FALSE
+                    : new PlanNode.MediaTypes(types);
+        }
+        return new PlanNode.ConditionCall(condition);
+    }
+
+    private PlanNode compileAnd(List<Condition> conditionList) {
+        List<PlanNode> nodes = new ArrayList<PlanNode>();
+        for (Condition condition : conditionList) {
+            PlanNode node = compile(condition);
+            if (node == PlanNode.Constant.FALSE) {
+                return node;
+            } else if (node != PlanNode.Constant.TRUE) {
+                nodes.add(node);
+            }
+        }
+        if (nodes.isEmpty()) {
+            return PlanNode.Constant.TRUE;
+        } else if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+        return new PlanNode.And(sortByCost(nodes));
+    }
+
+    private PlanNode compileOr(List<Condition> conditionList) {
+        // an empty OR condition matches like an empty AND condition.
+        if (conditionList.isEmpty()) {
+            return PlanNode.Constant.TRUE;
+        }
+        List<PlanNode> nodes = new ArrayList<PlanNode>();
+        for (Condition condition : conditionList) {
+            PlanNode node = compile(condition);
+            if (node == PlanNode.Constant.TRUE) {
+                return node;
+            } else if (node != PlanNode.Constant.FALSE) {
+                nodes.add(node);
+            }
+        }
+        if (nodes.isEmpty()) {
+            return PlanNode.Constant.FALSE;
+        } else if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+        return new PlanNode.Or(sortByCost(nodes));
+    }
+
+    private PlanNode compileFilename(FilenameCondition condition) {
+        List<String> terms;
+        synchronized (condition) {
+            terms = new ArrayList<String>(condition.getTermsList());
+        }
+        if (terms.isEmpty()) {
+            return PlanNode.Constant.FALSE;
+        }
+        for (String term : terms) {
+            // every filename contains the empty term.
+            if (term.length() == 0) {
+                return PlanNode.Constant.TRUE;
+            }
+        }
+        int conditionIndex = filenameConditionCount++;
+        for (String term : terms) {
+            filenameMatcherBuilder.addPattern(term, conditionIndex);
+        }
+        return new PlanNode.FilenameTerms(conditionIndex);
+    }
+
+    private static PlanNode compileSize(FileSizeCondition condition) {
+        List<FileSizeCondition.Range> ranges;
+        synchronized (condition) {
+            ranges = new ArrayList<FileSizeCondition.Range>(condition.getRangesList());
+        }
+        // negative bounds are open.
+        List<long[]> intervals = new ArrayList<long[]>();
+        for (FileSizeCondition.Range range : ranges) {
+            long min = range.min < 0 ? Long.MIN_VALUE : range.min;
+            long max = range.max < 0 ? Long.MAX_VALUE : range.max;
+            if (min <= max) {
+                intervals.add(new long[]{min, max});
+            }
+        }
+        if (intervals.isEmpty()) {
+            return PlanNode.Constant.FALSE;
+        }
+        intervals.sort(Comparator.comparingLong(interval -> interval[0]));
+
+        long[] mins = new long[intervals.size()];
+        long[] maxs = new long[intervals.size()];
+        int count = 0;
+        for (long[] interval : intervals) {
+            if (count > 0 && interval[0] <= maxs[count - 1]) {
+                maxs[count - 1] = Math.max(maxs[count - 1], interval[1]);
+            } else {
+                mins[count] = interval[0];
+                maxs[count] = interval[1];
+                count++;
+            }
+        }
+        return new PlanNode.SizeIntervals(Arrays.copyOf(mins, count),
+                Arrays.copyOf(maxs, count));
+    }
+
+    private static PlanNode[] sortByCost(List<PlanNode> nodes) {
+        PlanNode[] array = nodes.toArray(new PlanNode[nodes.size()]);
+        // stable, equally expensive nodes keep their order.
+        Arrays.sort(array, Comparator.comparingInt(PlanNode::getCost));
+        return array;
+    }
+}
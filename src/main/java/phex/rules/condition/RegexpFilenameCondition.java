@@ -58,6 +58,10 @@ public class RegexpFilenameCondition implements Condition {
         filterPattern = Pattern.compile(expression, flags);
     }
 
+    public Pattern getPattern() {
+        return filterPattern;
+    }
+
     public boolean isMatched(Search search, RemoteFile remoteFile) {
         String filename = remoteFile.getFilename();
         Matcher m = filterPattern.matcher(filename);
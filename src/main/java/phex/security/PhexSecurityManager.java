@@ -25,17 +25,20 @@ import phex.common.*;
 import phex.common.address.AddressUtils;
 import phex.common.address.DestAddress;
 import phex.common.address.IpAddress;
+import phex.common.address.IpRangeTable;
 import phex.common.log.NLogger;
 import phex.SecurityPrefs;
 import phex.share.SharedResource;
 import phex.util.StringUtils;
-import phex.xml.sax.security.DIpAccessRule;
-import phex.xml.sax.security.DSecurityRule;
 
 import java.io.*;
+import java.net.URL;
 import java.util.*;
 
 public class PhexSecurityManager extends AbstractLifeCycle {
+    private static final String HOSTILE_HOSTS_RESOURCE =
+            "phex/resources/hostiles/gtkg-hostiles.txt";
+
     private static final String[] SHA1_FILES =
             {
                     "BearShare and LimeWire Pro scams and worms.SHA1",
@@ -65,24 +68,40 @@ public class PhexSecurityManager extends AbstractLifeCycle {
     private final ArrayList<IpSecurityRule> ipAccessRuleList;
 
     /**
-     * Ip list containing Phex default system rules.
+     * The cache file of the packed hostile host table, or null if not cached.
+     */
+    private final File hostileHostCacheFile;
+
+    /**
+     * The packed table of the Phex default hostile hosts, or null if they
+     * are not loaded.
      */
-    private final IpSystemRuleList ipSystemRuleList;
+    private volatile IpRangeTable hostileHostTable;
 
     /**
-     * Ip list containing user rules. We mainly need an additional list for users
-     * to distinguish between different AccessTypes.
+     * The packed table of the user rules. We mainly need an additional table
+     * for users to distinguish between different AccessTypes. It is rebuilt
+     * whenever the user rules change.
      */
-    private final IpSystemRuleList ipUserRuleList;
+    private volatile UserRuleTable userRuleTable;
 
     private final Set<String> blockedUrnSet;
 
     private final HashMap<SharedResource, IpPortSystemRuleList> eligibleIpListMap;
 
     public PhexSecurityManager() {
+        this(null);
+    }
+
+    /**
+     * @param hostileHostCacheFile the cache file of the hostile host table,
+     *                             or null to always parse the hostile hosts file.
+     */
+    public PhexSecurityManager(File hostileHostCacheFile) {
+        this.hostileHostCacheFile = hostileHostCacheFile;
         ipAccessRuleList = new ArrayList<IpSecurityRule>();
-        ipSystemRuleList = new IpSystemRuleList();
-        ipUserRuleList = new IpSystemRuleList();
+        userRuleTable = new UserRuleTable(new IpRangeTable.Builder().build(),
+                new IpSecurityRule[0]);
         blockedUrnSet = new HashSet<String>();
         eligibleIpListMap = new HashMap<SharedResource, IpPortSystemRuleList>();
     }
@@ -107,6 +126,14 @@ public class PhexSecurityManager extends AbstractLifeCycle {
         }
     }
 
+    /**
+     * @return true if the access to any shared resource is restricted to
+     * eligible IP addresses.
+     */
+    public boolean hasEligibleIpRules() {
+        return !eligibleIpListMap.isEmpty();
+    }
+
     public boolean isEligibleIpAddress(byte[] hostIP, Object key) {
         IpPortSystemRuleList rulesList = null;
         IpCidrPair checkPair = null;
@@ -231,7 +258,7 @@ public class PhexSecurityManager extends AbstractLifeCycle {
             position = ipAccessRuleList.size();
             ipAccessRuleList.add(rule);
         }
-        ipUserRuleList.add(rule);
+        updateUserRuleTable();
         fireSecurityRuleAdded(rule, position);
         return rule;
     }
@@ -250,7 +277,7 @@ public class PhexSecurityManager extends AbstractLifeCycle {
             position = ipAccessRuleList.size();
             ipAccessRuleList.add(rule);
         }
-        ipUserRuleList.add(rule);
+        updateUserRuleTable();
         fireSecurityRuleAdded(rule, position);
         return rule;
     }
@@ -264,7 +291,7 @@ public class PhexSecurityManager extends AbstractLifeCycle {
             }
         }
         if (idx != -1) {
-            ipUserRuleList.remove((IpSecurityRule) rule);
+            updateUserRuleTable();
             fireSecurityRuleRemoved(rule, idx);
         }
     }
@@ -279,80 +306,77 @@ public class PhexSecurityManager extends AbstractLifeCycle {
     }
 
     public AccessType controlHostIPAccess(byte[] hostIP) {
-        IpCidrPair checkPair = new IpCidrPair(AddressUtils.byteIpToIntIp(hostIP));
-        boolean contains = ipSystemRuleList.contains(checkPair);
-        if (contains) {
+        return controlHostIPAccess(AddressUtils.byteIpToIntIp(hostIP));
+    }
+
+    public AccessType controlHostIPAccess(int hostIP) {
+        IpRangeTable hostileHosts = hostileHostTable;
+        if (hostileHosts != null && hostileHosts.contains(hostIP)) {
             return AccessType.ACCESS_STRONGLY_DENIED;
         }
 
-        contains = ipUserRuleList.contains(checkPair);
-        if (contains) {
+        UserRuleTable userRules = userRuleTable;
+        int index = userRules.table.lookup(hostIP);
+        if (index != IpRangeTable.NOT_FOUND) {
+            userRules.rules[index].getIpCidrPair().countHit();
             return AccessType.ACCESS_DENIED;
         }
         return AccessType.ACCESS_GRANTED;
     }
 
-    private void loadHostileHostList(Map<String, DIpAccessRule> systemRuleMap) {
+    /**
+     * Rebuilds the packed table of the user rules.
+     */
+    private void updateUserRuleTable() {
+        IpRangeTable.Builder builder = new IpRangeTable.Builder();
+        IpSecurityRule[] rules;
+        synchronized (ipAccessRuleList) {
+            rules = ipAccessRuleList.toArray(new IpSecurityRule[ipAccessRuleList.size()]);
+            for (int i = 0; i < rules.length; i++) {
+                HittingIpCidrPair pair = rules[i].getIpCidrPair();
+                builder.addCidr(pair.ipAddr, pair.cidr, i);
+            }
+            userRuleTable = new UserRuleTable(builder.build(), rules);
+        }
+    }
+
+    /**
+     * Loads the hostile hosts into a packed table. The table is cached in a
+     * binary file that is memory mapped on the next start, the hostile hosts
+     * file is only parsed when it changed.
+     */
+    private void loadHostileHostList() {
         if (!SecurityPrefs.LoadHostileHostList.get()) {
             return;
         }
+        URL resource = ClassLoader.getSystemResource(HOSTILE_HOSTS_RESOURCE);
+        if (resource == null) {
+            NLogger.debug(PhexSecurityManager.class,
+                    "Hostile hosts file not found.");
+            return;
+        }
         try {
             NLogger.debug(PhexSecurityManager.class,
                     "Load hostile hosts file.");
             long start = System.currentTimeMillis();
-            InputStream inStream = ClassLoader.getSystemResourceAsStream(
-                    "phex/resources/hostiles/gtkg-hostiles.txt");
-            //"phex/resources/hostilehosts.gz" );
-            BufferedReader br;
-            if (inStream != null) {
-                br = new BufferedReader(new InputStreamReader( /*new GZIPInputStream(*/ inStream /*)*/));
-            } else {
-                NLogger.debug(PhexSecurityManager.class,
-                        "Hostile hosts file not found.");
-                return;
+            long stamp = IpRangeTable.resourceStamp(resource);
+            IpRangeTable table = null;
+            if (hostileHostCacheFile != null) {
+                table = IpRangeTable.map(hostileHostCacheFile, stamp);
             }
-
-            String line;
-            int ip;
-            byte cidr;
-            IpSystemSecurityRule rule;
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("#")) {
-                    continue;
-                }
-                line = line.trim();
-                if (StringUtils.isEmpty(line)) {
-                    continue;
-                }
-                int slashIdx = line.indexOf('/');
-
-                if (slashIdx == -1) {// single ip...
-                    ip = AddressUtils.parseDottedIpToInt(line);
-                    cidr = 32;
-                } else {
-                    String ipStr = line.substring(0, slashIdx).trim();
-                    String extensionStr = line.substring(slashIdx + 1).trim();
-                    ip = AddressUtils.parseDottedIpToInt(ipStr);
-                    cidr = AddressUtils.parseNetmaskToCidr(extensionStr);
+            if (table == null) {
+                try (InputStream inStream = resource.openStream()) {
+                    table = parseHostileHostList(inStream);
                 }
-                rule = new IpSystemSecurityRule(ip, cidr);
-
-                // adjust hit count..
-                DSecurityRule xjbRule = findSystemXJBRule(systemRuleMap, ip,
-                        cidr);
-                if (xjbRule != null) {
-                    rule.setTriggerCount(xjbRule.getTriggerCount());
+                if (hostileHostCacheFile != null) {
+                    try {
+                        table.write(hostileHostCacheFile, stamp);
+                    } catch (IOException exp) {
+                        NLogger.warn(PhexSecurityManager.class, exp, exp);
+                    }
                 }
-                ipAccessRuleList.add(rule);
-                ipSystemRuleList.add(rule);
-                //if ( ipAccessRuleList.size()%10000==0)
-                //{
-                //    long end = System.currentTimeMillis();
-                //    NLogger.debug( NLoggerNames.Security,
-                //        "Part: " + ((double)(end-start)/(double)ipAccessRuleList.size()) + " " + ipAccessRuleList.size() );
-                //}
             }
-            br.close();
+            hostileHostTable = table;
             long end = System.currentTimeMillis();
             NLogger.debug(PhexSecurityManager.class,
                     "Loaded hostile hosts file: " + (end - start));
@@ -361,14 +385,38 @@ public class PhexSecurityManager extends AbstractLifeCycle {
         }
     }
 
-    private static DSecurityRule findSystemXJBRule(Map<String, DIpAccessRule> systemRuleMap, int ip,
-                                                   byte cidr) {
-        DSecurityRule xjbRule = systemRuleMap.get(
-                AddressUtils.ip2string(ip) + '/' + cidr);
-        if (xjbRule == null || !xjbRule.isSystemRule()) {
-            return null;
+    /**
+     * Parses the hostile hosts file, holding a single IP or a network
+     * given as IP/netmask or IP/cidr per line.
+     */
+    static IpRangeTable parseHostileHostList(InputStream inStream) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(inStream));
+        IpRangeTable.Builder builder = new IpRangeTable.Builder();
+        String line;
+        int ip;
+        byte cidr;
+        while ((line = br.readLine()) != null) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            line = line.trim();
+            if (StringUtils.isEmpty(line)) {
+                continue;
+            }
+            int slashIdx = line.indexOf('/');
+
+            if (slashIdx == -1) {// single ip...
+                ip = AddressUtils.parseDottedIpToInt(line);
+                cidr = 32;
+            } else {
+                String ipStr = line.substring(0, slashIdx).trim();
+                String extensionStr = line.substring(slashIdx + 1).trim();
+                ip = AddressUtils.parseDottedIpToInt(ipStr);
+                cidr = AddressUtils.parseNetmaskToCidr(extensionStr);
+            }
+            builder.addCidr(ip, cidr, 0);
         }
-        return xjbRule;
+        return builder.build();
     }
 
 //    private void loadSecurityRuleList() {
@@ -467,7 +515,7 @@ public class PhexSecurityManager extends AbstractLifeCycle {
 //                        }
 //                    }
 //                }
-//                loadHostileHostList(systemRuleMap);
+//                loadHostileHostList();
 //
 //                // optimize ipAccessRuleList
 //                ipAccessRuleList.trimToSize();
@@ -543,6 +591,7 @@ public class PhexSecurityManager extends AbstractLifeCycle {
     @Override
     public void doStart() {
         //loadSecurityRuleList();
+        loadHostileHostList();
         loadHostileSha1List();
     }
 
@@ -555,6 +604,20 @@ public class PhexSecurityManager extends AbstractLifeCycle {
     }
     //////////////////////// End LifeCycle Methods ///////////////////////////
 
+    private static class UserRuleTable {
+        private final IpRangeTable table;
+
+        /**
+         * The rules indexed by the values of the table.
+         */
+        private final IpSecurityRule[] rules;
+
+        private UserRuleTable(IpRangeTable table, IpSecurityRule[] rules) {
+            this.table = table;
+            this.rules = rules;
+        }
+    }
+
     ///////////////////// START event handling methods /////////////////////////
 
     private void fireSecurityRuleAdded(final SecurityRule rule, final int position) {
@@ -0,0 +1,257 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.common.AltLocContainer;
+import phex.common.ThreadTracking;
+import phex.common.URN;
+import phex.common.bandwidth.BandwidthController;
+import phex.download.swarming.SWDownloadFile;
+import phex.thex.FileHashCalculator;
+import phex.util.bitzi.Base32;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The queue of shared files waiting for their SHA-1 urn and THEX data to be
+ * calculated. Both hashes are calculated in a single pass over the file by a
+ * FileHashCalculator.
+ * <p>
+ * A configurable number of worker threads hash one file each. Large files
+ * additionally calculate their tiger tree on a fork/join pool with the same
+ * number of threads. All workers share a single read throttle.
+ */
+class FileHashCalculationQueue {
+    private static final Logger logger = LoggerFactory.getLogger(FileHashCalculationQueue.class);
+
+    private final SharedFilesService sharing;
+    private final int threadCount;
+
+    /**
+     * The files waiting to be hashed, in queue order.
+     * When accessing this object locking via this is required.
+     */
+    private final Set<ShareFile> queue;
+
+    /**
+     * The files currently hashed by a worker.
+     * When accessing this object locking via this is required.
+     */
+    private final Set<ShareFile> inProgress;
+
+    /**
+     * The running worker threads.
+     * When accessing this object locking via this is required.
+     */
+    private final List<Thread> workers;
+
+    /**
+     * The pool calculating the tiger tree of large files in parallel, null
+     * if only a single thread is used.
+     */
+    private final ForkJoinPool treePool;
+
+    /**
+     * The throttle shared by all workers to limit the read rate.
+     */
+    private final BandwidthController readThrottle;
+
+    private boolean isPaused;
+
+    FileHashCalculationQueue(SharedFilesService sharing) {
+        this.sharing = sharing;
+        threadCount = sharing.peer.libPrefs.HashCalculationThreads.get().intValue();
+        queue = new LinkedHashSet<ShareFile>();
+        inProgress = Collections.newSetFromMap(new IdentityHashMap<ShareFile, Boolean>());
+        workers = new ArrayList<Thread>(threadCount);
+        readThrottle = new BandwidthController("HashCalculation", Long.MAX_VALUE);
+        if (threadCount > 1) {
+            treePool = new ForkJoinPool(threadCount, new TreeThreadFactory(),
+                    null, false);
+        } else {
+            treePool = null;
+        }
+    }
+
+    /**
+     * Queues the file for hashing, unless it is already queued or hashed.
+     */
+    public synchronized void add(ShareFile shareFile) {
+        if (inProgress.contains(shareFile) || !queue.add(shareFile)) {
+            return;
+        }
+        notifyAll();
+        if (workers.size() < threadCount) {
+            Thread worker = new Thread(ThreadTracking.rootThreadGroup,
+                    new QueueWorker(), "HashCalculation-" + workers.size());
+            worker.setPriority(Thread.NORM_PRIORITY - 1);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Returns the number of files waiting to be or being hashed.
+     */
+    public synchronized int getQueueSize() {
+        return queue.size() + inProgress.size();
+    }
+
+    /**
+     * Pauses the queue. Files currently hashed are completed.
+     */
+    public synchronized void setPause(boolean state) {
+        isPaused = state;
+        notifyAll();
+    }
+
+    /**
+     * Clears the queue and interrupts the files currently hashed.
+     */
+    public synchronized void stopAndClear() {
+        queue.clear();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private synchronized ShareFile nextFile() {
+        // A interrupt of stopAndClear() that arrived after the last file was
+        // done belongs to the cleared queue. Since stopAndClear() holds the
+        // lock, it must not carry over to files added afterwards.
+        Thread.interrupted();
+        while (isPaused && !queue.isEmpty()) {
+            try {
+                wait(5 * 1000);
+            } catch (InterruptedException exp) {
+                // stopAndClear() was called, the queue is empty now unless
+                // files were added since.
+            }
+        }
+        if (queue.isEmpty()) {
+            workers.remove(Thread.currentThread());
+            return null;
+        }
+        Iterator<ShareFile> iterator = queue.iterator();
+        ShareFile shareFile = iterator.next();
+        iterator.remove();
+        inProgress.add(shareFile);
+        return shareFile;
+    }
+
+    private synchronized void fileDone(ShareFile shareFile) {
+        inProgress.remove(shareFile);
+    }
+
+    private void calculateHashes(ShareFile shareFile) {
+        boolean calcSha1 = shareFile.getURN() == null;
+        boolean calcThex = shareFile.getThexData(null) == null
+                && shareFile.getFileSize() > 0;
+        if (!calcSha1 && !calcThex) {
+            return;
+        }
+
+        int maxReadRate = sharing.peer.libPrefs.HashCalculationMaxReadRate.get().intValue();
+        BandwidthController throttle = null;
+        if (maxReadRate > 0) {
+            readThrottle.setThrottlingRate(maxReadRate);
+            throttle = readThrottle;
+        }
+        FileHashCalculator calculator = new FileHashCalculator(throttle, treePool);
+
+        FileHashCalculator.Result result;
+        long start = System.currentTimeMillis();
+        try {
+            result = calculator.calculate(shareFile.getSystemFile(), calcSha1, calcThex);
+        } catch (InterruptedIOException exp) {
+            return;
+        } catch (IOException exp) {// dont care... no hash could be calculated...
+            logger.debug(exp.toString(), exp);
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Hash time: {} size: {} sha1: {} thex: {}",
+                    System.currentTimeMillis() - start, shareFile.getFileSize(),
+                    calcSha1, calcThex);
+        }
+
+        // set the thex data first, a file with urn but without thex data
+        // would queue itself again.
+        if (calcThex) {
+            shareFile.setThexData(result.getThexData());
+        }
+        if (calcSha1) {
+            URN urn = new URN("urn:sha1:" + Base32.encode(result.getSha1()));
+            shareFile.setURN(urn);
+
+            // check if we find a download with the same urn and capture alt locs
+            // from it
+            SWDownloadFile file = sharing.peer.getDownloadService().getDownloadFileByURN(urn);
+            if (file != null) {
+                AltLocContainer altCont = file.getGoodAltLocContainer();
+                shareFile.getAltLocContainer().addContainer(altCont);
+            }
+            // add the urn to the map to share by urn
+            sharing.addUrn2FileMapping(shareFile);
+        }
+        sharing.triggerSaveSharedFiles();
+    }
+
+    private class QueueWorker implements Runnable {
+        public void run() {
+            ShareFile shareFile;
+            while ((shareFile = nextFile()) != null) {
+                try {
+                    calculateHashes(shareFile);
+                } catch (Throwable th) {
+                    logger.error(th.toString(), th);
+                } finally {
+                    fileDone(shareFile);
+                }
+            }
+        }
+    }
+
+    private static class TreeThreadFactory
+            implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread =
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("HashTreeCalculation-" + thread.getPoolIndex());
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
@@ -24,12 +24,16 @@ package phex.share;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import phex.common.ThreadTracking;
-import phex.LibraryPrefs;
-import phex.xml.sax.share.DSharedFile;
-import phex.xml.sax.share.DSharedLibrary;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -45,9 +49,16 @@ public class FileRescanRunner implements Runnable {
      */
     private static final Object threadLock = new Object();
     /**
-     * if this thread is alive a rescan is running.
+     * if this thread is set a rescan is running.
      */
     private static Thread rescanThread;
+    /**
+     * The changes reported while a rescan was running, they are rescanned
+     * once it is done. Null if there are none.
+     * When accessing this object locking via threadLock is required.
+     */
+    private static Set<File> pendingChangedFiles;
+    private static Set<File> pendingRescanDirectories;
     private final SharedFilesService sharing;
     private final List<Pattern> exclusionPatterns;
     /**
@@ -56,16 +67,33 @@ public class FileRescanRunner implements Runnable {
     private final HashMap<File, SharedDirectory> sharedDirectoryMap;
     private final HashSet<SharedDirectory> sharedDirectoryList;
     private final boolean isInitialRescan;
+    /**
+     * The files changed since the last scan, for a incremental rescan.
+     * Null for a full rescan.
+     */
+    private final Set<File> changedFiles;
+    /**
+     * The directories to reconcile completely during a incremental rescan.
+     */
+    private final Set<File> rescanDirectories;
+    /**
+     * The absolute paths of all files found during the scan.
+     */
+    private final Set<String> scannedFileNames;
     private Set<File> sharedDirectoryFiles;
-    private HashMap<String, DSharedFile> sharedFilesCache;
+    private Map<String, SharedFileRecord> sharedFilesCache;
 
     private FileRescanRunner(SharedFilesService sharedFilesSerivce,
-                             boolean isInitialRescan) {
+                             boolean isInitialRescan, Set<File> changedFiles,
+                             Set<File> rescanDirectories) {
         this.isInitialRescan = isInitialRescan;
         this.sharing = sharedFilesSerivce;
+        this.changedFiles = changedFiles;
+        this.rescanDirectories = rescanDirectories;
         exclusionPatterns = new ArrayList<Pattern>();
         sharedDirectoryMap = new HashMap<File, SharedDirectory>();
         sharedDirectoryList = new HashSet<SharedDirectory>(5);
+        scannedFileNames = new HashSet<String>();
     }
 
     /**
@@ -83,27 +111,94 @@ public class FileRescanRunner implements Runnable {
                 logger.debug("Interrupting rescan thread.");
                 // interrupt running thread to restart rescan...
                 rescanThread.interrupt();
-                // join interrupted thread and wait till its dead before
+                // wait till the interrupted thread is finished before
                 // rescan starts
                 try {
                     logger.debug("Waiting for interrupted rescan thread.");
-                    rescanThread.join();
+                    awaitRescanThread();
                 } catch (InterruptedException exp) {
                     logger.warn(exp.toString(), exp);
                 }
             }
-            if (rescanThread == null || !rescanThread.isAlive()) {
-                FileRescanRunner runner = new FileRescanRunner(sharedFilesSerivce,
-                        isInitialRescan);
-                rescanThread = new Thread(ThreadTracking.rootThreadGroup, runner,
-                        "FileRescanRunner-" + Integer.toHexString(runner.hashCode()));
-                rescanThread.setDaemon(true);
-                rescanThread.setPriority(Thread.MIN_PRIORITY);
-                rescanThread.start();
+            if (rescanThread == null) {
+                startRescanThread(new FileRescanRunner(sharedFilesSerivce,
+                        isInitialRescan, null, null));
             }
         }
     }
 
+    /**
+     * Incrementally updates the shared files. Only the given changed files are
+     * checked, and the given directories are scanned completely, e.g. since
+     * events of them got lost. While a rescan is running the changes are
+     * queued and rescanned once it is done, so no changes are lost and the
+     * caller never waits for a running rescan.
+     *
+     * @param changedFiles      the files that were created, modified or deleted.
+     * @param rescanDirectories the directories to scan completely.
+     */
+    public static void rescanChanges(SharedFilesService sharedFilesSerivce,
+                                     Set<File> changedFiles, Set<File> rescanDirectories) {
+        synchronized (threadLock) {
+            if (rescanThread != null) {
+                if (pendingChangedFiles == null) {
+                    pendingChangedFiles = new HashSet<File>();
+                    pendingRescanDirectories = new HashSet<File>();
+                }
+                pendingChangedFiles.addAll(changedFiles);
+                pendingRescanDirectories.addAll(rescanDirectories);
+                return;
+            }
+            startRescanThread(new FileRescanRunner(sharedFilesSerivce, false,
+                    changedFiles, rescanDirectories));
+        }
+    }
+
+    /**
+     * Called by a finished rescan thread. Starts a incremental rescan of the
+     * changes queued in the meantime, if any.
+     */
+    private void rescanFinished() {
+        synchronized (threadLock) {
+            if (rescanThread != Thread.currentThread()) {
+                return;
+            }
+            // a interrupted rescan is restarted by rescan(), the queued
+            // changes are rescanned after it.
+            if (pendingChangedFiles != null && !rescanThread.isInterrupted()) {
+                FileRescanRunner runner = new FileRescanRunner(sharing, false,
+                        pendingChangedFiles, pendingRescanDirectories);
+                pendingChangedFiles = null;
+                pendingRescanDirectories = null;
+                startRescanThread(runner);
+            } else {
+                // no queued changes can get lost between this and the
+                // thread end, since rescanChanges() starts a new thread.
+                rescanThread = null;
+                threadLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits till no rescan thread is running. The threads can not be joined
+     * since they need the threadLock to finish.
+     * Locking via threadLock is required.
+     */
+    private static void awaitRescanThread() throws InterruptedException {
+        while (rescanThread != null) {
+            threadLock.wait();
+        }
+    }
+
+    private static void startRescanThread(FileRescanRunner runner) {
+        rescanThread = new Thread(ThreadTracking.rootThreadGroup, runner,
+                "FileRescanRunner-" + Integer.toHexString(runner.hashCode()));
+        rescanThread.setDaemon(true);
+        rescanThread.setPriority(Thread.MIN_PRIORITY);
+        rescanThread.start();
+    }
+
     /**
      * Syncs an external thread with this rescan thread. The call will return
      * after any pending rescan operations are finished. Though you can't be sure
@@ -112,10 +207,10 @@ public class FileRescanRunner implements Runnable {
      */
     public static void sync() {
         synchronized (threadLock) {
-            if (rescanThread != null && rescanThread.isAlive()) {
+            if (rescanThread != null) {
                 try {
                     logger.debug("Waiting for running rescan thread.");
-                    rescanThread.join();
+                    awaitRescanThread();
                 } catch (InterruptedException exp) {
                     logger.warn(exp.toString(), exp);
                 }
@@ -124,10 +219,18 @@ public class FileRescanRunner implements Runnable {
     }
 
     public void run() {
+        try {
+            runRescan();
+        } finally {
+            rescanFinished();
+        }
+    }
+
+    private void runRescan() {
         logger.debug("Staring file rescan (Initial: {}).",
                 Boolean.valueOf(isInitialRescan));
 
-        Set<String> sharedDirs = LibraryPrefs.SharedDirectoriesSet.get();
+        Set<String> sharedDirs = sharing.peer.libPrefs.SharedDirectoriesSet.get();
         sharedDirectoryFiles = new HashSet<File>(sharedDirs.size());
         for (String sharedDir : sharedDirs) {
             File dir = new File(sharedDir);
@@ -136,20 +239,23 @@ public class FileRescanRunner implements Runnable {
             }
         }
 
-        setExclusionFilter(LibraryPrefs.LibraryExclusionRegExList.get());
+        setExclusionFilter(sharing.peer.libPrefs.LibraryExclusionRegExList.get());
 
         if (rescanThread.isInterrupted()) {
             return;
         }
 
+        if (changedFiles != null) {
+            rescanChanges();
+            return;
+        }
+
         if (isInitialRescan) {
             sharing.clearSharedFiles();
             if (rescanThread.isInterrupted()) {
                 return;
             }
             buildSharedFilesCache();
-        } else {
-            removeUnsharedFiles();
         }
         if (rescanThread.isInterrupted()) {
             return;
@@ -159,12 +265,18 @@ public class FileRescanRunner implements Runnable {
             sharing.setCalculationRunnerPause(true);
             HashMap<String, String> scannedDirMap = new HashMap<String, String>();
 
+            Set<File> scannedDirs = new HashSet<File>();
             for (File dir : sharedDirectoryFiles) {
-                scanDir(dir, scannedDirMap);
+                if (scanDir(dir, scannedDirMap)) {
+                    scannedDirs.add(dir);
+                }
                 if (rescanThread.isInterrupted()) {
                     return;
                 }
             }
+            if (!isInitialRescan) {
+                removeUnsharedFiles(scannedDirs);
+            }
             sharing.updateSharedDirecotries(sharedDirectoryMap,
                     sharedDirectoryList);
             sharing.triggerSaveSharedFiles();
@@ -173,66 +285,132 @@ public class FileRescanRunner implements Runnable {
         }
     }
 
-    private void buildSharedFilesCache() {
-        sharedFilesCache = new HashMap<String, DSharedFile>();
-        DSharedLibrary library = sharing.loadSharedLibrary();
-        if (library == null) {
-            // no library found to load...
-            return;
+    /**
+     * Checks the changed files and scans the rescan directories, without
+     * touching the rest of the library.
+     */
+    private void rescanChanges() {
+        boolean isLibraryChanged = false;
+        if (!rescanDirectories.isEmpty()) {
+            try {
+                sharing.setCalculationRunnerPause(true);
+                HashMap<String, String> scannedDirMap = new HashMap<String, String>();
+                Set<File> scannedDirs = new HashSet<File>();
+                for (File dir : rescanDirectories) {
+                    if (sharedDirectoryFiles.contains(dir)
+                            && scanDir(dir, scannedDirMap)) {
+                        scannedDirs.add(dir);
+                    }
+                    if (rescanThread.isInterrupted()) {
+                        return;
+                    }
+                }
+                removeUnsharedFiles(scannedDirs);
+                isLibraryChanged = true;
+            } finally {
+                sharing.setCalculationRunnerPause(false);
+            }
         }
-        Iterator<DSharedFile> iterator = library.getSubElementList().iterator();
-        while (iterator.hasNext() && !rescanThread.isInterrupted()) {
-            DSharedFile cachedFile = iterator.next();
-            sharedFilesCache.put(cachedFile.getFileName(), cachedFile);
+
+        for (File file : changedFiles) {
+            if (rescanThread.isInterrupted()) {
+                return;
+            }
+            isLibraryChanged |= handleChangedFile(file);
+        }
+        if (isLibraryChanged) {
+            sharing.triggerSaveSharedFiles();
         }
     }
 
     /**
-     * Scans a directory for files to share.
+     * Shares, reshares or unshares a file that was created, modified or
+     * deleted.
+     *
+     * @return true if the shared files changed.
+     */
+    private boolean handleChangedFile(File file) {
+        ShareFile shareFile = sharing.getShareFileByFile(file);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (NoSuchFileException exp) {
+            attributes = null;
+        } catch (IOException exp) {
+            logger.warn(exp.toString(), exp);
+            return false;
+        }
+
+        boolean isShared = attributes != null && attributes.isRegularFile()
+                && isInSharedDirectory(file) && !isFileInvalid(file);
+        if (!isShared) {
+            if (shareFile == null) {
+                return false;
+            }
+            sharing.removeSharedFile(shareFile);
+            return true;
+        }
+
+        if (shareFile != null) {
+            if (shareFile.getFileSize() == attributes.size()
+                    && shareFile.getLastModified() == attributes.lastModifiedTime().toMillis()) {
+                return false;
+            }
+            // the content changed, even a edit in place keeping the size,
+            // share it again to calculate the new hashes.
+            sharing.removeSharedFile(shareFile);
+        }
+        shareFile = new ShareFile(file);
+        sharing.queueUrnCalculation(shareFile);
+        sharing.addSharedFile(shareFile);
+        return true;
+    }
+
+    private void buildSharedFilesCache() {
+        sharedFilesCache = sharing.loadSharedFileRecords();
+    }
+
+    /**
+     * Scans a directory for files to share. The files are listed with their
+     * attributes in a single pass, without querying each file separately.
      *
      * @param dir the directory to scan.
+     * @return true if all files of the directory were listed.
      */
-    private void scanDir(File dir, HashMap<String, String> scannedDirMap) {
+    private boolean scanDir(File dir, HashMap<String, String> scannedDirMap) {
         // verify if dir was already scanned.
         String canonicalPath;
         try {
             canonicalPath = dir.getCanonicalPath();
         } catch (IOException exp) {
             logger.warn(exp.toString(), exp);
-            return;
+            return false;
         }
         if (scannedDirMap.containsKey(canonicalPath)) {// directory was already scanned...
-            return;
+            return true;
         }
 
         // not scanned... now add it as scanned...
         scannedDirMap.put(canonicalPath, "");
 
         if (!dir.exists()) {
-            return;
+            return false;
         }
 
         if (dir.isDirectory()) {
             handleScannedDir(dir);
         }
 
-        File[] files = dir.listFiles();
-
-        if (files == null) {
-            logger.error("'{}' is not a directory.", dir);
-            return;
-        }
-
-        for (int j = 0; j < files.length && !rescanThread.isInterrupted(); j++) {
-            if (files[j].isFile() && !isFileInvalid(files[j])) {
-                handleScannedFile(files[j]);
-            }
-            // not recursive
-            //else if ( files[j].isDirectory() )
-            //{
-            //    scanDir( files[j], scannedDirMap );
-            //}
+        // not recursive
+        DirectoryScanVisitor visitor = new DirectoryScanVisitor();
+        try {
+            Files.walkFileTree(dir.toPath(), EnumSet.noneOf(FileVisitOption.class),
+                    1, visitor);
+        } catch (IOException exp) {
+            logger.error("'{}' could not be scanned: {}", dir, exp.toString());
+            return false;
         }
+        return visitor.isComplete && !rescanThread.isInterrupted();
     }
 
     private void handleScannedDir(File file) {
@@ -268,15 +446,17 @@ public class FileRescanRunner implements Runnable {
         }
     }
 
-    private void handleScannedFile(File file) {
+    private void handleScannedFile(File file, long lastModified) {
+        scannedFileNames.add(file.getAbsolutePath());
         ShareFile shareFile;
         if (isInitialRescan) {
             shareFile = new ShareFile(file);
             // Try to find cached file info
-            DSharedFile dFile = sharedFilesCache.get(file.getAbsolutePath());
-            if (dFile != null &&
-                    dFile.getLastModified() == file.lastModified()) {
-                shareFile.updateFromCache(dFile);
+            SharedFileRecord record = sharedFilesCache.remove(file.getAbsolutePath());
+            if (record != null &&
+                    record.getLastModified() == lastModified &&
+                    (record.getFileSize() == -1 || record.getFileSize() == shareFile.getFileSize())) {
+                shareFile.updateFromRecord(record);
                 // add the urn to the map to share by urn
                 sharing.addUrn2FileMapping(shareFile);
             } else {
@@ -300,14 +480,26 @@ public class FileRescanRunner implements Runnable {
         }
     }
 
-    private void removeUnsharedFiles() {
+    /**
+     * Removes the shared files that are not in a shared directory anymore and
+     * the files of the scanned directories that were not found by the scan.
+     *
+     * @param scannedDirs the completely scanned directories.
+     */
+    private void removeUnsharedFiles(Set<File> scannedDirs) {
         List<ShareFile> sharedFiles = sharing.getSharedFiles();
         for (ShareFile shareFile : sharedFiles) {
             if (rescanThread.isInterrupted()) {
                 return;
             }
             File file = shareFile.getSystemFile();
-            if (!isInSharedDirectory(file) || !file.exists()) {
+            if (!isInSharedDirectory(file)) {
+                sharing.removeSharedFile(shareFile);
+            } else if (scannedDirs.contains(file.getParentFile())) {
+                if (!scannedFileNames.contains(file.getAbsolutePath())) {
+                    sharing.removeSharedFile(shareFile);
+                }
+            } else if (!file.exists()) {
                 sharing.removeSharedFile(shareFile);
             }
         }
@@ -367,4 +559,33 @@ public class FileRescanRunner implements Runnable {
         }
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Shares the regular files of a directory.
+     */
+    private class DirectoryScanVisitor extends SimpleFileVisitor<Path> {
+        private boolean isComplete = true;
+
+        @Override
+        public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+            if (rescanThread.isInterrupted()) {
+                isComplete = false;
+                return FileVisitResult.TERMINATE;
+            }
+            if (attributes.isRegularFile()) {
+                File file = path.toFile();
+                if (!isFileInvalid(file)) {
+                    handleScannedFile(file, attributes.lastModifiedTime().toMillis());
+                }
+            }
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path path, IOException exp) {
+            logger.warn("'{}' could not be scanned: {}", path, exp.toString());
+            isComplete = false;
+            return FileVisitResult.CONTINUE;
+        }
+    }
+}
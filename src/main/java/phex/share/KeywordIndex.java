@@ -0,0 +1,350 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import phex.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The inverted keyword index of the shared library. Each keyword maps to a
+ * sorted list of the indices of the files containing it. Since file indices
+ * are assigned in ascending order, adding a file only appends to the
+ * posting lists.
+ * <p>
+ * A search term matches all keywords it is a prefix of. Posting lists of
+ * prefixes matching multiple keywords are merged once and kept until a
+ * keyword they are a prefix of changes. The posting lists of all terms are
+ * intersected smallest first, galloping through the larger lists.
+ * <p>
+ * Modifications need exclusive access, searches can run concurrently.
+ */
+class KeywordIndex {
+    /**
+     * The max number of merged prefix posting lists kept.
+     */
+    private static final int MAX_PREFIX_CACHE_SIZE = 512;
+
+    /**
+     * The initial number of terms of a search string, grows for longer
+     * search strings.
+     */
+    private static final int INITIAL_TERM_CAPACITY = 8;
+
+    private static final int[] EMPTY_POSTINGS = new int[0];
+
+    private static final PostingList EMPTY_POSTING_LIST = new PostingList();
+
+    /**
+     * Receives the matching file indices of a search in ascending order.
+     */
+    interface MatchCollector {
+        /**
+         * @param fileIndex the index of a file matching all terms.
+         * @return true if the collector needs no further matches.
+         */
+        boolean collect(int fileIndex);
+    }
+
+    private final TreeMap<String, PostingList> keywordMap;
+
+    /**
+     * The merged posting lists of prefixes matching multiple keywords.
+     */
+    private final Map<String, int[]> prefixCache;
+
+    KeywordIndex() {
+        keywordMap = new TreeMap<String, PostingList>();
+        prefixCache = new ConcurrentHashMap<String, int[]>();
+    }
+
+    /**
+     * Adds the file index to the posting list of the keyword.
+     *
+     * @param keyword   the lower case keyword.
+     * @param fileIndex the file index, greater than any index added before.
+     */
+    void add(String keyword, int fileIndex) {
+        PostingList postings = keywordMap.get(keyword);
+        if (postings == null) {
+            postings = new PostingList();
+            keywordMap.put(keyword, postings);
+        }
+        postings.add(fileIndex);
+        invalidatePrefixes(keyword);
+    }
+
+    /**
+     * Removes the file index from the posting list of the keyword.
+     *
+     * @param keyword   the lower case keyword.
+     * @param fileIndex the file index.
+     */
+    void remove(String keyword, int fileIndex) {
+        PostingList postings = keywordMap.get(keyword);
+        if (postings == null) {
+            return;
+        }
+        postings.remove(fileIndex);
+        if (postings.size == 0) {
+            keywordMap.remove(keyword);
+        }
+        invalidatePrefixes(keyword);
+    }
+
+    /**
+     * Removes the merged posting lists of all prefixes of the changed
+     * keyword, merged lists of other prefixes stay valid.
+     */
+    private void invalidatePrefixes(String keyword) {
+        if (prefixCache.isEmpty()) {
+            return;
+        }
+        for (int length = keyword.length(); length > 0; length--) {
+            prefixCache.remove(keyword.substring(0, length));
+        }
+    }
+
+    void clear() {
+        keywordMap.clear();
+        prefixCache.clear();
+    }
+
+    /**
+     * Searches the files matching all terms of the search string. The terms
+     * are separated by file delimiters.
+     *
+     * @param searchStr the search string.
+     * @param collector receives the matching file indices.
+     */
+    void search(String searchStr, MatchCollector collector) {
+        String lowerSearchStr = searchStr.toLowerCase();
+        int[][] lists = new int[INITIAL_TERM_CAPACITY][];
+        int[] sizes = new int[INITIAL_TERM_CAPACITY];
+        int termCount = 0;
+
+        int searchStrLength = lowerSearchStr.length();
+        int startPos = 0;
+        int endPos;
+        while (startPos < searchStrLength) {
+            if (StringUtils.isFileDelimiter(lowerSearchStr.charAt(startPos))) {
+                startPos++;
+                continue;
+            }
+            for (endPos = startPos + 1; endPos < searchStrLength; endPos++) {
+                if (StringUtils.isFileDelimiter(lowerSearchStr.charAt(endPos))) {
+                    break;
+                }
+            }
+            String term = lowerSearchStr.substring(startPos, endPos);
+            startPos = endPos;
+            if (termCount == lists.length) {
+                lists = Arrays.copyOf(lists, termCount * 2);
+                sizes = Arrays.copyOf(sizes, termCount * 2);
+            }
+
+            PostingList exactMatch = findSingleKeyword(term);
+            if (exactMatch != null) {
+                lists[termCount] = exactMatch.ids;
+                sizes[termCount] = exactMatch.size;
+            } else {
+                int[] merged = findMergedPostings(term);
+                lists[termCount] = merged;
+                sizes[termCount] = merged.length;
+            }
+            if (sizes[termCount] == 0) {
+                // no match we can abort the complete keyword search
+                return;
+            }
+            termCount++;
+        }
+        if (termCount > 0) {
+            intersect(lists, sizes, termCount, collector);
+        }
+    }
+
+    /**
+     * Intersects the posting lists smallest first. Candidates of the smallest
+     * list are looked up in the other lists by galloping from the position of
+     * the previous candidate.
+     */
+    static void intersect(int[][] lists, int[] sizes, int count, MatchCollector collector) {
+        // sort lists by size, count is small.
+        for (int i = 1; i < count; i++) {
+            for (int j = i; j > 0 && sizes[j] < sizes[j - 1]; j--) {
+                int[] list = lists[j];
+                lists[j] = lists[j - 1];
+                lists[j - 1] = list;
+                int size = sizes[j];
+                sizes[j] = sizes[j - 1];
+                sizes[j - 1] = size;
+            }
+        }
+        int[] smallest = lists[0];
+        int smallestSize = sizes[0];
+        int[] positions = new int[count];
+        candidates:
+        for (int i = 0; i < smallestSize; i++) {
+            int candidate = smallest[i];
+            for (int j = 1; j < count; j++) {
+                int pos = gallop(lists[j], positions[j], sizes[j], candidate);
+                positions[j] = pos;
+                if (pos == sizes[j]) {
+                    // a list is exhausted, no further matches possible.
+                    return;
+                }
+                if (lists[j][pos] != candidate) {
+                    continue candidates;
+                }
+            }
+            if (collector.collect(candidate)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the first value greater or equal to the key
+     * in the sorted list, starting at from.
+     */
+    static int gallop(int[] list, int from, int size, int key) {
+        if (from >= size || list[from] >= key) {
+            return from;
+        }
+        // exponential search for a upper bound...
+        int low = from;
+        int step = 1;
+        int high = from + step;
+        while (high < size && list[high] < key) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        if (high > size) {
+            high = size;
+        }
+        // ...followed by a binary search between both bounds.
+        while (low + 1 < high) {
+            int mid = (low + high) >>> 1;
+            if (list[mid] < key) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Returns the posting list of the only keyword prefixed by the term or
+     * null if none or multiple keywords are prefixed by the term.
+     */
+    private PostingList findSingleKeyword(String term) {
+        Map.Entry<String, PostingList> entry = keywordMap.ceilingEntry(term);
+        if (entry == null || !entry.getKey().startsWith(term)) {
+            return EMPTY_POSTING_LIST;
+        }
+        String next = keywordMap.higherKey(entry.getKey());
+        if (next != null && next.startsWith(term)) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    private int[] findMergedPostings(String term) {
+        int[] merged = prefixCache.get(term);
+        if (merged != null) {
+            return merged;
+        }
+        SortedMap<String, PostingList> prefixed = keywordMap.subMap(term,
+                term + Character.MAX_VALUE);
+        int total = 0;
+        for (PostingList postings : prefixed.values()) {
+            total += postings.size;
+        }
+        merged = new int[total];
+        int pos = 0;
+        for (PostingList postings : prefixed.values()) {
+            System.arraycopy(postings.ids, 0, merged, pos, postings.size);
+            pos += postings.size;
+        }
+        Arrays.sort(merged);
+        // remove duplicates of files matching multiple prefixed keywords.
+        int size = 0;
+        for (int i = 0; i < total; i++) {
+            if (size == 0 || merged[size - 1] != merged[i]) {
+                merged[size++] = merged[i];
+            }
+        }
+        if (size < total) {
+            merged = Arrays.copyOf(merged, size);
+        }
+        if (prefixCache.size() >= MAX_PREFIX_CACHE_SIZE) {
+            prefixCache.clear();
+        }
+        prefixCache.put(term, merged);
+        return merged;
+    }
+
+    /**
+     * A sorted list of file indices.
+     */
+    private static class PostingList {
+        private int[] ids = EMPTY_POSTINGS;
+        private int size;
+
+        private void add(int fileIndex) {
+            if (size > 0 && ids[size - 1] >= fileIndex) {
+                // not in ascending order, insert at sorted position.
+                int pos = Arrays.binarySearch(ids, 0, size, fileIndex);
+                if (pos >= 0) {
+                    return;
+                }
+                insert(-pos - 1, fileIndex);
+                return;
+            }
+            insert(size, fileIndex);
+        }
+
+        private void insert(int pos, int fileIndex) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(4, size + (size >> 1)));
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = fileIndex;
+            size++;
+        }
+
+        private void remove(int fileIndex) {
+            int pos = Arrays.binarySearch(ids, 0, size, fileIndex);
+            if (pos < 0) {
+                return;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+        }
+    }
+}
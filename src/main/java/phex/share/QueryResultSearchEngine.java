@@ -22,19 +22,17 @@
 package phex.share;
 
 import phex.common.URN;
-import phex.common.collections.IntSet;
-import phex.common.collections.IntSet.IntSetIterator;
 import phex.common.log.NLogger;
 import phex.msg.QueryMsg;
 import phex.LibraryPrefs;
 import phex.security.PhexSecurityManager;
 import phex.peer.Peer;
-import phex.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class QueryResultSearchEngine {
     public static final String INDEX_QUERY_STRING = "    ";
@@ -85,153 +83,117 @@ public class QueryResultSearchEngine {
             return sharedFilesService.getSharedFiles();
         }
 
+        int maxResults = peer.libPrefs.MaxResultsPerQuery.get().intValue();
+        ResultCollector collector = new ResultCollector(queryMsg.getOriginIpAddress(),
+                maxResults);
+
         // first check for URN query...
-        List<ShareFile> urnMatches = null;
         URN[] urns = queryMsg.getQueryURNs();
         if (urns.length > 0) {
-            urnMatches = sharedFilesService.getFilesByURNs(urns);
+            List<ShareFile> urnMatches = sharedFilesService.getFilesByURNs(urns);
+            for (ShareFile shareFile : urnMatches) {
+                if (collector.addResult(shareFile)) {
+                    break;
+                }
+            }
             if (urnMatches.size() == urns.length) {// we found all requested files by URN.
                 // return results and be happy that we are already finished.
-                return provideResultData(urnMatches, null, queryMsg.getOriginIpAddress(),
-                        peer.libPrefs.MaxResultsPerQuery.get().intValue()
-                        );
+                return collector.getResults();
             }
         }
 
         // if there are no urns or not all urns have a hit check for 
         // keyword matches...
-        IntSet keyWordMatches = handleKeywordSearch(searchStr);
-
-        return provideResultData(urnMatches, keyWordMatches, queryMsg.getOriginIpAddress(),peer.libPrefs.MaxResultsPerQuery.get().intValue());
+        if (!collector.isComplete()) {
+            sharedFilesService.searchKeywords(searchStr, collector);
+        }
+        return collector.getResults();
     }
 
     /**
-     * Performs the keyword query on the search string.
-     *
-     * @param searchStr the search string
-     * @return an IntSet containing the result file index positions.
+     * Collects the results of a query up to the max result count. Files
+     * the query source is not eligible to see are skipped.
      */
-    private IntSet handleKeywordSearch(String searchStr) {
-        IntSet searchMatches = null;
+    private class ResultCollector implements KeywordIndex.MatchCollector {
+        private final byte[] originIpAddress;
+        private final int maxResults;
+        private final PhexSecurityManager securityService;
+        private List<ShareFile> results;
 
-        int searchStrLength = searchStr.length();
-        int startPos = 0;
-        int endPos;
-        Iterator<IntSet> indexIterator;
-        while (startPos < searchStrLength) {
-            if (StringUtils.isFileDelimiter(searchStr.charAt(startPos))) {
-                startPos++;
-                continue;
-            }
-            for (endPos = startPos + 1; endPos < searchStrLength; endPos++) {
-                if (StringUtils.isFileDelimiter(searchStr.charAt(endPos))) {
-                    break;
-                }
-            }
+        /**
+         * The eligibility of the query source per directory. Only used if
+         * any directory restricts access.
+         */
+        private Map<SharedDirectory, Boolean> eligibleDirectories;
 
-            // search for prefixed keyword using word delimiters.
-            indexIterator = sharedFilesService.getIndexIteratorForPrefixTerm(
-                    searchStr, startPos, endPos);
-            if (indexIterator.hasNext()) {
-                IntSet keywordMatches = null;
-                while (indexIterator.hasNext()) {
-                    IntSet match = indexIterator.next();
-                    if (keywordMatches == null) {
-                        if (startPos == 0 && endPos == searchStrLength && !indexIterator.hasNext()) {
-                            return match;
-                        }
-                        keywordMatches = new IntSet();
-                    }
-                    keywordMatches.addAll(match);
-                }
+        private ResultCollector(byte[] originIpAddress, int maxResults) {
+            this.originIpAddress = originIpAddress;
+            this.maxResults = maxResults;
+            securityService = peer.getSecurityService();
+        }
 
-                if (searchMatches == null) {
-                    searchMatches = keywordMatches;
-                } else {
-                    searchMatches.retainAll(keywordMatches);
-                    if (searchMatches.size() == 0) {
-                        // no match we can abort the keyword search
-                        return null;
-                    }
-                }
-            } else {
-                // no match we can abort the complete keyword search
-                return null;
+        public boolean collect(int fileIndex) {
+            ShareFile shareFile = sharedFilesService.getFileByIndex(fileIndex);
+            if (shareFile == null) {
+                return false;
             }
-            startPos = endPos;
+            return addResult(shareFile);
         }
 
-        return searchMatches;
-    }
-
-    private List<ShareFile> provideResultData(List<ShareFile> urnMatches,
-                                              IntSet keywordMatches, byte[] originIpAddress,
-                                                int maxResults
-    ) {
-        int count = 0;
-        if (urnMatches != null) {
-            count += urnMatches.size();
-        }
-        if (keywordMatches != null) {
-            count += keywordMatches.size();
-        }
-        if (count == 0) {
-            return Collections.emptyList();
+        /**
+         * @return true if the max result count is reached.
+         */
+        private boolean addResult(ShareFile shareFile) {
+            if (isComplete()) {
+                return true;
+            }
+            if (!isEligible(shareFile)) {
+                return false;
+            }
+            // increment search count for files in list
+            shareFile.incSearchCount();
+            if (results == null) {
+                results = new ArrayList<ShareFile>();
+            }
+            results.add(shareFile);
+            return isComplete();
         }
 
-        PhexSecurityManager securityService = peer.getSecurityService();
-        List<ShareFile> resultList = new ArrayList<ShareFile>();
-        int resultListSize = 0;
-        if (urnMatches != null && urnMatches.size() > 0) {
-            for (ShareFile shareFile : urnMatches) {
-                try {
-                    SharedDirectory dir = sharedFilesService.getSharedDirectory(shareFile.getSystemFile().getParentFile());
-                    if (!securityService.isEligibleIpAddress(originIpAddress, dir)) {
-                        continue;
-                    }
-                } catch (Exception exp) {
-                    NLogger.warn(QueryResultSearchEngine.class, exp, exp);
-                }
+        private boolean isComplete() {
+            return results != null && results.size() >= maxResults;
+        }
 
-                // increment search count for files in list
-                shareFile.incSearchCount();
-                resultList.add(shareFile);
-                resultListSize++;
-                if (resultListSize >= maxResults) {
-                    break;
-                }
+        private List<ShareFile> getResults() {
+            if (results == null) {
+                return Collections.emptyList();
             }
+            return results;
         }
-        if (keywordMatches != null && keywordMatches.size() > 0
-                && resultListSize < maxResults) {
-            IntSetIterator iterator = keywordMatches.iterator();
-            while (iterator.hasNext()) {
-                int index = iterator.next();
-                ShareFile shareFile = sharedFilesService.getFileByIndex(index);
-                if (shareFile != null) {
-                    try {
-                        SharedDirectory dir = sharedFilesService.getSharedDirectory(shareFile.getSystemFile().getParentFile());
-                        if (!securityService.isEligibleIpAddress(originIpAddress, dir)) {
-                            continue;
-                        }
-                    } catch (Exception exp) {
-                        NLogger.warn(QueryResultSearchEngine.class, exp, exp);
-                    }
 
-                    // increment search count for files in list
-                    shareFile.incSearchCount();
-                    resultList.add(shareFile);
-                    resultListSize++;
-                    if (resultListSize >= maxResults) {
-                        break;
-                    }
+        private boolean isEligible(ShareFile shareFile) {
+            if (!securityService.hasEligibleIpRules()) {
+                return true;
+            }
+            try {
+                SharedDirectory dir = sharedFilesService.getSharedDirectoryOf(shareFile);
+                if (dir == null) {
+                    return securityService.isEligibleIpAddress(originIpAddress, null);
                 }
+                if (eligibleDirectories == null) {
+                    eligibleDirectories = new HashMap<SharedDirectory, Boolean>();
+                }
+                Boolean isEligible = eligibleDirectories.get(dir);
+                if (isEligible == null) {
+                    isEligible = Boolean.valueOf(
+                            securityService.isEligibleIpAddress(originIpAddress, dir));
+                    eligibleDirectories.put(dir, isEligible);
+                }
+                return isEligible.booleanValue();
+            } catch (Exception exp) {
+                NLogger.warn(QueryResultSearchEngine.class, exp, exp);
+                return true;
             }
         }
-
-        assert (resultList.size() <= maxResults);
-
-        return resultList;
     }
 
 
@@ -29,6 +29,7 @@ import phex.common.address.DestAddress;
 import phex.common.log.NLogger;
 import phex.http.Range;
 import phex.http.Range.RangeAvailability;
+import phex.msg.QueryResponseRecord;
 import phex.net.repres.PresentationManager;
 import phex.thex.FileHashCalculationHandler;
 import phex.thex.ShareFileThexData;
@@ -36,6 +37,7 @@ import phex.xml.sax.share.DAlternateLocation;
 import phex.xml.sax.share.DSharedFile;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ShareFile extends SharedResource {
@@ -79,6 +81,24 @@ public class ShareFile extends SharedResource {
      */
     private Long networkCreateTime;
 
+    /**
+     * The last modification time of the file when it was shared.
+     */
+    private long lastModified;
+
+    /**
+     * The query response record last created for this file. Its encoded
+     * form is reused for query hits as long as the record still matches
+     * the state of the file.
+     */
+    private volatile QueryResponseRecord queryResponseRecord;
+
+    /**
+     * Indicates that the persistent state of the file changed since it was
+     * last stored in the shared library journal.
+     */
+    private volatile boolean isStoreRequired;
+
     /**
      * Creates a new ShareFile with its backed file object.
      *
@@ -91,7 +111,8 @@ public class ShareFile extends SharedResource {
         searchCount = 0;
         uploadCount = 0;
 
-        networkCreateTime = Long.valueOf(aFile.lastModified());
+        lastModified = aFile.lastModified();
+        networkCreateTime = Long.valueOf(lastModified);
     }
 
     /**
@@ -115,6 +136,8 @@ public class ShareFile extends SharedResource {
      */
     public void setURN(URN urn) {
         this.urn = urn;
+        queryResponseRecord = null;
+        isStoreRequired = true;
     }
 
     /**
@@ -145,6 +168,7 @@ public class ShareFile extends SharedResource {
      */
     public void setFileIndex(int index) {
         fileIndex = index;
+        queryResponseRecord = null;
     }
 
     /**
@@ -166,6 +190,7 @@ public class ShareFile extends SharedResource {
 
     public void setThexData(ShareFileThexData thexData) {
         this.thexData = thexData;
+        isStoreRequired = true;
     }
 
     public Long getNetworkCreateTime() {
@@ -181,6 +206,15 @@ public class ShareFile extends SharedResource {
         return fileSize;
     }
 
+    /**
+     * Returns the last modification time of the file when it was shared.
+     *
+     * @return the last modification time.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
     /**
      * Checks if the requested range is satisfiable.
      *
@@ -208,6 +242,34 @@ public class ShareFile extends SharedResource {
         return alternateLocations;
     }
 
+    /**
+     * Returns the version of the alternate location container, or 0 if the
+     * container was not created yet.
+     *
+     * @return the version of the alternate location container.
+     */
+    public int getAltLocVersion() {
+        AltLocContainer container = alternateLocations;
+        if (container == null) {
+            return 0;
+        }
+        return container.getVersion();
+    }
+
+    /**
+     * Returns the query response record last created for this file, the
+     * caller must check that it is still up to date.
+     *
+     * @return the cached query response record or null.
+     */
+    public QueryResponseRecord getQueryResponseRecord() {
+        return queryResponseRecord;
+    }
+
+    public void setQueryResponseRecord(QueryResponseRecord record) {
+        queryResponseRecord = record;
+    }
+
     public int getAltLocCount() {
         if (alternateLocations == null) {
             return 0;
@@ -230,6 +292,7 @@ public class ShareFile extends SharedResource {
      */
     public void incSearchCount() {
         searchCount++;
+        isStoreRequired = true;
     }
 
     /**
@@ -246,6 +309,7 @@ public class ShareFile extends SharedResource {
      */
     public void incUploadCount() {
         uploadCount++;
+        isStoreRequired = true;
     }
 
     /**
@@ -260,6 +324,7 @@ public class ShareFile extends SharedResource {
         uploadCount = dFile.getUploadCount();
         urn = new URN("urn:sha1:" + dFile.getSha1());
         networkCreateTime = Long.valueOf(dFile.getCreationTime());
+        queryResponseRecord = null;
 
         String rootHash = dFile.getThexRootHash();
         if (rootHash != null) {
@@ -291,6 +356,61 @@ public class ShareFile extends SharedResource {
         }
     }
 
+    /**
+     * Updates the searchCount, uploadCount, urn, THEX data and alternate
+     * locations from the record stored in the shared library journal.
+     */
+    public void updateFromRecord(SharedFileRecord record) {
+        searchCount = record.getHitCount();
+        uploadCount = record.getUploadCount();
+        urn = new URN("urn:sha1:" + record.getSha1());
+        networkCreateTime = Long.valueOf(record.getCreationTime());
+        queryResponseRecord = null;
+
+        String rootHash = record.getThexRootHash();
+        if (rootHash != null) {
+            thexData = new ShareFileThexData(rootHash, record.getThexNodeList(),
+                    record.getThexTreeDepth());
+        }
+        for (String hostAddress : record.getAltLocHosts()) {
+            try {
+                DestAddress address = PresentationManager.getInstance().
+                        createHostAddress(hostAddress, DefaultDestAddress.DEFAULT_PORT);
+                getAltLocContainer().addAlternateLocation(
+                        new AlternateLocation(address, urn));
+            } catch (Exception exp) {
+                NLogger.error(ShareFile.class,
+                        "AlternateLocation skipped due to error.", exp);
+            }
+        }
+    }
+
+    /**
+     * Creates the record to store the file in the shared library journal.
+     */
+    public SharedFileRecord createSharedFileRecord() {
+        String rootHash = null;
+        byte[] nodes = null;
+        int depth = 0;
+        ShareFileThexData thex = thexData;
+        if (thex != null) {
+            rootHash = thex.getRootHash();
+            nodes = SharedFileRecord.concatNodes(thex.getLowestLevelNodes());
+            depth = thex.getTreeDepth();
+        }
+        List<String> altLocHosts = new ArrayList<String>();
+        if (alternateLocations != null) {
+            List<DAlternateLocation> dAltLocs = new ArrayList<DAlternateLocation>();
+            alternateLocations.createDAlternateLocationList(dAltLocs);
+            for (DAlternateLocation dAltLoc : dAltLocs) {
+                altLocHosts.add(dAltLoc.getHostAddress());
+            }
+        }
+        return new SharedFileRecord(systemFile.getAbsolutePath(), fileSize,
+                lastModified, networkCreateTime.longValue(), searchCount,
+                uploadCount, getSha1(), rootHash, depth, nodes, altLocHosts);
+    }
+
     public DSharedFile createDSharedFile() {
         DSharedFile dFile = new DSharedFile();
         dFile.setFileName(systemFile.getAbsolutePath());
@@ -318,9 +438,23 @@ public class ShareFile extends SharedResource {
 
     public void clearSearchCounters() {
         searchCount = 0;
+        isStoreRequired = true;
     }
 
     public void clearUploadCounters() {
         uploadCount = 0;
+        isStoreRequired = true;
+    }
+
+    /**
+     * Returns true if the persistent state changed since the last call and
+     * needs to be stored again.
+     */
+    public boolean resetStoreRequired() {
+        if (!isStoreRequired) {
+            return false;
+        }
+        isStoreRequired = false;
+        return true;
     }
 }
@@ -0,0 +1,386 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.common.ThreadTracking;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the shared directories for created, modified and deleted files and
+ * passes the changes in batches to an incremental rescan. This spares the
+ * periodic listing of all shared directories.
+ * Directories that can't be watched, e.g. on network file systems, are
+ * polled instead. Only their modification time is checked every poll, and
+ * only the files that changed since the last listing are passed on.
+ */
+public class SharedDirectoryWatcher implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(SharedDirectoryWatcher.class);
+
+    /**
+     * The time to wait for further events before a batch of changes is
+     * processed. Copying a file causes many events in a short time.
+     */
+    private static final long BATCH_DELAY = 2000;
+
+    /**
+     * The max time events are collected before a batch is processed.
+     */
+    private static final long MAX_BATCH_TIME = 30 * 1000;
+
+    /**
+     * The interval in which the modification time of the unwatched
+     * directories is checked.
+     */
+    private static final long POLL_INTERVAL = 60 * 1000;
+
+    /**
+     * The max time an unwatched directory is not listed. Modifying a file
+     * does not change the modification time of its directory.
+     */
+    private static final long LIST_INTERVAL = 10 * 60 * 1000;
+
+    /**
+     * The file store types of network file systems. Changes made by other
+     * hosts are not reported for them, so they are scanned periodically.
+     */
+    private static final Set<String> REMOTE_FILE_STORE_TYPES = new HashSet<String>(
+            Arrays.asList("nfs", "nfs4", "cifs", "smbfs", "smb2", "ncpfs", "afs",
+                    "fuse.sshfs", "webdav", "davfs"));
+
+    private final SharedFilesService sharing;
+
+    /**
+     * Maps the watch keys to the directories they watch.
+     * When accessing this object locking via this is required.
+     */
+    private final Map<WatchKey, File> keyToDirectoryMap;
+    private final Map<File, WatchKey> directoryToKeyMap;
+
+    /**
+     * The shared directories the watch service can't cover.
+     * When accessing this object locking via this is required.
+     */
+    private final Set<File> unwatchedDirectories;
+
+    /**
+     * The last listing of the unwatched directories.
+     * Only accessed by the watch thread.
+     */
+    private final Map<File, DirectoryListing> listings;
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public SharedDirectoryWatcher(SharedFilesService sharing) {
+        this.sharing = sharing;
+        keyToDirectoryMap = new HashMap<WatchKey, File>();
+        directoryToKeyMap = new HashMap<File, WatchKey>();
+        unwatchedDirectories = new HashSet<File>();
+        listings = new HashMap<File, DirectoryListing>();
+    }
+
+    /**
+     * Starts watching. In case no watch service is available all directories
+     * are reported as unwatched.
+     */
+    public synchronized void start() {
+        if (watchThread != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException exp) {
+            logger.warn("Shared directories can't be watched: {}", exp.toString());
+            watchService = null;
+            return;
+        }
+        watchThread = new Thread(ThreadTracking.rootThreadGroup, this,
+                "SharedDirectoryWatcher");
+        watchThread.setDaemon(true);
+        watchThread.setPriority(Thread.MIN_PRIORITY);
+        watchThread.start();
+    }
+
+    public synchronized void stop() {
+        if (watchThread == null) {
+            return;
+        }
+        watchThread.interrupt();
+        watchThread = null;
+        try {
+            watchService.close();
+        } catch (IOException exp) {
+            logger.warn(exp.toString(), exp);
+        }
+        watchService = null;
+        keyToDirectoryMap.clear();
+        directoryToKeyMap.clear();
+        unwatchedDirectories.clear();
+    }
+
+    public synchronized boolean isRunning() {
+        return watchThread != null;
+    }
+
+    /**
+     * Watches the given directories and stops watching all others.
+     * Directories that can't be watched are added to the unwatched
+     * directories.
+     *
+     * @return true if the set of directories changed.
+     */
+    public synchronized boolean updateWatchedDirectories(Set<File> directories) {
+        Set<File> knownDirectories = new HashSet<File>(directoryToKeyMap.keySet());
+        knownDirectories.addAll(unwatchedDirectories);
+        boolean isChanged = !knownDirectories.equals(directories);
+
+        Iterator<Map.Entry<File, WatchKey>> iterator = directoryToKeyMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, WatchKey> entry = iterator.next();
+            if (!directories.contains(entry.getKey()) || !entry.getValue().isValid()) {
+                entry.getValue().cancel();
+                keyToDirectoryMap.remove(entry.getValue());
+                iterator.remove();
+            }
+        }
+        unwatchedDirectories.retainAll(directories);
+
+        for (File directory : directories) {
+            if (directoryToKeyMap.containsKey(directory)) {
+                continue;
+            }
+            if (watchService == null || isRemoteDirectory(directory)) {
+                unwatchedDirectories.add(directory);
+                continue;
+            }
+            try {
+                WatchKey key = directory.toPath().register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                keyToDirectoryMap.put(key, directory);
+                directoryToKeyMap.put(directory, key);
+                unwatchedDirectories.remove(directory);
+            } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException exp) {
+                logger.debug("Directory '{}' can't be watched: {}", directory, exp.toString());
+                unwatchedDirectories.add(directory);
+            }
+        }
+        return isChanged;
+    }
+
+    private static boolean isRemoteDirectory(File directory) {
+        try {
+            String type = Files.getFileStore(directory.toPath()).type();
+            return REMOTE_FILE_STORE_TYPES.contains(type.toLowerCase(Locale.US));
+        } catch (IOException exp) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the directories that can't be watched and are polled instead.
+     */
+    public synchronized Set<File> getUnwatchedDirectories() {
+        return new HashSet<File>(unwatchedDirectories);
+    }
+
+    public void run() {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        long nextPollTime = System.currentTimeMillis() + POLL_INTERVAL;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Set<File> changedFiles = new HashSet<File>();
+                    Set<File> rescanDirectories = new HashSet<File>();
+
+                    long pollDelay = Math.max(0, nextPollTime - System.currentTimeMillis());
+                    WatchKey key = service.poll(pollDelay, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        long batchEnd = System.currentTimeMillis() + MAX_BATCH_TIME;
+                        do {
+                            collectEvents(key, changedFiles, rescanDirectories);
+                            key = service.poll(BATCH_DELAY, TimeUnit.MILLISECONDS);
+                        } while (key != null && System.currentTimeMillis() < batchEnd);
+                        if (key != null) {
+                            collectEvents(key, changedFiles, rescanDirectories);
+                        }
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= nextPollTime) {
+                        pollUnwatchedDirectories(now, changedFiles);
+                        nextPollTime = System.currentTimeMillis() + POLL_INTERVAL;
+                    }
+
+                    if (!changedFiles.isEmpty() || !rescanDirectories.isEmpty()) {
+                        logger.debug("Rescanning {} changed files and {} directories.",
+                                changedFiles.size(), rescanDirectories.size());
+                        FileRescanRunner.rescanChanges(sharing, changedFiles,
+                                rescanDirectories);
+                    }
+                } catch (RuntimeException exp) {
+                    // keep watching, the changes are picked up by the next
+                    // full rescan.
+                    logger.error(exp.toString(), exp);
+                }
+            }
+        } catch (InterruptedException exp) {
+            // stopped
+        } catch (ClosedWatchServiceException exp) {
+            // stopped
+        }
+    }
+
+    /**
+     * Adds the files of the unwatched directories that changed since their
+     * last listing. A directory is only listed again if its modification
+     * time changed or LIST_INTERVAL passed. The first listing of a directory
+     * reports no changes, it was scanned by the rescan that shared it.
+     */
+    void pollUnwatchedDirectories(long now, Set<File> changedFiles) {
+        Set<File> directories = getUnwatchedDirectories();
+        listings.keySet().retainAll(directories);
+        for (File directory : directories) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            pollDirectory(directory, now, changedFiles);
+        }
+    }
+
+    private void pollDirectory(File directory, long now, Set<File> changedFiles) {
+        Path path = directory.toPath();
+        DirectoryListing lastListing = listings.get(directory);
+        try {
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (lastListing != null && lastListing.lastModified == lastModified
+                    && now - lastListing.listTime < LIST_INTERVAL) {
+                return;
+            }
+            DirectoryListing listing = new DirectoryListing(lastModified, now);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path file : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (IOException exp) {
+                        // deleted in the meantime
+                        continue;
+                    }
+                    listing.files.put(file.getFileName().toString(), new long[]{
+                            attributes.size(), attributes.lastModifiedTime().toMillis()});
+                }
+            }
+            if (lastListing != null) {
+                lastListing.addChangedFiles(directory, listing, changedFiles);
+            }
+            listings.put(directory, listing);
+        } catch (IOException exp) {
+            logger.debug("Directory '{}' can't be polled: {}", directory, exp.toString());
+        }
+    }
+
+    private void collectEvents(WatchKey key, Set<File> changedFiles,
+                               Set<File> rescanDirectories) {
+        File directory;
+        synchronized (this) {
+            directory = keyToDirectoryMap.get(key);
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events got lost, scan the whole directory.
+                rescanDirectories.add(directory);
+            } else {
+                Path name = (Path) event.context();
+                changedFiles.add(new File(directory, name.toString()));
+            }
+        }
+        if (!key.reset() && directory != null) {
+            // the directory is not accessible anymore, it is scanned until
+            // it can be watched again.
+            synchronized (this) {
+                keyToDirectoryMap.remove(key);
+                directoryToKeyMap.remove(directory);
+                unwatchedDirectories.add(directory);
+            }
+            rescanDirectories.add(directory);
+        }
+    }
+
+    /**
+     * The size and modification time of the files of a directory, by name.
+     */
+    private static class DirectoryListing {
+        private final long lastModified;
+        private final long listTime;
+        private final Map<String, long[]> files;
+
+        private DirectoryListing(long lastModified, long listTime) {
+            this.lastModified = lastModified;
+            this.listTime = listTime;
+            files = new HashMap<String, long[]>();
+        }
+
+        private void addChangedFiles(File directory, DirectoryListing listing,
+                                     Set<File> changedFiles) {
+            for (Map.Entry<String, long[]> entry : listing.files.entrySet()) {
+                long[] state = files.get(entry.getKey());
+                if (state == null || !Arrays.equals(state, entry.getValue())) {
+                    changedFiles.add(new File(directory, entry.getKey()));
+                }
+            }
+            for (String name : files.keySet()) {
+                if (!listing.files.containsKey(name)) {
+                    changedFiles.add(new File(directory, name));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import phex.thex.ShareFileThexData;
+import phex.xml.sax.share.DAlternateLocation;
+import phex.xml.sax.share.DSharedFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The persistent state of a shared file as it is stored in the
+ * SharedLibraryJournal. The THEX lowest level nodes are held as a single
+ * array of concatenated node hashes to keep the record compact.
+ */
+public class SharedFileRecord {
+    /**
+     * The size of a single THEX node hash.
+     */
+    public static final int THEX_NODE_SIZE = 24;
+
+    private final String fileName;
+    private final long fileSize;
+    private final long lastModified;
+    private final long creationTime;
+    private final int hitCount;
+    private final int uploadCount;
+    private final String sha1;
+    private final String thexRootHash;
+    private final int thexTreeDepth;
+    private final byte[] thexNodes;
+    private final List<String> altLocHosts;
+
+    /**
+     * @param thexRootHash the THEX root hash or null if not calculated.
+     * @param thexNodes    the concatenated THEX lowest level nodes or null.
+     * @param altLocHosts  the host addresses of the alternate locations.
+     */
+    public SharedFileRecord(String fileName, long fileSize, long lastModified,
+                            long creationTime, int hitCount, int uploadCount, String sha1,
+                            String thexRootHash, int thexTreeDepth, byte[] thexNodes,
+                            List<String> altLocHosts) {
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.creationTime = creationTime;
+        this.hitCount = hitCount;
+        this.uploadCount = uploadCount;
+        this.sha1 = sha1;
+        this.thexRootHash = thexRootHash;
+        this.thexTreeDepth = thexTreeDepth;
+        this.thexNodes = thexNodes;
+        this.altLocHosts = altLocHosts;
+    }
+
+    /**
+     * Creates a record from a shared file of the XML shared library, used to
+     * import the XML library into the journal.
+     */
+    public static SharedFileRecord fromDSharedFile(DSharedFile dFile) {
+        String rootHash = dFile.getThexRootHash();
+        byte[] nodes = null;
+        if (rootHash != null) {
+            ShareFileThexData thexData = new ShareFileThexData(rootHash,
+                    dFile.getThexLowestLevelNodes(), dFile.getThexTreeDepth());
+            nodes = concatNodes(thexData.getLowestLevelNodes());
+        }
+        List<String> altLocHosts = new ArrayList<String>();
+        for (DAlternateLocation dAltLoc : dFile.getAltLocList()) {
+            altLocHosts.add(dAltLoc.getHostAddress());
+        }
+        return new SharedFileRecord(dFile.getFileName(), -1, dFile.getLastModified(),
+                dFile.getCreationTime(), dFile.getHitCount(), dFile.getUploadCount(),
+                dFile.getSha1(), rootHash, dFile.getThexTreeDepth(), nodes, altLocHosts);
+    }
+
+    public static byte[] concatNodes(List<byte[]> nodes) {
+        byte[] data = new byte[nodes.size() * THEX_NODE_SIZE];
+        int offset = 0;
+        for (byte[] node : nodes) {
+            System.arraycopy(node, 0, data, offset, THEX_NODE_SIZE);
+            offset += THEX_NODE_SIZE;
+        }
+        return data;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the file size or -1 if unknown.
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getUploadCount() {
+        return uploadCount;
+    }
+
+    public String getSha1() {
+        return sha1;
+    }
+
+    public String getThexRootHash() {
+        return thexRootHash;
+    }
+
+    public int getThexTreeDepth() {
+        return thexTreeDepth;
+    }
+
+    public byte[] getThexNodes() {
+        return thexNodes;
+    }
+
+    /**
+     * Returns the THEX lowest level nodes split into single node hashes.
+     */
+    public List<byte[]> getThexNodeList() {
+        if (thexNodes == null) {
+            return Collections.emptyList();
+        }
+        List<byte[]> nodes = new ArrayList<byte[]>(thexNodes.length / THEX_NODE_SIZE);
+        for (int offset = 0; offset + THEX_NODE_SIZE <= thexNodes.length;
+             offset += THEX_NODE_SIZE) {
+            byte[] node = new byte[THEX_NODE_SIZE];
+            System.arraycopy(thexNodes, offset, node, 0, THEX_NODE_SIZE);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    public List<String> getAltLocHosts() {
+        return altLocHosts;
+    }
+}
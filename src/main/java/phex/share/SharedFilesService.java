@@ -24,9 +24,6 @@ package phex.share;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import phex.common.*;
-import phex.common.collections.IntSet;
-import phex.common.collections.StringTrie;
-import phex.common.file.FileManager;
 import phex.common.file.ManagedFile;
 import phex.common.file.ManagedFileException;
 import phex.event.UserMessageListener;
@@ -34,7 +31,6 @@ import phex.msg.QueryMsg;
 import phex.LibraryPrefs;
 import phex.peer.Peer;
 import phex.thex.FileHashCalculationHandler;
-import phex.thex.ThexCalculationWorker;
 import phex.util.FileUtils;
 import phex.util.StringUtils;
 import phex.xml.sax.DPhex;
@@ -59,6 +55,11 @@ public class SharedFilesService extends AbstractLifeCycle
      * Lock object to lock saving of shared file lists.
      */
     private static final Object saveSharedFilesLock = new Object();
+    /**
+     * The journal is compacted once it holds more then twice the records of
+     * the stored files plus this number.
+     */
+    private static final int MIN_COMPACTION_RECORDS = 1000;
 
     private final ReentrantReadWriteLock rwLock;
     /**
@@ -108,40 +109,56 @@ public class SharedFilesService extends AbstractLifeCycle
      */
     private final ArrayList<ShareFile> sharedFiles;
     /**
-     * The string trie containing the key words and an IntSet with matching
-     * file indices.
+     * The keyword index holding the sorted indices of the files matching
+     * each keyword.
+     * When accessing this object locking via the rwLock object is required.
      */
-    private final StringTrie<IntSet> keywordTrie;
+    private final KeywordIndex keywordIndex;
     /**
-     * A instance of a background runner queue to calculate
-     * urns.
+     * The background queue calculating the urns and thex data of shared
+     * files.
      */
-    private final RunnerQueueWorker urnThexCalculationRunner;
+    private final FileHashCalculationQueue hashCalculationQueue;
     public final Peer peer;
     /**
      * The total size of the shared files.
      */
     private int totalFileSizeKb;
     /**
-     * Local query routing table. Contains all shared files.
+     * Local query routing table. Contains all shared files, files are added
+     * and removed incrementally.
+     */
+    private final LocalQueryRoutingTable localRoutingTable;
+    /**
+     * Watches the shared directories for changes to update the shared files
+     * incrementally.
+     */
+    private final SharedDirectoryWatcher directoryWatcher;
+    /**
+     * The binary journal the shared library is stored in.
      */
-    private QueryRoutingTable localRoutingTable;
+    private final SharedLibraryJournal libraryJournal;
     /**
-     * Indicates if the local qrt needs to be rebuild i.e. after shared files
-     * have changed.
+     * The names of the unshared files that are not yet removed from the
+     * journal. When accessing this object locking via itself is required.
      */
-    private boolean localQRTNeedsUpdate;
+    private final List<String> removedFileNames;
     /**
      * Object that holds the save job instance while a save job is running. The
      * reference is null if the job is not running.
      */
     private SaveSharedFilesJob saveSharedFilesJob;
+    /**
+     * Indicates that the journal must be rewritten completely on the next
+     * save, e.g. since appending changes failed.
+     */
+    private volatile boolean isJournalCompactionRequired;
 
     public SharedFilesService(Peer peer) {
 
         this.peer = peer;
         rwLock = new ReentrantReadWriteLock();
-        urnThexCalculationRunner = new RunnerQueueWorker(Thread.NORM_PRIORITY - 1);
+        hashCalculationQueue = new FileHashCalculationQueue(this);
 
         Environment.getInstance().scheduleTimerTask(
                 new FileRescanTimer(), FileRescanTimer.TIMER_PERIOD,
@@ -156,9 +173,13 @@ public class SharedFilesService extends AbstractLifeCycle
         timeToFileMap = new TreeMap<Long, Set<ShareFile>>(Collections.reverseOrder());
         indexedSharedFiles = new ArrayList<ShareFile>();
         sharedFiles = new ArrayList<ShareFile>();
-        keywordTrie = new StringTrie<IntSet>(true);
+        keywordIndex = new KeywordIndex();
         totalFileSizeKb = 0;
-        localQRTNeedsUpdate = true;
+        localRoutingTable = new LocalQueryRoutingTable();
+        directoryWatcher = new SharedDirectoryWatcher(this);
+        libraryJournal = new SharedLibraryJournal(
+                peer.file(Peer.SHARED_LIBRARY_JOURNAL_FILE_NAME));
+        removedFileNames = new ArrayList<String>();
     }
 
     public DSharedLibrary loadSharedLibrary() {
@@ -203,28 +224,109 @@ public class SharedFilesService extends AbstractLifeCycle
         return sharedLibrary;
     }
 
+    /**
+     * Loads the stored shared files from the shared library journal. In case
+     * no journal exists yet, the XML shared library of older versions is
+     * imported once.
+     *
+     * @return the stored shared files mapped by file name.
+     */
+    public Map<String, SharedFileRecord> loadSharedFileRecords() {
+        logger.debug("Load shared library journal.");
+        try {
+            if (!libraryJournal.exists()) {
+                importSharedLibrary();
+            }
+            return libraryJournal.load();
+        } catch (IOException exp) {
+            logger.error(exp.toString(), exp);
+            Environment.getInstance().fireDisplayUserMessage(
+                    UserMessageListener.SharedFilesLoadFailed,
+                    new String[]{exp.toString()});
+            return new HashMap<String, SharedFileRecord>();
+        }
+    }
+
+    /**
+     * Imports the XML shared library into the journal. The XML file is left
+     * untouched.
+     */
+    private void importSharedLibrary() throws IOException {
+        DSharedLibrary library = loadSharedLibrary();
+        if (library == null) {
+            return;
+        }
+        List<SharedFileRecord> records = new ArrayList<SharedFileRecord>();
+        for (DSharedFile dFile : library.getSubElementList()) {
+            try {
+                records.add(SharedFileRecord.fromDSharedFile(dFile));
+            } catch (Exception exp) {
+                logger.error("SharedFile skipped due to error.", exp);
+            }
+        }
+        libraryJournal.compact(records);
+        logger.info("Imported {} shared files into the shared library journal.",
+                Integer.valueOf(records.size()));
+    }
+
     @Override
     protected void doStart() throws Exception {
         // TODO can we ensure that this is called as the last start or after
         // all other life cycle have been started?
+        // watch before the initial rescan to not miss any changes.
+        updateDirectoryWatcher();
         FileRescanRunner.rescan(this, true, false);
     }
 
     @Override
     protected void doStop() throws Exception {
+        directoryWatcher.stop();
         triggerSaveSharedFiles();
     }
 
+    /**
+     * Starts, updates or stops watching the shared directories depending
+     * on the library settings.
+     *
+     * @return true if the shared directories changed since the last update.
+     */
+    private boolean updateDirectoryWatcher() {
+        if (!peer.libPrefs.WatchSharedDirectories.get().booleanValue()) {
+            directoryWatcher.stop();
+            return false;
+        }
+        directoryWatcher.start();
+        Set<String> sharedDirs = peer.libPrefs.SharedDirectoriesSet.get();
+        Set<File> directories = new HashSet<File>(sharedDirs.size());
+        for (String sharedDir : sharedDirs) {
+            File dir = new File(sharedDir);
+            if (dir.isDirectory()) {
+                directories.add(dir);
+            }
+        }
+        return directoryWatcher.updateWatchedDirectories(directories);
+    }
+
     public List<ShareFile> handleQuery(QueryMsg queryMsg) {
         return searchEngine.handleQuery(queryMsg);
     }
 
     public QueryRoutingTable getLocalRoutingTable() {
-        if (localQRTNeedsUpdate) {
-            localRoutingTable = QueryRoutingTable.createLocalQueryRoutingTable(
-                    getSharedFiles());
+        if (localRoutingTable.isResizeRequired()) {
+            List<String> paths;
+            rwLock.readLock().lock();
+            try {
+                paths = new ArrayList<String>(sharedFiles.size());
+                for (ShareFile shareFile : sharedFiles) {
+                    paths.add(shareFile.getSystemFile().getAbsolutePath());
+                }
+                // rebuild under the read lock to not miss concurrent changes.
+                localRoutingTable.rebuild(paths);
+            } finally {
+                rwLock.readLock().unlock();
+            }
         }
-        return localRoutingTable;
+        return localRoutingTable.getQueryRoutingTable();
     }
 
     /**
@@ -314,9 +416,20 @@ public class SharedFilesService extends AbstractLifeCycle
         }
     }
 
-    public Iterator<IntSet> getIndexIteratorForPrefixTerm(String searchTerm,
-                                                          int startOffset, int stopOffset) {
-        return keywordTrie.getPrefixedBy(searchTerm, startOffset, stopOffset);
+    /**
+     * Searches the files matching all keywords of the search string. The
+     * collector is called while the read lock is held.
+     *
+     * @param searchStr the search string.
+     * @param collector receives the matching file indices in ascending order.
+     */
+    void searchKeywords(String searchStr, KeywordIndex.MatchCollector collector) {
+        rwLock.readLock().lock();
+        try {
+            keywordIndex.search(searchStr, collector);
+        } finally {
+            rwLock.readLock().unlock();
+        }
     }
 
     /**
@@ -519,20 +632,15 @@ public class SharedFilesService extends AbstractLifeCycle
             // don't add to urn map yet since urns get calculated in background.
             nameToFileMap.put(file.getAbsolutePath(), shareFile);
 
-            // fill search trie...
+            // fill keyword index...
             String keywordsString = getSharedFilePath(shareFile.getSystemFile()).toLowerCase();
             String[] keywords = StringUtils.split(keywordsString, StringUtils.FILE_DELIMITERS);
             for (int i = 0; i < keywords.length; i++) {
-                IntSet indices = keywordTrie.get(keywords[i]);
-                if (indices == null) {// lazy initialize
-                    indices = new IntSet();
-                    keywordTrie.add(keywords[i], indices);
-                }
-                indices.add(position);
+                keywordIndex.add(keywords[i], position);
             }
 
             totalFileSizeKb += file.length() / 1024;
-            localQRTNeedsUpdate = true;
+            localRoutingTable.addFile(file.getAbsolutePath());
         } finally {
             rwLock.writeLock().unlock();
 //            try{ rwLock.writeUnlock(); }
@@ -563,17 +671,11 @@ public class SharedFilesService extends AbstractLifeCycle
             int fileIndex = shareFile.getFileIndex();
             indexedSharedFiles.set(fileIndex, null);
 
-            // clear from trie...
+            // clear from keyword index...
             String keywordsString = getSharedFilePath(shareFile.getSystemFile()).toLowerCase();
             String[] keywords = StringUtils.split(keywordsString, StringUtils.FILE_DELIMITERS);
             for (int i = 0; i < keywords.length; i++) {
-                IntSet indices = keywordTrie.get(keywords[i]);
-                if (indices != null) {
-                    indices.remove(fileIndex);
-                    if (indices.size() == 0) {
-                        keywordTrie.remove(keywords[i]);
-                    }
-                }
+                keywordIndex.remove(keywords[i], fileIndex);
             }
 
             // remove name to file map
@@ -582,12 +684,18 @@ public class SharedFilesService extends AbstractLifeCycle
             nameToFileMap.remove(file.getAbsolutePath());
             removeTimeToFile(shareFile);
 
+            if (shareFile.getURN() != null) {
+                synchronized (removedFileNames) {
+                    removedFileNames.add(file.getAbsolutePath());
+                }
+            }
+
             // try to find shareFile in access list
             position = sharedFiles.indexOf(shareFile);
             if (position != -1) {// if removed update data
                 sharedFiles.remove(position);
                 totalFileSizeKb -= shareFile.getFileSize() / 1024;
-                localQRTNeedsUpdate = true;
+                localRoutingTable.removeFile(file.getAbsolutePath());
             }
         } finally {
             rwLock.writeLock().unlock();
@@ -684,6 +792,23 @@ public class SharedFilesService extends AbstractLifeCycle
         }
     }
 
+    /**
+     * Returns the shared directory containing the file. Unlike
+     * getSharedDirectory( File ) the file system is not accessed.
+     *
+     * @param shareFile the shared file.
+     * @return the shared directory or null.
+     */
+    SharedDirectory getSharedDirectoryOf(ShareFile shareFile) {
+        File parent = shareFile.getSystemFile().getParentFile();
+        rwLock.readLock().lock();
+        try {
+            return directoryShareMap.get(parent);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
     /**
      * Adds a urn to file mapping for this ShareFile. When calling make sure
      * the urn is already set.
@@ -708,35 +833,32 @@ public class SharedFilesService extends AbstractLifeCycle
     }
 
     /**
-     * Queues a ShareFile for calculating THEX.
+     * Queues a ShareFile for calculating its URN. The THEX data is
+     * calculated in the same pass over the file.
      *
      * @param shareFile the share file to calculate the
-     *                  thex hash for.
+     *                  urn hash for.
      */
     public void queueUrnCalculation(ShareFile shareFile) {
-        UrnCalculationWorker worker = new UrnCalculationWorker(
-                shareFile, this);
-        urnThexCalculationRunner.add(worker);
+        hashCalculationQueue.add(shareFile);
     }
 
     /**
-     * Queues a ShareFile for calculating its URN.
+     * Queues a ShareFile for calculating THEX.
      *
      * @param shareFile the share file to calculate the
-     *                  urn hash for.
+     *                  thex hash for.
      */
     public void queueThexCalculation(ShareFile shareFile) {
-        ThexCalculationWorker worker = new ThexCalculationWorker(
-                shareFile);
-        urnThexCalculationRunner.add(worker);
+        hashCalculationQueue.add(shareFile);
     }
 
     public void setCalculationRunnerPause(boolean state) {
-        urnThexCalculationRunner.setPause(state);
+        hashCalculationQueue.setPause(state);
     }
 
     public int getCalculationRunnerQueueSize() {
-        return urnThexCalculationRunner.getQueueSize();
+        return hashCalculationQueue.getQueueSize();
     }
 
     /**
@@ -746,14 +868,15 @@ public class SharedFilesService extends AbstractLifeCycle
     public void clearSharedFiles() {
         rwLock.writeLock().lock();
         try {
-            urnThexCalculationRunner.stopAndClear();
+            hashCalculationQueue.stopAndClear();
             sharedFiles.clear();
             indexedSharedFiles.clear();
+            keywordIndex.clear();
             urnToFileMap.clear();
             nameToFileMap.clear();
             timeToFileMap.clear();
             totalFileSizeKb = 0;
-            localQRTNeedsUpdate = true;
+            localRoutingTable.clear();
         } finally {
             rwLock.writeLock().unlock();
 //            try{ rwLock.writeUnlock(); }
@@ -775,7 +898,7 @@ public class SharedFilesService extends AbstractLifeCycle
                 // save shared files is already in progress. we rerequest a save.
                 saveSharedFilesJob.triggerFollowUpSave();
             } else {
-                saveSharedFilesJob = new SaveSharedFilesJob(peer.files);
+                saveSharedFilesJob = new SaveSharedFilesJob();
                 saveSharedFilesJob.start();
             }
         }
@@ -793,10 +916,24 @@ public class SharedFilesService extends AbstractLifeCycle
         // once per minute
         public static final long TIMER_PERIOD = 1000 * 60;
 
+        /**
+         * While the shared directories are watched, the complete library is
+         * only rescanned every hour to reconcile missed changes.
+         */
+        private static final int FULL_RESCAN_PERIODS = 60;
+
+        private int periodCount;
+
         @Override
         public void run() {
             try {
-                FileRescanRunner.rescan(SharedFilesService.this, false, false);
+                boolean isDirectoriesChanged = updateDirectoryWatcher();
+                periodCount++;
+                if (!directoryWatcher.isRunning() || isDirectoriesChanged
+                        || periodCount >= FULL_RESCAN_PERIODS) {
+                    periodCount = 0;
+                    FileRescanRunner.rescan(SharedFilesService.this, false, false);
+                }
             } catch (Throwable th) {
                 logger.error(th.toString(), th);
             }
@@ -804,12 +941,10 @@ public class SharedFilesService extends AbstractLifeCycle
     }
 
     private class SaveSharedFilesJob extends Thread {
-        private final FileManager files;
         private volatile boolean isFollowUpSaveTriggered;
 
-        public SaveSharedFilesJob(FileManager files) {
+        public SaveSharedFilesJob() {
             super(ThreadTracking.rootThreadGroup, "SaveSharedFilesJob");
-            this.files = files;
             setPriority(Thread.MIN_PRIORITY);
         }
 
@@ -823,69 +958,18 @@ public class SharedFilesService extends AbstractLifeCycle
          */
         @Override
         public void run() {
-            File libraryFile = peer.file(
-                    Peer.XML_SHARED_LIBRARY_FILE_NAME);
-            File tmpFile = peer.file(
-                    Peer.XML_SHARED_LIBRARY_FILE_NAME
-                            + ".tmp");
             do {
                 logger.debug("Saving shared library.");
                 isFollowUpSaveTriggered = false;
-                rwLock.readLock().lock();
                 try {
-                    DPhex dPhex = new DPhex();
-                    dPhex.setPhexVersion(PhexVersion.getFullVersion());
-
-                    DSharedLibrary dLibrary = createDSharedLibrary();
-                    dPhex.setSharedLibrary(dLibrary);
-
-                    // first save into temporary file...
-                    ManagedFile tmpMgFile = files.getReadWriteManagedFile(tmpFile);
-                    XMLBuilder.saveToFile(tmpMgFile, dPhex);
-
-                    // after saving copy temporary file to real file.
-                    ManagedFile libraryMgFile = files.getReadWriteManagedFile(libraryFile);
-                    // lock library file.
-                    try {
-                        libraryMgFile.acquireFileLock();
-                        FileUtils.copyFile(tmpFile, libraryFile);
-                    } finally {
-                        libraryMgFile.releaseFileLock();
-                    }
-
-                    //File zipFile = Environment.getInstance().getPhexConfigFile(
-                    //    EnvironmentConstants.XML_SHARED_LIBRARY_FILE_NAME + ".def" );
-                    //OutputStream out = new DeflaterOutputStream( new FileOutputStream( zipFile ) );
-                    //FileInputStream inStream = new FileInputStream( libraryFile );
-                    //int c;
-                    //byte[] buffer = new byte[16*1024];
-                    //while ( (c = inStream.read( buffer )) != -1 )
-                    //{
-                    //    out.write(buffer, 0, c);
-                    //}
-                } catch (ManagedFileException exp) {
-                    if (exp.getCause() instanceof InterruptedException) { // the thread was interrupted and requested to stop, most likely
-                        // by user request.
-                        logger.debug(exp.toString());
-                    } else {
-                        // TODO during close this message is never displayed since application
-                        // will exit too fast. A solution to delay exit process in case 
-                        // SlideInWindows are open needs to be found.
-                        logger.error(exp.toString(), exp);
-                        Environment.getInstance().fireDisplayUserMessage(
-                                UserMessageListener.SharedFilesSaveFailed,
-                                new String[]{exp.toString()});
-                    }
+                    storeSharedLibrary();
                 } catch (IOException exp) {
+                    // rewrite the complete journal on the next save.
+                    isJournalCompactionRequired = true;
                     logger.error(exp.toString(), exp);
                     Environment.getInstance().fireDisplayUserMessage(
                             UserMessageListener.SharedFilesSaveFailed, new String[]
                                     {exp.toString()});
-                } finally {
-                    rwLock.readLock().unlock();
-//            try{ rwLock.readUnlock(); }
-//            catch (IllegalAccessException exp )
-//            { logger.error( exp.toString(), exp ); }
                 }
             }
             while (isFollowUpSaveTriggered);
@@ -897,30 +981,47 @@ public class SharedFilesService extends AbstractLifeCycle
             }
         }
 
-        private DSharedLibrary createDSharedLibrary() {
-            DSharedLibrary library = new DSharedLibrary();
+        /**
+         * Appends the changed and removed shared files to the journal, or
+         * compacts the journal once most of its records are outdated.
+         */
+        private void storeSharedLibrary() throws IOException {
+            List<String> removed;
+            synchronized (removedFileNames) {
+                removed = new ArrayList<String>(removedFileNames);
+                removedFileNames.clear();
+            }
+
+            List<ShareFile> storedFiles = new ArrayList<ShareFile>();
+            List<SharedFileRecord> changedRecords = new ArrayList<SharedFileRecord>();
             rwLock.readLock().lock();
             try {
-                List<DSharedFile> sharedFileList = library.getSubElementList();
                 for (ShareFile file : sharedFiles) {
-                    try {
-                        if (file.getURN() == null) {
-                            continue;
-                        }
-                        DSharedFile dFile = file.createDSharedFile();
-                        sharedFileList.add(dFile);
-                    } catch (Exception exp) {
-                        logger.error("SharedFile skipped due to error.", exp);
+                    if (file.getURN() == null) {
+                        continue;
+                    }
+                    storedFiles.add(file);
+                    if (file.resetStoreRequired()) {
+                        changedRecords.add(file.createSharedFileRecord());
                     }
                 }
             } finally {
                 rwLock.readLock().unlock();
-//            try{ rwLock.readUnlock(); }
-//            catch (IllegalAccessException exp )
-//            { logger.error( exp.toString(), exp ); }
+            }
 
+            long recordCount = libraryJournal.getRecordCount()
+                    + changedRecords.size() + removed.size();
+            if (isJournalCompactionRequired || libraryJournal.isCompactionRequired()
+                    || recordCount > 2L * storedFiles.size() + MIN_COMPACTION_RECORDS) {
+                logger.debug("Compacting shared library journal.");
+                isJournalCompactionRequired = false;
+                libraryJournal.compact(() -> storedFiles.stream().map(file -> {
+                    file.resetStoreRequired();
+                    return file.createSharedFileRecord();
+                }).iterator());
+            } else {
+                libraryJournal.append(changedRecords, removed);
             }
-            return library;
         }
     }
 
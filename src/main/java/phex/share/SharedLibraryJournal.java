@@ -0,0 +1,387 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.util.IOUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A append only binary journal of the shared library.
+ * <p>
+ * Each change of a shared file appends a record with its complete persistent
+ * state, a unshared file appends a remove record. On load the records are
+ * replayed, the last record of a file wins. Once the journal holds many
+ * outdated records it is compacted by rewriting it with the current records
+ * only.
+ * <p>
+ * The file starts with a magic number and version, followed by records of
+ * the form: payload length (int), CRC32 of payload (int), payload. A
+ * truncated or corrupt record at the end, e.g. from a crash during append,
+ * is dropped on load. The journal is not truncated in place, it is compacted
+ * before anything is appended again.
+ */
+public class SharedLibraryJournal {
+    private static final Logger logger = LoggerFactory.getLogger(SharedLibraryJournal.class);
+
+    private static final int MAGIC = 0x50484c4a;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    /**
+     * The max size of a single record, larger lengths indicate corruption.
+     */
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The size of the file regions mapped at once during load.
+     */
+    private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final File journalFile;
+
+    /**
+     * The number of records in the journal, including outdated ones.
+     */
+    private long recordCount;
+
+    /**
+     * Whether the journal has a invalid header or a corrupt tail and must be
+     * compacted before records can be appended.
+     */
+    private boolean isCompactionRequired;
+
+    public SharedLibraryJournal(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public boolean exists() {
+        return journalFile.exists();
+    }
+
+    /**
+     * Returns the number of records in the journal, including outdated ones.
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns whether the journal must be compacted before records can be
+     * appended, since its end is corrupt.
+     */
+    public synchronized boolean isCompactionRequired() {
+        return isCompactionRequired;
+    }
+
+    /**
+     * Loads the current records of the journal by replaying it from memory
+     * mapped regions of the file.
+     *
+     * @return the records mapped by file name.
+     */
+    public synchronized Map<String, SharedFileRecord> load() throws IOException {
+        Map<String, SharedFileRecord> records = new HashMap<String, SharedFileRecord>();
+        recordCount = 0;
+        isCompactionRequired = false;
+        if (!journalFile.exists()) {
+            return records;
+        }
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || !isHeaderValid(channel)) {
+                logger.warn("Invalid shared library journal, starting empty: {}", journalFile);
+                isCompactionRequired = true;
+                return records;
+            }
+
+            long windowStart = 0;
+            MappedByteBuffer window = null;
+            long pos = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            try {
+                while (pos + RECORD_HEADER_SIZE <= size) {
+                    if (window == null || pos + RECORD_HEADER_SIZE > windowStart + window.limit()) {
+                        IOUtil.unmapQuietly(window);
+                        windowStart = pos;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                                Math.min(MAP_WINDOW_SIZE, size - pos));
+                    }
+                    int length = window.getInt((int) (pos - windowStart));
+                    int checksum = window.getInt((int) (pos - windowStart) + 4);
+                    long recordEnd = pos + RECORD_HEADER_SIZE + length;
+                    if (length <= 0 || length > MAX_RECORD_SIZE || recordEnd > size) {
+                        break;
+                    }
+                    if (recordEnd > windowStart + window.limit()) {
+                        IOUtil.unmapQuietly(window);
+                        windowStart = pos;
+                        window = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                                Math.min(Math.max(MAP_WINDOW_SIZE, RECORD_HEADER_SIZE + length),
+                                        size - pos));
+                    }
+                    ByteBuffer payload = window.duplicate();
+                    payload.position((int) (pos - windowStart) + RECORD_HEADER_SIZE);
+                    payload.limit(payload.position() + length);
+                    crc.reset();
+                    crc.update(payload.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        break;
+                    }
+                    replayRecord(payload, records);
+                    recordCount++;
+                    pos = recordEnd;
+                }
+            } finally {
+                // the journal is replaced on compaction, which fails on
+                // Windows as long as it is mapped.
+                IOUtil.unmapQuietly(window);
+            }
+            if (pos < size) {
+                logger.warn("Dropping {} corrupt bytes of shared library journal.",
+                        Long.valueOf(size - pos));
+                isCompactionRequired = true;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Appends the changed records and the removed file names to the journal
+     * and forces them to disk.
+     */
+    public synchronized void append(Collection<SharedFileRecord> changedRecords,
+                                    Collection<String> removedFileNames) throws IOException {
+        if (changedRecords.isEmpty() && removedFileNames.isEmpty()) {
+            return;
+        }
+        if (isCompactionRequired) {
+            // appended records would follow the corrupt tail and get lost.
+            throw new IOException("Shared library journal requires compaction.");
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+        for (String fileName : removedFileNames) {
+            writeRecord(out, encodeRemove(fileName));
+        }
+        for (SharedFileRecord record : changedRecords) {
+            writeRecord(out, encodePut(record));
+        }
+        out.flush();
+
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size == 0) {
+                writeFully(channel, createHeader(), 0);
+                size = HEADER_SIZE;
+            }
+            writeFully(channel, ByteBuffer.wrap(data.toByteArray()), size);
+            channel.force(false);
+        }
+        recordCount += changedRecords.size() + removedFileNames.size();
+    }
+
+    /**
+     * Rewrites the journal with the given records only. The new journal is
+     * written to a temporary file first and then replaces the journal.
+     */
+    public synchronized void compact(Iterable<SharedFileRecord> records) throws IOException {
+        File tmpFile = new File(journalFile.getAbsolutePath() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(tmpFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long pos = writeFully(channel, createHeader(), 0);
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(data);
+            for (SharedFileRecord record : records) {
+                writeRecord(out, encodePut(record));
+                count++;
+                if (data.size() >= 1024 * 1024) {
+                    pos += writeFully(channel, ByteBuffer.wrap(data.toByteArray()), pos);
+                    data.reset();
+                }
+            }
+            writeFully(channel, ByteBuffer.wrap(data.toByteArray()), pos);
+            channel.force(false);
+        }
+        try {
+            Files.move(tmpFile.toPath(), journalFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exp) {
+            Files.move(tmpFile.toPath(), journalFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        recordCount = count;
+        isCompactionRequired = false;
+    }
+
+    private static boolean isHeaderValid(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return false;
+            }
+        }
+        header.flip();
+        return header.getInt() == MAGIC && header.getInt() == VERSION;
+    }
+
+    private static ByteBuffer createHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long pos)
+            throws IOException {
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+        }
+        return length;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+    }
+
+    private static byte[] encodeRemove(String fileName) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+        out.writeByte(TYPE_REMOVE);
+        writeString(out, fileName);
+        out.flush();
+        return data.toByteArray();
+    }
+
+    private static byte[] encodePut(SharedFileRecord record) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+        out.writeByte(TYPE_PUT);
+        writeString(out, record.getFileName());
+        out.writeLong(record.getFileSize());
+        out.writeLong(record.getLastModified());
+        out.writeLong(record.getCreationTime());
+        out.writeInt(record.getHitCount());
+        out.writeInt(record.getUploadCount());
+        writeString(out, record.getSha1());
+        writeString(out, record.getThexRootHash());
+        out.writeInt(record.getThexTreeDepth());
+        byte[] nodes = record.getThexNodes();
+        if (nodes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(nodes.length);
+            out.write(nodes);
+        }
+        List<String> altLocHosts = record.getAltLocHosts();
+        out.writeInt(altLocHosts.size());
+        for (String host : altLocHosts) {
+            writeString(out, host);
+        }
+        out.flush();
+        return data.toByteArray();
+    }
+
+    private static void replayRecord(ByteBuffer payload, Map<String, SharedFileRecord> records) {
+        byte type = payload.get();
+        String fileName = readString(payload);
+        if (type == TYPE_REMOVE) {
+            records.remove(fileName);
+            return;
+        }
+        long fileSize = payload.getLong();
+        long lastModified = payload.getLong();
+        long creationTime = payload.getLong();
+        int hitCount = payload.getInt();
+        int uploadCount = payload.getInt();
+        String sha1 = readString(payload);
+        String thexRootHash = readString(payload);
+        int thexTreeDepth = payload.getInt();
+        byte[] nodes = null;
+        int nodesLength = payload.getInt();
+        if (nodesLength >= 0) {
+            nodes = new byte[nodesLength];
+            payload.get(nodes);
+        }
+        int altLocCount = payload.getInt();
+        List<String> altLocHosts = new ArrayList<String>(altLocCount);
+        for (int i = 0; i < altLocCount; i++) {
+            altLocHosts.add(readString(payload));
+        }
+        records.put(fileName, new SharedFileRecord(fileName, fileSize, lastModified,
+                creationTime, hitCount, uploadCount, sha1, thexRootHash, thexTreeDepth,
+                nodes, altLocHosts));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
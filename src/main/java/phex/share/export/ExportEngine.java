@@ -36,6 +36,7 @@ import javax.xml.transform.stream.StreamSource;
 import java.io.*;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  *
@@ -95,7 +96,13 @@ public class ExportEngine {
 
             SharedFilesPipeFiller fillerRunnable = new SharedFilesPipeFiller(serventAddress,
                     pipedOutStream, exportData, exportOptions);
-            Environment.getInstance().executeOnThreadPool(fillerRunnable, "SharedFilesPipeFiller");
+            try {
+                Environment.getInstance().executeOnThreadPool(fillerRunnable, "SharedFilesPipeFiller");
+            } catch (RejectedExecutionException exp) {
+                // the pipe ends are closed below.
+                NLogger.error(ExportEngine.class, "Export failed: " + exp.toString());
+                return;
+            }
 
 
             StreamSource styleSheetSource = new StreamSource(styleSheetStream);
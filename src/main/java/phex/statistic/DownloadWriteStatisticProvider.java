@@ -0,0 +1,98 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.statistic;
+
+import phex.common.format.NumberFormatUtils;
+import phex.download.DownloadDataWriter;
+import phex.util.Localizer;
+
+/**
+ * Provides the disk write throughput of the DownloadDataWriter.
+ */
+public class DownloadWriteStatisticProvider implements StatisticProvider {
+    private final DownloadDataWriter dataWriter;
+    private final Type type;
+
+    public DownloadWriteStatisticProvider(Type type, DownloadDataWriter dataWriter) {
+        this.dataWriter = dataWriter;
+        this.type = type;
+    }
+
+    /**
+     * @see phex.statistic.StatisticProvider#getValue()
+     */
+    public Object getValue() {
+        switch (type) {
+            case BYTES_PER_SECOND:
+                return Long.valueOf(dataWriter.getWrittenBytesPerSecond());
+            case WRITES_PER_SECOND:
+                return Long.valueOf(dataWriter.getWritesPerSecond());
+            case AVERAGE_WRITE_SIZE:
+                long writes = dataWriter.getWritesPerSecond();
+                return Long.valueOf(writes == 0 ? 0
+                        : dataWriter.getWrittenBytesPerSecond() / writes);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the average over all writes of the session for the write size.
+     *
+     * @see phex.statistic.StatisticProvider#getAverageValue()
+     */
+    public Object getAverageValue() {
+        if (type == Type.AVERAGE_WRITE_SIZE) {
+            long writes = dataWriter.getTotalWriteCount();
+            if (writes != 0) {
+                return Long.valueOf(dataWriter.getTotalBytesWritten() / writes);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @see phex.statistic.StatisticProvider#getMaxValue()
+     */
+    public Object getMaxValue() {
+        return null;
+    }
+
+    /**
+     * @see phex.statistic.StatisticProvider#toStatisticString(java.lang.Object)
+     */
+    public String toStatisticString(Object value) {
+        switch (type) {
+            case BYTES_PER_SECOND:
+                return NumberFormatUtils.formatSignificantByteSize(
+                        (Number) value) + Localizer.getString("PerSec");
+            case WRITES_PER_SECOND:
+                return value.toString() + Localizer.getString("PerSec");
+            case AVERAGE_WRITE_SIZE:
+                return NumberFormatUtils.formatSignificantByteSize((Number) value);
+        }
+        return value.toString();
+    }
+
+    public enum Type {
+        BYTES_PER_SECOND, WRITES_PER_SECOND, AVERAGE_WRITE_SIZE
+    }
+}
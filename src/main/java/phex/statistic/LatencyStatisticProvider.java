@@ -0,0 +1,77 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.statistic;
+
+/**
+ * Presents a {@link LatencyHistogram} as statistic. The value is the median
+ * latency, the average and the max are the mean and the largest recorded
+ * latency. All values are in microseconds.
+ */
+public class LatencyStatisticProvider implements StatisticProvider {
+    private final LatencyHistogram histogram;
+
+    public LatencyStatisticProvider(LatencyHistogram histogram) {
+        this.histogram = histogram;
+    }
+
+    /**
+     * Returns the current value this provider presents.
+     * The return value can be null in case no value is provided.
+     *
+     * @return the current value or null.
+     */
+    public Object getValue() {
+        return Long.valueOf(histogram.snapshot().getValueAtPercentile(50));
+    }
+
+    /**
+     * Returns the avarage value this provider presents.
+     * The return value can be null in case no value is provided.
+     *
+     * @return the avarage value or null.
+     */
+    public Object getAverageValue() {
+        return Long.valueOf(Math.round(histogram.snapshot().getMean()));
+    }
+
+    /**
+     * Returns the max value this provider presents.
+     * The return value can be null in case no value is provided.
+     *
+     * @return the max value or null.
+     */
+    public Object getMaxValue() {
+        return Long.valueOf(histogram.snapshot().getMax());
+    }
+
+    /**
+     * Returns the presentation string that should be displayed for the corresponding
+     * value.
+     *
+     * @param value the value returned from getValue(), getAverageValue() or
+     *              getMaxValue()
+     * @return the statistic presentation string.
+     */
+    public String toStatisticString(Object value) {
+        return value + " \u00B5s";
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.statistic;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * The registry of all metrics of a peer.
+ * <p>
+ * Counters and latency histograms are updated by the threads doing the
+ * work without locking or allocation. Gauges are only read when sampled.
+ * The registry is sampled in regular intervals to maintain the rolling
+ * rate windows of the counters and the histograms of the last window;
+ * {@link #snapshot()} collects everything into one immutable
+ * {@link MetricsSnapshot}.
+ */
+public class MetricsRegistry {
+    /**
+     * The interval in millis the registry is sampled in.
+     */
+    public static final long SAMPLE_INTERVAL = 1000;
+
+    /**
+     * The number of samples of a rolling window, one minute.
+     */
+    private static final int WINDOW_SAMPLES = 60;
+
+    private final Map<String, SimpleStatisticProvider> counters;
+    private final Map<String, RateWindow> rateWindows;
+    private final Map<String, LongSupplier> gauges;
+    private final Map<String, HistogramWindow> histograms;
+
+    /**
+     * The number of samples taken.
+     */
+    private long sampleCount;
+
+    public MetricsRegistry() {
+        counters = new ConcurrentHashMap<String, SimpleStatisticProvider>();
+        rateWindows = new ConcurrentHashMap<String, RateWindow>();
+        gauges = new ConcurrentHashMap<String, LongSupplier>();
+        histograms = new ConcurrentHashMap<String, HistogramWindow>();
+    }
+
+    public void registerCounter(String name, SimpleStatisticProvider counter) {
+        counters.put(name, counter);
+        rateWindows.put(name, new RateWindow(WINDOW_SAMPLES + 1));
+    }
+
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Returns the histogram of the given name, it is created on first use.
+     */
+    public LatencyHistogram getHistogram(String name) {
+        return histograms.computeIfAbsent(name,
+                key -> new HistogramWindow()).histogram;
+    }
+
+    /**
+     * Samples the counters and histograms. Called every
+     * {@link #SAMPLE_INTERVAL} millis.
+     */
+    public synchronized void sample(long now) {
+        for (Map.Entry<String, SimpleStatisticProvider> entry : counters.entrySet()) {
+            rateWindows.get(entry.getKey()).sample(entry.getValue().longValue(), now);
+        }
+        sampleCount++;
+        if (sampleCount % WINDOW_SAMPLES == 0) {
+            for (HistogramWindow window : histograms.values()) {
+                window.rotate();
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of all metrics.
+     */
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot snapshot = new MetricsSnapshot(System.currentTimeMillis());
+        for (Map.Entry<String, SimpleStatisticProvider> entry : counters.entrySet()) {
+            snapshot.addCounter(entry.getKey(), entry.getValue().longValue(),
+                    rateWindows.get(entry.getKey()).getRatePerSecond());
+        }
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            snapshot.addGauge(entry.getKey(), entry.getValue().getAsLong());
+        }
+        synchronized (this) {
+            for (Map.Entry<String, HistogramWindow> entry : histograms.entrySet()) {
+                HistogramWindow window = entry.getValue();
+                snapshot.addHistogram(entry.getKey(), window.histogram.snapshot(),
+                        window.lastWindow);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the rolling rate window of the given counter, or null if
+     * there is no such counter.
+     */
+    public RateWindow getRateWindow(String counterName) {
+        return rateWindows.get(counterName);
+    }
+
+    private static class HistogramWindow {
+        private final LatencyHistogram histogram;
+        private LatencyHistogram.Snapshot windowStart;
+        private LatencyHistogram.Snapshot lastWindow;
+
+        private HistogramWindow() {
+            histogram = new LatencyHistogram();
+            windowStart = histogram.snapshot();
+            lastWindow = windowStart;
+        }
+
+        private void rotate() {
+            LatencyHistogram.Snapshot current = histogram.snapshot();
+            lastWindow = current.minus(windowStart);
+            windowStart = current;
+        }
+    }
+}
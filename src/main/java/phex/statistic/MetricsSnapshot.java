@@ -0,0 +1,126 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.statistic;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable view of all metrics of a {@link MetricsRegistry} at one
+ * point in time.
+ */
+public class MetricsSnapshot {
+    private final long time;
+    private final Map<String, Long> counters;
+    private final Map<String, Double> rates;
+    private final Map<String, Long> gauges;
+    private final Map<String, LatencyHistogram.Snapshot> histograms;
+    private final Map<String, LatencyHistogram.Snapshot> windowHistograms;
+
+    MetricsSnapshot(long time) {
+        this.time = time;
+        counters = new TreeMap<String, Long>();
+        rates = new TreeMap<String, Double>();
+        gauges = new TreeMap<String, Long>();
+        histograms = new TreeMap<String, LatencyHistogram.Snapshot>();
+        windowHistograms = new TreeMap<String, LatencyHistogram.Snapshot>();
+    }
+
+    void addCounter(String name, long value, double ratePerSecond) {
+        counters.put(name, Long.valueOf(value));
+        rates.put(name, Double.valueOf(ratePerSecond));
+    }
+
+    void addGauge(String name, long value) {
+        gauges.put(name, Long.valueOf(value));
+    }
+
+    void addHistogram(String name, LatencyHistogram.Snapshot total,
+                      LatencyHistogram.Snapshot lastWindow) {
+        histograms.put(name, total);
+        windowHistograms.put(name, lastWindow);
+    }
+
+    /**
+     * Returns the time in millis the snapshot was taken.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the counter values by name.
+     */
+    public Map<String, Long> getCounters() {
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * Returns the rate per second of each counter over the last minute.
+     */
+    public Map<String, Double> getRates() {
+        return Collections.unmodifiableMap(rates);
+    }
+
+    /**
+     * Returns the gauge values by name.
+     */
+    public Map<String, Long> getGauges() {
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Returns the histograms of all values recorded since startup.
+     */
+    public Map<String, LatencyHistogram.Snapshot> getHistograms() {
+        return Collections.unmodifiableMap(histograms);
+    }
+
+    /**
+     * Returns the histograms of the values recorded in the last completed
+     * one minute window.
+     */
+    public Map<String, LatencyHistogram.Snapshot> getWindowHistograms() {
+        return Collections.unmodifiableMap(windowHistograms);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            buffer.append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append(" (").append(String.format("%.1f", rates.get(entry.getKey())))
+                    .append("/s)\n");
+        }
+        for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+            buffer.append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+            buffer.append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append(" (last minute: ")
+                    .append(windowHistograms.get(entry.getKey())).append(")\n");
+        }
+        return buffer.toString();
+    }
+}
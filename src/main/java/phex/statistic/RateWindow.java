@@ -0,0 +1,98 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.statistic;
+
+/**
+ * A rolling time window over the samples of a counter. The counter is
+ * sampled in regular intervals, the window keeps the last samples to
+ * provide the recent rate and the per interval time series of the counter.
+ */
+public class RateWindow {
+    private final long[] values;
+    private final long[] times;
+
+    /**
+     * The index the next sample is written to.
+     */
+    private int next;
+
+    /**
+     * The number of samples held.
+     */
+    private int size;
+
+    /**
+     * @param sampleCount the number of samples the window holds.
+     */
+    public RateWindow(int sampleCount) {
+        values = new long[sampleCount];
+        times = new long[sampleCount];
+    }
+
+    /**
+     * Adds a sample of the counter value.
+     *
+     * @param value the current counter value.
+     * @param time  the sample time in millis.
+     */
+    public synchronized void sample(long value, long time) {
+        values[next] = value;
+        times[next] = time;
+        next = (next + 1) % values.length;
+        size = Math.min(size + 1, values.length);
+    }
+
+    /**
+     * Returns the average rate per second over the window.
+     *
+     * @return the rate per second, or 0 if less than two samples are held.
+     */
+    public synchronized double getRatePerSecond() {
+        if (size < 2) {
+            return 0;
+        }
+        int newest = (next - 1 + values.length) % values.length;
+        int oldest = (next - size + values.length) % values.length;
+        long timeSpan = times[newest] - times[oldest];
+        if (timeSpan <= 0) {
+            return 0;
+        }
+        return (values[newest] - values[oldest]) * 1000.0 / timeSpan;
+    }
+
+    /**
+     * Returns the increase of the counter between each two consecutive
+     * samples, the oldest first.
+     *
+     * @return the time series of counter increases.
+     */
+    public synchronized long[] getDeltas() {
+        long[] deltas = new long[Math.max(size - 1, 0)];
+        int index = (next - size + values.length) % values.length;
+        for (int i = 0; i < deltas.length; i++) {
+            int following = (index + 1) % values.length;
+            deltas[i] = values[following] - values[index];
+            index = following;
+        }
+        return deltas;
+    }
+}
@@ -21,13 +21,17 @@
  */
 package phex.statistic;
 
-import phex.common.LongObj;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * A counter statistic. The counter is striped, concurrent increments from
+ * many threads do not contend and never allocate.
+ */
 public class SimpleStatisticProvider implements StatisticProvider {
-    protected final LongObj value;
+    protected final LongAdder value;
 
     public SimpleStatisticProvider() {
-        value = new LongObj(0);
+        value = new LongAdder();
     }
 
     /**
@@ -36,7 +40,16 @@ public class SimpleStatisticProvider implements StatisticProvider {
      * @param inc the value to increment the statistic by.
      */
     public void increment(int inc) {
-        value.inc(inc);
+        value.add(inc);
+    }
+
+    /**
+     * Returns the current counter value.
+     *
+     * @return the current counter value.
+     */
+    public long longValue() {
+        return value.sum();
     }
 
     /**
@@ -46,14 +59,15 @@ public class SimpleStatisticProvider implements StatisticProvider {
      * @return the current value or null.
      */
     public Object getValue() {
-        return value;
+        return Long.valueOf(value.sum());
     }
 
     /**
      * Sets the current value this provider presents.
      */
     public void setValue(long longValue) {
-        value.setValue(longValue);
+        value.reset();
+        value.add(longValue);
     }
 
     /**
@@ -85,6 +99,6 @@ public class SimpleStatisticProvider implements StatisticProvider {
      * @return the statistic presentation string.
      */
     public String toStatisticString(Object value) {
-        return this.value.toString();
+        return String.valueOf(this.value.sum());
     }
 }
\ No newline at end of file
@@ -45,6 +45,9 @@ public interface StatisticProviderConstants {
     String DROPEDMSG_IN_PROVIDER = "DropedMsgInProvider";
     String DROPEDMSG_OUT_PROVIDER = "DropedMsgOutProvider";
 
+    String DISPATCH_LATENCY_PROVIDER = "DispatchLatencyProvider";
+    String TIME_TO_CONNECTIONS_PROVIDER = "TimeToConnectionsProvider";
+
     String UPTIME_PROVIDER = "UptimeProvider";
     String DAILY_UPTIME_PROVIDER = "DailyUptimeProvider";
 
@@ -68,5 +71,9 @@ public interface StatisticProviderConstants {
     String HORIZON_FILE_COUNT_PROVIDER = "HorizonFileCountProvider";
     String HORIZON_FILE_SIZE_PROVIDER = "HorizonFileSizeProvider";
 
+    String DOWNLOAD_WRITE_BANDWIDTH_PROVIDER = "DownloadWriteBandwidthProvider";
+    String DOWNLOAD_WRITE_COUNT_PROVIDER = "DownloadWriteCountProvider";
+    String DOWNLOAD_WRITE_SIZE_PROVIDER = "DownloadWriteSizeProvider";
+
 
 }
\ No newline at end of file
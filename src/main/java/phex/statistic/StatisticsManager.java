@@ -22,23 +22,31 @@
 package phex.statistic;
 
 import phex.common.AbstractLifeCycle;
+import phex.common.Environment;
 import phex.common.HorizonTracker;
-import phex.common.LongObj;
+import phex.common.JThreadPool;
 import phex.common.bandwidth.BandwidthManager;
+import phex.download.DownloadDataWriter;
 import phex.msg.PongMsg;
 import phex.StatisticPrefs;
 import phex.peer.Peer;
 import phex.statistic.HorizonStatisticProvider.Type;
 
 import java.util.HashMap;
+import java.util.TimerTask;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
 
 public class StatisticsManager extends AbstractLifeCycle implements StatisticProviderConstants {
     private final HashMap<String, StatisticProvider> statisticProviderMap;
+    private final MetricsRegistry metrics;
     private final Peer peer;
+    private ScheduledFuture<?> metricsSampleTimer;
 
     public StatisticsManager(Peer peer) {
         this.peer = peer;
         statisticProviderMap = new HashMap<String, StatisticProvider>();
+        metrics = new MetricsRegistry();
 
         registerStatisticProvider(UPTIME_PROVIDER,
                 new UptimeStatisticProvider());
@@ -48,16 +56,35 @@ public class StatisticsManager extends AbstractLifeCycle implements StatisticPro
 
         initializeMsgCountStats();
         initializeUpDownloadStats();
+        initializeThreadPoolMetrics();
     }
 
     public void registerStatisticProvider(String name, StatisticProvider provider) {
         statisticProviderMap.put(name, provider);
+        if (provider instanceof SimpleStatisticProvider) {
+            metrics.registerCounter(name, (SimpleStatisticProvider) provider);
+        }
     }
 
     public StatisticProvider getStatisticProvider(String name) {
         return statisticProviderMap.get(name);
     }
 
+    /**
+     * Returns the metrics registry. All counter statistics are registered
+     * with it.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns a snapshot of all metrics.
+     */
+    public MetricsSnapshot getMetricsSnapshot() {
+        return metrics.snapshot();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -84,6 +111,20 @@ public class StatisticsManager extends AbstractLifeCycle implements StatisticPro
                 new HorizonStatisticProvider(Type.FILE_COUNT, horizonTracker));
         registerStatisticProvider(HORIZON_FILE_SIZE_PROVIDER,
                 new HorizonStatisticProvider(Type.FILE_SIZE, horizonTracker));
+
+        DownloadDataWriter dataWriter = peer.getDownloadService().getDownloadDataWriter();
+        registerStatisticProvider(DOWNLOAD_WRITE_BANDWIDTH_PROVIDER,
+                new DownloadWriteStatisticProvider(
+                        DownloadWriteStatisticProvider.Type.BYTES_PER_SECOND, dataWriter));
+        registerStatisticProvider(DOWNLOAD_WRITE_COUNT_PROVIDER,
+                new DownloadWriteStatisticProvider(
+                        DownloadWriteStatisticProvider.Type.WRITES_PER_SECOND, dataWriter));
+        registerStatisticProvider(DOWNLOAD_WRITE_SIZE_PROVIDER,
+                new DownloadWriteStatisticProvider(
+                        DownloadWriteStatisticProvider.Type.AVERAGE_WRITE_SIZE, dataWriter));
+
+        metricsSampleTimer = Environment.getInstance().scheduleTimerTask(new MetricsSampleTimer(),
+                MetricsRegistry.SAMPLE_INTERVAL, MetricsRegistry.SAMPLE_INTERVAL);
     }
 
     /**
@@ -91,6 +132,11 @@ public class StatisticsManager extends AbstractLifeCycle implements StatisticPro
      */
     @Override
     public void doStop() {
+        if (metricsSampleTimer != null) {
+            metricsSampleTimer.cancel(false);
+            metricsSampleTimer = null;
+        }
+
         UptimeStatisticProvider uptimeProvider = (UptimeStatisticProvider)
                 getStatisticProvider(UPTIME_PROVIDER);
         uptimeProvider.saveUptimeStats();
@@ -104,9 +150,9 @@ public class StatisticsManager extends AbstractLifeCycle implements StatisticPro
         SimpleStatisticProvider totalUploadCount = (SimpleStatisticProvider) getStatisticProvider(
                 TOTAL_UPLOAD_COUNT_PROVIDER);
         StatisticPrefs.TotalDownloadCount.set(Integer.valueOf(
-                (int) ((LongObj) totalDownloadCount.getValue()).value));
+                (int) totalDownloadCount.longValue()));
         StatisticPrefs.TotalUploadCount.set(Integer.valueOf(
-                (int) ((LongObj) totalUploadCount.getValue()).value));
+                (int) totalUploadCount.longValue()));
     }
 
     private void initializeMsgCountStats() {
@@ -160,6 +206,12 @@ public class StatisticsManager extends AbstractLifeCycle implements StatisticPro
         registerStatisticProvider(DROPEDMSG_IN_PROVIDER, dropedMsgInCounter);
         registerStatisticProvider(DROPEDMSG_OUT_PROVIDER, dropedMsgOutCounter);
 
+        registerStatisticProvider(DISPATCH_LATENCY_PROVIDER,
+                new LatencyStatisticProvider(metrics.getHistogram(
+                        DISPATCH_LATENCY_PROVIDER)));
+        registerStatisticProvider(TIME_TO_CONNECTIONS_PROVIDER,
+                new LatencyStatisticProvider(metrics.getHistogram(
+                        TIME_TO_CONNECTIONS_PROVIDER)));
     }
 
     private void initializeUpDownloadStats() {
@@ -199,4 +251,26 @@ public class StatisticsManager extends AbstractLifeCycle implements StatisticPro
         registerStatisticProvider(PUSH_UPLOAD_FAILURE_PROVIDER,
                 new SimpleStatisticProvider());
     }
-}
\ No newline at end of file
+
+    private void initializeThreadPoolMetrics() {
+        Environment environment = Environment.getInstance();
+        for (JThreadPool pool : environment.getThreadPools()) {
+            String prefix = pool.getName() + "Pool";
+            metrics.registerGauge(prefix + "QueueDepth", pool::getQueueDepth);
+            metrics.registerGauge(prefix + "ActiveThreads", pool::getActiveCount);
+            metrics.registerGauge(prefix + "CompletedTasks", pool::getCompletedCount);
+            metrics.registerGauge(prefix + "RejectedTasks", pool::getRejectedCount);
+        }
+        ForkJoinPool hashingPool = environment.getHashingPool();
+        metrics.registerGauge("HashingPoolQueueDepth", hashingPool::getQueuedSubmissionCount);
+        metrics.registerGauge("HashingPoolActiveThreads", hashingPool::getActiveThreadCount);
+        metrics.registerGauge("TimerQueueDepth", environment::getTimerQueueDepth);
+    }
+
+    private class MetricsSampleTimer extends TimerTask {
+        @Override
+        public void run() {
+            metrics.sample(System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.thex;
+
+import phex.common.bandwidth.BandwidthController;
+import phex.common.format.NumberFormatUtils;
+import phex.util.bitzi.SHA1;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Calculates the SHA-1 digest and the THEX data of a file in a single pass
+ * over the file. The file is read in large chunks through a FileChannel and
+ * each chunk is fed to the SHA-1 digest and to the tiger tree leaf
+ * calculation.
+ * <p>
+ * For large files the tiger tree of a chunk is calculated by a
+ * ForkJoinTigerTree on the given pool while the calling thread updates the
+ * SHA-1 digest. Reads can be throttled by a BandwidthController to limit the
+ * disk rate.
+ * <p>
+ * A FileHashCalculator keeps no per file state and can be used by multiple
+ * threads concurrently.
+ */
+public class FileHashCalculator {
+    /**
+     * The size of the chunks a file is read with.
+     */
+    private static final int READ_CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * The size of the chunks a file is read with when its tree is
+     * calculated in parallel.
+     */
+    private static final int PARALLEL_READ_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Files starting from this size calculate their tree in parallel, in
+     * case a pool is available.
+     */
+    private static final long PARALLEL_LEAF_THRESHOLD = 16 * NumberFormatUtils.ONE_MB;
+
+    private static final ForkJoinTigerTree SEQUENTIAL_TREE = new ForkJoinTigerTree(null);
+
+    private final BandwidthController readThrottle;
+    private final ForkJoinPool pool;
+    private final ForkJoinTigerTree parallelTree;
+    private final int readChunkSize;
+    private final int parallelReadChunkSize;
+
+    /**
+     * Creates a FileHashCalculator that hashes on the calling thread only and
+     * reads without throttling.
+     */
+    public FileHashCalculator() {
+        this(null, null);
+    }
+
+    /**
+     * @param readThrottle the controller to throttle reads with, or null to
+     *                     read at full speed.
+     * @param pool         the pool to calculate the tree of large files on,
+     *                     or null to calculate it on the calling thread.
+     */
+    public FileHashCalculator(BandwidthController readThrottle, ForkJoinPool pool) {
+        this(readThrottle, pool, READ_CHUNK_SIZE, PARALLEL_READ_CHUNK_SIZE);
+    }
+
+    /**
+     * Allows tests to use chunks smaller than the tree nodes of small files.
+     *
+     * @param readChunkSize         the chunk size, a power of two multiple of
+     *                              1024.
+     * @param parallelReadChunkSize the chunk size of files calculated in
+     *                              parallel, a power of two multiple of 1024.
+     */
+    FileHashCalculator(BandwidthController readThrottle, ForkJoinPool pool,
+                       int readChunkSize, int parallelReadChunkSize) {
+        this.readThrottle = readThrottle;
+        this.pool = pool;
+        this.readChunkSize = readChunkSize;
+        this.parallelReadChunkSize = parallelReadChunkSize;
+        parallelTree = pool != null ? new ForkJoinTigerTree(pool) : SEQUENTIAL_TREE;
+    }
+
+    /**
+     * Reads the file once and calculates the requested hashes.
+     *
+     * @param file       the file to hash.
+     * @param calcSha1   whether the SHA-1 digest is calculated.
+     * @param calcThex   whether the THEX data is calculated. No THEX data is
+     *                   calculated for empty files.
+     * @return the calculated hashes.
+     * @throws InterruptedIOException in case the calling thread is interrupted.
+     * @throws IOException            in case the file could not be read
+     *                                completely.
+     */
+    public Result calculate(File file, boolean calcSha1, boolean calcThex)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            MessageDigest sha1Digest = calcSha1 ? SHA1.get() : null;
+            boolean parallel = pool != null && fileSize >= PARALLEL_LEAF_THRESHOLD;
+            LeafCalculation leaves = null;
+            if (calcThex && fileSize > 0) {
+                leaves = new LeafCalculation(fileSize,
+                        parallel ? parallelTree : SEQUENTIAL_TREE);
+            }
+
+            int chunkSize = parallel ? parallelReadChunkSize : readChunkSize;
+            final byte[] chunk = new byte[(int) Math.min(chunkSize, Math.max(fileSize, 1))];
+            ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+            long position = 0;
+            while (position < fileSize) {
+                final int length = (int) Math.min(chunk.length, fileSize - position);
+                throttleRead(length);
+                chunkBuffer.clear();
+                chunkBuffer.limit(length);
+                while (chunkBuffer.hasRemaining()) {
+                    int read = channel.read(chunkBuffer, position + chunkBuffer.position());
+                    if (read == -1) {
+                        throw new IOException("Hashing file failed, file shrunk: "
+                                + file);
+                    }
+                }
+
+                ForkJoinTask<?> leafTask = null;
+                if (leaves != null && parallel) {
+                    final LeafCalculation chunkLeaves = leaves;
+                    final long chunkStart = position;
+                    leafTask = pool.submit(new Runnable() {
+                        public void run() {
+                            chunkLeaves.hashChunk(chunk, chunkStart, length);
+                        }
+                    });
+                }
+                if (sha1Digest != null) {
+                    sha1Digest.update(chunk, 0, length);
+                }
+                if (leafTask != null) {
+                    leafTask.join();
+                } else if (leaves != null) {
+                    leaves.hashChunk(chunk, position, length);
+                }
+                position += length;
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Hashing file interrupted.");
+                }
+            }
+
+            byte[] sha1 = sha1Digest != null ? sha1Digest.digest() : null;
+            ShareFileThexData thexData = leaves != null ? leaves.createThexData() : null;
+            return new Result(sha1, thexData);
+        }
+    }
+
+    private void throttleRead(int length) throws IOException {
+        if (readThrottle == null) {
+            return;
+        }
+        int remaining = length;
+        while (remaining > 0) {
+            remaining -= readThrottle.getAvailableByteCount(remaining, true, true);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Hashing file interrupted.");
+            }
+        }
+    }
+
+    /**
+     * The hashes calculated for a file.
+     */
+    public static class Result {
+        private final byte[] sha1;
+        private final ShareFileThexData thexData;
+
+        private Result(byte[] sha1, ShareFileThexData thexData) {
+            this.sha1 = sha1;
+            this.thexData = thexData;
+        }
+
+        /**
+         * @return the SHA-1 digest, or null if it was not requested.
+         */
+        public byte[] getSha1() {
+            return sha1;
+        }
+
+        /**
+         * @return the THEX data, or null if it was not requested or the file
+         * is empty.
+         */
+        public ShareFileThexData getThexData() {
+            return thexData;
+        }
+    }
+
+    /**
+     * Calculates the lowest level nodes of the tiger tree chunk by chunk.
+     * Chunk and node sizes are powers of two, so either a chunk holds whole
+     * nodes or a node consists of whole chunks. In the latter case the roots
+     * of the chunks are collected and merged once the node is complete.
+     */
+    private static class LeafCalculation {
+        private final long fileSize;
+        private final int nodeSize;
+        private final byte[][] nodes;
+        private final ForkJoinTigerTree tree;
+        private final List<byte[]> openNodeChunkRoots;
+
+        private LeafCalculation(long fileSize, ForkJoinTigerTree tree) {
+            this.fileSize = fileSize;
+            this.tree = tree;
+            int levels = TTHashCalcUtils.getTreeLevels(fileSize);
+            nodeSize = TTHashCalcUtils.getTreeNodeSize(fileSize, levels);
+            nodes = new byte[(int) ((fileSize + nodeSize - 1) / nodeSize)][];
+            openNodeChunkRoots = new ArrayList<byte[]>();
+        }
+
+        private void hashChunk(byte[] chunk, long chunkStart, int length) {
+            int nodeIndex = (int) (chunkStart / nodeSize);
+            if (nodeSize <= chunk.length) {
+                List<byte[]> chunkNodes = tree.calculateNodes(chunk, 0, length, nodeSize);
+                for (byte[] node : chunkNodes) {
+                    nodes[nodeIndex++] = node;
+                }
+                return;
+            }
+            openNodeChunkRoots.add(tree.calculateRoot(chunk, 0, length));
+            long nodeEnd = Math.min((long) (nodeIndex + 1) * nodeSize, fileSize);
+            if (chunkStart + length == nodeEnd) {
+                nodes[nodeIndex] = ForkJoinTigerTree.combineRoots(openNodeChunkRoots);
+                openNodeChunkRoots.clear();
+            }
+        }
+
+        private ShareFileThexData createThexData() throws IOException {
+            List<byte[]> lowestLevelNodes = Arrays.asList(nodes);
+            if (lowestLevelNodes.contains(null)) {
+                throw new IOException("Hashing file failed, missing tree leaves.");
+            }
+            List<List<byte[]>> merkleTreeNodes = tree.calculateMerkleTree(lowestLevelNodes);
+            byte[] rootHash = merkleTreeNodes.get(0).get(0);
+            int depth = merkleTreeNodes.size() - 1;
+            return new ShareFileThexData(rootHash, lowestLevelNodes, depth);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.thex;
+
+import phex.common.Environment;
+import phex.util.bitzi.Tiger;
+import phex.util.bitzi.TigerTree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A THEX engine that calculates tiger trees with fork/join.
+ * <p>
+ * The tiger tree of n leaves has the tree of the first 2^k leaves as its
+ * left subtree, where 2^k is the largest power of two smaller than n, and
+ * the tree of the remaining leaves as its right subtree. Subtrees are
+ * therefore split that way down to a sequential threshold, hashed on
+ * separate cores and their roots are merged. The result is identical to the
+ * sequential row by row calculation of TigerTree and
+ * TTHashCalcUtils.calculateMerkleParentNodes().
+ * <p>
+ * Without a pool all calculations run sequentially on the calling thread,
+ * no task is forked.
+ */
+public class ForkJoinTigerTree {
+    private static final int BLOCK_SIZE = 1024;
+    private static final byte MERKLE_IH_PREFIX = 0x01;
+
+    /**
+     * Subtrees with up to this number of leaf blocks are hashed on a single
+     * thread.
+     */
+    private static final int SEQUENTIAL_BLOCKS = 128;
+
+    /**
+     * Merkle rows with up to this number of parent nodes are reduced on a
+     * single thread.
+     */
+    private static final int SEQUENTIAL_PARENTS = 256;
+
+    /**
+     * The size of the chunks a stream is read with. Must be a power of two
+     * multiple of BLOCK_SIZE to keep chunk roots aligned subtrees.
+     */
+    private static final int STREAM_CHUNK_SIZE = 1024 * 1024;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool the pool to calculate on, or null to calculate on the
+     *             calling thread.
+     */
+    public ForkJoinTigerTree(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a ForkJoinTigerTree calculating on the hashing pool.
+     */
+    public static ForkJoinTigerTree getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Calculates the tiger tree root hash of the given data.
+     */
+    public byte[] calculateRoot(byte[] data, int offset, int length) {
+        if (pool == null || length <= SEQUENTIAL_BLOCKS * BLOCK_SIZE) {
+            return hashLeaves(data, offset, length);
+        }
+        return pool.invoke(new SubtreeTask(data, offset, length));
+    }
+
+    /**
+     * Calculates the tiger tree root hash of the next length bytes of the
+     * stream. The stream is read in chunks, the root of each chunk is
+     * calculated in parallel and the chunk roots are merged.
+     *
+     * @throws IOException in case reading fails or the stream ends before
+     *                     length bytes are read.
+     */
+    public byte[] calculateRoot(InputStream inStream, long length)
+            throws IOException {
+        byte[] chunk = new byte[(int) Math.min(STREAM_CHUNK_SIZE, Math.max(length, 1))];
+        List<byte[]> chunkRoots = new ArrayList<byte[]>();
+        long remaining = length;
+        do {
+            int chunkLength = (int) Math.min(chunk.length, remaining);
+            int pos = 0;
+            while (pos < chunkLength) {
+                int read = inStream.read(chunk, pos, chunkLength - pos);
+                if (read == -1) {
+                    throw new IOException("Unexpected end of stream.");
+                }
+                pos += read;
+            }
+            chunkRoots.add(calculateRoot(chunk, 0, chunkLength));
+            remaining -= chunkLength;
+        } while (remaining > 0);
+        return combineRoots(chunkRoots);
+    }
+
+    /**
+     * Calculates the root hashes of the consecutive nodeSize parts of the
+     * data, which are the lowest level nodes of a THEX tree.
+     *
+     * @param nodeSize the node size, must be a power of two multiple of
+     *                 1024.
+     */
+    public List<byte[]> calculateNodes(byte[] data, int offset, int length,
+                                       int nodeSize) {
+        int nodeCount = Math.max(1, (int) (((long) length + nodeSize - 1) / nodeSize));
+        List<byte[]> nodes = new ArrayList<byte[]>(nodeCount);
+        if (pool == null || length <= SEQUENTIAL_BLOCKS * BLOCK_SIZE) {
+            for (int i = 0; i < nodeCount; i++) {
+                int nodeOffset = i * nodeSize;
+                nodes.add(hashLeaves(data, offset + nodeOffset,
+                        Math.min(nodeSize, length - nodeOffset)));
+            }
+            return nodes;
+        }
+
+        final List<SubtreeTask> tasks = new ArrayList<SubtreeTask>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            int nodeOffset = i * nodeSize;
+            tasks.add(new SubtreeTask(data, offset + nodeOffset,
+                    Math.min(nodeSize, length - nodeOffset)));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        for (SubtreeTask task : tasks) {
+            nodes.add(task.join());
+        }
+        return nodes;
+    }
+
+    /**
+     * Calculates all rows of the Merkle tree over the given lowest level
+     * nodes. Like TTHashCalcUtils.calculateMerkleParentNodes() the 0th
+     * element of the returned List is the row containing only the root hash
+     * and the last element the given nodes.
+     */
+    public List<List<byte[]>> calculateMerkleTree(List<byte[]> lowestLevelNodes) {
+        List<List<byte[]>> merkleTreeNodes = new ArrayList<List<byte[]>>();
+        merkleTreeNodes.add(Collections.unmodifiableList(lowestLevelNodes));
+
+        byte[][] row = lowestLevelNodes.toArray(new byte[lowestLevelNodes.size()][]);
+        MessageDigest tiger = new Tiger();
+        while (row.length > 1) {
+            byte[][] parentRow = new byte[(row.length + 1) / 2][];
+            if (pool == null || parentRow.length <= SEQUENTIAL_PARENTS) {
+                hashRow(row, parentRow, 0, parentRow.length, tiger);
+            } else {
+                pool.invoke(new RowTask(row, parentRow, 0, parentRow.length));
+            }
+            merkleTreeNodes.add(0, new ArrayList<byte[]>(Arrays.asList(parentRow)));
+            row = parentRow;
+        }
+        return merkleTreeNodes;
+    }
+
+    /**
+     * Merges the roots of consecutive subtrees into the root of the whole
+     * tree. All subtrees but the last must have the same power of two
+     * number of leaves.
+     */
+    public static byte[] combineRoots(List<byte[]> subtreeRoots) {
+        byte[][] row = subtreeRoots.toArray(new byte[subtreeRoots.size()][]);
+        MessageDigest tiger = new Tiger();
+        while (row.length > 1) {
+            byte[][] parentRow = new byte[(row.length + 1) / 2][];
+            hashRow(row, parentRow, 0, parentRow.length, tiger);
+            row = parentRow;
+        }
+        return row[0];
+    }
+
+    /**
+     * Hashes the tiger tree of a data range sequentially.
+     */
+    private static byte[] hashLeaves(byte[] data, int offset, int length) {
+        MessageDigest digest = new TigerTree();
+        digest.update(data, offset, length);
+        return digest.digest();
+    }
+
+    private static byte[] combine(byte[] left, byte[] right, MessageDigest tiger) {
+        tiger.reset();
+        tiger.update(MERKLE_IH_PREFIX);
+        tiger.update(left, 0, left.length);
+        tiger.update(right, 0, right.length);
+        return tiger.digest();
+    }
+
+    private static void hashRow(byte[][] row, byte[][] parentRow, int from,
+                                int to, MessageDigest tiger) {
+        for (int i = from; i < to; i++) {
+            int left = 2 * i;
+            if (left + 1 < row.length) {
+                parentRow[i] = combine(row[left], row[left + 1], tiger);
+            } else {
+                // a odd node is promoted to the parent row.
+                parentRow[i] = row[left];
+            }
+        }
+    }
+
+    /**
+     * Calculates the root of the subtree over a data range.
+     */
+    private static class SubtreeTask extends RecursiveTask<byte[]> {
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        private SubtreeTask(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        protected byte[] compute() {
+            int blocks = Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            if (blocks <= SEQUENTIAL_BLOCKS) {
+                return hashLeaves(data, offset, length);
+            }
+            int leftLength = Integer.highestOneBit(blocks - 1) * BLOCK_SIZE;
+            SubtreeTask left = new SubtreeTask(data, offset, leftLength);
+            left.fork();
+            byte[] rightRoot = new SubtreeTask(data, offset + leftLength,
+                    length - leftLength).compute();
+            return combine(left.join(), rightRoot, new Tiger());
+        }
+    }
+
+    /**
+     * Calculates a range of the parent row of a Merkle tree row.
+     */
+    private static class RowTask extends RecursiveAction {
+        private final byte[][] row;
+        private final byte[][] parentRow;
+        private final int from;
+        private final int to;
+
+        private RowTask(byte[][] row, byte[][] parentRow, int from, int to) {
+            this.row = row;
+            this.parentRow = parentRow;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_PARENTS) {
+                hashRow(row, parentRow, from, to, new Tiger());
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowTask(row, parentRow, from, middle),
+                    new RowTask(row, parentRow, middle, to));
+        }
+    }
+
+    private static class DefaultHolder {
+        private static final ForkJoinTigerTree DEFAULT = new ForkJoinTigerTree(
+                Environment.getInstance().getHashingPool());
+    }
+}
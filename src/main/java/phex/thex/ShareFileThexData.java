@@ -52,6 +52,13 @@ public class ShareFileThexData {
         this.treeDepth = depth;
     }
 
+    public ShareFileThexData(String rootHash,
+                             List<byte[]> lowestLevelNodes, int depth) {
+        this.rootHash = rootHash;
+        this.lowestLevelNodes = lowestLevelNodes;
+        this.treeDepth = depth;
+    }
+
     public ShareFileThexData(String rootHash,
                              String xjbLowestLevelNodes, int depth) {
         this.rootHash = rootHash;
@@ -78,10 +85,14 @@ public class ShareFileThexData {
         return treeDepth;
     }
 
+    public List<byte[]> getLowestLevelNodes() {
+        return lowestLevelNodes;
+    }
+
     public byte[] getSerializedTreeNodes() {
         ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-        List<List<byte[]>> allNodes = TTHashCalcUtils.calculateMerkleParentNodes(
-                lowestLevelNodes);
+        List<List<byte[]>> allNodes = ForkJoinTigerTree.getDefault()
+                .calculateMerkleTree(lowestLevelNodes);
         Iterator<List<byte[]>> iterator = allNodes.iterator();
         try {
             while (iterator.hasNext()) {
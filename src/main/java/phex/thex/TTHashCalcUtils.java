@@ -25,18 +25,12 @@ package phex.thex;
 import phex.common.file.ManagedFile;
 import phex.common.file.ManagedFileInputStream;
 import phex.common.format.NumberFormatUtils;
-import phex.common.log.NLogger;
 import phex.download.ThexVerificationData.ThexData;
-import phex.LibraryPrefs;
 import phex.share.ShareFile;
 import phex.util.IOUtil;
 import phex.util.bitzi.Tiger;
-import phex.util.bitzi.TigerTree;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.MessageDigest;
 import java.util.*;
 
@@ -45,7 +39,6 @@ import java.util.*;
  */
 public class TTHashCalcUtils {
     private static transient final byte MERKLE_IH_PREFIX = 0x01;
-    private static final int THEX_BLOCK_SIZE = 1024;
     private static final int HASH_SIZE = 24;
 
     /**
@@ -57,22 +50,9 @@ public class TTHashCalcUtils {
             return;
         }
 
-        long fileSize = shareFile.getFileSize();
-        int levels = getTreeLevels(fileSize);
-        int nodeSize = getTreeNodeSize(fileSize, levels);
-
-        BufferedInputStream inStream = new BufferedInputStream(
-                new FileInputStream(shareFile.getSystemFile()));
-        List<byte[]> lowestLevelNodes = calculateTigerTreeNodes(nodeSize, fileSize, inStream);
-
-        // calculate the full Merkle tree.
-        List<List<byte[]>> merkleTreeNodes = calculateMerkleParentNodes(lowestLevelNodes);
-        byte[] rootHash = merkleTreeNodes.get(0).get(0);
-        int depth = merkleTreeNodes.size() - 1;
-
-        ShareFileThexData data = new ShareFileThexData(rootHash, lowestLevelNodes,
-                depth);
-        shareFile.setThexData(data);
+        FileHashCalculator.Result result = new FileHashCalculator().calculate(
+                shareFile.getSystemFile(), false, true);
+        shareFile.setThexData(result.getThexData());
     }
 
     /**
@@ -129,51 +109,6 @@ public class TTHashCalcUtils {
     }
 
 
-    /**
-     * Calcualtes the TigerTree nodes with the given nodeSize.
-     *
-     * @param nodeSize Must be 2^n (n>=10) for Merkle HashTree
-     */
-    private static List<byte[]> calculateTigerTreeNodes(int nodeSize, long fileSize,
-                                                        InputStream inStream) throws IOException {
-        int thexCalculationMode = LibraryPrefs.ThexCalculationMode.get().intValue();
-        int nodeCount = (int) Math.ceil((double) fileSize / (double) nodeSize);
-        List<byte[]> nodeList = new ArrayList<byte[]>(nodeCount);
-
-        MessageDigest tigerTreeDigest = new TigerTree();
-        long totalRead = 0;
-        int readCount = 0;
-        byte[] buffer = new byte[THEX_BLOCK_SIZE * 128];
-        while (totalRead < fileSize && readCount != -1) {
-            tigerTreeDigest.reset();
-            int nodePos = 0;
-            // read out of an single node... and add digest to nodeList
-            long start = System.currentTimeMillis();
-            while (nodePos < nodeSize
-                    && (readCount = inStream.read(buffer)) != -1) {
-                tigerTreeDigest.update(buffer, 0, readCount);
-                nodePos += readCount;
-                totalRead += readCount;
-                try {
-                    long end = System.currentTimeMillis();
-                    Thread.sleep((end - start) * thexCalculationMode);
-                } catch (InterruptedException ie) {
-                    // reset interrupted flag
-                    Thread.currentThread().interrupt();
-                    throw new IOException("Hashing file interrupted.");
-                }
-                start = System.currentTimeMillis();
-            }
-            nodeList.add(tigerTreeDigest.digest());
-
-            if (readCount == -1 && totalRead != fileSize) {
-                NLogger.error(ThexCalculationWorker.class, "Hashing file failed.");
-                throw new IOException("Hashing file failed.");
-            }
-        }
-        return nodeList;
-    }
-
     /*
      * Iterative method to generate the parent nodes of an arbitrary
      * depth.
@@ -319,35 +254,18 @@ public class TTHashCalcUtils {
     }
 
     /**
-     *
+     * Verifies the data of a THEX tree node against the expected node hash.
+     * The tiger tree of the node is calculated in parallel.
      */
     public static boolean verifyTigerTreeHash(ThexData thexData, ManagedFile managedFile,
                                               long offset, long length) {
         ManagedFileInputStream inStream = new ManagedFileInputStream(managedFile, offset);
-
-        int thexCalculationMode = LibraryPrefs.ThexCalculationMode.get().intValue();
-        MessageDigest tigerTreeDigest = new TigerTree();
-        long totalRead = 0;
-        int readCount = 0;
-        byte[] buffer = new byte[THEX_BLOCK_SIZE * 128];
+        byte[] hash;
         try {
-            while (totalRead < length && (readCount = inStream.read(buffer)) != -1) {
-                long start = System.currentTimeMillis();
-                tigerTreeDigest.update(buffer, 0, readCount);
-                totalRead += readCount;
-                try {
-                    long end = System.currentTimeMillis();
-                    Thread.sleep((end - start) * thexCalculationMode);
-                } catch (InterruptedException ie) {
-                    // reset interrupted flag
-                    Thread.currentThread().interrupt();
-                    throw new IOException("Hashing file interrupted.");
-                }
-            }
+            hash = ForkJoinTigerTree.getDefault().calculateRoot(inStream, length);
         } catch (IOException exp) {
             return false;
         }
-        byte[] hash = tigerTreeDigest.digest();
         byte[] expected = thexData.getNodeHash((int) (offset / thexData.getNodeSize()));
 
         boolean verifyed = Arrays.equals(hash, expected);
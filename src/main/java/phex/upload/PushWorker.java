@@ -39,6 +39,7 @@ import phex.util.StringUtils;
 import phex.util.URLCodecUtils;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class PushWorker implements Runnable {
     private static final int PUSH_TIMEOUT = 45000;
@@ -53,8 +54,13 @@ public class PushWorker implements Runnable {
         this.uploadMgr = uploadMgr;
         pushMsg = msg;
         this.socketFactory = new SocketFactory(uploadMgr.peer);
-        Environment.getInstance().executeOnThreadPool(this,
-                "PushWorker-" + Integer.toHexString(hashCode()));
+        try {
+            Environment.getInstance().executeOnThreadPool(this,
+                    "PushWorker-" + Integer.toHexString(hashCode()));
+        } catch (RejectedExecutionException exp) {
+            NLogger.warn(PushWorker.class, "Dropped push request: " + exp);
+            return;
+        }
 
         StatisticsManager statMgr = uploadMgr.peer.getStatisticsService();
         ((SimpleStatisticProvider) statMgr.getStatisticProvider(
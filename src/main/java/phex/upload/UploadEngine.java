@@ -43,6 +43,7 @@ import phex.util.StringUtils;
 import phex.util.VendorCodes;
 
 import java.io.IOException;
+import java.nio.channels.SocketChannel;
 
 /**
  * The UploadEngine is handling the process of uploading a file. This includes
@@ -52,11 +53,22 @@ import java.io.IOException;
  * not count the new upload correctly. But this is a rather rare case...
  */
 public class UploadEngine {
+    /**
+     * The max chunk size of a direct transfer, the actual chunk size is set
+     * by the bandwidth granted.
+     */
+    private static final int MAX_DIRECT_TRANSFER_CHUNK = 4 * BufferSize._64K;
+
     private final UploadManager uploads;
 
     private final SharedFilesService sharedFilesService;
 
     private final Connection connection;
+    /**
+     * The bandwidth controller of this upload. Shares the upload bandwidth
+     * with the other uploads.
+     */
+    private final BandwidthController bandwidthController;
     /**
      * The upload info object of the current upload.
      */
@@ -79,13 +91,14 @@ public class UploadEngine {
         this.sharedFilesService = sharedFilesService;
         this.connection = connection;
         this.uploads = uploadManager;
-        connection.setBandwidthController(
-                uploads.getUploadBandwidthController());
         this.httpRequest = httpRequest;
         isUploadCounted = false;
 
         SocketFacade socket = connection.getSocket();
         DestAddress hostAddress = socket.getRemoteAddress();
+        bandwidthController = new BandwidthController("Upload-" + hostAddress,
+                Long.MAX_VALUE, uploads.getUploadBandwidthController());
+        connection.setBandwidthController(bandwidthController);
         uploadState = new UploadState(hostAddress, VendorCodes.UNKNOWN, uploadManager);
     }
 
@@ -212,34 +225,76 @@ public class UploadEngine {
                     + uploadState.getStatus() + " to " + UploadStatus.UPLOADING_DATA + " failed.");
         }
 
-        // open file
-        BandwidthController throttleController = uploads.getUploadBandwidthController();
-        ByteBuffer byteBuffer = null;
+        SocketChannel directChannel = null;
+        if (response.isDirectTransferSupported()
+                && uploads.peer.uploadPrefs.DirectFileTransfer.get().booleanValue()) {
+            directChannel = connection.getDirectOutputChannel();
+        }
         try {
-            byteBuffer = ByteBuffer.allocate(BufferSize._16K);
+            if (directChannel != null) {
+                transferResponseData(response, directChannel);
+            } else {
+                copyResponseData(response);
+            }
+        } finally {
+            response.close();
+        }
+    }
 
-            long lengthUploaded = 0;
-            while (response.remainingBody() > 0) {
-                // make sure we dont send more then requested
-                int likeToSend = Math.min(response.remainingBody(), byteBuffer.capacity());
-                // we may be throttled to less than this amount
-                int ableToSend = throttleController.getAvailableByteCount(likeToSend, true, false);
-                byteBuffer.clear();
-                byteBuffer.limit(ableToSend);
-                int lengthRead = response.fillBody(byteBuffer);
-                byteBuffer.flip();
-                if (!byteBuffer.hasRemaining()) {
-                    break;
-                }
-                connection.write(byteBuffer);
+    /**
+     * Copies the response data through a upload buffer into the connection.
+     */
+    private void copyResponseData(UploadResponse response) throws IOException {
+        BandwidthController throttleController = bandwidthController;
+        ByteBuffer byteBuffer = ByteBuffer.allocate(BufferSize._16K);
+
+        long lengthUploaded = 0;
+        while (response.remainingBody() > 0) {
+            // make sure we dont send more then requested
+            int likeToSend = Math.min(response.remainingBody(), byteBuffer.capacity());
+            // we may be throttled to less than this amount
+            int ableToSend = throttleController.getAvailableByteCount(likeToSend, true, false);
+            byteBuffer.clear();
+            byteBuffer.limit(ableToSend);
+            int lengthRead = response.fillBody(byteBuffer);
+            byteBuffer.flip();
+            if (!byteBuffer.hasRemaining()) {
+                break;
+            }
+            connection.write(byteBuffer);
 
-                lengthUploaded += lengthRead;
+            lengthUploaded += lengthRead;
 
-                uploadState.setTransferredDataSize(lengthUploaded);
+            uploadState.setTransferredDataSize(lengthUploaded);
+        }
+    }
+
+    /**
+     * Transfers the response data directly from the file to the socket
+     * channel. Each chunk is as large as the bandwidth granted.
+     */
+    private void transferResponseData(UploadResponse response, SocketChannel channel)
+            throws IOException {
+        long lengthUploaded = 0;
+        while (response.remainingBody() > 0) {
+            int likeToSend = Math.min(response.remainingBody(), MAX_DIRECT_TRANSFER_CHUNK);
+            // the channel bypasses the connection bandwidth controller, take
+            // the granted bytes right away.
+            int ableToSend = bandwidthController.getAvailableByteCount(likeToSend, true, true);
+            long transferred = 0;
+            while (transferred < ableToSend) {
+                long length = response.transferBody(channel, (int) (ableToSend - transferred));
+                if (length <= 0) {
+                    break;
+                }
+                transferred += length;
             }
-        } finally {
-            byteBuffer = null;
-            response.close();
+            if (transferred == 0) {
+                break;
+            }
+            lengthUploaded += transferred;
+
+            uploadState.setTransferredDataSize(lengthUploaded);
         }
     }
 
@@ -32,6 +32,7 @@ import phex.share.ShareFile;
 import phex.util.IOUtil;
 
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 public class ShareFileUploadResponse extends UploadResponse {
     private final ShareFile shareFile;
@@ -83,6 +84,26 @@ public class ShareFileUploadResponse extends UploadResponse {
         }
     }
 
+    @Override
+    public boolean isDirectTransferSupported() {
+        return true;
+    }
+
+    @Override
+    public long transferBody(WritableByteChannel target, int maxLength)
+            throws IOException {
+        try {
+            long transferred = uploadFile.transferTo(currentOffset,
+                    Math.min(maxLength, remainingBody()), target);
+            currentOffset += transferred;
+            return transferred;
+        } catch (ManagedFileException exp) {
+            IOException ioExp = new IOException("ManagedFileException: "
+                    + exp.getMessage(), exp);
+            throw ioExp;
+        }
+    }
+
     public void countUpload() {
         shareFile.incUploadCount();
     }
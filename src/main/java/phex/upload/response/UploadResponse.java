@@ -29,6 +29,7 @@ import phex.share.ShareFile;
 import phex.upload.UploadState;
 
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 
 public class UploadResponse {
     protected HTTPResponse httpResponse;
@@ -140,6 +141,26 @@ public class UploadResponse {
         throw new UnsupportedOperationException("No Data.");
     }
 
+    /**
+     * Returns true if the body can be transferred directly to a channel
+     * through transferBody().
+     */
+    public boolean isDirectTransferSupported() {
+        return false;
+    }
+
+    /**
+     * Transfers up to maxLength bytes of the body directly to the target
+     * channel.
+     *
+     * @return the number of bytes transferred.
+     */
+    @SuppressWarnings("unused")
+    public long transferBody(WritableByteChannel target, int maxLength)
+            throws IOException {
+        throw new UnsupportedOperationException("No direct transfer.");
+    }
+
     public int remainingBody() {
         return 0;
     }
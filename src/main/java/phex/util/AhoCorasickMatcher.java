@@ -0,0 +1,253 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds all of a set of patterns in a text in a single pass, using an
+ * Aho-Corasick automaton.
+ * <p>
+ * Every pattern is registered with an id, a text is matched by flagging
+ * the ids of all patterns it contains. The states of the automaton keep
+ * their transitions in sorted char arrays, the automaton is immutable once
+ * built and can be used by any number of threads. Matching does not
+ * allocate.
+ */
+public class AhoCorasickMatcher {
+    private final boolean ignoreCase;
+
+    /**
+     * The sorted transition chars of each state.
+     */
+    private final char[][] transitionChars;
+
+    /**
+     * The target states of the transitions of each state.
+     */
+    private final int[][] transitionTargets;
+
+    /**
+     * The state to continue with when a state has no transition for a char.
+     */
+    private final int[] failures;
+
+    /**
+     * The ids of all patterns ending at each state, including the patterns
+     * of the failure chain.
+     */
+    private final int[][] outputs;
+
+    private AhoCorasickMatcher(Builder builder) {
+        ignoreCase = builder.ignoreCase;
+        int stateCount = builder.states.size();
+        transitionChars = new char[stateCount][];
+        transitionTargets = new int[stateCount][];
+        failures = new int[stateCount];
+        outputs = new int[stateCount][];
+
+        for (int i = 0; i < stateCount; i++) {
+            BuildState state = builder.states.get(i);
+            transitionChars[i] = Arrays.copyOf(state.chars, state.size);
+            transitionTargets[i] = Arrays.copyOf(state.targets, state.size);
+        }
+
+        // breadth first to set the failure of each state after the failures
+        // of all shorter states are known.
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        outputs[0] = builder.states.get(0).ids();
+        for (int target : transitionTargets[0]) {
+            failures[target] = 0;
+            queue[tail++] = target;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            int[] ownIds = builder.states.get(state).ids();
+            int[] failureIds = outputs[failures[state]];
+            outputs[state] = merge(ownIds, failureIds);
+
+            char[] chars = transitionChars[state];
+            for (int i = 0; i < chars.length; i++) {
+                int target = transitionTargets[state][i];
+                int failure = failures[state];
+                int next;
+                while ((next = transition(failure, chars[i])) < 0 && failure != 0) {
+                    failure = failures[failure];
+                }
+                failures[target] = next < 0 ? 0 : next;
+                queue[tail++] = target;
+            }
+        }
+    }
+
+    /**
+     * Returns whether case is ignored when matching.
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Matches the text and flags the id of every contained pattern.
+     *
+     * @param text  the text to search in.
+     * @param found flags indexed by pattern id, set to true for every
+     *              contained pattern. Flags are never cleared.
+     * @return the number of pattern occurrences.
+     */
+    public int match(CharSequence text, boolean[] found) {
+        int count = 0;
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (ignoreCase) {
+                c = Character.toLowerCase(c);
+            }
+            int next;
+            while ((next = transition(state, c)) < 0 && state != 0) {
+                state = failures[state];
+            }
+            state = next < 0 ? 0 : next;
+            int[] ids = outputs[state];
+            for (int j = 0; j < ids.length; j++) {
+                found[ids[j]] = true;
+            }
+            count += ids.length;
+        }
+        return count;
+    }
+
+    private int transition(int state, char c) {
+        int index = Arrays.binarySearch(transitionChars[state], c);
+        return index < 0 ? -1 : transitionTargets[state][index];
+    }
+
+    private static int[] merge(int[] first, int[] second) {
+        if (second.length == 0) {
+            return first;
+        }
+        if (first.length == 0) {
+            return second;
+        }
+        int[] merged = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, merged, first.length, second.length);
+        return merged;
+    }
+
+    /**
+     * Collects the patterns of a matcher.
+     */
+    public static class Builder {
+        private final boolean ignoreCase;
+        private final List<BuildState> states;
+
+        /**
+         * @param ignoreCase true to match case insensitive. Patterns and
+         *                   text are compared char by char in lower case.
+         */
+        public Builder(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+            states = new ArrayList<BuildState>();
+            states.add(new BuildState());
+        }
+
+        /**
+         * Adds a pattern. An empty pattern is reported for every char of
+         * the text.
+         *
+         * @param pattern the pattern.
+         * @param id      the id reported when the pattern is found, must
+         *                not be negative.
+         * @return this builder.
+         */
+        public Builder addPattern(String pattern, int id) {
+            if (id < 0) {
+                throw new IllegalArgumentException("Negative id: " + id);
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (ignoreCase) {
+                    c = Character.toLowerCase(c);
+                }
+                BuildState buildState = states.get(state);
+                int next = buildState.target(c);
+                if (next < 0) {
+                    next = states.size();
+                    states.add(new BuildState());
+                    buildState.add(c, next);
+                }
+                state = next;
+            }
+            states.get(state).addId(id);
+            return this;
+        }
+
+        public AhoCorasickMatcher build() {
+            return new AhoCorasickMatcher(this);
+        }
+    }
+
+    private static class BuildState {
+        private char[] chars = new char[0];
+        private int[] targets = new int[0];
+        private int size;
+        private int[] ids = new int[0];
+
+        private int target(char c) {
+            int index = Arrays.binarySearch(chars, 0, size, c);
+            return index < 0 ? -1 : targets[index];
+        }
+
+        private void add(char c, int target) {
+            int index = -Arrays.binarySearch(chars, 0, size, c) - 1;
+            if (size == chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(2, size * 2));
+                targets = Arrays.copyOf(targets, chars.length);
+            }
+            System.arraycopy(chars, index, chars, index + 1, size - index);
+            System.arraycopy(targets, index, targets, index + 1, size - index);
+            chars[index] = c;
+            targets[index] = target;
+            size++;
+        }
+
+        private void addId(int id) {
+            for (int existing : ids) {
+                if (existing == id) {
+                    return;
+                }
+            }
+            ids = Arrays.copyOf(ids, ids.length + 1);
+            ids[ids.length - 1] = id;
+        }
+
+        private int[] ids() {
+            return ids;
+        }
+    }
+}
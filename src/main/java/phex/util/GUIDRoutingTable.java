@@ -27,104 +27,152 @@ import phex.msg.GUID;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * This GUIDRoutingTable is used to route replies coming from the GNet
  * back to the requester. This is done by using the GUID of the reply
  * which matches the GUID of the request to identify the correct
  * route back to the requester.
+ * <p>
+ * The routings are kept in a open addressed hash table of flat primitive
+ * arrays. A GUID is stored as two longs together with the id of the host
+ * and the time the routing was added. A routing expires exactly lifetime
+ * millis after it was added, expired slots are reused by new routings.
+ * Slots are claimed by a compare and set on their time stamp, no locking
+ * is done.
  */
 public class GUIDRoutingTable {
     /**
-     * The max number of entries in a single route table. This could lead to have
-     * a total of 2 * MAX_ROUTE_TABLE_SIZE entries in total.
+     * The default max number of routings held by a table.
      */
-    private static final int MAX_ROUTE_TABLE_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_ENTRIES = 64 * 1024;
+
+    /**
+     * The max number of slots probed for a GUID. When all probed slots hold
+     * live routings the oldest of them is replaced.
+     */
+    private static final int MAX_PROBES = 32;
+
+    /**
+     * The time stamp of a slot that was never used. Such a slot ends a
+     * probe sequence.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * The time stamp of a slot while it is written.
+     */
+    private static final long CLAIMED = -1;
+
+    /**
+     * The time stamp of a slot given up after a concurrent add of the same
+     * GUID. It is always expired.
+     */
+    private static final long RELEASED = 1;
+
     protected final Map<Integer, Host> idToHostMap;
     protected final Map<Host, Integer> hostToIdMap;
+
     /**
-     * The lifetime of a map. After this number of millis passed the lastMap will be
-     * replaced by the currentMap.
+     * The lifetime of a routing in millis.
      */
     private final long lifetime;
+
+    /**
+     * The mask to map a hash to a slot, the capacity is always a power of two.
+     */
+    private final int mask;
+
     /**
-     * Maps a GUID to a integer that represents a id. The id can be used to
-     * retrieve the host from the idToHostMap. This extra layer is used to solve
-     * three problems:<br>
-     * - When deleting a host because of disconnection we can delete its entry very
-     * fast and performant from the hostToIdMap and idToHostMap without the
-     * need to iterate over the GUID mappings.<br>
+     * The high and low 8 bytes of the GUID of each slot. They are written
+     * before the time stamp of the slot is published and only read after
+     * the time stamp is read.
+     */
+    private final long[] guidHigh;
+    private final long[] guidLow;
+
+    /**
+     * The id of the route destination of each slot. The id is used to
+     * retrieve the host from the idToHostMap. This extra layer is used to
+     * solve three problems:<br>
+     * - When deleting a host because of disconnection we can delete its entry
+     * very fast from the hostToIdMap and idToHostMap without the need to
+     * iterate over the GUID mappings.<br>
      * - We are still able to identify duplicate query GUIDs even though the host
      * has already disconnected.<br>
      * - We are able to freeing up the Host object for garbage collections, since
-     * we are not holding it in the GUID mappings.<br>
-     * <br>
-     * To implement some kind of FIFO behavior for the GUID mappings we are using
-     * to sets, currentMap and lastMap. After a certain time passed by we replace
-     * the lastMap with the currentMap and create a new fresh currentMap. This
-     * allows us to accomplish a very fast and efficient FIFO behavior that stores
-     * at least n to 2n seconds of GUID mappings.
+     * we are not holding it in the GUID mappings.
      */
-    protected Map<GUID, Entry> currentMap;
-    protected Map<GUID, Entry> lastMap;
+    private final AtomicIntegerArray hostIds;
+
     /**
-     * The time when the next replace is done and the lastMap will be
-     * replaced by the currentMap.
+     * The time in millis each slot was added or {@link #EMPTY},
+     * {@link #CLAIMED} and {@link #RELEASED}.
      */
-    private long nextReplaceTime;
+    private final AtomicLongArray stamps;
 
     /**
      * The next id to return for a host.
      */
-    private int nextId;
+    private final AtomicInteger nextId;
 
     /**
-     * The routing table will store at least lifetime to 2 * lifetime of GUID
-     * mappings.
-     *
-     * @param lifetime the lifetime in millis of a map. After this time is passed
-     *                 the lastMap will be replaced by the currentMap.
+     * @param lifetime the lifetime in millis of a routing.
      */
     public GUIDRoutingTable(long lifetime) {
+        this(lifetime, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param lifetime   the lifetime in millis of a routing.
+     * @param maxEntries the number of routings the table is sized for.
+     */
+    public GUIDRoutingTable(long lifetime, int maxEntries) {
         this.lifetime = lifetime;
-        nextId = 0;
-        currentMap = new ConcurrentHashMap<GUID, Entry>();// new TreeMap<GUID, Entry>( new GUID.GUIDComparator() );
-        lastMap = new ConcurrentHashMap<GUID, Entry>();
+        // keep the load factor at or below 0.5 to keep probe sequences short.
+        int capacity = Integer.highestOneBit(Math.max(maxEntries, MAX_PROBES) - 1) << 2;
+        mask = capacity - 1;
+        guidHigh = new long[capacity];
+        guidLow = new long[capacity];
+        hostIds = new AtomicIntegerArray(capacity);
+        stamps = new AtomicLongArray(capacity);
+        nextId = new AtomicInteger();
         idToHostMap = new ConcurrentHashMap<Integer, Host>();
         hostToIdMap = new ConcurrentHashMap<Host, Integer>();
     }
 
     /**
-     * Adds a routing to the routing table.
+     * Adds a routing to the routing table. An existing routing for the GUID
+     * is renewed.
      *
      * @param guid the GUID to route for
      * @param host the route destination.
      */
     public void addRouting(GUID guid, Host host) {
-        checkForSwitch();
-
-
         // check if still connected.
         if (!host.isConnected()) {
             return;
         }
 
-
         int id = id(host);
-
-        // try to find and remove existing entry obj in currentMap and lastMap
-        Entry entry = currentMap.remove(guid);
-        if (entry == null) {
-            entry = lastMap.remove(guid);
-            if (entry == null) {
-                entry = createNewEntry();
+        byte[] bytes = guid.getGuid();
+        long high = IOUtil.deserializeLongLE(bytes, 0, 8);
+        long low = IOUtil.deserializeLongLE(bytes, 8, 8);
+        long now = currentTime();
+        int slot = findSlot(high, low, now);
+        if (slot >= 0) {
+            long stamp = stamps.get(slot);
+            if (isLive(stamp, now) && stamps.compareAndSet(slot, stamp, CLAIMED)) {
+                // update host id... there is a low chance it might have changed.
+                hostIds.set(slot, id);
+                stamps.set(slot, now);
+                return;
             }
         }
-        // update host id... there is a low chance it might have changed.
-        entry.hostId = id;
-
-        // update or add guid routing to new host in currentMap
-        currentMap.put(guid, entry);
+        addSlot(high, low, id, now);
     }
 
     /**
@@ -146,28 +194,10 @@ public class GUIDRoutingTable {
             return false;
         }
 
-        checkForSwitch();
-
-
-        if (!lastMap.containsKey(guid)) {
-            // update or add guid routing to new host in currentMap
-            final boolean[] added = {false};
-            currentMap.compute(guid, (g, v) -> {
-
-                if (v != null)
-                    return v;
-
-                int id = id(host);
-                Entry entry = createNewEntry();
-                entry.hostId = id;
-                added[0] = true;
-                return entry;
-            });
-            return added[0];
-
-        } else {
-            return false;
-        }
+        byte[] bytes = guid.getGuid();
+        long high = IOUtil.deserializeLongLE(bytes, 0, 8);
+        long low = IOUtil.deserializeLongLE(bytes, 8, 8);
+        return addSlot(high, low, id(host), currentTime()) >= 0;
     }
 
     /**
@@ -189,35 +219,72 @@ public class GUIDRoutingTable {
      * @return the Host to route the reply for.
      */
     public Host findRouting(GUID guid) {
-        Entry entry = currentMap.get(guid);
-        if (entry == null) {
-            entry = lastMap.get(guid);
-        }
-        if (entry != null) {
-            // returns null if there is no host for the id anymore.
-            return idToHostMap.get(entry.hostId);
-        } else {
+        int slot = findSlot(guid);
+        if (slot < 0) {
             return null;
         }
+        // returns null if there is no host for the id anymore.
+        return getHost(slot);
     }
 
     /**
-     * Check to delete old entries. If the lifetime has passed.
+     * Returns the number of live routings. The table is scanned, this is
+     * meant for statistics only.
+     *
+     * @return the number of live routings.
      */
-    protected void checkForSwitch() {
-        long currentTime = System.currentTimeMillis();
-        // check if enough time has passed or the map size reached the max.
-        if (currentTime < nextReplaceTime && currentMap.size() < MAX_ROUTE_TABLE_SIZE) {
-            return;
+    public int getRoutingCount() {
+        long now = currentTime();
+        int count = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            if (isLive(stamps.get(slot), now)) {
+                count++;
+            }
         }
+        return count;
+    }
 
-        lastMap.clear();
-        Map<GUID, Entry> temp = lastMap;
-        lastMap = currentMap;
-        currentMap = temp;
-        nextReplaceTime = currentTime + lifetime;
+    /**
+     * Returns the slot holding the live routing for the GUID.
+     *
+     * @param guid the GUID to find.
+     * @return the slot or -1 if there is no live routing.
+     */
+    protected int findSlot(GUID guid) {
+        byte[] bytes = guid.getGuid();
+        return findSlot(IOUtil.deserializeLongLE(bytes, 0, 8),
+                IOUtil.deserializeLongLE(bytes, 8, 8), currentTime());
+    }
+
+    /**
+     * @param slot the slot of a routing.
+     * @return the route destination of the slot or null if the host is not
+     * connected anymore.
+     */
+    protected Host getHost(int slot) {
+        return idToHostMap.get(Integer.valueOf(hostIds.get(slot)));
     }
 
+    /**
+     * @return the number of slots of the table.
+     */
+    protected int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Called after a slot is claimed for a new routing but before the routing
+     * is visible to other threads. Subclasses use it to reset the additional
+     * data they hold per slot.
+     *
+     * @param slot the claimed slot.
+     */
+    protected void onSlotClaimed(int slot) {
+    }
+
+    protected long currentTime() {
+        return System.currentTimeMillis();
+    }
 
     /**
      * Returns the id for the host if there is a existing one already or creates
@@ -232,20 +299,139 @@ public class GUIDRoutingTable {
 
             // find free id
             do {
-                id = nextId++;
-            } while (idToHostMap.get(id) != null);
-
-            idToHostMap.put(id, host);
+                id = nextId.getAndIncrement();
+            } while (idToHostMap.putIfAbsent(id, host) != null);
 
             return id;
         });
     }
 
-    protected Entry createNewEntry() {
-        return new Entry();
+    private int findSlot(long high, long low, long now) {
+        int index = indexFor(high, low);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (index + probe) & mask;
+            long stamp = readStamp(slot);
+            if (stamp == EMPTY) {
+                return -1;
+            }
+            if (isLive(stamp, now) && matches(slot, stamp, high, low)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a routing for the GUID unless there is a live one already.
+     *
+     * @return the slot of the added routing or -1 if there was a live
+     * routing for the GUID.
+     */
+    private int addSlot(long high, long low, int hostId, long now) {
+        int index = indexFor(high, low);
+        while (true) {
+            int freeProbe = -1;
+            long freeStamp = EMPTY;
+            int oldestProbe = 0;
+            long oldestStamp = Long.MAX_VALUE;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                int slot = (index + probe) & mask;
+                long stamp = readStamp(slot);
+                if (stamp == EMPTY) {
+                    if (freeProbe < 0) {
+                        freeProbe = probe;
+                        freeStamp = EMPTY;
+                    }
+                    break;
+                }
+                if (!isLive(stamp, now)) {
+                    if (freeProbe < 0) {
+                        freeProbe = probe;
+                        freeStamp = stamp;
+                    }
+                } else if (matches(slot, stamp, high, low)) {
+                    return -1;
+                } else if (stamp < oldestStamp) {
+                    oldestProbe = probe;
+                    oldestStamp = stamp;
+                }
+            }
+            if (freeProbe < 0) {
+                // all probed slots are in use, replace the oldest routing.
+                freeProbe = oldestProbe;
+                freeStamp = oldestStamp;
+            }
+            int slot = (index + freeProbe) & mask;
+            if (!stamps.compareAndSet(slot, freeStamp, CLAIMED)) {
+                // slot was taken in the meantime, rescan.
+                continue;
+            }
+            guidHigh[slot] = high;
+            guidLow[slot] = low;
+            hostIds.set(slot, hostId);
+            onSlotClaimed(slot);
+            // publishes the written slot.
+            stamps.set(slot, now);
+
+            // A concurrent add of the same GUID might have claimed a different
+            // slot when a routing expired between both scans. The later one
+            // gives up its slot.
+            if (hasOtherLiveSlot(index, slot, high, low, now)) {
+                stamps.set(slot, RELEASED);
+                return -1;
+            }
+            return slot;
+        }
+    }
+
+    private boolean hasOtherLiveSlot(int index, int ownSlot, long high, long low, long now) {
+        long ownStamp = stamps.get(ownSlot);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = (index + probe) & mask;
+            if (slot == ownSlot) {
+                continue;
+            }
+            long stamp = readStamp(slot);
+            if (stamp == EMPTY) {
+                return false;
+            }
+            // the earlier add wins, on equal stamps the lower slot wins so
+            // that exactly one of both adds keeps its slot.
+            boolean isEarlier = stamp < ownStamp
+                    || (stamp == ownStamp && slot < ownSlot);
+            if (isEarlier && isLive(stamp, now) && matches(slot, stamp, high, low)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the time stamp of the slot, waits while the slot is written.
+     */
+    private long readStamp(int slot) {
+        long stamp;
+        while ((stamp = stamps.get(slot)) == CLAIMED) {
+            Thread.yield();
+        }
+        return stamp;
+    }
+
+    private boolean matches(int slot, long stamp, long high, long low) {
+        return guidHigh[slot] == high && guidLow[slot] == low
+                // make sure the slot was not reused while reading the GUID.
+                && stamps.get(slot) == stamp;
+    }
+
+    private boolean isLive(long stamp, long now) {
+        return stamp > RELEASED && now - stamp < lifetime;
     }
 
-    protected static class Entry {
-        protected Integer hostId;
+    private int indexFor(long high, long low) {
+        long hash = high * 0x9E3779B97F4A7C15L ^ low;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash & mask;
     }
-}
\ No newline at end of file
+}
@@ -266,6 +266,28 @@ public class GnutellaInputStream extends InputStream {
         return (count - position) + inStream.available();
     }
 
+    /**
+     * Removes all bytes that are buffered but not yet read from this stream
+     * and returns them. Used when the connection is handed over to a
+     * non-blocking reader that must continue where this stream stopped.
+     * Input inflation must not be active.
+     *
+     * @return the buffered bytes, possibly empty.
+     */
+    public byte[] drainBuffer() {
+        if (inflater != null) {
+            throw new IllegalStateException("Input inflation active.");
+        }
+        int r = count - position;
+        if (r <= 0) {
+            return IOUtil.EMPTY_BYTE_ARRAY;
+        }
+        byte[] buffered = new byte[r];
+        System.arraycopy(buffer, position, buffered, 0, r);
+        position = count = 0;
+        return buffered;
+    }
+
     /**
      * Close the input stream.
      */
@@ -36,6 +36,10 @@ public class GnutellaOutputStream extends OutputStream {
         isOutputDeflated = false;
     }
 
+    public boolean isOutputDeflated() {
+        return isOutputDeflated;
+    }
+
     public void activateOutputDeflation() {
         FixedDeflaterOutputStream deflaterOutStream =
                 new FixedDeflaterOutputStream(outStream);
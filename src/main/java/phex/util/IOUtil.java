@@ -27,8 +27,12 @@ import phex.common.file.ReadOnlyManagedFile;
 import phex.common.log.NLogger;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.zip.DataFormatException;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.Inflater;
@@ -936,4 +940,44 @@ public class IOUtil {
         } catch (ManagedFileException exp) {
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Unconditionally releases the mapping of a <code>MappedByteBuffer</code>
+     * without waiting for the garbage collector. As long as a file region is
+     * mapped, the file can't be truncated, replaced or deleted on Windows.
+     * The buffer and all its views must not be accessed afterwards.
+     * Any failures, e.g. on unknown JVMs, will be ignored and the mapping is
+     * released by the garbage collector.
+     *
+     * @param buffer A (possibly null) MappedByteBuffer
+     */
+    public static void unmapQuietly(MappedByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        try {
+            // Java 9 and later
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException exp) {
+            // Java 8, use the cleaner of the buffer below
+        } catch (Exception exp) {
+            return;
+        }
+
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception exp) {
+        }
+    }
+}
@@ -24,19 +24,46 @@ package phex.util;
 import phex.host.Host;
 import phex.msg.GUID;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
 /**
- *
+ * A GUIDRoutingTable that also counts the results routed back for each
+ * query GUID.
  */
 public class QueryGUIDRoutingTable extends GUIDRoutingTable {
     /**
-     * @param lifetime the lifetime in millis of a map. After this time is passed
-     *                 the lastMap will be replaced by the currentMap.
+     * The number of results routed for the query GUID of each slot.
+     */
+    private final AtomicIntegerArray routedResultCounts;
+
+    /**
+     * The listener notified about results routed for the query GUID of
+     * each slot, or null.
+     */
+    private final AtomicReferenceArray<IntConsumer> resultCountListeners;
+
+    /**
+     * @param lifetime the lifetime in millis of a routing.
      */
     public QueryGUIDRoutingTable(long lifetime) {
         super(lifetime);
+        routedResultCounts = new AtomicIntegerArray(getCapacity());
+        resultCountListeners = new AtomicReferenceArray<IntConsumer>(getCapacity());
+    }
+
+    /**
+     * @param lifetime   the lifetime in millis of a routing.
+     * @param maxEntries the number of routings the table is sized for.
+     */
+    public QueryGUIDRoutingTable(long lifetime, int maxEntries) {
+        super(lifetime, maxEntries);
+        routedResultCounts = new AtomicIntegerArray(getCapacity());
+        resultCountListeners = new AtomicReferenceArray<IntConsumer>(getCapacity());
     }
 
-    public synchronized Host findRouting(GUID guid) {
+    public Host findRouting(GUID guid) {
         throw new UnsupportedOperationException("Use findRoutingForQuerys().");
     }
 
@@ -51,31 +78,49 @@ public class QueryGUIDRoutingTable extends GUIDRoutingTable {
      * @return the QueryGUIDRoutingPair that contains the host and routed result count to
      * route the reply or null.
      */
-    public synchronized QueryGUIDRoutingPair findRoutingForQuerys(GUID guid, int resultCount) {
-        QueryEntry entry = (QueryEntry) currentMap.get(guid);
-        if (entry == null) {
-            entry = (QueryEntry) lastMap.get(guid);
+    public QueryGUIDRoutingPair findRoutingForQuerys(GUID guid, int resultCount) {
+        int slot = findSlot(guid);
+        if (slot < 0) {
+            return null;
         }
-        if (entry != null) {
-            // returns null if there is no host for the id anymore.
-            Host host = idToHostMap.get(entry.hostId);
-            if (host == null) {
-                return null;
-            }
-            QueryGUIDRoutingPair returnPair = new QueryGUIDRoutingPair(host, entry.routedResultCount);
-            // raise entries routed result count
-            entry.routedResultCount += resultCount;
-            return returnPair;
-        } else {
+        // returns null if there is no host for the id anymore.
+        Host host = getHost(slot);
+        if (host == null) {
             return null;
         }
+        // raise entries routed result count
+        int routedResultCount = routedResultCounts.getAndAdd(slot, resultCount);
+        if (resultCount > 0) {
+            IntConsumer listener = resultCountListeners.get(slot);
+            if (listener != null) {
+                listener.accept(resultCount);
+            }
+        }
+        return new QueryGUIDRoutingPair(host, routedResultCount);
     }
 
-    protected Entry createNewEntry() {
-        return new QueryEntry();
+    /**
+     * Sets the listener that is notified with the result count of each
+     * query reply routed for the given query GUID. The listener is dropped
+     * together with the routing.
+     *
+     * @param guid     the query GUID.
+     * @param listener the listener to notify.
+     * @return true if the listener was set, false if no routing is
+     * available for the GUID.
+     */
+    public boolean setResultCountListener(GUID guid, IntConsumer listener) {
+        int slot = findSlot(guid);
+        if (slot < 0) {
+            return false;
+        }
+        resultCountListeners.set(slot, listener);
+        return true;
     }
 
-    protected static class QueryEntry extends Entry {
-        protected int routedResultCount;
+    @Override
+    protected void onSlotClaimed(int slot) {
+        routedResultCounts.set(slot, 0);
+        resultCountListeners.set(slot, null);
     }
 }
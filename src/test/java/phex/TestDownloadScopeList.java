@@ -26,6 +26,7 @@ import phex.download.DownloadScope;
 import phex.download.DownloadScopeList;
 
 import java.util.Iterator;
+import java.util.Random;
 
 /**
  * 
@@ -137,4 +138,85 @@ public class TestDownloadScopeList extends TestCase
         assertEquals( 10, scope.getStart() );
         assertEquals( 11, scope.getEnd() );
     }
+    
+    public void testRandomOperations()
+    {
+        Random random = new Random( 4711 );
+        int size = 500;
+        boolean[] model = new boolean[size];
+        DownloadScopeList list = new DownloadScopeList();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            int start = random.nextInt( size );
+            int end = Math.min( size - 1, start + random.nextInt( 40 ) );
+            DownloadScope scope = new DownloadScope( start, end );
+            switch ( random.nextInt( 3 ) )
+            {
+            case 0:
+                list.add( scope );
+                fill( model, start, end, true );
+                break;
+            case 1:
+                list.remove( scope );
+                fill( model, start, end, false );
+                break;
+            default:
+                boolean contained = true;
+                for ( int j = start; j <= end; j++ )
+                {
+                    contained &= model[j];
+                }
+                assertEquals( contained, list.contains( scope ) );
+            }
+            assertModel( model, list );
+        }
+        
+        DownloadScopeList retainList = new DownloadScopeList();
+        retainList.add( new DownloadScope( 10, 100 ) );
+        retainList.add( new DownloadScope( 200, 210 ) );
+        retainList.add( new DownloadScope( 300, 499 ) );
+        list.retainAll( retainList );
+        fill( model, 0, 9, false );
+        fill( model, 101, 199, false );
+        fill( model, 211, 299, false );
+        assertModel( model, list );
+    }
+    
+    private static void fill( boolean[] model, int start, int end, boolean value )
+    {
+        for ( int i = start; i <= end; i++ )
+        {
+            model[i] = value;
+        }
+    }
+    
+    private static void assertModel( boolean[] model, DownloadScopeList list )
+    {
+        long length = 0;
+        int scopes = 0;
+        for ( int i = 0; i < model.length; i++ )
+        {
+            if ( model[i] )
+            {
+                length ++;
+                if ( i == 0 || !model[i - 1] )
+                {
+                    scopes ++;
+                }
+            }
+        }
+        assertEquals( scopes, list.size() );
+        assertEquals( length, list.getAggregatedLength() );
+        long lastEnd = -2;
+        for ( DownloadScope scope : list )
+        {
+            // scopes are sorted and neighbors are merged
+            assertTrue( scope.getStart() > lastEnd + 1 );
+            for ( long i = scope.getStart(); i <= scope.getEnd(); i++ )
+            {
+                assertTrue( model[(int)i] );
+            }
+            lastEnd = scope.getEnd();
+        }
+    }
 }
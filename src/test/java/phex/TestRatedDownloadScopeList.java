@@ -28,6 +28,7 @@ import phex.download.RatedDownloadScope;
 import phex.download.RatedDownloadScopeList;
 
 import java.util.Iterator;
+import java.util.Random;
 
 /**
  * 
@@ -420,4 +421,50 @@ public class TestRatedDownloadScopeList extends TestCase
         
         assertFalse( iterator.hasNext() );
     }
+    public void testRandomRating()
+    {
+        Random random = new Random( 4711 );
+        int size = 1000;
+        int[] counts = new int[size];
+        long[] speeds = new long[size];
+        RatedDownloadScopeList scopeList = new RatedDownloadScopeList();
+        DownloadScopeList missing = new DownloadScopeList();
+        missing.add( new DownloadScope( 0, 299 ) );
+        missing.add( new DownloadScope( 400, size - 1 ) );
+        scopeList.addAll( missing );
+        for ( int i = 0; i < 200; i++ )
+        {
+            int start = random.nextInt( size );
+            int end = Math.min( size - 1, start + random.nextInt( 100 ) );
+            DownloadScopeList available = new DownloadScopeList();
+            available.add( new DownloadScope( start, end ) );
+            scopeList.rateDownloadScopeList( available, 10 );
+            for ( int j = start; j <= end; j++ )
+            {
+                if ( j < 300 || j >= 400 )
+                {
+                    counts[j] ++;
+                    speeds[j] += 10;
+                }
+            }
+        }
+        
+        assertEquals( size - 100, scopeList.getAggregatedLength() );
+        int minCount = Integer.MAX_VALUE;
+        Iterator<RatedDownloadScope> iterator = scopeList.getScopeIterator();
+        while ( iterator.hasNext() )
+        {
+            RatedDownloadScope scope = iterator.next();
+            for ( long j = scope.getStart(); j <= scope.getEnd(); j++ )
+            {
+                assertEquals( counts[(int)j], scope.getCountRating() );
+                assertEquals( speeds[(int)j], scope.getSpeedRating() );
+            }
+            minCount = Math.min( minCount, scope.getCountRating() );
+        }
+        assertEquals( minCount, scopeList.getBestRated().getCountRating() );
+        
+        scopeList.remove( new RatedDownloadScope( 250, 450 ) );
+        assertEquals( size - 100 - 101, scopeList.getAggregatedLength() );
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common;
+
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class JThreadPoolTest extends TestCase
+{
+    public void testBoundedQueueRejects()
+        throws Exception
+    {
+        JThreadPool pool = new JThreadPool( "Test", 1, 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch started = new CountDownLatch( 1 );
+        Runnable blocking = new Runnable()
+        {
+            public void run()
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch ( InterruptedException exp )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        pool.execute( blocking, "Blocking" );
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        pool.execute( blocking, "Queued" );
+        assertEquals( 1, pool.getActiveCount() );
+        assertEquals( 1, pool.getQueueDepth() );
+        try
+        {
+            pool.execute( blocking, "Rejected" );
+            fail( "task not rejected" );
+        }
+        catch ( RejectedExecutionException exp )
+        {
+        }
+        assertEquals( 1, pool.getRejectedCount() );
+        assertEquals( 3, pool.getSubmittedCount() );
+
+        release.countDown();
+        long timeout = System.currentTimeMillis() + 5000;
+        while ( pool.getCompletedCount() < 2 && System.currentTimeMillis() < timeout )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 2, pool.getCompletedCount() );
+        assertEquals( 0, pool.getActiveCount() );
+        pool.shutdown();
+    }
+
+    public void testDirectHandoff()
+        throws Exception
+    {
+        JThreadPool pool = new JThreadPool( "Test", 4, 0 );
+        final CountDownLatch running = new CountDownLatch( 4 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        for ( int i = 0; i < 4; i++ )
+        {
+            pool.execute( new Runnable()
+            {
+                public void run()
+                {
+                    running.countDown();
+                    try
+                    {
+                        release.await();
+                    }
+                    catch ( InterruptedException exp )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "Task" );
+        }
+        assertTrue( running.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 0, pool.getQueueDepth() );
+        try
+        {
+            pool.execute( new Runnable()
+            {
+                public void run()
+                {
+                }
+            } );
+            fail( "task not rejected" );
+        }
+        catch ( RejectedExecutionException exp )
+        {
+        }
+        release.countDown();
+        pool.shutdown();
+    }
+
+    public void testVirtualThreads()
+        throws Exception
+    {
+        JThreadPool pool = JThreadPool.createVirtual( "Test", 2 );
+        if ( pool == null )
+        {
+            // not supported by this JDK.
+            return;
+        }
+        assertTrue( pool.isVirtual() );
+        final CountDownLatch done = new CountDownLatch( 1 );
+        pool.execute( new Runnable()
+        {
+            public void run()
+            {
+                done.countDown();
+            }
+        }, "Virtual" );
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+    }
+
+    public void testFailingTimerTaskKeepsRunning()
+        throws Exception
+    {
+        final AtomicInteger runCount = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch( 3 );
+        ScheduledFuture<?> future = Environment.getInstance().scheduleTimerTask(
+            new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    runCount.incrementAndGet();
+                    done.countDown();
+                    throw new IllegalStateException( "expected" );
+                }
+            }, 0, 10 );
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        future.cancel( false );
+        int count = runCount.get();
+        Thread.sleep( 50 );
+        assertTrue( runCount.get() <= count + 1 );
+    }
+}
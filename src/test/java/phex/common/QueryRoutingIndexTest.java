@@ -0,0 +1,152 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common;
+
+import junit.framework.TestCase;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Random;
+
+public class QueryRoutingIndexTest extends TestCase
+{
+    private static final String[] VOCABULARY = { "phex", "gnutella", "music",
+        "video", "holiday", "java", "servent", "ultrapeer", "leaf", "query" };
+
+    public void testMatchKeywords()
+    {
+        QueryRoutingIndex index = new QueryRoutingIndex();
+        QueryRoutingTable tableA = createTable( QueryRoutingTable.MIN_TABLE_SIZE,
+            "phex", "gnutella", "music" );
+        QueryRoutingTable tableB = createTable( QueryRoutingTable.MIN_TABLE_SIZE,
+            "video", "holiday" );
+        QueryRoutingTable tableC = createTable( QueryRoutingTable.MIN_TABLE_SIZE * 4,
+            "phex", "video" );
+        index.updateTable( "a", tableA );
+        index.updateTable( "b", tableB );
+        index.updateTable( "c", tableC );
+        assertEquals( 3, index.getTableCount() );
+
+        QueryRoutingIndex.Match match = index.match( "Phex Gnutella", null );
+        assertTrue( match.contains( "a", tableA, null ) );
+        assertFalse( match.contains( "b", tableB, null ) );
+        assertFalse( match.contains( "c", tableC, null ) );
+        assertTrue( match.contains( "none", null, null ) );
+
+        match = index.match( "phex video", null );
+        assertFalse( match.contains( "a", tableA, null ) );
+        assertTrue( match.contains( "c", tableC, null ) );
+
+        // too short search strings match no table
+        match = index.match( "p", null );
+        assertFalse( match.contains( "a", tableA, null ) );
+    }
+
+    public void testUpdateAndRemove()
+    {
+        QueryRoutingIndex index = new QueryRoutingIndex();
+        QueryRoutingTable table = createTable( QueryRoutingTable.MIN_TABLE_SIZE,
+            "phex" );
+        index.updateTable( "a", table );
+        assertTrue( index.match( "phex", null ).contains( "a", table, null ) );
+
+        // a new table of another size replaces the indexed one
+        QueryRoutingTable resized = createTable( QueryRoutingTable.MIN_TABLE_SIZE * 2,
+            "java" );
+        index.updateTable( "a", resized );
+        assertFalse( index.match( "phex", null ).contains( "a", resized, null ) );
+        assertTrue( index.match( "java", null ).contains( "a", resized, null ) );
+
+        index.updateTable( "b", createTable( QueryRoutingTable.MIN_TABLE_SIZE, "leaf" ) );
+        index.retainTables( Collections.singleton( "b" ) );
+        assertEquals( 1, index.getTableCount() );
+        index.removeTable( "b" );
+        assertEquals( 0, index.getTableCount() );
+    }
+
+    public void testManyTablesMatchLikeTables()
+    {
+        Random random = new Random( 7 );
+        QueryRoutingIndex index = new QueryRoutingIndex();
+        // more than 64 tables to span several words per slot
+        int tableCount = 150;
+        QueryRoutingTable[] tables = new QueryRoutingTable[tableCount];
+        for ( int i = 0; i < tableCount; i++ )
+        {
+            int size = QueryRoutingTable.MIN_TABLE_SIZE << random.nextInt( 3 );
+            String[] words = new String[1 + random.nextInt( 4 )];
+            for ( int j = 0; j < words.length; j++ )
+            {
+                words[j] = VOCABULARY[random.nextInt( VOCABULARY.length )];
+            }
+            tables[i] = createTable( size, words );
+            index.updateTable( Integer.valueOf( i ), tables[i] );
+        }
+        // drop a few to reuse their positions
+        for ( int i = 0; i < tableCount; i += 7 )
+        {
+            index.removeTable( Integer.valueOf( i ) );
+            tables[i] = createTable( QueryRoutingTable.MIN_TABLE_SIZE, "query" );
+            index.updateTable( Integer.valueOf( i ), tables[i] );
+        }
+
+        for ( int q = 0; q < 200; q++ )
+        {
+            String query = VOCABULARY[random.nextInt( VOCABULARY.length )];
+            if ( random.nextBoolean() )
+            {
+                query += ' ' + VOCABULARY[random.nextInt( VOCABULARY.length )];
+            }
+            QueryRoutingIndex.Match match = index.match( query, null );
+            for ( int i = 0; i < tableCount; i++ )
+            {
+                assertEquals( query, containsAll( tables[i], query ),
+                    match.contains( Integer.valueOf( i ), tables[i], null ) );
+            }
+        }
+    }
+
+    private static boolean containsAll( QueryRoutingTable table, String query )
+    {
+        byte bits = (byte) Integer.numberOfTrailingZeros( table.getTableSize() );
+        BitSet slots = table.getSlots( table.getTableSize() );
+        for ( String word : QueryRoutingTable.splitQueryString( query ) )
+        {
+            if ( !slots.get( QueryRoutingTable.qrpHash( word, 0, word.length(), bits ) ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static QueryRoutingTable createTable( int size, String... words )
+    {
+        byte bits = (byte) Integer.numberOfTrailingZeros( size );
+        BitSet slots = new BitSet( size );
+        for ( String word : words )
+        {
+            slots.set( QueryRoutingTable.qrpHash( word, 0, word.length(), bits ) );
+        }
+        return QueryRoutingTable.createFromSlots( slots, size );
+    }
+}
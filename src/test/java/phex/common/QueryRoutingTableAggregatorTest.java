@@ -0,0 +1,132 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common;
+
+import junit.framework.TestCase;
+import phex.msg.RouteTableUpdateMsg;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+public class QueryRoutingTableAggregatorTest extends TestCase
+{
+    public void testLocalTableAddRemove()
+    {
+        LocalQueryRoutingTable localTable = new LocalQueryRoutingTable();
+        QueryRoutingTable empty = localTable.getQueryRoutingTable();
+        assertEquals( 0, empty.getSlots( empty.getTableSize() ).cardinality() );
+
+        localTable.addFile( "/music/phex/gnutella.mp3" );
+        localTable.addFile( "/music/phex/other.mp3" );
+        QueryRoutingTable both = localTable.getQueryRoutingTable();
+        assertNotSame( empty, both );
+        assertSame( both, localTable.getQueryRoutingTable() );
+
+        localTable.removeFile( "/music/phex/other.mp3" );
+        LocalQueryRoutingTable single = new LocalQueryRoutingTable();
+        single.addFile( "/music/phex/gnutella.mp3" );
+        assertEquals( slotsOf( single.getQueryRoutingTable() ),
+            slotsOf( localTable.getQueryRoutingTable() ) );
+
+        localTable.removeFile( "/music/phex/gnutella.mp3" );
+        assertEquals( 0, slotsOf( localTable.getQueryRoutingTable() ).cardinality() );
+    }
+
+    public void testLocalTableRebuild()
+    {
+        LocalQueryRoutingTable localTable = new LocalQueryRoutingTable();
+        List<String> paths = new ArrayList<String>();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            String path = "/share/folder" + i + "/file" + i + "name.txt";
+            paths.add( path );
+            localTable.addFile( path );
+        }
+        assertTrue( localTable.isResizeRequired() );
+        localTable.rebuild( paths );
+        assertFalse( localTable.isResizeRequired() );
+        assertTrue( localTable.getTableSize() > QueryRoutingTable.MIN_TABLE_SIZE );
+    }
+
+    public void testAggregateMatchesUnion()
+    {
+        QueryRoutingTableAggregator aggregator = new QueryRoutingTableAggregator();
+        aggregator.setTableSize( QueryRoutingTable.MIN_TABLE_SIZE );
+        LocalQueryRoutingTable tableA = new LocalQueryRoutingTable();
+        LocalQueryRoutingTable tableB = new LocalQueryRoutingTable();
+        tableA.addFile( "/a/shared/word" );
+        tableA.addFile( "/common/path" );
+        tableB.addFile( "/b/another/thing" );
+        tableB.addFile( "/common/path" );
+
+        aggregator.updateContribution( "a", tableA.getQueryRoutingTable() );
+        aggregator.updateContribution( "b", tableB.getQueryRoutingTable() );
+        BitSet expected = slotsOf( tableA.getQueryRoutingTable() );
+        expected.or( slotsOf( tableB.getQueryRoutingTable() ) );
+        QueryRoutingTable first = aggregator.getCurrentTable();
+        assertEquals( expected, slotsOf( first ) );
+        assertSame( first, aggregator.getCurrentTable() );
+
+        // dropping b keeps the shared slots flagged by a
+        aggregator.retainContributions( Collections.singleton( "a" ) );
+        QueryRoutingTable second = aggregator.getCurrentTable();
+        assertNotSame( first, second );
+        assertEquals( slotsOf( tableA.getQueryRoutingTable() ), slotsOf( second ) );
+
+        // changing a only flips its own slots
+        tableA.removeFile( "/common/path" );
+        aggregator.updateContribution( "a", tableA.getQueryRoutingTable() );
+        assertEquals( slotsOf( tableA.getQueryRoutingTable() ),
+            slotsOf( aggregator.getCurrentTable() ) );
+    }
+
+    public void testUpdateMessagesShared()
+    {
+        QueryRoutingTableAggregator aggregator = new QueryRoutingTableAggregator();
+        aggregator.setTableSize( QueryRoutingTable.MIN_TABLE_SIZE );
+        LocalQueryRoutingTable localTable = new LocalQueryRoutingTable();
+        localTable.addFile( "/some/shared/file" );
+        aggregator.updateContribution( "local", localTable.getQueryRoutingTable() );
+
+        List<RouteTableUpdateMsg> initial = aggregator.getUpdateMessages( null );
+        assertTrue( initial.size() >= 2 );
+        assertEquals( RouteTableUpdateMsg.RESET_TABLE_VARIANT, initial.get( 0 ).getVariant() );
+        assertSame( initial, aggregator.getUpdateMessages( null ) );
+
+        QueryRoutingTable sent = aggregator.getCurrentTable();
+        assertTrue( aggregator.getUpdateMessages( sent ).isEmpty() );
+
+        localTable.addFile( "/new/shared/file" );
+        aggregator.updateContribution( "local", localTable.getQueryRoutingTable() );
+        List<RouteTableUpdateMsg> patch = aggregator.getUpdateMessages( sent );
+        assertFalse( patch.isEmpty() );
+        assertEquals( RouteTableUpdateMsg.PATCH_TABLE_VARIANT, patch.get( 0 ).getVariant() );
+        assertSame( patch, aggregator.getUpdateMessages( sent ) );
+    }
+
+    private static BitSet slotsOf( QueryRoutingTable table )
+    {
+        return (BitSet) table.getSlots( table.getTableSize() ).clone();
+    }
+}
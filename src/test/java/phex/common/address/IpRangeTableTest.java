@@ -0,0 +1,150 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common.address;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class IpRangeTableTest extends TestCase
+{
+    private static int ip( String dottedIp )
+    {
+        return AddressUtils.parseDottedIpToInt( dottedIp );
+    }
+
+    public void testLookup()
+    {
+        IpRangeTable table = new IpRangeTable.Builder()
+            .addRange( ip( "10.0.0.0" ), ip( "10.255.255.255" ), 1 )
+            .addRange( ip( "192.168.1.10" ), ip( "192.168.1.20" ), 2 )
+            .addRange( ip( "200.0.0.0" ), ip( "255.255.255.255" ), 3 )
+            .build();
+        assertEquals( 3, table.size() );
+        assertEquals( IpRangeTable.NOT_FOUND, table.lookup( ip( "9.255.255.255" ) ) );
+        assertEquals( 1, table.lookup( ip( "10.0.0.0" ) ) );
+        assertEquals( 1, table.lookup( ip( "10.255.255.255" ) ) );
+        assertEquals( IpRangeTable.NOT_FOUND, table.lookup( ip( "11.0.0.0" ) ) );
+        assertEquals( IpRangeTable.NOT_FOUND, table.lookup( ip( "192.168.1.9" ) ) );
+        assertEquals( 2, table.lookup( ip( "192.168.1.15" ) ) );
+        assertEquals( IpRangeTable.NOT_FOUND, table.lookup( ip( "192.168.1.21" ) ) );
+        assertEquals( 3, table.lookup( ip( "255.255.255.255" ) ) );
+        assertFalse( table.contains( ip( "0.0.0.0" ) ) );
+        assertFalse( new IpRangeTable.Builder().build().contains( ip( "1.2.3.4" ) ) );
+    }
+
+    public void testMergeOverlapping()
+    {
+        IpRangeTable table = new IpRangeTable.Builder()
+            .addCidr( ip( "10.0.0.0" ), 8, 0 )
+            .addCidr( ip( "10.1.0.0" ), 16, 0 )
+            .addCidr( ip( "11.0.0.0" ), 8, 0 )
+            .addCidr( ip( "1.2.3.4" ), 32, 0 )
+            .build();
+        assertEquals( 2, table.size() );
+        assertTrue( table.contains( ip( "10.1.2.3" ) ) );
+        assertTrue( table.contains( ip( "11.255.255.255" ) ) );
+        assertTrue( table.contains( ip( "1.2.3.4" ) ) );
+        assertFalse( table.contains( ip( "1.2.3.5" ) ) );
+        assertFalse( table.contains( ip( "12.0.0.0" ) ) );
+
+        table = new IpRangeTable.Builder()
+            .addRange( ip( "10.0.0.10" ), ip( "10.0.0.20" ), 1 )
+            .addRange( ip( "10.0.0.15" ), ip( "10.0.0.30" ), 2 )
+            .addRange( ip( "10.0.0.12" ), ip( "10.0.0.14" ), 3 )
+            .build();
+        assertEquals( 2, table.size() );
+        assertEquals( 1, table.lookup( ip( "10.0.0.10" ) ) );
+        assertEquals( 1, table.lookup( ip( "10.0.0.13" ) ) );
+        assertEquals( 1, table.lookup( ip( "10.0.0.20" ) ) );
+        assertEquals( 2, table.lookup( ip( "10.0.0.21" ) ) );
+        assertEquals( 2, table.lookup( ip( "10.0.0.30" ) ) );
+        assertEquals( IpRangeTable.NOT_FOUND, table.lookup( ip( "10.0.0.31" ) ) );
+    }
+
+    public void testWriteAndMap()
+        throws Exception
+    {
+        Random random = new Random( 42 );
+        IpRangeTable.Builder builder = new IpRangeTable.Builder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            int start = random.nextInt();
+            builder.addRange( start, start + random.nextInt( 1000 ), i % 3 );
+        }
+        builder.setLabels( new String[] { "US", "DE", "\u00c5X" } );
+        IpRangeTable table = builder.build();
+
+        File file = File.createTempFile( "iprange", ".cache" );
+        try
+        {
+            table.write( file, 4711 );
+            assertNull( IpRangeTable.map( file, 4712 ) );
+            IpRangeTable mapped = IpRangeTable.map( file, 4711 );
+            assertNotNull( mapped );
+            assertEquals( table.size(), mapped.size() );
+            assertEquals( "\u00c5X", mapped.getLabel( 2 ) );
+            assertNull( mapped.getLabel( 3 ) );
+            for ( int i = 0; i < 100000; i++ )
+            {
+                int ip = random.nextInt();
+                assertEquals( table.lookup( ip ), mapped.lookup( ip ) );
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+        assertNull( IpRangeTable.map( file, 4711 ) );
+    }
+
+    public void testLookupPerformance()
+    {
+        Random random = new Random( 7 );
+        IpRangeTable.Builder builder = new IpRangeTable.Builder();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            builder.addCidr( random.nextInt(), 24, i );
+        }
+        IpRangeTable table = builder.build();
+        int[] ips = new int[1000000];
+        for ( int i = 0; i < ips.length; i++ )
+        {
+            ips[i] = random.nextInt();
+        }
+
+        long start = System.nanoTime();
+        int found = 0;
+        for ( int ip : ips )
+        {
+            if ( table.contains( ip ) )
+            {
+                found++;
+            }
+        }
+        long duration = System.nanoTime() - start;
+        assertTrue( found > 0 );
+        assertTrue( "1M lookups took " + duration / 1000000 + "ms",
+            duration < 1000000000L );
+    }
+}
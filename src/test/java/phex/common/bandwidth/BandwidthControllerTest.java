@@ -0,0 +1,175 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common.bandwidth;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BandwidthControllerTest extends TestCase
+{
+    public void testUnlimited()
+        throws IOException
+    {
+        BandwidthController controller = new BandwidthController( "Test",
+            Integer.MAX_VALUE );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertEquals( 1000000, controller.getAvailableByteCount( 1000000,
+                false, true ) );
+        }
+    }
+
+    public void testBurstLimit()
+        throws IOException
+    {
+        BandwidthController controller = new BandwidthController( "Test", 10000 );
+        // a full bucket holds 200ms of bandwidth
+        int available = controller.getAvailableByteCount( 100000, false, false );
+        assertTrue( "available: " + available, available >= 2000 && available < 2100 );
+        assertEquals( available, controller.getAvailableByteCount( 100000, false, true ) );
+        assertEquals( 0, controller.getAvailableByteCount( 100000, false, true ) );
+    }
+
+    public void testMarkBytesUsedCreatesDebt()
+        throws Exception
+    {
+        BandwidthController controller = new BandwidthController( "Test", 10000 );
+        controller.markBytesUsed( 10000 );
+        Thread.sleep( 300 );
+        // one second of debt is not paid back yet.
+        assertEquals( 0, controller.getAvailableByteCount( 1000, false, false ) );
+    }
+
+    public void testBlockingRate()
+        throws IOException
+    {
+        BandwidthController controller = new BandwidthController( "Test", 100000 );
+        long start = System.currentTimeMillis();
+        int remaining = 60000;
+        while ( remaining > 0 )
+        {
+            int count = controller.getAvailableByteCount( 4096, true, true );
+            assertTrue( count > 0 );
+            remaining -= count;
+        }
+        long time = System.currentTimeMillis() - start;
+        // 20000 bytes burst, the remaining 40000 at 100000 per second.
+        assertTrue( "time: " + time, time >= 350 && time < 1500 );
+    }
+
+    public void testParentLimitsChild()
+        throws IOException
+    {
+        BandwidthController parent = new BandwidthController( "Parent", 5000 );
+        BandwidthController child = new BandwidthController( "Child", 50000, parent );
+        int count = child.getAvailableByteCount( 100000, false, true );
+        assertTrue( "count: " + count, count >= 1000 && count < 1100 );
+        // only what was refilled in the meantime is available.
+        assertTrue( child.getAvailableByteCount( 100000, false, true ) < 50 );
+
+        // the child got back what the parent denied.
+        parent.setThrottlingRate( Integer.MAX_VALUE );
+        int childAvailable = child.getAvailableByteCount( 100000, false, false );
+        assertTrue( "available: " + childAvailable, childAvailable >= 10000 - count );
+    }
+
+    public void testTransferAverageMatchesParent()
+        throws IOException
+    {
+        BandwidthController parent = new BandwidthController( "Parent", Integer.MAX_VALUE );
+        parent.activateShortTransferAvg( 1000, 5 );
+        BandwidthController child = new BandwidthController( "Child", 100000, parent );
+        child.activateShortTransferAvg( 1000, 5 );
+        int remaining = 50000;
+        while ( remaining > 0 )
+        {
+            remaining -= child.getAvailableByteCount( remaining, true, true );
+        }
+        assertEquals( child.getShortTransferAvg().getAverage(),
+            parent.getShortTransferAvg().getAverage() );
+    }
+
+    public void testWeightedSharing()
+        throws Exception
+    {
+        final BandwidthController parent = new BandwidthController( "Parent", 200000 );
+        BandwidthController light = new BandwidthController( "Light",
+            Integer.MAX_VALUE, parent, 1 );
+        BandwidthController heavy = new BandwidthController( "Heavy",
+            Integer.MAX_VALUE, parent, 3 );
+        AtomicLong lightBytes = new AtomicLong();
+        AtomicLong heavyBytes = new AtomicLong();
+        Thread lightThread = startPump( light, lightBytes, 3000 );
+        Thread heavyThread = startPump( heavy, heavyBytes, 3000 );
+        lightThread.join();
+        heavyThread.join();
+
+        long total = lightBytes.get() + heavyBytes.get();
+        // 3 seconds at 200000 plus the initial burst.
+        assertTrue( "total: " + total, total > 500000 && total < 700000 );
+        double ratio = (double) heavyBytes.get() / lightBytes.get();
+        assertTrue( "ratio: " + ratio, ratio > 2.0 && ratio < 4.5 );
+    }
+
+    public void testUnusedShareIsAvailable()
+        throws Exception
+    {
+        BandwidthController parent = new BandwidthController( "Parent", 200000 );
+        BandwidthController idle = new BandwidthController( "Idle",
+            Integer.MAX_VALUE, parent, 10 );
+        BandwidthController busy = new BandwidthController( "Busy",
+            Integer.MAX_VALUE, parent, 1 );
+        // the idle controller registers once but uses nothing.
+        idle.getAvailableByteCount( 1, false, true );
+        AtomicLong busyBytes = new AtomicLong();
+        startPump( busy, busyBytes, 2000 ).join();
+        assertTrue( "busy: " + busyBytes.get(), busyBytes.get() > 300000 );
+    }
+
+    private static Thread startPump( final BandwidthController controller,
+        final AtomicLong bytes, final long millis )
+    {
+        Thread thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                long end = System.currentTimeMillis() + millis;
+                try
+                {
+                    while ( System.currentTimeMillis() < end )
+                    {
+                        bytes.addAndGet( controller.getAvailableByteCount( 4096,
+                            true, true ) );
+                    }
+                }
+                catch ( IOException exp )
+                {
+                    throw new RuntimeException( exp );
+                }
+            }
+        } );
+        thread.start();
+        return thread;
+    }
+}
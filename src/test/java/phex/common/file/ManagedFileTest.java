@@ -0,0 +1,132 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.common.file;
+
+import junit.framework.TestCase;
+import phex.io.buffer.ByteBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ManagedFileTest extends TestCase
+{
+    private File file;
+    private byte[] data;
+    private ReadOnlyManagedFile managedFile;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        data = new byte[100000];
+        new Random( 42 ).nextBytes( data );
+        file = File.createTempFile( "ManagedFileTest", ".tmp" );
+        FileOutputStream outStream = new FileOutputStream( file );
+        try
+        {
+            outStream.write( data );
+        }
+        finally
+        {
+            outStream.close();
+        }
+        managedFile = new FileManager().getReadOnlyManagedFile( file );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        managedFile.closeFile();
+        file.delete();
+    }
+
+    public void testTransferTo()
+        throws Exception
+    {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel( outStream );
+        long pos = 1000;
+        while ( pos < 90000 )
+        {
+            pos += managedFile.transferTo( pos, Math.min( 4096, 90000 - pos ), target );
+        }
+        assertTrue( Arrays.equals( Arrays.copyOfRange( data, 1000, 90000 ),
+            outStream.toByteArray() ) );
+    }
+
+    public void testTransferToReopensClosedFile()
+        throws Exception
+    {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel( outStream );
+        assertEquals( 100, managedFile.transferTo( 0, 100, target ) );
+        managedFile.closeFile();
+        assertEquals( 100, managedFile.transferTo( 100, 100, target ) );
+        assertTrue( Arrays.equals( Arrays.copyOfRange( data, 0, 200 ),
+            outStream.toByteArray() ) );
+    }
+
+    public void testTransferToEndOfFile()
+        throws ManagedFileException
+    {
+        WritableByteChannel target = Channels.newChannel( new ByteArrayOutputStream() );
+        assertEquals( 0, managedFile.transferTo( data.length, 100, target ) );
+        assertEquals( 10, managedFile.transferTo( data.length - 10, 100, target ) );
+    }
+
+    public void testGatheringWrite()
+        throws Exception
+    {
+        ManagedFile writeFile = new FileManager().getReadWriteManagedFile( file );
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            buffers[i] = ByteBuffer.wrap( new byte[1000 * ( i + 1 )] );
+            Arrays.fill( buffers[i].array(), (byte) ( i + 1 ) );
+        }
+        writeFile.write( buffers, 5000 );
+        writeFile.closeFile();
+        for ( ByteBuffer buffer : buffers )
+        {
+            assertFalse( buffer.hasRemaining() );
+        }
+
+        ByteBuffer readBuffer = ByteBuffer.allocate( 8000 );
+        assertEquals( 8000, managedFile.read( readBuffer, 4000 ) );
+        byte[] result = readBuffer.array();
+        assertTrue( Arrays.equals( Arrays.copyOfRange( data, 4000, 5000 ),
+            Arrays.copyOfRange( result, 0, 1000 ) ) );
+        assertEquals( 1, result[1000] );
+        assertEquals( 1, result[1999] );
+        assertEquals( 2, result[2000] );
+        assertEquals( 2, result[3999] );
+        assertEquals( 3, result[4000] );
+        assertEquals( 3, result[6999] );
+        assertEquals( data[11000], result[7000] );
+    }
+}
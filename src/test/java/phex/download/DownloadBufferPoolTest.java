@@ -0,0 +1,83 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.download;
+
+import junit.framework.TestCase;
+import phex.io.buffer.ByteBuffer;
+
+public class DownloadBufferPoolTest extends TestCase
+{
+    public void testBuffersAreRecycled()
+    {
+        DownloadBufferPool pool = new DownloadBufferPool(
+            2 * DownloadBufferPool.BUFFER_SIZE );
+        ByteBuffer buffer = pool.borrow();
+        assertEquals( DownloadBufferPool.BUFFER_SIZE, buffer.capacity() );
+        assertEquals( 0, buffer.position() );
+        buffer.limit( 100 );
+        pool.release( buffer );
+        assertEquals( 1, pool.getPooledCount() );
+
+        ByteBuffer recycled = pool.borrow();
+        assertSame( buffer.array(), recycled.array() );
+        assertEquals( DownloadBufferPool.BUFFER_SIZE, recycled.remaining() );
+        assertEquals( 0, pool.getPooledCount() );
+    }
+
+    public void testPoolIsLimited()
+    {
+        DownloadBufferPool pool = new DownloadBufferPool(
+            2 * DownloadBufferPool.BUFFER_SIZE );
+        ByteBuffer[] buffers = new ByteBuffer[3];
+        for ( int i = 0; i < buffers.length; i++ )
+        {
+            buffers[i] = pool.borrow();
+        }
+        for ( ByteBuffer buffer : buffers )
+        {
+            pool.release( buffer );
+        }
+        assertEquals( 2, pool.getPooledCount() );
+
+        // foreign buffers are not pooled
+        pool = new DownloadBufferPool( DownloadBufferPool.BUFFER_SIZE );
+        pool.release( ByteBuffer.allocate( 100 ) );
+        assertEquals( 0, pool.getPooledCount() );
+    }
+
+    public void testSmallReadsAreCopied()
+    {
+        DownloadBufferPool pool = new DownloadBufferPool(
+            2 * DownloadBufferPool.BUFFER_SIZE );
+        ByteBuffer buffer = pool.borrow();
+        buffer.array()[0] = 42;
+        ByteBuffer trimmed = pool.trim( buffer, 100 );
+        assertEquals( 100, trimmed.capacity() );
+        assertEquals( 42, trimmed.array()[0] );
+        // the borrowed buffer was given back right away.
+        assertEquals( 1, pool.getPooledCount() );
+
+        buffer = pool.borrow();
+        assertSame( buffer, pool.trim( buffer, DownloadBufferPool.BUFFER_SIZE ) );
+        assertEquals( 0, pool.getPooledCount() );
+    }
+}
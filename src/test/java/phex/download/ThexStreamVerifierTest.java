@@ -0,0 +1,137 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.download;
+
+import junit.framework.TestCase;
+import phex.thex.ForkJoinTigerTree;
+import phex.thex.TTHashCalcUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class ThexStreamVerifierTest extends TestCase
+{
+    private static final int FILE_SIZE = 1024 * 1024 + 3000;
+    private static final int TREE_DEPTH = 4;
+
+    private byte[] data;
+    private int nodeSize;
+    private ThexVerificationData verificationData;
+    private List<DownloadScope> validNodes;
+    private List<DownloadScope> invalidNodes;
+    private ThexStreamVerifier verifier;
+
+    @Override
+    protected void setUp()
+    {
+        data = new byte[FILE_SIZE];
+        new Random( 7 ).nextBytes( data );
+        nodeSize = TTHashCalcUtils.getTreeNodeSize( FILE_SIZE, TREE_DEPTH );
+        List<byte[]> nodes = new ForkJoinTigerTree( null ).calculateNodes(
+            data, 0, FILE_SIZE, nodeSize );
+        verificationData = new ThexVerificationData();
+        verificationData.setThexData( nodes, TREE_DEPTH, FILE_SIZE );
+        validNodes = new ArrayList<DownloadScope>();
+        invalidNodes = new ArrayList<DownloadScope>();
+        verifier = new ThexStreamVerifier( verificationData,
+            new ThexStreamVerifier.NodeVerificationHandler()
+            {
+                public void nodeVerified( DownloadScope nodeScope, boolean isValid )
+                {
+                    if ( isValid )
+                    {
+                        validNodes.add( nodeScope );
+                    }
+                    else
+                    {
+                        invalidNodes.add( nodeScope );
+                    }
+                }
+            } );
+    }
+
+    public void testAllNodesVerified()
+    {
+        assertTrue( stream( 0, FILE_SIZE, 16 * 1024 + 5 ) );
+        int nodeCount = ( FILE_SIZE + nodeSize - 1 ) / nodeSize;
+        assertEquals( nodeCount, validNodes.size() );
+        assertEquals( 0, invalidNodes.size() );
+        assertEquals( new DownloadScope( 0, nodeSize - 1 ), validNodes.get( 0 ) );
+        // the last node is shorter
+        assertEquals( new DownloadScope( ( nodeCount - 1 ) * (long) nodeSize,
+            FILE_SIZE - 1 ), validNodes.get( nodeCount - 1 ) );
+    }
+
+    public void testUnalignedStartSkipsPartialNode()
+    {
+        assertTrue( stream( 100, 3 * nodeSize, 4096 ) );
+        assertEquals( 2, validNodes.size() );
+        assertEquals( new DownloadScope( nodeSize, 2 * nodeSize - 1 ),
+            validNodes.get( 0 ) );
+    }
+
+    public void testCorruptDataFails()
+    {
+        data[nodeSize + 10] ^= 1;
+        assertFalse( stream( 0, 3 * nodeSize, 16 * 1024 ) );
+        assertEquals( 2, validNodes.size() );
+        assertEquals( 1, invalidNodes.size() );
+        assertEquals( new DownloadScope( nodeSize, 2 * nodeSize - 1 ),
+            invalidNodes.get( 0 ) );
+    }
+
+    public void testGapRestartsAtNextNode()
+    {
+        assertTrue( stream( 0, nodeSize / 2, 4096 ) );
+        // the data up to nodeSize / 2 + 10 is missing
+        assertTrue( stream( nodeSize / 2 + 10, 2 * nodeSize, 4096 ) );
+        assertEquals( 1, validNodes.size() );
+        assertEquals( new DownloadScope( nodeSize, 2 * nodeSize - 1 ),
+            validNodes.get( 0 ) );
+    }
+
+    public void testWithoutThexData()
+    {
+        verificationData = new ThexVerificationData();
+        verifier = new ThexStreamVerifier( verificationData,
+            new ThexStreamVerifier.NodeVerificationHandler()
+            {
+                public void nodeVerified( DownloadScope nodeScope, boolean isValid )
+                {
+                    fail( "no THEX data available" );
+                }
+            } );
+        assertTrue( stream( 0, FILE_SIZE, 16 * 1024 ) );
+    }
+
+    private boolean stream( int from, int to, int chunkSize )
+    {
+        boolean isValid = true;
+        for ( int pos = from; pos < to; pos += chunkSize )
+        {
+            int length = Math.min( chunkSize, to - pos );
+            isValid &= verifier.update( pos, data, pos, length, FILE_SIZE );
+        }
+        return isValid;
+    }
+}
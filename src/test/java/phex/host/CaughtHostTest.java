@@ -0,0 +1,101 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.host;
+
+import junit.framework.TestCase;
+import phex.common.address.DefaultDestAddress;
+import phex.util.AccessUtils;
+
+public class CaughtHostTest extends TestCase
+{
+    public void testConnectResultsRaiseScore()
+    {
+        CaughtHost host = new CaughtHost( new DefaultDestAddress( "1.2.3.4", 6346 ) );
+        double initialScore = host.getConnectScore();
+        host.addConnectResult( true, 200, true );
+        assertTrue( host.getConnectScore() > initialScore );
+        assertEquals( 200, host.getConnectLatency() );
+
+        double connectedScore = host.getConnectScore();
+        host.addConnectResult( true, 400, false );
+        assertTrue( host.getConnectScore() < connectedScore );
+        assertEquals( 250, host.getConnectLatency() );
+
+        double rejectedScore = host.getConnectScore();
+        host.addConnectResult( false, 0, false );
+        assertTrue( host.getConnectScore() < rejectedScore );
+        assertEquals( 250, host.getConnectLatency() );
+    }
+
+    public void testUptimeRaisesScore()
+    {
+        CaughtHost host = new CaughtHost( new DefaultDestAddress( "1.2.3.4", 6346 ) );
+        host.addConnectionUptime( 60 );
+        double shortScore = host.getConnectScore();
+        assertEquals( 60, host.getConnectionUptime() );
+        host.addConnectionUptime( 7260 );
+        assertEquals( 1860, host.getConnectionUptime() );
+        assertTrue( host.getConnectScore() > shortScore );
+    }
+
+    public void testComparatorPrefersScore()
+    {
+        CaughtHost failing = new CaughtHost( new DefaultDestAddress( "1.2.3.4", 6346 ) );
+        failing.addConnectResult( false, 0, false );
+        failing.setLastSuccessfulConnection( System.currentTimeMillis() );
+        CaughtHost fast = new CaughtHost( new DefaultDestAddress( "1.2.3.5", 6346 ) );
+        fast.addConnectResult( true, 50, true );
+        CaughtHost slow = new CaughtHost( new DefaultDestAddress( "1.2.3.6", 6346 ) );
+        slow.addConnectResult( true, 4000, true );
+
+        CaughtHostComparator comparator = new CaughtHostComparator();
+        assertTrue( comparator.compare( fast, failing ) > 0 );
+        assertTrue( comparator.compare( fast, slow ) > 0 );
+        assertTrue( comparator.compare( slow, failing ) > 0 );
+    }
+
+    public void testParseLearnedScore()
+        throws Throwable
+    {
+        long now = System.currentTimeMillis();
+        CaughtHost host = parse( "1.2.3.4:6346," + ( now - 1000 ) + ",-1,3600,PHEX,3,4,true,0.8,150,900", now );
+        assertEquals( 0.8, host.getConnectSuccessRate(), 0.0001 );
+        assertEquals( 150, host.getConnectLatency() );
+        assertEquals( 900, host.getConnectionUptime() );
+        assertTrue( host.isUltrapeer() );
+
+        // hosts files without learned score start from the last connection.
+        host = parse( "1.2.3.4:6346,-1," + ( now - 1000 ) + ",3600,PHEX,3,4,true", now );
+        assertEquals( 0.75, host.getConnectSuccessRate(), 0.0001 );
+        assertEquals( -1, host.getConnectLatency() );
+        host = parse( "1.2.3.4:6346", now );
+        assertEquals( 0.5, host.getConnectSuccessRate(), 0.0001 );
+    }
+
+    private static CaughtHost parse( String line, long now )
+        throws Throwable
+    {
+        return (CaughtHost) AccessUtils.invokeMethod( CaughtHostsContainer.class,
+            "parseCaughtHostFromLine", new Object[] { line, Long.valueOf( now ) },
+            new Class[] { String.class, long.class } );
+    }
+}
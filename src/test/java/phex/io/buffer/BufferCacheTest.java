@@ -0,0 +1,93 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.io.buffer;
+
+import junit.framework.TestCase;
+
+public class BufferCacheTest extends TestCase
+{
+    public void testBorrowUsesSizeClass()
+    {
+        BufferCache cache = new BufferCache( false );
+        assertEquals( 256, cache.borrow( 23 ).length );
+        assertEquals( BufferSize._2K, cache.borrow( 257 ).length );
+        assertEquals( BufferSize._16K, cache.borrow( BufferSize._16K ).length );
+        assertEquals( 100000, cache.borrow( 100000 ).length );
+        assertEquals( 4, cache.getMissCount() );
+        assertEquals( 0, cache.getHitCount() );
+    }
+
+    public void testReleasedArrayIsReused()
+    {
+        BufferCache cache = new BufferCache( false );
+        byte[] array = cache.borrow( 1000 );
+        cache.release( array );
+        assertSame( array, cache.borrow( 2000 ) );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+    }
+
+    public void testOversizedArrayIsDiscarded()
+    {
+        BufferCache cache = new BufferCache( false );
+        byte[] array = cache.borrow( 100000 );
+        cache.release( array );
+        assertEquals( 1, cache.getDiscardCount() );
+        assertNotSame( array, cache.borrow( 100000 ) );
+    }
+
+    public void testDoubleReleaseIsIgnored()
+    {
+        BufferCache cache = new BufferCache( true );
+        byte[] array = cache.borrow( 100 );
+        assertEquals( 1, cache.getOutstandingCount() );
+        cache.release( array );
+        cache.release( array );
+        assertEquals( 0, cache.getOutstandingCount() );
+
+        // the array must only be pooled once.
+        assertSame( array, cache.borrow( 100 ) );
+        assertNotSame( array, cache.borrow( 100 ) );
+    }
+
+    public void testExactBodyIsPooledByLength()
+    {
+        BufferCache cache = new BufferCache( false );
+        byte[] body = cache.borrowExact( 57 );
+        assertEquals( 57, body.length );
+        cache.release( body );
+        assertNotSame( body, cache.borrowExact( 58 ) );
+        assertSame( body, cache.borrowExact( 57 ) );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 0, cache.borrowExact( 0 ).length );
+    }
+
+    public void testDetachedBodyIsNoLongerTracked()
+    {
+        BufferCache cache = new BufferCache( true );
+        byte[] body = cache.borrowExact( 57 );
+        assertEquals( 1, cache.getOutstandingCount() );
+        cache.detach( body );
+        assertEquals( 0, cache.getOutstandingCount() );
+        assertNotSame( body, cache.borrowExact( 57 ) );
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.msg;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import phex.common.address.DefaultDestAddress;
+
+public class CachedPongTest extends TestCase
+{
+    private PongMsg pong;
+
+    protected void setUp()
+    {
+        GGEPBlock ggepBlock = new GGEPBlock( false );
+        ggepBlock.addExtension( GGEPBlock.AVARAGE_DAILY_UPTIME, 3600 );
+        MsgHeader header = new MsgHeader( new GUID(), MsgHeader.PONG_PAYLOAD,
+            (byte)3, (byte)2, 0 );
+        pong = new PongMsg( header, new DefaultDestAddress( "1.2.3.4", 6346 ),
+            10, 2048, true, ggepBlock );
+    }
+
+    public void testGgepResponse()
+    {
+        CachedPong cachedPong = new CachedPong( pong, Long.MAX_VALUE );
+        GUID guid = new GUID();
+        Message response = cachedPong.createResponse( guid, (byte)4, true );
+
+        MsgHeader header = response.getHeader();
+        assertSame( guid, header.getMsgID() );
+        assertEquals( MsgHeader.PONG_PAYLOAD, header.getPayload() );
+        assertEquals( 4, header.getTTL() );
+        assertEquals( 0, header.getHopsTaken() );
+        assertEquals( pong.getBody().length, header.getDataLength() );
+        assertTrue( Arrays.equals( pong.getBody(),
+            response.createMessageBuffer().array() ) );
+    }
+
+    public void testPlainResponse()
+    {
+        CachedPong cachedPong = new CachedPong( pong, Long.MAX_VALUE );
+        Message response = cachedPong.createResponse( new GUID(), (byte)1, false );
+
+        byte[] body = response.createMessageBuffer().array();
+        assertEquals( PongMsg.MIN_PONG_DATA_LEN, body.length );
+        assertEquals( PongMsg.MIN_PONG_DATA_LEN, response.getHeader().getDataLength() );
+        assertTrue( Arrays.equals( Arrays.copyOf( pong.getBody(),
+            PongMsg.MIN_PONG_DATA_LEN ), body ) );
+    }
+
+    public void testResponsesShareBody()
+    {
+        CachedPong cachedPong = new CachedPong( pong, Long.MAX_VALUE );
+        Message first = cachedPong.createResponse( new GUID(), (byte)1, true );
+        Message second = cachedPong.createResponse( new GUID(), (byte)1, true );
+        assertSame( first.createMessageBuffer().array(),
+            second.createMessageBuffer().array() );
+        assertEquals( pong.getPongAddress().getIpAddress(), cachedPong.getPongIp() );
+    }
+}
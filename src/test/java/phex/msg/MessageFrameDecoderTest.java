@@ -0,0 +1,136 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.msg;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageFrameDecoderTest extends TestCase
+{
+    private List<MsgHeader> headers;
+    private List<byte[]> bodies;
+    private MessageFrameDecoder.FrameListener listener;
+
+    @Override
+    protected void setUp()
+    {
+        headers = new ArrayList<MsgHeader>();
+        bodies = new ArrayList<byte[]>();
+        listener = new MessageFrameDecoder.FrameListener()
+        {
+            public void onFrame( MsgHeader header, byte[] body )
+            {
+                headers.add( header );
+                bodies.add( body );
+            }
+        };
+    }
+
+    public void testDecodeByteByByte()
+        throws IOException
+    {
+        byte[] stream = createStream( 3, 10 );
+        MessageFrameDecoder decoder = new MessageFrameDecoder( 65536 );
+        for ( int i = 0; i < stream.length; i++ )
+        {
+            decoder.decode( ByteBuffer.wrap( stream, i, 1 ), listener );
+        }
+        assertFalse( decoder.isInsideFrame() );
+        assertFrames( 3, 10 );
+    }
+
+    public void testDecodeAllAtOnce()
+        throws IOException
+    {
+        byte[] stream = createStream( 5, 100 );
+        MessageFrameDecoder decoder = new MessageFrameDecoder( 65536 );
+        int count = decoder.decode( ByteBuffer.wrap( stream ), listener );
+        assertEquals( 5, count );
+        assertFrames( 5, 100 );
+    }
+
+    public void testPartialFrame()
+        throws IOException
+    {
+        byte[] stream = createStream( 1, 50 );
+        MessageFrameDecoder decoder = new MessageFrameDecoder( 65536 );
+        int count = decoder.decode( ByteBuffer.wrap( stream, 0, 30 ), listener );
+        assertEquals( 0, count );
+        assertTrue( decoder.isInsideFrame() );
+        count = decoder.decode( ByteBuffer.wrap( stream, 30, stream.length - 30 ), listener );
+        assertEquals( 1, count );
+        assertFrames( 1, 50 );
+    }
+
+    public void testTooBigMessage()
+    {
+        byte[] stream = createStream( 1, 200 );
+        MessageFrameDecoder decoder = new MessageFrameDecoder( 100 );
+        try
+        {
+            decoder.decode( ByteBuffer.wrap( stream ), listener );
+            fail( "Expected IOException" );
+        }
+        catch ( IOException exp )
+        {
+        }
+        assertEquals( 0, headers.size() );
+    }
+
+    private void assertFrames( int count, int bodyLength )
+    {
+        assertEquals( count, headers.size() );
+        for ( int i = 0; i < count; i++ )
+        {
+            MsgHeader header = headers.get( i );
+            assertEquals( MsgHeader.QUERY_PAYLOAD, header.getPayload() );
+            assertEquals( bodyLength, header.getDataLength() );
+            byte[] body = bodies.get( i );
+            assertEquals( bodyLength, body.length );
+            for ( int j = 0; j < bodyLength; j++ )
+            {
+                assertEquals( (byte)(i + j), body[j] );
+            }
+        }
+    }
+
+    private static byte[] createStream( int count, int bodyLength )
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( count
+            * ( MsgHeader.DATA_LENGTH + bodyLength ) );
+        for ( int i = 0; i < count; i++ )
+        {
+            MsgHeader header = new MsgHeader( MsgHeader.QUERY_PAYLOAD,
+                (byte)3, bodyLength );
+            buffer.put( header.createHeaderBuffer().internalBuffer() );
+            for ( int j = 0; j < bodyLength; j++ )
+            {
+                buffer.put( (byte)(i + j) );
+            }
+        }
+        return buffer.array();
+    }
+}
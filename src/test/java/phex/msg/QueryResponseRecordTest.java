@@ -0,0 +1,128 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.msg;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import phex.common.AlternateLocation;
+import phex.common.URN;
+import phex.common.address.DefaultDestAddress;
+import phex.common.address.DestAddress;
+import phex.security.PhexSecurityManager;
+import phex.share.ShareFile;
+
+public class QueryResponseRecordTest extends TestCase
+{
+    private static final URN URN_A = new URN(
+        "urn:sha1:LO4DP3SD3I3CZZP6PIKG3VCQHG4KTQD2" );
+    private static final URN URN_B = new URN(
+        "urn:sha1:PLSTHIPQGSSZTS5FJUPAKUZWUGYQYPFB" );
+
+    private File file;
+    private ShareFile shareFile;
+    private DestAddress localAddress;
+
+    protected void setUp()
+        throws Exception
+    {
+        file = File.createTempFile( "phex", ".dat" );
+        shareFile = new ShareFile( file );
+        shareFile.setURN( URN_A );
+        shareFile.setFileIndex( 7 );
+        localAddress = new DefaultDestAddress( "10.0.0.1", 6346 );
+    }
+
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    public void testRecordIsCachedWithShareFile()
+    {
+        QueryResponseRecord first = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        QueryResponseRecord second = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        assertSame( first, second );
+        assertSame( first.getEncoded(), second.getEncoded() );
+    }
+
+    public void testEncodingMatchesParsedRecord()
+        throws Exception
+    {
+        shareFile.getAltLocContainer().addAlternateLocation(
+            new AlternateLocation( new DefaultDestAddress( "1.2.3.4", 6346 ), URN_A ) );
+        QueryResponseRecord record = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        byte[] encoded = record.getEncoded();
+
+        QueryResponseRecord parsed = new QueryResponseRecord();
+        int offset = parsed.deserialize( encoded, 0, new PhexSecurityManager() );
+        assertEquals( encoded.length, offset );
+        assertEquals( 7, parsed.getFileIndex() );
+        assertEquals( file.getName(), parsed.getFilename() );
+        assertEquals( URN_A, parsed.getURN() );
+        assertEquals( 1, parsed.getAlternateLocations().length );
+    }
+
+    public void testUrnChangeInvalidatesRecord()
+    {
+        QueryResponseRecord first = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        shareFile.setURN( URN_B );
+        QueryResponseRecord second = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        assertNotSame( first, second );
+        assertEquals( URN_B, second.getURN() );
+        assertFalse( Arrays.equals( first.getEncoded(), second.getEncoded() ) );
+    }
+
+    public void testAltLocChangeInvalidatesRecord()
+    {
+        QueryResponseRecord first = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        AlternateLocation altLoc = new AlternateLocation(
+            new DefaultDestAddress( "1.2.3.4", 6346 ), URN_A );
+        shareFile.getAltLocContainer().addAlternateLocation( altLoc );
+        QueryResponseRecord second = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        assertNotSame( first, second );
+        assertEquals( 1, second.getAlternateLocations().length );
+
+        shareFile.getAltLocContainer().removeAlternateLocation( altLoc );
+        QueryResponseRecord third = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        assertNotSame( second, third );
+        assertTrue( Arrays.equals( first.getEncoded(), third.getEncoded() ) );
+    }
+
+    public void testLocalAddressChangeInvalidatesRecord()
+    {
+        QueryResponseRecord first = QueryResponseRecord.createFromShareFile(
+            shareFile, localAddress );
+        QueryResponseRecord second = QueryResponseRecord.createFromShareFile(
+            shareFile, new DefaultDestAddress( "10.0.0.2", 6346 ) );
+        assertNotSame( first, second );
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.net.repres.memory;
+
+import junit.framework.TestCase;
+import phex.common.address.DefaultDestAddress;
+import phex.common.address.DestAddress;
+import phex.common.address.IpAddress;
+
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+public class MemoryNetworkTest extends TestCase
+{
+    private static final int PORT = 6346;
+
+    public void testConnectAndTransfer()
+        throws Exception
+    {
+        MemoryNetwork network = new MemoryNetwork( 1, 0 );
+        DestAddress address = new DefaultDestAddress( network.createHostIp(), PORT );
+        MemoryServerSocket serverSocket = network.bind( address );
+
+        MemorySocketFacade client = network.connect( address );
+        MemorySocketFacade server = serverSocket.accept();
+        assertEquals( address, client.getRemoteAddress() );
+        assertNotNull( server.getRemoteAddress() );
+        assertNull( client.getSocketChannel() );
+
+        client.getChannel().write( ByteBuffer.wrap( "GNUTELLA".getBytes( "US-ASCII" ) ) );
+        ByteBuffer buffer = ByteBuffer.allocate( 16 );
+        assertEquals( 8, server.getChannel().read( buffer ) );
+        assertEquals( "GNUTELLA", new String( buffer.array(), 0, 8, "US-ASCII" ) );
+
+        server.getChannel().write( ByteBuffer.wrap( new byte[] { 1, 2, 3 } ) );
+        buffer.clear();
+        assertEquals( 3, client.getChannel().read( buffer ) );
+
+        assertEquals( 1, network.getConnectionCount() );
+        assertEquals( 11, network.getTransferredBytes() );
+        assertEquals( 1, network.getListeningAddresses().size() );
+    }
+
+    public void testCloseEndsStream()
+        throws Exception
+    {
+        MemoryNetwork network = new MemoryNetwork( 1, 0 );
+        DestAddress address = new DefaultDestAddress( network.createHostIp(), PORT );
+        MemoryServerSocket serverSocket = network.bind( address );
+
+        MemorySocketFacade client = network.connect( address );
+        MemorySocketFacade server = serverSocket.accept();
+        client.getChannel().write( ByteBuffer.wrap( new byte[] { 7 } ) );
+        client.close();
+
+        ByteBuffer buffer = ByteBuffer.allocate( 4 );
+        assertEquals( 1, server.getChannel().read( buffer ) );
+        buffer.clear();
+        assertEquals( -1, server.getChannel().read( buffer ) );
+    }
+
+    public void testReadTimeout()
+        throws Exception
+    {
+        MemoryNetwork network = new MemoryNetwork( 1, 0 );
+        DestAddress address = new DefaultDestAddress( network.createHostIp(), PORT );
+        network.bind( address );
+
+        MemorySocketFacade client = network.connect( address );
+        client.setSoTimeout( 50 );
+        try
+        {
+            client.getChannel().read( ByteBuffer.allocate( 4 ) );
+            fail( "Expected timeout" );
+        }
+        catch ( SocketTimeoutException exp )
+        {
+        }
+    }
+
+    public void testConnectRefused()
+        throws Exception
+    {
+        MemoryNetwork network = new MemoryNetwork( 1, 0 );
+        DestAddress address = new DefaultDestAddress( network.createHostIp(), PORT );
+        try
+        {
+            network.connect( address );
+            fail( "Expected refused connection" );
+        }
+        catch ( ConnectException exp )
+        {
+        }
+
+        MemoryServerSocket serverSocket = network.bind( address );
+        serverSocket.close();
+        assertNull( serverSocket.accept() );
+        try
+        {
+            network.connect( address );
+            fail( "Expected refused connection" );
+        }
+        catch ( ConnectException exp )
+        {
+        }
+        assertEquals( 2, network.getRefusedConnectionCount() );
+        assertTrue( network.getListeningAddresses().isEmpty() );
+    }
+
+    public void testBindTwice()
+        throws Exception
+    {
+        MemoryNetwork network = new MemoryNetwork( 1, 0 );
+        DestAddress address = new DefaultDestAddress( network.createHostIp(), PORT );
+        network.bind( address );
+        try
+        {
+            network.bind( address );
+            fail( "Expected bind failure" );
+        }
+        catch ( BindException exp )
+        {
+        }
+    }
+
+    public void testHostIps()
+    {
+        MemoryNetwork network = new MemoryNetwork( 1, 0 );
+        Set<IpAddress> ips = new HashSet<IpAddress>();
+        for ( int i = 0; i < 600; i++ )
+        {
+            IpAddress ip = network.createHostIp();
+            int lastByte = (int) ( ip.getLongHostIP() & 0xFF );
+            assertTrue( lastByte != 0 && lastByte != 255 );
+            assertTrue( ips.add( ip ) );
+        }
+    }
+
+    public void testSeededDatagramLoss()
+        throws Exception
+    {
+        long lost = sendDatagrams( 42 );
+        assertTrue( lost > 0 && lost < 500 );
+        assertEquals( lost, sendDatagrams( 42 ) );
+    }
+
+    private static long sendDatagrams( long seed )
+        throws Exception
+    {
+        MemoryNetwork network = new MemoryNetwork( seed, 0.25 );
+        DestAddress origin = new DefaultDestAddress( network.createHostIp(), PORT );
+        DestAddress destination = new DefaultDestAddress( network.createHostIp(), PORT );
+        network.bindDatagramReceiver( destination, new MemoryNetwork.DatagramReceiver()
+        {
+            public void receiveDatagram( byte[] data, DestAddress address )
+            {
+            }
+        } );
+        network.sendDatagram( new byte[] { 1 }, destination, origin );
+        assertEquals( 1, network.getUndeliverableDatagramCount() );
+        for ( int i = 0; i < 500; i++ )
+        {
+            network.sendDatagram( new byte[] { 1 }, origin, destination );
+        }
+        assertEquals( 501, network.getSentDatagramCount() );
+        return network.getLostDatagramCount();
+    }
+}
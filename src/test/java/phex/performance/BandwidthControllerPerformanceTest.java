@@ -0,0 +1,274 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.performance;
+
+import junit.framework.TestCase;
+import phex.common.bandwidth.BandwidthController;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the token bucket BandwidthController with the former synchronized
+ * window controller while hundreds of transfers request bandwidth
+ * concurrently through per transfer controllers chained to a shared
+ * servent controller.
+ */
+public class BandwidthControllerPerformanceTest extends TestCase
+{
+    private static final int[] THREAD_COUNTS = { 16, 100, 400 };
+    private static final long SERVENT_RATE = 8 * 1024 * 1024;
+    private static final long TRANSFER_RATE = 64 * 1024;
+    private static final int REQUEST_SIZE = 1024;
+    private static final long DURATION = 3000;
+
+    public void testConcurrentTransfers()
+        throws Exception
+    {
+        for ( int threadCount : THREAD_COUNTS )
+        {
+            final BandwidthController servent = new BandwidthController(
+                "Servent", SERVENT_RATE );
+            Result tokenBucket = run( threadCount, new ControllerFactory()
+            {
+                public Throttle create( int index )
+                {
+                    final BandwidthController controller = new BandwidthController(
+                        "Transfer-" + index, TRANSFER_RATE, servent );
+                    return new Throttle()
+                    {
+                        public int request( int maxToRequest )
+                            throws IOException
+                        {
+                            return controller.getAvailableByteCount( maxToRequest,
+                                true, true );
+                        }
+                    };
+                }
+            } );
+
+            final WindowBandwidthController windowServent = new WindowBandwidthController(
+                SERVENT_RATE, null );
+            Result window = run( threadCount, new ControllerFactory()
+            {
+                public Throttle create( int index )
+                {
+                    final WindowBandwidthController controller = new WindowBandwidthController(
+                        TRANSFER_RATE, windowServent );
+                    return new Throttle()
+                    {
+                        public int request( int maxToRequest )
+                        {
+                            return controller.getAvailableByteCount( maxToRequest,
+                                true, true );
+                        }
+                    };
+                }
+            } );
+
+            System.out.println( threadCount + " transfers, limit "
+                + SERVENT_RATE / 1024 + "KB/s\n  window:       " + window
+                + "\n  token bucket: " + tokenBucket );
+        }
+    }
+
+    private static Result run( int threadCount, ControllerFactory factory )
+        throws InterruptedException
+    {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong maxLatency = new AtomicLong();
+        final CountDownLatch startLatch = new CountDownLatch( 1 );
+        Thread[] threads = new Thread[threadCount];
+        for ( int i = 0; i < threadCount; i++ )
+        {
+            final Throttle throttle = factory.create( i );
+            threads[i] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        startLatch.await();
+                        long end = System.currentTimeMillis() + DURATION;
+                        long transferred = 0;
+                        long count = 0;
+                        long maxNanos = 0;
+                        while ( System.currentTimeMillis() < end )
+                        {
+                            long start = System.nanoTime();
+                            transferred += throttle.request( REQUEST_SIZE );
+                            maxNanos = Math.max( maxNanos, System.nanoTime() - start );
+                            count++;
+                        }
+                        bytes.addAndGet( transferred );
+                        requests.addAndGet( count );
+                        long current;
+                        do
+                        {
+                            current = maxLatency.get();
+                        }
+                        while ( maxNanos > current
+                            && !maxLatency.compareAndSet( current, maxNanos ) );
+                    }
+                    catch ( Exception exp )
+                    {
+                        throw new RuntimeException( exp );
+                    }
+                }
+            } );
+            threads[i].start();
+        }
+        long start = System.currentTimeMillis();
+        startLatch.countDown();
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        return new Result( bytes.get() * 1000 / elapsed,
+            requests.get() * 1000 / elapsed, maxLatency.get() / 1000000 );
+    }
+
+    private interface ControllerFactory
+    {
+        Throttle create( int index );
+    }
+
+    private interface Throttle
+    {
+        int request( int maxToRequest )
+            throws IOException;
+    }
+
+    private static class Result
+    {
+        private final long bytesPerSecond;
+        private final long requestsPerSecond;
+        private final long maxLatencyMillis;
+
+        Result( long bytesPerSecond, long requestsPerSecond, long maxLatencyMillis )
+        {
+            this.bytesPerSecond = bytesPerSecond;
+            this.requestsPerSecond = requestsPerSecond;
+            this.maxLatencyMillis = maxLatencyMillis;
+        }
+
+        @Override
+        public String toString()
+        {
+            return bytesPerSecond / 1024 + "KB/s, " + requestsPerSecond
+                + " requests/s, max wait " + maxLatencyMillis + "ms";
+        }
+    }
+
+    /**
+     * The former synchronized window based controller, without logging and
+     * transfer averages.
+     */
+    private static class WindowBandwidthController
+    {
+        private static final int WINDOWS_PER_SECONDS = 5;
+        private static final int MILLIS_PER_WINDOW = 1000 / WINDOWS_PER_SECONDS;
+
+        private final WindowBandwidthController nextContollerInChain;
+        private final int bytesPerWindow;
+        private int bytesRemaining;
+        private long lastWindowTime;
+
+        WindowBandwidthController( long throttlingRate,
+            WindowBandwidthController parent )
+        {
+            bytesPerWindow = Math.max( (int) ( throttlingRate / WINDOWS_PER_SECONDS ), 1 );
+            bytesRemaining = bytesPerWindow;
+            nextContollerInChain = parent;
+        }
+
+        synchronized int getAvailableByteCount( int maxToRequest,
+            boolean blockTillAvailable, boolean markBytesUsed )
+        {
+            updateWindow( blockTillAvailable );
+            int bytesAllowed = Math.max( 0, Math.min( maxToRequest, bytesRemaining ) );
+            if ( nextContollerInChain != null )
+            {
+                bytesAllowed = nextContollerInChain.getAvailableByteCount(
+                    bytesAllowed, blockTillAvailable, false );
+            }
+            if ( markBytesUsed )
+            {
+                markBytesUsed( bytesAllowed );
+            }
+            return bytesAllowed;
+        }
+
+        synchronized void markBytesUsed( int byteCount )
+        {
+            updateWindow( false );
+            bytesRemaining -= byteCount;
+            if ( bytesRemaining < 0 )
+            {
+                bytesRemaining = Math.max( bytesRemaining,
+                    -15 * WINDOWS_PER_SECONDS * bytesPerWindow );
+                updateWindow( true );
+            }
+            if ( nextContollerInChain != null )
+            {
+                nextContollerInChain.markBytesUsed( byteCount );
+            }
+        }
+
+        private void updateWindow( boolean blockTillAvailable )
+        {
+            int updateTries = 0;
+            while ( true )
+            {
+                long now = System.currentTimeMillis();
+                long elapsedWindowMillis = now - lastWindowTime;
+                if ( elapsedWindowMillis >= MILLIS_PER_WINDOW )
+                {
+                    bytesRemaining = bytesRemaining < 0 ? bytesRemaining
+                        + bytesPerWindow : bytesPerWindow;
+                    lastWindowTime = now;
+                }
+                if ( !blockTillAvailable || bytesRemaining > 0 )
+                {
+                    break;
+                }
+                updateTries++;
+                if ( updateTries > WINDOWS_PER_SECONDS * 2 )
+                {
+                    break;
+                }
+                try
+                {
+                    Thread.sleep( Math.max( MILLIS_PER_WINDOW - elapsedWindowMillis, 0 ) );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+}
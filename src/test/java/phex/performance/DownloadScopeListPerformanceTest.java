@@ -0,0 +1,172 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.performance;
+
+import junit.framework.TestCase;
+import phex.download.DownloadScope;
+import phex.download.DownloadScopeList;
+import phex.download.RatedDownloadScopeList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays recorded scope traces of a multi source download against the
+ * DownloadScopeList and RatedDownloadScopeList. The trace is recorded once
+ * with a fixed seed, it contains segment allocations and releases on the
+ * missing scopes of a large file and the rating of candidate scopes like
+ * done on each segment allocation.
+ */
+public class DownloadScopeListPerformanceTest extends TestCase
+{
+    private static final long FILE_SIZE = 4L * 1024 * 1024 * 1024;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int CANDIDATE_COUNT = 100;
+    private static final int ROUNDS = 5;
+
+    private static final int ALLOCATE = 0;
+    private static final int RELEASE = 1;
+    private static final int FINISH = 2;
+
+    public void testReplayScopeTrace()
+    {
+        for ( int operations = 5000; operations <= 80000; operations *= 2 )
+        {
+            List<long[]> trace = recordTrace( operations );
+            long best = Long.MAX_VALUE;
+            for ( int round = 0; round < ROUNDS; round++ )
+            {
+                long start = System.nanoTime();
+                replay( trace );
+                best = Math.min( best, System.nanoTime() - start );
+            }
+            System.out.println( "DownloadScopeList trace " + operations + " ops: "
+                + best / 1000000 + "ms, " + best / operations + "ns/op" );
+        }
+    }
+
+    public void testRateCandidates()
+    {
+        Random random = new Random( 4711 );
+        DownloadScopeList missing = new DownloadScopeList();
+        missing.add( new DownloadScope( 0, FILE_SIZE - 1 ) );
+        // punch many small finished segments into the missing list
+        for ( int i = 0; i < 20000; i++ )
+        {
+            long start = randomSegmentStart( random );
+            missing.remove( new DownloadScope( start, start + SEGMENT_SIZE - 1 ) );
+        }
+        List<DownloadScopeList> candidates = new ArrayList<DownloadScopeList>();
+        for ( int i = 0; i < CANDIDATE_COUNT; i++ )
+        {
+            DownloadScopeList available = new DownloadScopeList();
+            for ( int j = 0; j < 50; j++ )
+            {
+                long start = randomSegmentStart( random );
+                available.add( new DownloadScope( start,
+                    start + SEGMENT_SIZE * ( 1 + random.nextInt( 100 ) ) - 1 ) );
+            }
+            candidates.add( available );
+        }
+
+        long best = Long.MAX_VALUE;
+        for ( int round = 0; round < ROUNDS; round++ )
+        {
+            long start = System.nanoTime();
+            RatedDownloadScopeList ratedList = new RatedDownloadScopeList( missing );
+            for ( DownloadScopeList available : candidates )
+            {
+                ratedList.rateDownloadScopeList( available, 10 );
+            }
+            ratedList.retainAll( missing );
+            ratedList.prepareRating();
+            assertNotNull( ratedList.getBestRated() );
+            best = Math.min( best, System.nanoTime() - start );
+        }
+        System.out.println( "RatedDownloadScopeList rating " + missing.size()
+            + " scopes, " + CANDIDATE_COUNT + " candidates: " + best / 1000000 + "ms" );
+    }
+
+    /**
+     * Records allocation, release and finish operations of segments like a
+     * MemoryFile does during a download.
+     */
+    private static List<long[]> recordTrace( int operations )
+    {
+        Random random = new Random( 4711 );
+        List<long[]> trace = new ArrayList<long[]>( operations );
+        List<long[]> allocated = new ArrayList<long[]>();
+        for ( int i = 0; i < operations; i++ )
+        {
+            int op = allocated.isEmpty() ? ALLOCATE : random.nextInt( 3 );
+            if ( op == ALLOCATE )
+            {
+                long start = randomSegmentStart( random );
+                long[] entry = { ALLOCATE, start, start + SEGMENT_SIZE - 1 };
+                allocated.add( entry );
+                trace.add( entry );
+            }
+            else
+            {
+                long[] entry = allocated.remove( random.nextInt( allocated.size() ) );
+                trace.add( new long[]{ op, entry[1], entry[2] } );
+            }
+        }
+        return trace;
+    }
+
+    private static void replay( List<long[]> trace )
+    {
+        DownloadScopeList missing = new DownloadScopeList();
+        missing.add( new DownloadScope( 0, FILE_SIZE - 1 ) );
+        DownloadScopeList blocked = new DownloadScopeList();
+        DownloadScopeList finished = new DownloadScopeList();
+        for ( long[] entry : trace )
+        {
+            DownloadScope scope = new DownloadScope( entry[1], entry[2] );
+            switch ( (int)entry[0] )
+            {
+            case ALLOCATE:
+                missing.remove( scope );
+                blocked.add( scope );
+                break;
+            case RELEASE:
+                blocked.remove( scope );
+                missing.add( scope );
+                break;
+            default:
+                blocked.remove( scope );
+                finished.add( scope );
+            }
+            missing.contains( scope );
+        }
+        assertTrue( missing.getAggregatedLength() + blocked.getAggregatedLength()
+            + finished.getAggregatedLength() >= FILE_SIZE );
+    }
+
+    private static long randomSegmentStart( Random random )
+    {
+        return ( ( random.nextLong() & Long.MAX_VALUE ) % ( FILE_SIZE / SEGMENT_SIZE ) )
+            * SEGMENT_SIZE;
+    }
+}
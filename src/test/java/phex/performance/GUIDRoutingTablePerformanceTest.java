@@ -0,0 +1,239 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.performance;
+
+import junit.framework.TestCase;
+import phex.host.Host;
+import phex.msg.GUID;
+import phex.util.GUIDRoutingTable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the open addressed GUIDRoutingTable with the former generation
+ * based implementation backed by two ConcurrentHashMaps.
+ */
+public class GUIDRoutingTablePerformanceTest extends TestCase
+{
+    private static final int GUID_COUNT = 200000;
+    private static final int THREAD_COUNT = 4;
+    private static final int ROUNDS = 5;
+
+    private GUID[] guids;
+
+    @Override
+    protected void setUp()
+    {
+        guids = new GUID[GUID_COUNT];
+        for ( int i = 0; i < GUID_COUNT; i++ )
+        {
+            guids[i] = new GUID();
+        }
+    }
+
+    public void testCheckAndAddRouting()
+        throws Exception
+    {
+        for ( int round = 0; round < ROUNDS; round++ )
+        {
+            final GUIDRoutingTable table = new GUIDRoutingTable( 10 * 60 * 1000, 64 * 1024 );
+            long time = runConcurrent( new RoutingTableOps()
+            {
+                public boolean checkAndAdd( GUID guid )
+                {
+                    return table.checkAndAddRouting( guid, Host.LOCAL_HOST );
+                }
+
+                public Host find( GUID guid )
+                {
+                    return table.findRouting( guid );
+                }
+            } );
+            final GenerationalRoutingTable oldTable = new GenerationalRoutingTable( 5 * 60 * 1000 );
+            long oldTime = runConcurrent( new RoutingTableOps()
+            {
+                public boolean checkAndAdd( GUID guid )
+                {
+                    return oldTable.checkAndAddRouting( guid, Host.LOCAL_HOST );
+                }
+
+                public Host find( GUID guid )
+                {
+                    return oldTable.findRouting( guid );
+                }
+            } );
+            System.out.println( "Round " + round + " open addressed: " + time
+                + "ms generational maps: " + oldTime + "ms" );
+        }
+    }
+
+    public void testMemoryFootprint()
+    {
+        long before = usedMemory();
+        GUIDRoutingTable table = new GUIDRoutingTable( 10 * 60 * 1000, 64 * 1024 );
+        for ( int i = 0; i < 64 * 1024; i++ )
+        {
+            table.checkAndAddRouting( guids[i], Host.LOCAL_HOST );
+        }
+        long tableSize = usedMemory() - before;
+
+        before = usedMemory();
+        GenerationalRoutingTable oldTable = new GenerationalRoutingTable( 10 * 60 * 1000 );
+        for ( int i = 0; i < 64 * 1024; i++ )
+        {
+            oldTable.checkAndAddRouting( guids[i], Host.LOCAL_HOST );
+        }
+        long oldTableSize = usedMemory() - before;
+        System.out.println( "64K routings, open addressed: " + tableSize / 1024
+            + "KB generational maps: " + oldTableSize / 1024 + "KB" );
+        // keep the tables reachable until measured.
+        assertNotNull( table.findRouting( guids[0] ) );
+        assertNotNull( oldTable.findRouting( guids[0] ) );
+    }
+
+    /**
+     * Each thread adds routings for its share of the GUIDs, checks a GUID
+     * added by a other thread as duplicate and looks up a reply route.
+     */
+    private long runConcurrent( final RoutingTableOps ops )
+        throws InterruptedException
+    {
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for ( int i = 0; i < THREAD_COUNT; i++ )
+        {
+            final int offset = i;
+            threads[i] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    for ( int j = offset; j < GUID_COUNT; j += THREAD_COUNT )
+                    {
+                        ops.checkAndAdd( guids[j] );
+                        ops.checkAndAdd( guids[j / 2] );
+                        ops.find( guids[j / 3] );
+                    }
+                }
+            } );
+        }
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < THREAD_COUNT; i++ )
+        {
+            threads[i].start();
+        }
+        for ( int i = 0; i < THREAD_COUNT; i++ )
+        {
+            threads[i].join();
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 3; i++ )
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private interface RoutingTableOps
+    {
+        boolean checkAndAdd( GUID guid );
+
+        Host find( GUID guid );
+    }
+
+    /**
+     * The former GUIDRoutingTable implementation, kept for comparison.
+     */
+    private static class GenerationalRoutingTable
+    {
+        private static final int MAX_ROUTE_TABLE_SIZE = 64 * 1024;
+        private final Map<Integer, Host> idToHostMap = new ConcurrentHashMap<Integer, Host>();
+        private final Map<Host, Integer> hostToIdMap = new ConcurrentHashMap<Host, Integer>();
+        private final long lifetime;
+        private Map<GUID, Integer> currentMap = new ConcurrentHashMap<GUID, Integer>();
+        private Map<GUID, Integer> lastMap = new ConcurrentHashMap<GUID, Integer>();
+        private long nextReplaceTime;
+        private int nextId;
+
+        GenerationalRoutingTable( long lifetime )
+        {
+            this.lifetime = lifetime;
+        }
+
+        boolean checkAndAddRouting( GUID guid, final Host host )
+        {
+            checkForSwitch();
+            if ( lastMap.containsKey( guid ) )
+            {
+                return false;
+            }
+            final boolean[] added = { false };
+            currentMap.computeIfAbsent( guid, g -> {
+                added[0] = true;
+                return id( host );
+            } );
+            return added[0];
+        }
+
+        Host findRouting( GUID guid )
+        {
+            Integer id = currentMap.get( guid );
+            if ( id == null )
+            {
+                id = lastMap.get( guid );
+            }
+            return id == null ? null : idToHostMap.get( id );
+        }
+
+        private void checkForSwitch()
+        {
+            long currentTime = System.currentTimeMillis();
+            if ( currentTime < nextReplaceTime && currentMap.size() < MAX_ROUTE_TABLE_SIZE )
+            {
+                return;
+            }
+            lastMap.clear();
+            Map<GUID, Integer> temp = lastMap;
+            lastMap = currentMap;
+            currentMap = temp;
+            nextReplaceTime = currentTime + lifetime;
+        }
+
+        private Integer id( Host host )
+        {
+            return hostToIdMap.computeIfAbsent( host, h -> {
+                int id;
+                do
+                {
+                    id = nextId++;
+                }
+                while ( idToHostMap.get( id ) != null );
+                idToHostMap.put( id, h );
+                return id;
+            } );
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.performance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import phex.NetworkPrefs;
+import phex.common.address.DestAddress;
+import phex.connection.OutgoingConnectionDispatcher;
+import phex.download.RemoteFile;
+import phex.download.swarming.SWDownloadFile;
+import phex.host.Host;
+import phex.host.NetworkHostsContainer;
+import phex.msg.GUID;
+import phex.msg.InvalidMessageException;
+import phex.msg.QueryResponseMsg;
+import phex.msghandling.MessageSubscriber;
+import phex.net.repres.PresentationManager;
+import phex.net.repres.memory.MemoryNetwork;
+import phex.net.repres.memory.MemoryPresentationManager;
+import phex.peer.OnlineStatus;
+import phex.peer.Peer;
+import phex.query.DefaultSearchProgress;
+import phex.query.QuerySearch;
+import phex.query.Search;
+import phex.share.SharedFilesService;
+import phex.statistic.LatencyHistogram;
+import phex.statistic.MetricsSnapshot;
+import phex.statistic.StatisticProviderConstants;
+import phex.util.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Boots a network of peers in one JVM and runs a scripted query and download
+ * workload on it. The peers are connected through a {@link MemoryNetwork}
+ * instead of sockets, so the live network is never touched.
+ * <p>
+ * The topology, the synthetic shared libraries, the workload and the datagram
+ * loss are derived from the seed. Thread scheduling is not, so the timings
+ * differ between runs of the same seed while the traffic stays comparable.
+ * Peers are online while the simulation runs, their connection maintenance
+ * may add links to the scripted topology.
+ */
+public class NetworkSimulation
+{
+    private static final Logger logger = LoggerFactory.getLogger( NetworkSimulation.class );
+    private static final int PORT = 6346;
+    private static final long POLL_INTERVAL = 100;
+
+    private static final String[] VOCABULARY = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf",
+        "hotel", "india", "juliet", "kilo", "lima", "mike", "november",
+        "oscar", "papa", "quebec", "romeo", "sierra", "tango", "uniform",
+        "victor", "whiskey", "xray", "yankee", "zulu" };
+
+    private final long seed;
+    private int ultrapeerCount = 4;
+    private int leafCount = 16;
+    private int ultrapeerDegree = 3;
+    private int leafDegree = 2;
+    private int filesPerPeer = 10;
+    private int fileSize = 16 * 1024;
+    private int queryCount = 40;
+    private int downloadCount = 4;
+    private double datagramLossRate;
+    private long setupTimeout = 60 * 1000;
+    private long queryTimeout = 10 * 1000;
+    private long downloadTimeout = 60 * 1000;
+
+    public NetworkSimulation( long seed )
+    {
+        this.seed = seed;
+    }
+
+    public void setUltrapeerCount( int ultrapeerCount )
+    {
+        this.ultrapeerCount = ultrapeerCount;
+    }
+
+    public void setLeafCount( int leafCount )
+    {
+        this.leafCount = leafCount;
+    }
+
+    /**
+     * Sets the number of ultrapeers each ultrapeer connects to.
+     */
+    public void setUltrapeerDegree( int ultrapeerDegree )
+    {
+        this.ultrapeerDegree = ultrapeerDegree;
+    }
+
+    /**
+     * Sets the number of ultrapeers each leaf connects to.
+     */
+    public void setLeafDegree( int leafDegree )
+    {
+        this.leafDegree = leafDegree;
+    }
+
+    public void setFilesPerPeer( int filesPerPeer )
+    {
+        this.filesPerPeer = filesPerPeer;
+    }
+
+    public void setFileSize( int fileSize )
+    {
+        this.fileSize = fileSize;
+    }
+
+    public void setQueryCount( int queryCount )
+    {
+        this.queryCount = queryCount;
+    }
+
+    public void setDownloadCount( int downloadCount )
+    {
+        this.downloadCount = downloadCount;
+    }
+
+    public void setDatagramLossRate( double datagramLossRate )
+    {
+        this.datagramLossRate = datagramLossRate;
+    }
+
+    /**
+     * Sets the time to wait for the libraries to be shared and the
+     * topology to connect.
+     */
+    public void setSetupTimeout( long setupTimeout )
+    {
+        this.setupTimeout = setupTimeout;
+    }
+
+    /**
+     * Sets the time to wait for the query hits of all queries.
+     */
+    public void setQueryTimeout( long queryTimeout )
+    {
+        this.queryTimeout = queryTimeout;
+    }
+
+    public void setDownloadTimeout( long downloadTimeout )
+    {
+        this.downloadTimeout = downloadTimeout;
+    }
+
+    public SimulationReport run()
+        throws Exception
+    {
+        Random random = new Random( seed );
+        File root = Files.createTempDirectory( "phex-simulation" ).toFile();
+        MemoryNetwork network = new MemoryNetwork( seed, datagramLossRate );
+        PresentationManager previousManager = PresentationManager.getInstance();
+        PresentationManager.setInstance( new MemoryPresentationManager( network ) );
+
+        SimulationReport report = new SimulationReport();
+        report.peerCount = ultrapeerCount + leafCount;
+        report.ultrapeerCount = ultrapeerCount;
+        List<Peer> peers = new ArrayList<Peer>( report.peerCount );
+        try
+        {
+            long heapBefore = usedHeap();
+            for ( int i = 0; i < report.peerCount; i++ )
+            {
+                Peer peer = createPeer( network, new File( root, "peer" + i ),
+                    i < ultrapeerCount, random );
+                peers.add( peer );
+                peer.start();
+                peer.setOnlineStatus( OnlineStatus.ONLINE );
+            }
+            awaitLibraries( peers );
+            connect( peers, random );
+            report.connectionCount = awaitTopology( peers );
+            report.heapPerPeer = Math.max( 0, usedHeap() - heapBefore )
+                / report.peerCount;
+
+            MetricsSnapshot[] before = snapshot( peers );
+            long sentDatagrams = network.getSentDatagramCount();
+            long lostDatagrams = network.getLostDatagramCount();
+            long transferredBytes = network.getTransferredBytes();
+            long start = System.currentTimeMillis();
+
+            List<Search> searches = runQueries( peers, random, report );
+            runDownloads( peers, searches, random, report );
+
+            report.workloadMillis = System.currentTimeMillis() - start;
+            MetricsSnapshot[] after = snapshot( peers );
+            report.messagesIn = sumCounter( before, after,
+                StatisticProviderConstants.TOTALMSG_IN_PROVIDER );
+            report.messagesOut = sumCounter( before, after,
+                StatisticProviderConstants.TOTALMSG_OUT_PROVIDER );
+            report.queriesIn = sumCounter( before, after,
+                StatisticProviderConstants.QUERYMSG_IN_PROVIDER );
+            report.queryHitsIn = sumCounter( before, after,
+                StatisticProviderConstants.QUERYHITMSG_IN_PROVIDER );
+            report.droppedMessages = sumCounter( before, after,
+                StatisticProviderConstants.DROPEDMSG_TOTAL_PROVIDER );
+            report.sentDatagrams = network.getSentDatagramCount() - sentDatagrams;
+            report.lostDatagrams = network.getLostDatagramCount() - lostDatagrams;
+            report.transferredBytes = network.getTransferredBytes() - transferredBytes;
+        }
+        finally
+        {
+            for ( Peer peer : peers )
+            {
+                try
+                {
+                    peer.stop();
+                }
+                catch ( Exception exp )
+                {
+                    logger.warn( "Failed to stop peer.", exp );
+                }
+            }
+            PresentationManager.setInstance( previousManager );
+            FileUtils.deleteDirectory( root );
+        }
+        return report;
+    }
+
+    private Peer createPeer( MemoryNetwork network, File home, boolean isUltrapeer,
+        Random random )
+        throws IOException
+    {
+        File shareDir = new File( home, "share" );
+        createLibrary( shareDir, random );
+
+        Peer peer = new Peer( NetworkPrefs.GENERAL_GNUTELLA_NETWORK, home, network );
+        peer.connectionPrefs.ForceToBeUltrapeer.set( Boolean.valueOf( isUltrapeer ) );
+        peer.connectionPrefs.AllowToBecomeUP.set( Boolean.valueOf( isUltrapeer ) );
+        peer.libPrefs.SharedDirectoriesSet.set(
+            Collections.singleton( shareDir.getAbsolutePath() ) );
+        peer.libPrefs.WatchSharedDirectories.set( Boolean.FALSE );
+        peer.downloadPrefs.DestinationDirectory.set(
+            new File( home, "download" ).getAbsolutePath() );
+        peer.downloadPrefs.IncompleteDirectory.set(
+            new File( home, "incomplete" ).getAbsolutePath() );
+        return peer;
+    }
+
+    /**
+     * Creates a library of files named by random words of the vocabulary,
+     * filled with random content.
+     */
+    private void createLibrary( File shareDir, Random random )
+        throws IOException
+    {
+        FileUtils.forceMkdir( shareDir );
+        byte[] content = new byte[fileSize];
+        for ( int i = 0; i < filesPerPeer; i++ )
+        {
+            String name = randomWord( random ) + ' ' + randomWord( random )
+                + ' ' + i + ".dat";
+            random.nextBytes( content );
+            OutputStream out = new FileOutputStream( new File( shareDir, name ) );
+            try
+            {
+                out.write( content );
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+    }
+
+    private void awaitLibraries( List<Peer> peers )
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + setupTimeout;
+        for ( Peer peer : peers )
+        {
+            SharedFilesService sharedFiles = peer.getSharedFilesService();
+            while ( ( sharedFiles.getFileCount() < filesPerPeer
+                || sharedFiles.getCalculationRunnerQueueSize() > 0 )
+                && System.currentTimeMillis() < end )
+            {
+                Thread.sleep( POLL_INTERVAL );
+            }
+        }
+    }
+
+    /**
+     * Dials the scripted topology, each ultrapeer connects to the ultrapeers
+     * following it in a seeded order and each leaf to random ultrapeers.
+     */
+    private void connect( List<Peer> peers, Random random )
+    {
+        List<DestAddress> ultrapeers = new ArrayList<DestAddress>( ultrapeerCount );
+        for ( int i = 0; i < ultrapeerCount; i++ )
+        {
+            ultrapeers.add( peers.get( i ).getLocalAddress() );
+        }
+        List<DestAddress> ring = new ArrayList<DestAddress>( ultrapeers );
+        Collections.shuffle( ring, random );
+        int degree = Math.min( ultrapeerDegree, ultrapeerCount - 1 );
+        for ( int i = 0; i < ultrapeerCount; i++ )
+        {
+            Peer peer = peers.get( ultrapeers.indexOf( ring.get( i ) ) );
+            // each link is dialed by one side only.
+            for ( int j = 1; j <= ( degree + 1 ) / 2; j++ )
+            {
+                OutgoingConnectionDispatcher.dispatchConnectToHost(
+                    ring.get( ( i + j ) % ultrapeerCount ), peer );
+            }
+        }
+
+        int leafUltrapeers = Math.min( leafDegree, ultrapeerCount );
+        for ( int i = ultrapeerCount; i < peers.size(); i++ )
+        {
+            List<DestAddress> candidates = new ArrayList<DestAddress>( ultrapeers );
+            Collections.shuffle( candidates, random );
+            for ( int j = 0; j < leafUltrapeers; j++ )
+            {
+                OutgoingConnectionDispatcher.dispatchConnectToHost(
+                    candidates.get( j ), peers.get( i ) );
+            }
+        }
+    }
+
+    /**
+     * Waits until every peer is connected to an ultrapeer.
+     *
+     * @return the number of connections between the peers.
+     */
+    private int awaitTopology( List<Peer> peers )
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + setupTimeout;
+        for ( int i = 0; i < peers.size(); i++ )
+        {
+            // a single ultrapeer has no other ultrapeer to connect to.
+            boolean isConnectable = i < ultrapeerCount ? ultrapeerCount > 1
+                : ultrapeerCount > 0;
+            NetworkHostsContainer hosts = peers.get( i ).getHostService()
+                .getNetworkHostsContainer();
+            while ( isConnectable && hosts.getUltrapeerConnectionCount() == 0
+                && System.currentTimeMillis() < end )
+            {
+                Thread.sleep( POLL_INTERVAL );
+            }
+        }
+        int connectionCount = 0;
+        for ( Peer peer : peers )
+        {
+            connectionCount += peer.getHostService().getNetworkHostsContainer()
+                .getTotalConnectionCount();
+        }
+        // every connection is counted at both ends.
+        return connectionCount / 2;
+    }
+
+    private List<Search> runQueries( List<Peer> peers, Random random,
+        SimulationReport report )
+        throws InterruptedException
+    {
+        final Map<GUID, Long> pendingQueries = new ConcurrentHashMap<GUID, Long>();
+        final LatencyHistogram latency = new LatencyHistogram();
+        MessageSubscriber<QueryResponseMsg> hitSubscriber =
+            new MessageSubscriber<QueryResponseMsg>()
+        {
+            public void onMessage( QueryResponseMsg message, Host sourceHost )
+                throws InvalidMessageException
+            {
+                Long sendTime = pendingQueries.remove( message.getHeader().getMsgID() );
+                if ( sendTime != null )
+                {
+                    latency.recordSince( sendTime.longValue() );
+                }
+            }
+        };
+        for ( Peer peer : peers )
+        {
+            peer.getMessageService().addMessageSubscriber( QueryResponseMsg.class,
+                hitSubscriber );
+        }
+
+        List<Search> searches = new ArrayList<Search>( queryCount );
+        for ( int i = 0; i < queryCount; i++ )
+        {
+            Peer peer = peers.get( random.nextInt( peers.size() ) );
+            Search search = peer.getQueryService().getSearchContainer().createSearch(
+                randomWord( random ) );
+            if ( search instanceof QuerySearch )
+            {
+                pendingQueries.put( ( (QuerySearch) search ).getQueryGUID(),
+                    Long.valueOf( System.nanoTime() ) );
+            }
+            search.startSearching( DefaultSearchProgress.createStandardProgress(
+                queryTimeout, DefaultSearchProgress.DESIRED_RESULTS ) );
+            searches.add( search );
+        }
+
+        long end = System.currentTimeMillis() + queryTimeout;
+        while ( !pendingQueries.isEmpty() && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( POLL_INTERVAL );
+        }
+        for ( Search search : searches )
+        {
+            search.stopSearching();
+        }
+        report.queryCount = queryCount;
+        report.answeredQueryCount = queryCount - pendingQueries.size();
+        report.queryHitLatency = latency.snapshot();
+        return searches;
+    }
+
+    private void runDownloads( List<Peer> peers, List<Search> searches, Random random,
+        SimulationReport report )
+        throws InterruptedException
+    {
+        List<SWDownloadFile> downloads = new ArrayList<SWDownloadFile>( downloadCount );
+        List<Search> answered = new ArrayList<Search>();
+        for ( Search search : searches )
+        {
+            if ( search.getQueryHitCount() > 0 )
+            {
+                answered.add( search );
+            }
+        }
+        Collections.shuffle( answered, random );
+        for ( int i = 0; i < downloadCount && i < answered.size(); i++ )
+        {
+            Search search = answered.get( i );
+            RemoteFile hit = search.getQueryHit(
+                random.nextInt( search.getQueryHitCount() ) );
+            downloads.add( search.peer.getDownloadService().addFileToDownload(
+                new RemoteFile( hit ), hit.getFilename(), null ) );
+        }
+
+        long end = System.currentTimeMillis() + downloadTimeout;
+        int completed = 0;
+        for ( SWDownloadFile download : downloads )
+        {
+            while ( !download.isFileCompletedOrMoved()
+                && System.currentTimeMillis() < end )
+            {
+                Thread.sleep( POLL_INTERVAL );
+            }
+            if ( download.isFileCompletedOrMoved() )
+            {
+                completed++;
+            }
+        }
+        report.downloadCount = downloads.size();
+        report.completedDownloadCount = completed;
+    }
+
+    private static MetricsSnapshot[] snapshot( List<Peer> peers )
+    {
+        MetricsSnapshot[] snapshots = new MetricsSnapshot[peers.size()];
+        for ( int i = 0; i < snapshots.length; i++ )
+        {
+            snapshots[i] = peers.get( i ).getStatisticsService().getMetricsSnapshot();
+        }
+        return snapshots;
+    }
+
+    private static long sumCounter( MetricsSnapshot[] before, MetricsSnapshot[] after,
+        String name )
+    {
+        long sum = 0;
+        for ( int i = 0; i < after.length; i++ )
+        {
+            Long value = after[i].getCounters().get( name );
+            Long earlier = before[i].getCounters().get( name );
+            if ( value != null )
+            {
+                sum += value.longValue() - ( earlier != null ? earlier.longValue() : 0 );
+            }
+        }
+        return sum;
+    }
+
+    private static String randomWord( Random random )
+    {
+        return VOCABULARY[random.nextInt( VOCABULARY.length )];
+    }
+
+    private static long usedHeap()
+    {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
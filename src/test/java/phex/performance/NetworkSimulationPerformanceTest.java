@@ -0,0 +1,73 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.performance;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs networks of increasing size through the {@link NetworkSimulation} and
+ * prints the routing throughput, query hit latency, drop rates and heap per
+ * peer of each run.
+ */
+public class NetworkSimulationPerformanceTest extends TestCase
+{
+    private static final long SEED = 20120101L;
+    private static final int[][] TOPOLOGIES = { { 2, 8 }, { 8, 64 }, { 16, 256 } };
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        PhexPerformanceSuite.setUp();
+    }
+
+    public void testNetworkSizes()
+        throws Exception
+    {
+        for ( int[] topology : TOPOLOGIES )
+        {
+            NetworkSimulation simulation = new NetworkSimulation( SEED );
+            simulation.setUltrapeerCount( topology[0] );
+            simulation.setLeafCount( topology[1] );
+            simulation.setQueryCount( topology[1] );
+            SimulationReport report = simulation.run();
+            System.out.println( report );
+
+            assertEquals( topology[0] + topology[1], report.getPeerCount() );
+            assertTrue( report.getConnectionCount() >= topology[1] );
+            assertTrue( report.getMessagesIn() > 0 );
+        }
+    }
+
+    public void testDatagramLoss()
+        throws Exception
+    {
+        NetworkSimulation simulation = new NetworkSimulation( SEED );
+        simulation.setDatagramLossRate( 0.2 );
+        simulation.setDownloadCount( 0 );
+        SimulationReport report = simulation.run();
+        System.out.println( report );
+
+        assertEquals( 0, report.getDownloadCount() );
+        assertTrue( report.getLostDatagrams() <= report.getSentDatagrams() );
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.performance;
+
+import phex.statistic.LatencyHistogram;
+
+/**
+ * The results of a {@link NetworkSimulation} run. Message counters are
+ * summed over all peers and only cover the workload phase of the run.
+ */
+public class SimulationReport
+{
+    int peerCount;
+    int ultrapeerCount;
+    int connectionCount;
+    long workloadMillis;
+    long heapPerPeer;
+
+    long messagesIn;
+    long messagesOut;
+    long queriesIn;
+    long queryHitsIn;
+    long droppedMessages;
+
+    int queryCount;
+    int answeredQueryCount;
+    LatencyHistogram.Snapshot queryHitLatency;
+
+    int downloadCount;
+    int completedDownloadCount;
+
+    long transferredBytes;
+    long sentDatagrams;
+    long lostDatagrams;
+
+    public int getPeerCount()
+    {
+        return peerCount;
+    }
+
+    public int getUltrapeerCount()
+    {
+        return ultrapeerCount;
+    }
+
+    /**
+     * Returns the number of Gnutella connections between the peers once the
+     * topology was established.
+     */
+    public int getConnectionCount()
+    {
+        return connectionCount;
+    }
+
+    public long getWorkloadMillis()
+    {
+        return workloadMillis;
+    }
+
+    /**
+     * Returns the heap in bytes used per peer, measured after all peers were
+     * started and connected.
+     */
+    public long getHeapPerPeer()
+    {
+        return heapPerPeer;
+    }
+
+    public long getMessagesIn()
+    {
+        return messagesIn;
+    }
+
+    public long getMessagesOut()
+    {
+        return messagesOut;
+    }
+
+    public long getQueriesIn()
+    {
+        return queriesIn;
+    }
+
+    public long getQueryHitsIn()
+    {
+        return queryHitsIn;
+    }
+
+    public long getDroppedMessages()
+    {
+        return droppedMessages;
+    }
+
+    /**
+     * Returns the messages received per second by all peers.
+     */
+    public double getRoutingThroughput()
+    {
+        return workloadMillis == 0 ? 0 : messagesIn * 1000.0 / workloadMillis;
+    }
+
+    /**
+     * Returns the share of the received messages that were dropped.
+     */
+    public double getDropRate()
+    {
+        return messagesIn == 0 ? 0 : (double) droppedMessages / messagesIn;
+    }
+
+    public int getQueryCount()
+    {
+        return queryCount;
+    }
+
+    public int getAnsweredQueryCount()
+    {
+        return answeredQueryCount;
+    }
+
+    /**
+     * Returns the latency in microseconds from sending a query to receiving
+     * its first query hit.
+     */
+    public LatencyHistogram.Snapshot getQueryHitLatency()
+    {
+        return queryHitLatency;
+    }
+
+    public int getDownloadCount()
+    {
+        return downloadCount;
+    }
+
+    public int getCompletedDownloadCount()
+    {
+        return completedDownloadCount;
+    }
+
+    public long getTransferredBytes()
+    {
+        return transferredBytes;
+    }
+
+    public long getSentDatagrams()
+    {
+        return sentDatagrams;
+    }
+
+    public long getLostDatagrams()
+    {
+        return lostDatagrams;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append( peerCount ).append( " peers (" ).append( ultrapeerCount )
+            .append( " ultrapeers), " ).append( connectionCount )
+            .append( " connections, " ).append( heapPerPeer / 1024 )
+            .append( "KB heap per peer\n" );
+        buffer.append( "  routing:   " )
+            .append( String.format( "%.0f", Double.valueOf( getRoutingThroughput() ) ) )
+            .append( " msg/s, in " ).append( messagesIn ).append( ", out " )
+            .append( messagesOut ).append( ", queries " ).append( queriesIn )
+            .append( ", hits " ).append( queryHitsIn ).append( '\n' );
+        buffer.append( "  drops:     " ).append( droppedMessages ).append( " (" )
+            .append( String.format( "%.2f", Double.valueOf( getDropRate() * 100 ) ) )
+            .append( "%), datagrams lost " ).append( lostDatagrams ).append( '/' )
+            .append( sentDatagrams ).append( '\n' );
+        buffer.append( "  queries:   " ).append( answeredQueryCount ).append( '/' )
+            .append( queryCount ).append( " answered, first hit " )
+            .append( queryHitLatency ).append( '\n' );
+        buffer.append( "  downloads: " ).append( completedDownloadCount ).append( '/' )
+            .append( downloadCount ).append( " completed, " )
+            .append( transferredBytes / 1024 ).append( "KB transferred" );
+        return buffer.toString();
+    }
+}
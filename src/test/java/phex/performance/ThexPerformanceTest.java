@@ -0,0 +1,130 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.performance;
+
+import junit.framework.TestCase;
+import phex.thex.ForkJoinTigerTree;
+import phex.thex.TTHashCalcUtils;
+import phex.util.bitzi.TigerTree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares the fork/join THEX engine with the sequential calculation of the
+ * tree nodes through TigerTree and TTHashCalcUtils.calculateMerkleParentNodes()
+ * across file sizes.
+ */
+public class ThexPerformanceTest extends TestCase
+{
+    private static final int[] FILE_SIZES = { 256 * 1024, 4 * 1024 * 1024,
+        32 * 1024 * 1024, 128 * 1024 * 1024 };
+    private static final int ROUNDS = 3;
+
+    public void testTreeCalculation()
+        throws IOException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool( threads );
+        try
+        {
+            ForkJoinTigerTree tree = new ForkJoinTigerTree( pool );
+            for ( int fileSize : FILE_SIZES )
+            {
+                byte[] data = new byte[fileSize];
+                new Random( fileSize ).nextBytes( data );
+                int nodeSize = TTHashCalcUtils.getTreeNodeSize( fileSize,
+                    TTHashCalcUtils.getTreeLevels( fileSize ) );
+
+                // warm up and check for identical serialization
+                byte[] expected = serialize( calculateSequential( data, nodeSize ) );
+                byte[] actual = serialize( calculateForkJoin( tree, data, nodeSize ) );
+                assertTrue( Arrays.equals( expected, actual ) );
+
+                for ( int round = 0; round < ROUNDS; round++ )
+                {
+                    long start = System.nanoTime();
+                    calculateSequential( data, nodeSize );
+                    long sequentialTime = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    calculateForkJoin( tree, data, nodeSize );
+                    long forkJoinTime = System.nanoTime() - start;
+
+                    System.out.println( "Size " + fileSize / 1024 + "KB round "
+                        + round + " sequential: " + sequentialTime / 1000000
+                        + "ms fork/join (" + threads + " threads): "
+                        + forkJoinTime / 1000000 + "ms" );
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The tree calculation as done before, one node after the other.
+     */
+    private static List<List<byte[]>> calculateSequential( byte[] data, int nodeSize )
+    {
+        List<byte[]> nodes = new ArrayList<byte[]>();
+        TigerTree digest = new TigerTree();
+        for ( int pos = 0; pos < data.length; pos += nodeSize )
+        {
+            digest.update( data, pos, Math.min( nodeSize, data.length - pos ) );
+            nodes.add( digest.digest() );
+        }
+        return TTHashCalcUtils.calculateMerkleParentNodes( nodes );
+    }
+
+    private static List<List<byte[]>> calculateForkJoin( ForkJoinTigerTree tree,
+        byte[] data, int nodeSize )
+    {
+        List<byte[]> nodes = tree.calculateNodes( data, 0, data.length, nodeSize );
+        return tree.calculateMerkleTree( nodes );
+    }
+
+    /**
+     * Serializes the tree breadth first, the way it is send in a THEX
+     * upload.
+     */
+    private static byte[] serialize( List<List<byte[]>> rows )
+        throws IOException
+    {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        for ( List<byte[]> row : rows )
+        {
+            for ( byte[] node : row )
+            {
+                outStream.write( node );
+            }
+        }
+        return outStream.toByteArray();
+    }
+}
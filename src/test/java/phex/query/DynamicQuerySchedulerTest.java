@@ -0,0 +1,158 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.query;
+
+import junit.framework.TestCase;
+import phex.common.address.DefaultDestAddress;
+import phex.host.Host;
+
+public class DynamicQuerySchedulerTest extends TestCase
+{
+    private DynamicQueryScheduler scheduler;
+
+    protected void setUp()
+    {
+        scheduler = new DynamicQueryScheduler();
+        scheduler.startScheduler();
+    }
+
+    public void testEngineRunsWhenDue()
+        throws Exception
+    {
+        TestEngine engine = new TestEngine( Host.LOCAL_HOST, 100, 3 );
+        scheduler.addDynamicQueryEngine( engine );
+        engine.awaitProcessCount( 3 );
+        waitForCount( 0 );
+        assertEquals( 3, engine.processCount );
+    }
+
+    public void testWakeUpRunsEngineAtOnce()
+        throws Exception
+    {
+        TestEngine engine = new TestEngine( Host.LOCAL_HOST, 60000, 10 );
+        scheduler.addDynamicQueryEngine( engine );
+        engine.awaitProcessCount( 1 );
+
+        long start = System.currentTimeMillis();
+        scheduler.wakeUp( engine );
+        engine.awaitProcessCount( 2 );
+        assertTrue( System.currentTimeMillis() - start < 5000 );
+    }
+
+    public void testOutdatedEntriesArePruned()
+        throws Exception
+    {
+        // the waiting engine keeps the outdated entries from the queue head.
+        TestEngine waitingEngine = new TestEngine( Host.LOCAL_HOST, 60000, 10 );
+        scheduler.addDynamicQueryEngine( waitingEngine );
+        waitingEngine.awaitProcessCount( 1 );
+        TestEngine engine = new TestEngine( Host.LOCAL_HOST, 60000, 100000 );
+        scheduler.addDynamicQueryEngine( engine );
+        engine.awaitProcessCount( 1 );
+        // each wake up outdates the entry of the next regular process.
+        for ( int i = 0; i < 200; i++ )
+        {
+            int processCount = engine.processCount;
+            scheduler.wakeUp( engine );
+            assertTrue( scheduler.getQueuedEntryCount() <= 2 * 2 + 16 + 1 );
+            engine.awaitProcessCount( processCount + 1 );
+            // let the engine be scheduled for its next regular process.
+            Thread.sleep( 2 );
+        }
+    }
+
+    public void testRemoveDynamicQuerysForHost()
+        throws Exception
+    {
+        Host leaf = new Host( new DefaultDestAddress( "1.1.1.1", 1111 ) );
+        TestEngine leafEngine = new TestEngine( leaf, 60000, 10 );
+        TestEngine localEngine = new TestEngine( Host.LOCAL_HOST, 60000, 10 );
+        scheduler.addDynamicQueryEngine( leafEngine );
+        scheduler.addDynamicQueryEngine( localEngine );
+        leafEngine.awaitProcessCount( 1 );
+        localEngine.awaitProcessCount( 1 );
+        assertEquals( 2, scheduler.getDynamicQueryCount() );
+
+        scheduler.removeDynamicQuerysForHost( leaf );
+        assertEquals( 1, scheduler.getDynamicQueryCount() );
+        scheduler.wakeUp( leafEngine );
+        scheduler.wakeUp( localEngine );
+        localEngine.awaitProcessCount( 2 );
+        Thread.sleep( 100 );
+        assertEquals( 1, leafEngine.processCount );
+    }
+
+    private void waitForCount( int count )
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while ( scheduler.getDynamicQueryCount() != count
+            && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( count, scheduler.getDynamicQueryCount() );
+    }
+
+    private static class TestEngine extends DynamicQueryEngine
+    {
+        private final long processInterval;
+        private final int maxProcessCount;
+        private volatile int processCount;
+        private volatile long nextProcessTime;
+
+        TestEngine( Host sourceHost, long processInterval, int maxProcessCount )
+        {
+            super( null, sourceHost, null, null, null );
+            this.processInterval = processInterval;
+            this.maxProcessCount = maxProcessCount;
+        }
+
+        public synchronized void processQuery()
+        {
+            processCount++;
+            nextProcessTime = System.currentTimeMillis() + processInterval;
+            notifyAll();
+        }
+
+        public boolean isQueryFinished()
+        {
+            return processCount >= maxProcessCount;
+        }
+
+        public long getNextProcessTime()
+        {
+            return nextProcessTime;
+        }
+
+        synchronized void awaitProcessCount( int count )
+            throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 5000;
+            while ( processCount < count && System.currentTimeMillis() < end )
+            {
+                wait( 100 );
+            }
+            assertTrue( processCount >= count );
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.query;
+
+import junit.framework.TestCase;
+import phex.common.URN;
+import phex.common.address.DefaultDestAddress;
+import phex.common.address.DestAddress;
+import phex.download.RemoteFile;
+import phex.msg.GUID;
+
+public class SearchResultHolderTest extends TestCase
+{
+    private static final URN URN_A = new URN( "urn:sha1:PLSTHIPQGSSZTS5FJUPAKUZWUGYQYPFB" );
+    private static final URN URN_B = new URN( "urn:sha1:QLSTHIPQGSSZTS5FJUPAKUZWUGYQYPFB" );
+
+    private SearchResultHolder holder;
+    private DestAddress address;
+    private GUID hostGUID;
+
+    protected void setUp()
+    {
+        holder = new SearchResultHolder();
+        address = new DefaultDestAddress( "1.2.3.4", 6346 );
+        hostGUID = new GUID();
+    }
+
+    public void testFindByUrn()
+    {
+        RemoteFile file = addHit( hostGUID, address, URN_A, "file.txt", 100, 1 );
+        assertSame( file, holder.findQueryHit( host( hostGUID, address ),
+            URN_A, "other.txt", 200, 2 ) );
+        assertNull( holder.findQueryHit( host( hostGUID, address ),
+            URN_B, "file.txt", 100, 1 ) );
+        assertEquals( 1, holder.getQueryHitCount() );
+    }
+
+    public void testFindByNameSizeIndex()
+    {
+        RemoteFile file = addHit( hostGUID, address, null, "file.txt", 100, 1 );
+        assertSame( file, holder.findQueryHit( host( hostGUID, address ),
+            null, "file.txt", 100, 1 ) );
+        // a urn query still matches a hit without urn
+        assertSame( file, holder.findQueryHit( host( hostGUID, address ),
+            URN_A, "file.txt", 100, 1 ) );
+        assertNull( holder.findQueryHit( host( hostGUID, address ),
+            null, "file.txt", 101, 1 ) );
+        assertNull( holder.findQueryHit( host( hostGUID, address ),
+            null, "file.txt", 100, 2 ) );
+    }
+
+    public void testFindByGuidOrAddress()
+    {
+        RemoteFile file = addHit( hostGUID, address, URN_A, "file.txt", 100, 1 );
+        DestAddress otherAddress = new DefaultDestAddress( "5.6.7.8", 6346 );
+        // same guid, changed address
+        assertSame( file, holder.findQueryHit( host( hostGUID, otherAddress ),
+            URN_A, "file.txt", 100, 1 ) );
+        // different guid, same address
+        assertSame( file, holder.findQueryHit( host( new GUID(), address ),
+            URN_A, "file.txt", 100, 1 ) );
+        // no guid, same address
+        assertSame( file, holder.findQueryHit( host( null, address ),
+            URN_A, "file.txt", 100, 1 ) );
+        assertNull( holder.findQueryHit( host( new GUID(), otherAddress ),
+            URN_A, "file.txt", 100, 1 ) );
+    }
+
+    public void testUpdateIndexesLateGuid()
+    {
+        RemoteFile file = addHit( null, address, URN_A, "file.txt", 100, 1 );
+        DestAddress otherAddress = new DefaultDestAddress( "5.6.7.8", 6346 );
+        assertNull( holder.findQueryHit( host( hostGUID, otherAddress ),
+            URN_A, "file.txt", 100, 1 ) );
+
+        holder.updateQueryHit( file, host( hostGUID, address ) );
+        assertEquals( hostGUID, file.getRemoteClientID() );
+        assertSame( file, holder.findQueryHit( host( hostGUID, otherAddress ),
+            URN_A, "file.txt", 100, 1 ) );
+    }
+
+    public void testManyHits()
+    {
+        for ( int i = 0; i < 10000; i++ )
+        {
+            addHit( hostGUID, address, null, "file" + i, i, i );
+        }
+        assertEquals( 10000, holder.getQueryHitCount() );
+        assertEquals( "file5000", holder.getQueryHit( 5000 ).getFilename() );
+        assertSame( holder.getQueryHit( 9999 ), holder.findQueryHit(
+            host( hostGUID, address ), null, "file9999", 9999, 9999 ) );
+    }
+
+    private RemoteFile addHit( GUID guid, DestAddress hostAddress, URN urn,
+        String fileName, long fileSize, int fileIndex )
+    {
+        RemoteFile file = new RemoteFile( host( guid, hostAddress ), fileIndex,
+            fileName, "", fileSize, urn, "", (short)100 );
+        holder.addQueryHit( file );
+        return file;
+    }
+
+    private static QueryHitHost host( GUID guid, DestAddress hostAddress )
+    {
+        return new QueryHitHost( null, guid, hostAddress, -1 );
+    }
+}
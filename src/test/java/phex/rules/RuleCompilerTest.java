@@ -0,0 +1,202 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.rules;
+
+import junit.framework.TestCase;
+import phex.common.MediaType;
+import phex.common.URN;
+import phex.download.RemoteFile;
+import phex.rules.condition.AndConcatCondition;
+import phex.rules.condition.Condition;
+import phex.rules.condition.FileSizeCondition;
+import phex.rules.condition.FileUrnCondition;
+import phex.rules.condition.FilenameCondition;
+import phex.rules.condition.MediaTypeCondition;
+import phex.rules.condition.NotCondition;
+import phex.rules.condition.OrConcatCondition;
+import phex.rules.condition.RegexpFilenameCondition;
+import phex.rules.consequence.RemoveFromSearchConsequence;
+
+import java.util.Random;
+
+public class RuleCompilerTest extends TestCase
+{
+    private static final String[] WORDS = { "spam", "virus", "movie", "song",
+        "mp3", "avi", "free", "exe", "zip", "Live" };
+
+    private static final URN URN_1 = new URN( "urn:sha1:PLSTHIPQGSSZTS5FJUPAKUZWUGYQYPFB" );
+    private static final URN URN_2 = new URN( "urn:sha1:MCXWBOKDVXXMCMSMGN2T35D46GNBX4WV" );
+
+    public void testFilenameTerms()
+    {
+        Rule rule = removeRule( new FilenameCondition().addTerm( "Spam" )
+            .addTerm( "virus" ) );
+        assertRemoved( rule, "free SPAM.mp3", true );
+        assertRemoved( rule, "a virus.exe", true );
+        assertRemoved( rule, "song.mp3", false );
+    }
+
+    public void testSizeIntervals()
+    {
+        FileSizeCondition condition = new FileSizeCondition( 10, 20 );
+        condition.addRange( 15, 30 );
+        condition.addRange( 100, -1 );
+        Rule rule = removeRule( condition );
+        assertRemoved( rule, "a", 9, false );
+        assertRemoved( rule, "a", 10, true );
+        assertRemoved( rule, "a", 30, true );
+        assertRemoved( rule, "a", 31, false );
+        assertRemoved( rule, "a", Long.MAX_VALUE, true );
+    }
+
+    public void testUrnAndNot()
+    {
+        Rule rule = removeRule( new NotCondition( new FileUrnCondition().addUrn( URN_1 ) ) );
+        RemoteFile file1 = file( "a", 1, URN_1 );
+        RemoteFile file2 = file( "a", 1, URN_2 );
+        RemoteFile file3 = file( "a", 1, null );
+        RuleCompiler.compile( rule ).process( null, new RemoteFile[]{ file1, file2, file3 }, null );
+        assertFalse( file1.isFilteredRemoved() );
+        assertTrue( file2.isFilteredRemoved() );
+        assertTrue( file3.isFilteredRemoved() );
+    }
+
+    public void testPlanIsImmutable()
+    {
+        FilenameCondition condition = new FilenameCondition().addTerm( "spam" );
+        Rule rule = removeRule( condition );
+        CompiledRules compiledRules = RuleCompiler.compile( rule );
+        condition.addTerm( "song" );
+        RemoteFile file = file( "song.mp3", 1, null );
+        compiledRules.process( null, new RemoteFile[]{ file }, null );
+        assertFalse( file.isFilteredRemoved() );
+    }
+
+    /**
+     * Compiled rules must decide exactly like the interpreted conditions.
+     */
+    public void testMatchesInterpretedRules()
+    {
+        Random random = new Random( 42 );
+        for ( int n = 0; n < 200; n++ )
+        {
+            Rule rule = removeRule( randomCondition( random, 3 ) );
+            if ( random.nextBoolean() )
+            {
+                rule.addCondition( randomCondition( random, 2 ) );
+            }
+            CompiledRules compiledRules = RuleCompiler.compile( rule );
+
+            RemoteFile[] interpreted = new RemoteFile[50];
+            RemoteFile[] compiled = new RemoteFile[interpreted.length];
+            for ( int i = 0; i < interpreted.length; i++ )
+            {
+                String name = WORDS[random.nextInt( WORDS.length )] + ' '
+                    + WORDS[random.nextInt( WORDS.length )] + "."
+                    + WORDS[random.nextInt( WORDS.length )];
+                long size = random.nextInt( 200 );
+                URN urn = random.nextBoolean() ? URN_1 : URN_2;
+                interpreted[i] = file( name, size, urn );
+                compiled[i] = file( name, size, urn );
+            }
+            rule.process( null, interpreted, null );
+            compiledRules.process( null, compiled, null );
+            for ( int i = 0; i < interpreted.length; i++ )
+            {
+                assertEquals( rule + " " + interpreted[i].getFilename(),
+                    interpreted[i].isFilteredRemoved(), compiled[i].isFilteredRemoved() );
+            }
+        }
+    }
+
+    private static Condition randomCondition( Random random, int depth )
+    {
+        int type = random.nextInt( depth > 0 ? 8 : 5 );
+        switch ( type )
+        {
+        case 0:
+            FilenameCondition filename = new FilenameCondition();
+            for ( int i = random.nextInt( 3 ); i >= 0; i-- )
+            {
+                filename.addTerm( WORDS[random.nextInt( WORDS.length )] );
+            }
+            return filename;
+        case 1:
+            FileSizeCondition size = new FileSizeCondition();
+            for ( int i = random.nextInt( 3 ); i >= 0; i-- )
+            {
+                size.addRange( random.nextInt( 150 ) - 20, random.nextInt( 220 ) - 20 );
+            }
+            return size;
+        case 2:
+            return new FileUrnCondition().addUrn( random.nextBoolean() ? URN_1 : URN_2 );
+        case 3:
+            return new MediaTypeCondition( random.nextBoolean()
+                ? MediaType.getAudioMediaType() : MediaType.getVideoMediaType() );
+        case 4:
+            return new RegexpFilenameCondition( ".*" + WORDS[random.nextInt( WORDS.length )]
+                + ".*", random.nextBoolean() );
+        case 5:
+            return new NotCondition( randomCondition( random, depth - 1 ) );
+        case 6:
+            AndConcatCondition and = new AndConcatCondition();
+            for ( int i = random.nextInt( 3 ); i > 0; i-- )
+            {
+                and.addCondition( randomCondition( random, depth - 1 ) );
+            }
+            return and;
+        default:
+            OrConcatCondition or = new OrConcatCondition();
+            for ( int i = random.nextInt( 3 ); i > 0; i-- )
+            {
+                or.addCondition( randomCondition( random, depth - 1 ) );
+            }
+            return or;
+        }
+    }
+
+    private static Rule removeRule( Condition condition )
+    {
+        Rule rule = new Rule();
+        rule.addCondition( condition );
+        rule.addConsequence( RemoveFromSearchConsequence.INSTANCE );
+        return rule;
+    }
+
+    private static void assertRemoved( Rule rule, String filename, boolean expected )
+    {
+        assertRemoved( rule, filename, 1, expected );
+    }
+
+    private static void assertRemoved( Rule rule, String filename, long size,
+        boolean expected )
+    {
+        RemoteFile file = file( filename, size, null );
+        RuleCompiler.compile( rule ).process( null, new RemoteFile[]{ file }, null );
+        assertEquals( filename + " " + size, expected, file.isFilteredRemoved() );
+    }
+
+    private static RemoteFile file( String filename, long size, URN urn )
+    {
+        return new RemoteFile( null, 0, filename, "", size, urn, "", (short) 100 );
+    }
+}
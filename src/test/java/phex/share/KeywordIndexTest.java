@@ -0,0 +1,160 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import junit.framework.TestCase;
+import phex.util.AccessUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class KeywordIndexTest extends TestCase
+{
+    private KeywordIndex index;
+
+    @Override
+    protected void setUp()
+    {
+        index = new KeywordIndex();
+        addFile( 0, "music", "beatles", "yesterday", "mp3" );
+        addFile( 1, "music", "beatles", "help", "mp3" );
+        addFile( 2, "music", "beach", "boys", "mp3" );
+        addFile( 3, "video", "beatles", "help", "avi" );
+        addFile( 4, "music", "stones", "mp3" );
+    }
+
+    public void testSingleTerm()
+    {
+        assertMatches( "help", 1, 3 );
+        assertMatches( "unknown" );
+    }
+
+    public void testPrefixTerm()
+    {
+        assertMatches( "bea", 0, 1, 2, 3 );
+        assertMatches( "beat", 0, 1, 3 );
+    }
+
+    public void testIntersection()
+    {
+        assertMatches( "Beatles Help", 1, 3 );
+        assertMatches( "music bea mp3", 0, 1, 2 );
+        assertMatches( "beatles stones" );
+    }
+
+    public void testDelimiters()
+    {
+        assertMatches( "  beatles_help.mp3 ", 1 );
+        assertMatches( " - " );
+    }
+
+    public void testEarlyExit()
+    {
+        final List<Integer> matches = new ArrayList<Integer>();
+        index.search( "music", new KeywordIndex.MatchCollector()
+        {
+            public boolean collect( int fileIndex )
+            {
+                matches.add( Integer.valueOf( fileIndex ) );
+                return matches.size() == 2;
+            }
+        } );
+        assertEquals( 2, matches.size() );
+    }
+
+    public void testRemove()
+    {
+        index.remove( "help", 1 );
+        assertMatches( "help", 3 );
+        index.remove( "help", 3 );
+        assertMatches( "help" );
+        assertMatches( "he" );
+    }
+
+    public void testPrefixCacheFollowsChanges()
+        throws Throwable
+    {
+        assertMatches( "bea", 0, 1, 2, 3 );
+        assertMatches( "m", 0, 1, 2, 4 );
+        Map<?, ?> prefixCache = (Map<?, ?>) AccessUtils.getFieldValue( index,
+            "prefixCache" );
+        assertEquals( 2, prefixCache.size() );
+
+        addFile( 5, "beast" );
+        // only prefixes of the changed keyword are invalidated.
+        assertFalse( prefixCache.containsKey( "bea" ) );
+        assertTrue( prefixCache.containsKey( "m" ) );
+        assertMatches( "bea", 0, 1, 2, 3, 5 );
+
+        index.remove( "beast", 5 );
+        assertMatches( "bea", 0, 1, 2, 3 );
+    }
+
+    public void testAllTermsAreEvaluated()
+    {
+        StringBuilder searchStr = new StringBuilder();
+        for ( int i = 0; i < 20; i++ )
+        {
+            searchStr.append( "music " );
+        }
+        assertMatches( searchStr.toString(), 0, 1, 2, 4 );
+        searchStr.append( "beatles" );
+        assertMatches( searchStr.toString(), 0, 1 );
+    }
+
+    public void testGallop()
+    {
+        int[] list = { 1, 3, 5, 7, 9, 11, 13, 15, 17 };
+        assertEquals( 0, KeywordIndex.gallop( list, 0, list.length, 0 ) );
+        assertEquals( 1, KeywordIndex.gallop( list, 0, list.length, 2 ) );
+        assertEquals( 4, KeywordIndex.gallop( list, 2, list.length, 9 ) );
+        assertEquals( 8, KeywordIndex.gallop( list, 3, list.length, 17 ) );
+        assertEquals( 9, KeywordIndex.gallop( list, 3, list.length, 18 ) );
+    }
+
+    private void addFile( int fileIndex, String... keywords )
+    {
+        for ( String keyword : keywords )
+        {
+            index.add( keyword, fileIndex );
+        }
+    }
+
+    private void assertMatches( String searchStr, int... expected )
+    {
+        final List<Integer> matches = new ArrayList<Integer>();
+        index.search( searchStr, new KeywordIndex.MatchCollector()
+        {
+            public boolean collect( int fileIndex )
+            {
+                matches.add( Integer.valueOf( fileIndex ) );
+                return false;
+            }
+        } );
+        assertEquals( searchStr, expected.length, matches.size() );
+        for ( int i = 0; i < expected.length; i++ )
+        {
+            assertEquals( searchStr, expected[i], matches.get( i ).intValue() );
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class SharedDirectoryWatcherTest extends TestCase
+{
+    private File dirA;
+    private File dirB;
+    private SharedDirectoryWatcher watcher;
+
+    @Override
+    protected void setUp()
+        throws IOException
+    {
+        dirA = Files.createTempDirectory( "phexWatchA" ).toFile();
+        dirB = Files.createTempDirectory( "phexWatchB" ).toFile();
+        // changes are only passed to the service when files change.
+        watcher = new SharedDirectoryWatcher( null );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        watcher.stop();
+        dirA.delete();
+        dirB.delete();
+    }
+
+    public void testWatchedDirectoriesUpdate()
+    {
+        watcher.start();
+        assertTrue( watcher.isRunning() );
+        assertTrue( watcher.updateWatchedDirectories( directories( dirA, dirB ) ) );
+        assertTrue( watcher.getUnwatchedDirectories().isEmpty() );
+        assertFalse( watcher.updateWatchedDirectories( directories( dirA, dirB ) ) );
+
+        assertTrue( watcher.updateWatchedDirectories( directories( dirA ) ) );
+        assertFalse( watcher.updateWatchedDirectories( directories( dirA ) ) );
+    }
+
+    public void testMissingDirectoryIsUnwatched()
+    {
+        watcher.start();
+        File missing = new File( dirA, "missing" );
+        assertTrue( watcher.updateWatchedDirectories( directories( dirA, missing ) ) );
+        assertEquals( Collections.singleton( missing ),
+            watcher.getUnwatchedDirectories() );
+
+        assertTrue( watcher.updateWatchedDirectories( directories( dirA ) ) );
+        assertTrue( watcher.getUnwatchedDirectories().isEmpty() );
+    }
+
+    public void testNotStartedWatchesNothing()
+    {
+        assertFalse( watcher.isRunning() );
+        watcher.updateWatchedDirectories( directories( dirA, dirB ) );
+        assertEquals( directories( dirA, dirB ), watcher.getUnwatchedDirectories() );
+    }
+
+    public void testUnwatchedDirectoryIsPolled()
+        throws IOException
+    {
+        watcher.updateWatchedDirectories( directories( dirA ) );
+        File file = new File( dirA, "file.txt" );
+        Files.write( file.toPath(), new byte[] { 1 } );
+        try
+        {
+            long now = System.currentTimeMillis();
+            Set<File> changedFiles = new HashSet<File>();
+            // the first listing reports nothing.
+            watcher.pollUnwatchedDirectories( now, changedFiles );
+            assertTrue( changedFiles.isEmpty() );
+            watcher.pollUnwatchedDirectories( now, changedFiles );
+            assertTrue( changedFiles.isEmpty() );
+
+            // a modified file is found once the directory is listed again.
+            Files.write( file.toPath(), new byte[] { 1, 2 } );
+            watcher.pollUnwatchedDirectories( now + 60 * 60 * 1000, changedFiles );
+            assertEquals( Collections.singleton( file ), changedFiles );
+
+            changedFiles.clear();
+            file.delete();
+            watcher.pollUnwatchedDirectories( now + 2 * 60 * 60 * 1000, changedFiles );
+            assertEquals( Collections.singleton( file ), changedFiles );
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private static Set<File> directories( File... dirs )
+    {
+        return new HashSet<File>( Arrays.asList( dirs ) );
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.share;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class SharedLibraryJournalTest extends TestCase
+{
+    private File journalFile;
+    private SharedLibraryJournal journal;
+
+    @Override
+    protected void setUp()
+        throws IOException
+    {
+        journalFile = File.createTempFile( "phexLibrary", ".journal" );
+        journalFile.delete();
+        journal = new SharedLibraryJournal( journalFile );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        journalFile.delete();
+    }
+
+    public void testAppendAndLoad()
+        throws IOException
+    {
+        assertFalse( journal.exists() );
+        assertTrue( journal.load().isEmpty() );
+
+        byte[] nodes = new byte[3 * SharedFileRecord.THEX_NODE_SIZE];
+        nodes[5] = 42;
+        SharedFileRecord record = new SharedFileRecord( "/music/a.mp3", 1234,
+            5678, 91011, 3, 4, "SHA1HASH", "ROOTHASH", 2, nodes,
+            Arrays.asList( "1.2.3.4:6346", "5.6.7.8:6346" ) );
+        journal.append( Collections.singletonList( record ),
+            Collections.<String>emptyList() );
+        journal.append( Collections.singletonList( record( "/music/b.mp3", 1 ) ),
+            Collections.<String>emptyList() );
+        assertEquals( 2, journal.getRecordCount() );
+
+        SharedLibraryJournal reloaded = new SharedLibraryJournal( journalFile );
+        Map<String, SharedFileRecord> records = reloaded.load();
+        assertEquals( 2, records.size() );
+        assertEquals( 2, reloaded.getRecordCount() );
+        SharedFileRecord loaded = records.get( "/music/a.mp3" );
+        assertEquals( 1234, loaded.getFileSize() );
+        assertEquals( 5678, loaded.getLastModified() );
+        assertEquals( 91011, loaded.getCreationTime() );
+        assertEquals( 3, loaded.getHitCount() );
+        assertEquals( 4, loaded.getUploadCount() );
+        assertEquals( "SHA1HASH", loaded.getSha1() );
+        assertEquals( "ROOTHASH", loaded.getThexRootHash() );
+        assertEquals( 2, loaded.getThexTreeDepth() );
+        assertTrue( Arrays.equals( nodes, loaded.getThexNodes() ) );
+        assertEquals( 3, loaded.getThexNodeList().size() );
+        assertEquals( 42, loaded.getThexNodeList().get( 0 )[5] );
+        assertEquals( record.getAltLocHosts(), loaded.getAltLocHosts() );
+
+        SharedFileRecord noThex = records.get( "/music/b.mp3" );
+        assertNull( noThex.getThexRootHash() );
+        assertNull( noThex.getThexNodes() );
+    }
+
+    public void testLastRecordWins()
+        throws IOException
+    {
+        journal.append( Arrays.asList( record( "/a", 1 ), record( "/b", 1 ) ),
+            Collections.<String>emptyList() );
+        journal.append( Collections.singletonList( record( "/a", 2 ) ),
+            Collections.singletonList( "/b" ) );
+
+        Map<String, SharedFileRecord> records = journal.load();
+        assertEquals( 1, records.size() );
+        assertEquals( 2, records.get( "/a" ).getHitCount() );
+        assertEquals( 4, journal.getRecordCount() );
+    }
+
+    public void testTruncatedRecordIsDropped()
+        throws IOException
+    {
+        journal.append( Collections.singletonList( record( "/a", 1 ) ),
+            Collections.<String>emptyList() );
+        journal.append( Collections.singletonList( record( "/b", 1 ) ),
+            Collections.<String>emptyList() );
+        RandomAccessFile raf = new RandomAccessFile( journalFile, "rw" );
+        raf.setLength( journalFile.length() - 3 );
+        raf.close();
+
+        Map<String, SharedFileRecord> records = journal.load();
+        assertEquals( 1, records.size() );
+        assertTrue( records.containsKey( "/a" ) );
+        assertTrue( journal.isCompactionRequired() );
+        try
+        {
+            journal.append( Collections.singletonList( record( "/c", 1 ) ),
+                Collections.<String>emptyList() );
+            fail( "append behind a corrupt tail" );
+        }
+        catch ( IOException exp )
+        {
+        }
+
+        // the compacted journal is appended again.
+        journal.compact( records.values() );
+        assertFalse( journal.isCompactionRequired() );
+        journal.append( Collections.singletonList( record( "/c", 1 ) ),
+            Collections.<String>emptyList() );
+        assertEquals( 2, journal.load().size() );
+        assertFalse( journal.isCompactionRequired() );
+    }
+
+    public void testCorruptRecordIsDropped()
+        throws IOException
+    {
+        journal.append( Collections.singletonList( record( "/a", 1 ) ),
+            Collections.<String>emptyList() );
+        long validLength = journalFile.length();
+        journal.append( Collections.singletonList( record( "/b", 1 ) ),
+            Collections.<String>emptyList() );
+        RandomAccessFile raf = new RandomAccessFile( journalFile, "rw" );
+        // flip a byte of the thex tree depth of the last record
+        raf.seek( journalFile.length() - 10 );
+        raf.write( 0x7F );
+        raf.close();
+
+        assertEquals( 1, journal.load().size() );
+        assertTrue( journal.isCompactionRequired() );
+        // the journal is not truncated in place.
+        assertTrue( journalFile.length() > validLength );
+    }
+
+    public void testInvalidHeaderStartsEmpty()
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( journalFile, "rw" );
+        raf.write( "<xml>garbage</xml>".getBytes( "UTF-8" ) );
+        raf.close();
+
+        assertTrue( journal.load().isEmpty() );
+        assertTrue( journal.isCompactionRequired() );
+        journal.compact( Collections.<SharedFileRecord>emptyList() );
+        journal.append( Collections.singletonList( record( "/a", 1 ) ),
+            Collections.<String>emptyList() );
+        assertEquals( 1, journal.load().size() );
+    }
+
+    public void testCompact()
+        throws IOException
+    {
+        for ( int i = 0; i < 10; i++ )
+        {
+            journal.append( Collections.singletonList( record( "/a", i ) ),
+                Collections.<String>emptyList() );
+        }
+        long uncompactedLength = journalFile.length();
+        assertEquals( 10, journal.getRecordCount() );
+
+        List<SharedFileRecord> current = new ArrayList<SharedFileRecord>();
+        current.add( record( "/a", 9 ) );
+        current.add( record( "/b", 1 ) );
+        journal.compact( current );
+        assertEquals( 2, journal.getRecordCount() );
+        assertTrue( journalFile.length() < uncompactedLength );
+        assertFalse( new File( journalFile.getAbsolutePath() + ".tmp" ).exists() );
+
+        Map<String, SharedFileRecord> records = new SharedLibraryJournal(
+            journalFile ).load();
+        assertEquals( 2, records.size() );
+        assertEquals( 9, records.get( "/a" ).getHitCount() );
+    }
+
+    private static SharedFileRecord record( String fileName, int hitCount )
+    {
+        return new SharedFileRecord( fileName, 100, 200, 300, hitCount, 0,
+            "SHA1", null, 0, null, Collections.<String>emptyList() );
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.statistic;
+
+import junit.framework.TestCase;
+
+public class MetricsRegistryTest extends TestCase
+{
+    public void testBucketBounds()
+    {
+        for ( long value = 0; value < 100000; value++ )
+        {
+            int index = LatencyHistogram.indexFor( value );
+            assertTrue( value <= LatencyHistogram.highestValueAt( index ) );
+            if ( index > 0 )
+            {
+                assertTrue( value > LatencyHistogram.highestValueAt( index - 1 ) );
+            }
+        }
+        assertEquals( LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValueAt(
+            LatencyHistogram.indexFor( LatencyHistogram.MAX_VALUE ) ) );
+    }
+
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for ( int i = 1; i <= 1000; i++ )
+        {
+            histogram.record( i );
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals( 1000, snapshot.getCount() );
+        assertEquals( 500.5, snapshot.getMean(), 0.001 );
+        assertEquals( 1000, snapshot.getMax() );
+        assertWithinPrecision( 500, snapshot.getValueAtPercentile( 50 ) );
+        assertWithinPrecision( 990, snapshot.getValueAtPercentile( 99 ) );
+        assertEquals( 1000, snapshot.getValueAtPercentile( 100 ) );
+        assertEquals( 0, new LatencyHistogram().snapshot().getValueAtPercentile( 50 ) );
+    }
+
+    public void testSnapshotDifference()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record( 10 );
+        LatencyHistogram.Snapshot first = histogram.snapshot();
+        histogram.record( 5000 );
+        histogram.record( 5000 );
+        LatencyHistogram.Snapshot diff = histogram.snapshot().minus( first );
+        assertEquals( 2, diff.getCount() );
+        assertEquals( 5000.0, diff.getMean(), 0.001 );
+        assertWithinPrecision( 5000, diff.getValueAtPercentile( 1 ) );
+    }
+
+    public void testRateWindow()
+    {
+        RateWindow window = new RateWindow( 3 );
+        assertEquals( 0.0, window.getRatePerSecond(), 0.0 );
+        window.sample( 0, 1000 );
+        window.sample( 10, 2000 );
+        window.sample( 30, 3000 );
+        assertEquals( 15.0, window.getRatePerSecond(), 0.001 );
+        // the oldest sample drops out of the window.
+        window.sample( 100, 4000 );
+        assertEquals( 45.0, window.getRatePerSecond(), 0.001 );
+        long[] deltas = window.getDeltas();
+        assertEquals( 2, deltas.length );
+        assertEquals( 20, deltas[0] );
+        assertEquals( 70, deltas[1] );
+    }
+
+    public void testSnapshot()
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        SimpleStatisticProvider counter = new SimpleStatisticProvider();
+        registry.registerCounter( "Counter", counter );
+        registry.registerGauge( "Gauge", () -> 42 );
+        registry.getHistogram( "Latency" ).record( 100 );
+
+        registry.sample( 1000 );
+        counter.increment( 5 );
+        registry.sample( 2000 );
+
+        MetricsSnapshot snapshot = registry.snapshot();
+        assertEquals( Long.valueOf( 5 ), snapshot.getCounters().get( "Counter" ) );
+        assertEquals( 5.0, snapshot.getRates().get( "Counter" ).doubleValue(), 0.001 );
+        assertEquals( Long.valueOf( 42 ), snapshot.getGauges().get( "Gauge" ) );
+        assertEquals( 1, snapshot.getHistograms().get( "Latency" ).getCount() );
+        // no window completed yet.
+        assertEquals( 0, snapshot.getWindowHistograms().get( "Latency" ).getCount() );
+    }
+
+    public void testConcurrentIncrements() throws Exception
+    {
+        final SimpleStatisticProvider counter = new SimpleStatisticProvider();
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread( () -> {
+                for ( int j = 0; j < 10000; j++ )
+                {
+                    counter.increment( 1 );
+                    histogram.record( j );
+                }
+            } );
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( 40000, counter.longValue() );
+        assertEquals( 40000, histogram.snapshot().getCount() );
+        assertEquals( 9999, histogram.snapshot().getMax() );
+    }
+
+    private static void assertWithinPrecision( long expected, long actual )
+    {
+        assertTrue( "expected ~" + expected + " but was " + actual,
+            Math.abs( actual - expected ) <= expected / 16 + 1 );
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.thex;
+
+import junit.framework.TestCase;
+import phex.util.bitzi.TigerTree;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class FileHashCalculatorTest extends TestCase
+{
+    private final List<File> files = new ArrayList<File>();
+
+    @Override
+    protected void tearDown()
+    {
+        for ( File file : files )
+        {
+            file.delete();
+        }
+    }
+
+    public void testEmptyFile()
+        throws Exception
+    {
+        File file = createFile( 0 );
+        FileHashCalculator.Result result = new FileHashCalculator().calculate(
+            file, true, true );
+        assertTrue( Arrays.equals( sha1( new byte[0] ), result.getSha1() ) );
+        assertNull( result.getThexData() );
+    }
+
+    public void testSingleLeafFile()
+        throws Exception
+    {
+        assertHashes( new FileHashCalculator(), 1000 );
+        assertHashes( new FileHashCalculator(), 1024 );
+    }
+
+    public void testSequentialFiles()
+        throws Exception
+    {
+        FileHashCalculator calculator = new FileHashCalculator();
+        assertHashes( calculator, 300 * 1024 + 17 );
+        assertHashes( calculator, 3 * 1024 * 1024 );
+        assertHashes( calculator, 5 * 1024 * 1024 + 333 );
+    }
+
+    public void testParallelLeaves()
+        throws Exception
+    {
+        ForkJoinPool pool = new ForkJoinPool( 3 );
+        try
+        {
+            FileHashCalculator calculator = new FileHashCalculator( null, pool );
+            // nodes smaller and larger than the read chunk
+            assertHashes( calculator, 17 * 1024 * 1024 + 4321 );
+            assertHashes( calculator, 40 * 1024 * 1024 );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testNodesLargerThanChunk()
+        throws Exception
+    {
+        FileHashCalculator calculator = new FileHashCalculator( null, null,
+            64 * 1024, 64 * 1024 );
+        assertHashes( calculator, 3 * 1024 * 1024 + 99 );
+        ForkJoinPool pool = new ForkJoinPool( 2 );
+        try
+        {
+            calculator = new FileHashCalculator( null, pool, 64 * 1024,
+                128 * 1024 );
+            assertHashes( calculator, 20 * 1024 * 1024 + 1 );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    public void testRequestedHashesOnly()
+        throws Exception
+    {
+        File file = createFile( 100 * 1024 );
+        FileHashCalculator calculator = new FileHashCalculator();
+        FileHashCalculator.Result result = calculator.calculate( file, true, false );
+        assertNotNull( result.getSha1() );
+        assertNull( result.getThexData() );
+        result = calculator.calculate( file, false, true );
+        assertNull( result.getSha1() );
+        assertNotNull( result.getThexData() );
+    }
+
+    private void assertHashes( FileHashCalculator calculator, int size )
+        throws IOException
+    {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        File file = writeFile( data );
+
+        FileHashCalculator.Result result = calculator.calculate( file, true, true );
+        assertTrue( Arrays.equals( sha1( data ), result.getSha1() ) );
+
+        ShareFileThexData expected = referenceThexData( data );
+        ShareFileThexData thexData = result.getThexData();
+        assertEquals( expected.getRootHash(), thexData.getRootHash() );
+        assertEquals( expected.getTreeDepth(), thexData.getTreeDepth() );
+        assertEquals( expected.getXJBLowestLevelNodes(),
+            thexData.getXJBLowestLevelNodes() );
+
+        // the root of the tree over the whole file is the same.
+        TigerTree fullTree = new TigerTree();
+        fullTree.update( data, 0, data.length );
+        assertEquals( new ShareFileThexData( fullTree.digest(),
+            new ArrayList<byte[]>(), 0 ).getRootHash(), thexData.getRootHash() );
+    }
+
+    /**
+     * Calculates the THEX data the way it was done before, one leaf after
+     * the other over a separate read of the data.
+     */
+    private static ShareFileThexData referenceThexData( byte[] data )
+    {
+        int levels = TTHashCalcUtils.getTreeLevels( data.length );
+        int nodeSize = TTHashCalcUtils.getTreeNodeSize( data.length, levels );
+        List<byte[]> nodes = new ArrayList<byte[]>();
+        for ( int pos = 0; pos < data.length; pos += nodeSize )
+        {
+            TigerTree digest = new TigerTree();
+            digest.update( data, pos, Math.min( nodeSize, data.length - pos ) );
+            nodes.add( digest.digest() );
+        }
+        List<List<byte[]>> merkleTreeNodes =
+            TTHashCalcUtils.calculateMerkleParentNodes( nodes );
+        return new ShareFileThexData( merkleTreeNodes.get( 0 ).get( 0 ), nodes,
+            merkleTreeNodes.size() - 1 );
+    }
+
+    private static byte[] sha1( byte[] data )
+        throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-1" ).digest( data );
+        }
+        catch ( Exception exp )
+        {
+            throw new IOException( exp );
+        }
+    }
+
+    private File createFile( int size )
+        throws IOException
+    {
+        return writeFile( new byte[size] );
+    }
+
+    private File writeFile( byte[] data )
+        throws IOException
+    {
+        File file = File.createTempFile( "hashcalc", ".tmp" );
+        files.add( file );
+        FileOutputStream outStream = new FileOutputStream( file );
+        try
+        {
+            outStream.write( data );
+        }
+        finally
+        {
+            outStream.close();
+        }
+        return file;
+    }
+}
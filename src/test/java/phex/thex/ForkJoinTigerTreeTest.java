@@ -0,0 +1,181 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.thex;
+
+import junit.framework.TestCase;
+import phex.util.bitzi.TigerTree;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class ForkJoinTigerTreeTest extends TestCase
+{
+    private static final int[] SIZES = { 0, 1, 1023, 1024, 1025, 2048, 3 * 1024 + 5,
+        128 * 1024, 128 * 1024 + 1, 129 * 1024, 300 * 1024 + 7, 1024 * 1024,
+        2 * 1024 * 1024 + 3 * 1024 + 11 };
+
+    private ForkJoinPool pool;
+    private ForkJoinTigerTree parallelTree;
+    private ForkJoinTigerTree sequentialTree;
+
+    @Override
+    protected void setUp()
+    {
+        pool = new ForkJoinPool( 4 );
+        parallelTree = new ForkJoinTigerTree( pool );
+        sequentialTree = new ForkJoinTigerTree( null );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    public void testRootMatchesTigerTree()
+    {
+        for ( int size : SIZES )
+        {
+            byte[] data = randomData( size );
+            byte[] expected = tigerTree( data, 0, size );
+            assertTrue( "size " + size, Arrays.equals( expected,
+                parallelTree.calculateRoot( data, 0, size ) ) );
+            assertTrue( "size " + size, Arrays.equals( expected,
+                sequentialTree.calculateRoot( data, 0, size ) ) );
+        }
+    }
+
+    public void testRootOfRange()
+    {
+        byte[] data = randomData( 600 * 1024 );
+        int offset = 17;
+        int length = 500 * 1024 + 3;
+        assertTrue( Arrays.equals( tigerTree( data, offset, length ),
+            parallelTree.calculateRoot( data, offset, length ) ) );
+    }
+
+    public void testStreamRoot()
+        throws IOException
+    {
+        for ( int size : SIZES )
+        {
+            byte[] data = randomData( size );
+            byte[] root = parallelTree.calculateRoot(
+                new ByteArrayInputStream( data ), size );
+            assertTrue( "size " + size, Arrays.equals( tigerTree( data, 0, size ),
+                root ) );
+        }
+        // only the given length is hashed
+        byte[] data = randomData( 5 * 1024 * 1024 );
+        int length = 3 * 1024 * 1024 + 100;
+        byte[] root = parallelTree.calculateRoot( new ByteArrayInputStream( data ),
+            length );
+        assertTrue( Arrays.equals( tigerTree( data, 0, length ), root ) );
+    }
+
+    public void testStreamTooShort()
+    {
+        try
+        {
+            parallelTree.calculateRoot( new ByteArrayInputStream( new byte[10] ), 11 );
+            fail( "IOException expected" );
+        }
+        catch ( IOException exp )
+        {
+        }
+    }
+
+    public void testNodes()
+    {
+        byte[] data = randomData( 5 * 1024 * 1024 + 777 );
+        int nodeSize = 64 * 1024;
+        List<byte[]> nodes = parallelTree.calculateNodes( data, 0, data.length,
+            nodeSize );
+        assertEquals( 81, nodes.size() );
+        for ( int i = 0; i < nodes.size(); i++ )
+        {
+            int offset = i * nodeSize;
+            byte[] expected = tigerTree( data, offset,
+                Math.min( nodeSize, data.length - offset ) );
+            assertTrue( "node " + i, Arrays.equals( expected, nodes.get( i ) ) );
+        }
+    }
+
+    public void testMerkleTreeSerialization()
+        throws IOException
+    {
+        for ( int nodeCount : new int[] { 1, 2, 3, 7, 8, 513, 2048 } )
+        {
+            List<byte[]> nodes = new ArrayList<byte[]>();
+            Random random = new Random( nodeCount );
+            for ( int i = 0; i < nodeCount; i++ )
+            {
+                byte[] node = new byte[24];
+                random.nextBytes( node );
+                nodes.add( node );
+            }
+            List<List<byte[]>> expected =
+                TTHashCalcUtils.calculateMerkleParentNodes( nodes );
+            assertEquals( "nodes " + nodeCount, serialize( expected ),
+                serialize( parallelTree.calculateMerkleTree( nodes ) ) );
+            assertEquals( "nodes " + nodeCount, serialize( expected ),
+                serialize( sequentialTree.calculateMerkleTree( nodes ) ) );
+            assertTrue( Arrays.equals( expected.get( 0 ).get( 0 ),
+                ForkJoinTigerTree.combineRoots( nodes ) ) );
+        }
+    }
+
+    private static String serialize( List<List<byte[]>> rows )
+        throws IOException
+    {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        for ( List<byte[]> row : rows )
+        {
+            outStream.write( '|' );
+            for ( byte[] node : row )
+            {
+                outStream.write( node );
+            }
+        }
+        return Arrays.toString( outStream.toByteArray() );
+    }
+
+    private static byte[] tigerTree( byte[] data, int offset, int length )
+    {
+        TigerTree digest = new TigerTree();
+        digest.update( data, offset, length );
+        return digest.digest();
+    }
+
+    private static byte[] randomData( int size )
+    {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        return data;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.util;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class AhoCorasickMatcherTest extends TestCase
+{
+    public void testFindsAllPatterns()
+    {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher.Builder( false )
+            .addPattern( "he", 0 )
+            .addPattern( "she", 1 )
+            .addPattern( "his", 2 )
+            .addPattern( "hers", 3 )
+            .build();
+        boolean[] found = new boolean[4];
+        assertEquals( 3, matcher.match( "ushers", found ) );
+        assertTrue( found[0] );
+        assertTrue( found[1] );
+        assertFalse( found[2] );
+        assertTrue( found[3] );
+    }
+
+    public void testOverlappingPatternsAndFailures()
+    {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher.Builder( false )
+            .addPattern( "aab", 0 )
+            .addPattern( "ab", 1 )
+            .addPattern( "bab", 2 )
+            .build();
+        boolean[] found = new boolean[3];
+        matcher.match( "aaab", found );
+        assertTrue( found[0] );
+        assertTrue( found[1] );
+        assertFalse( found[2] );
+
+        found = new boolean[3];
+        assertEquals( 0, matcher.match( "aaaa", found ) );
+        assertFalse( found[0] || found[1] || found[2] );
+    }
+
+    public void testIgnoreCase()
+    {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher.Builder( true )
+            .addPattern( "Spam", 0 )
+            .build();
+        boolean[] found = new boolean[1];
+        matcher.match( "NO-SPAM.mp3", found );
+        assertTrue( found[0] );
+
+        matcher = new AhoCorasickMatcher.Builder( false )
+            .addPattern( "Spam", 0 )
+            .build();
+        found = new boolean[1];
+        matcher.match( "NO-SPAM.mp3", found );
+        assertFalse( found[0] );
+    }
+
+    public void testSharedIds()
+    {
+        AhoCorasickMatcher matcher = new AhoCorasickMatcher.Builder( true )
+            .addPattern( "foo", 0 )
+            .addPattern( "bar", 0 )
+            .addPattern( "baz", 1 )
+            .build();
+        boolean[] found = new boolean[2];
+        matcher.match( "a bar", found );
+        assertTrue( found[0] );
+        assertFalse( found[1] );
+    }
+
+    public void testMatchesLikeContains()
+    {
+        Random random = new Random( 17 );
+        String[] patterns = new String[50];
+        AhoCorasickMatcher.Builder builder = new AhoCorasickMatcher.Builder( false );
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            patterns[i] = randomString( random, 1 + random.nextInt( 4 ) );
+            builder.addPattern( patterns[i], i );
+        }
+        AhoCorasickMatcher matcher = builder.build();
+        for ( int n = 0; n < 1000; n++ )
+        {
+            String text = randomString( random, random.nextInt( 30 ) );
+            boolean[] found = new boolean[patterns.length];
+            matcher.match( text, found );
+            for ( int i = 0; i < patterns.length; i++ )
+            {
+                assertEquals( text + " / " + patterns[i], text.contains( patterns[i] ), found[i] );
+            }
+        }
+    }
+
+    private static String randomString( Random random, int length )
+    {
+        StringBuilder builder = new StringBuilder();
+        for ( int i = 0; i < length; i++ )
+        {
+            builder.append( (char) ( 'a' + random.nextInt( 3 ) ) );
+        }
+        return builder.toString();
+    }
+}
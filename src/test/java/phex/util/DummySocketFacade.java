@@ -30,6 +30,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.SocketException;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
 
 public class DummySocketFacade implements SocketFacade
 {
@@ -63,6 +64,11 @@ public class DummySocketFacade implements SocketFacade
     {
     }
 
+    public SocketChannel getSocketChannel()
+    {
+        return null;
+    }
+
     public ByteChannel getChannel() throws IOException
     {
         if ( channel == null )
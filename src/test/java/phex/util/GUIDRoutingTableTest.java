@@ -0,0 +1,226 @@
+/*
+ *  PHEX - The pure-java Gnutella-servent.
+ *  Copyright (C) 2001 - 2012 Phex Development Group
+ *
+ *  This program is free software; you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation; either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ * 
+ *  --- SVN Information ---
+ *  $Id$
+ */
+package phex.util;
+
+import junit.framework.TestCase;
+import phex.host.Host;
+import phex.msg.GUID;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+public class GUIDRoutingTableTest extends TestCase
+{
+    private long time;
+
+    public void testCheckAndAddRouting()
+    {
+        GUIDRoutingTable table = new GUIDRoutingTable( 1000, 1024 );
+        GUID guid = new GUID();
+        assertTrue( table.checkAndAddRouting( guid, Host.LOCAL_HOST ) );
+        assertFalse( table.checkAndAddRouting( guid, Host.LOCAL_HOST ) );
+        assertSame( Host.LOCAL_HOST, table.findRouting( guid ) );
+        assertNull( table.findRouting( new GUID() ) );
+    }
+
+    public void testRoutingExpires()
+    {
+        time = 10000;
+        GUIDRoutingTable table = new TimedRoutingTable( 1000 );
+        GUID guid = new GUID();
+        assertTrue( table.checkAndAddRouting( guid, Host.LOCAL_HOST ) );
+        time += 999;
+        assertSame( Host.LOCAL_HOST, table.findRouting( guid ) );
+        time += 1;
+        assertNull( table.findRouting( guid ) );
+        // an expired routing can be added again.
+        assertTrue( table.checkAndAddRouting( guid, Host.LOCAL_HOST ) );
+    }
+
+    public void testAddRoutingRenews()
+    {
+        time = 10000;
+        GUIDRoutingTable table = new TimedRoutingTable( 1000 );
+        GUID guid = new GUID();
+        table.addRouting( guid, Host.LOCAL_HOST );
+        time += 600;
+        table.addRouting( guid, Host.LOCAL_HOST );
+        time += 600;
+        assertSame( Host.LOCAL_HOST, table.findRouting( guid ) );
+    }
+
+    public void testRemoveHost()
+    {
+        GUIDRoutingTable table = new GUIDRoutingTable( 1000, 1024 );
+        GUID guid = new GUID();
+        table.checkAndAddRouting( guid, Host.LOCAL_HOST );
+        table.removeHost( Host.LOCAL_HOST );
+        assertNull( table.findRouting( guid ) );
+        // the GUID is still known as routed.
+        assertFalse( table.checkAndAddRouting( guid, Host.LOCAL_HOST ) );
+    }
+
+    public void testFullTableReplacesOldest()
+    {
+        time = 10000;
+        GUIDRoutingTable table = new TimedRoutingTable( 100000 );
+        GUID first = new GUID();
+        table.checkAndAddRouting( first, Host.LOCAL_HOST );
+        for ( int i = 0; i < table.getCapacity() * 2; i++ )
+        {
+            time++;
+            assertTrue( table.checkAndAddRouting( new GUID(), Host.LOCAL_HOST ) );
+        }
+        assertNull( table.findRouting( first ) );
+    }
+
+    public void testQueryRoutingCountsResults()
+    {
+        QueryGUIDRoutingTable table = new QueryGUIDRoutingTable( 1000, 1024 );
+        GUID guid = new GUID();
+        table.checkAndAddRouting( guid, Host.LOCAL_HOST );
+        assertEquals( 0, table.findRoutingForQuerys( guid, 10 ).getRoutedResultCount() );
+        assertEquals( 10, table.findRoutingForQuerys( guid, 5 ).getRoutedResultCount() );
+        assertNull( table.findRoutingForQuerys( new GUID(), 5 ) );
+    }
+
+    public void testQueryRoutingNotifiesResultCount()
+    {
+        QueryGUIDRoutingTable table = new QueryGUIDRoutingTable( 1000, 1024 );
+        GUID guid = new GUID();
+        table.checkAndAddRouting( guid, Host.LOCAL_HOST );
+        final AtomicInteger resultCount = new AtomicInteger();
+        assertTrue( table.setResultCountListener( guid, new IntConsumer()
+        {
+            public void accept( int count )
+            {
+                resultCount.addAndGet( count );
+            }
+        } ) );
+        assertFalse( table.setResultCountListener( new GUID(), null ) );
+
+        table.findRoutingForQuerys( guid, 0 );
+        table.findRoutingForQuerys( guid, 7 );
+        table.findRoutingForQuerys( guid, 3 );
+        assertEquals( 10, resultCount.get() );
+    }
+
+    public void testConcurrentCheckAndAddRouting()
+        throws Exception
+    {
+        final GUIDRoutingTable table = new GUIDRoutingTable( 60000, 4096 );
+        final GUID[] guids = new GUID[2000];
+        for ( int i = 0; i < guids.length; i++ )
+        {
+            guids[i] = new GUID();
+        }
+        final AtomicInteger addCount = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch( 1 );
+        Thread[] threads = new Thread[4];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        startLatch.await();
+                    }
+                    catch ( InterruptedException exp )
+                    {
+                        return;
+                    }
+                    for ( int j = 0; j < guids.length; j++ )
+                    {
+                        if ( table.checkAndAddRouting( guids[j], Host.LOCAL_HOST ) )
+                        {
+                            addCount.incrementAndGet();
+                        }
+                    }
+                }
+            } );
+            threads[i].start();
+        }
+        startLatch.countDown();
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i].join();
+        }
+        assertEquals( guids.length, addCount.get() );
+    }
+
+    public void testSameStampDuplicateKeepsLowerSlot()
+        throws Throwable
+    {
+        GUIDRoutingTable table = new GUIDRoutingTable( 60000, 1024 );
+        GUID guid = new GUID();
+        assertTrue( table.checkAndAddRouting( guid, Host.LOCAL_HOST ) );
+
+        // simulate a concurrent add of the same GUID in the same millisecond
+        // that claimed the following slot.
+        byte[] bytes = guid.getGuid();
+        Long high = Long.valueOf( IOUtil.deserializeLongLE( bytes, 0, 8 ) );
+        Long low = Long.valueOf( IOUtil.deserializeLongLE( bytes, 8, 8 ) );
+        Integer index = (Integer) AccessUtils.invokeMethod( table, "indexFor",
+            new Object[] { high, low }, new Class[] { long.class, long.class } );
+        int slot = index.intValue();
+        AtomicLongArray stamps = (AtomicLongArray) AccessUtils.getFieldValue(
+            table, "stamps" );
+        long[] guidHigh = (long[]) AccessUtils.getFieldValue( table, "guidHigh" );
+        long[] guidLow = (long[]) AccessUtils.getFieldValue( table, "guidLow" );
+        long stamp = stamps.get( slot );
+        assertTrue( stamp > 1 );
+        int mask = ( (Integer) AccessUtils.getFieldValue( table, "mask" ) ).intValue();
+        int otherSlot = ( slot + 1 ) & mask;
+        guidHigh[otherSlot] = high.longValue();
+        guidLow[otherSlot] = low.longValue();
+        stamps.set( otherSlot, stamp );
+
+        Class[] types = { int.class, int.class, long.class, long.class, long.class };
+        Boolean isOwnReleased = (Boolean) AccessUtils.invokeMethod( table,
+            "hasOtherLiveSlot", new Object[] { index, Integer.valueOf( slot ), high,
+            low, Long.valueOf( stamp ) }, types );
+        Boolean isOtherReleased = (Boolean) AccessUtils.invokeMethod( table,
+            "hasOtherLiveSlot", new Object[] { index, Integer.valueOf( otherSlot ),
+            high, low, Long.valueOf( stamp ) }, types );
+        // exactly one of both adds must give up its slot.
+        assertTrue( isOwnReleased.booleanValue() != isOtherReleased.booleanValue() );
+        assertEquals( otherSlot > slot, isOtherReleased.booleanValue() );
+    }
+
+    private class TimedRoutingTable extends GUIDRoutingTable
+    {
+        TimedRoutingTable( long lifetime )
+        {
+            super( lifetime, 64 );
+        }
+
+        @Override
+        protected long currentTime()
+        {
+            return time;
+        }
+    }
+}